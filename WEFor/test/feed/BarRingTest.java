@@ -0,0 +1,137 @@
+package feed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import com.dukascopy.api.IBar;
+
+import forex.Bar;
+import forex.BarBlock;
+import forex.ForexException;
+
+// @formatter:off
+/**
+ * Tests BarRing against queues of ask and bid bars, with random appends and
+ * removals making the ring wrap around and grow while wrapped, and tests that
+ * incoherent ask and bid bars are rejected without appending anything.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java feed.BarRingTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class BarRingTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		BarRing ring = new BarRing(0);
+		ArrayDeque<IBar> askQueue = new ArrayDeque<IBar>();
+		ArrayDeque<IBar> bidQueue = new ArrayDeque<IBar>();
+
+		check(ring.isEmpty(), "new ring isn't empty");
+
+		long time = 0;
+		for (int step = 0; step < 5000; step++) {
+			if (random.nextInt(3) == 0) {
+				// appended as lists or as blocks
+				int n = random.nextInt(step % 500 == 0 ? 100 : 10);
+				ArrayList<IBar> askBars = new ArrayList<IBar>();
+				ArrayList<IBar> bidBars = new ArrayList<IBar>();
+				for (int i = 0; i < n; i++) {
+					time += 10;
+					askBars.add(randomBar(time));
+					bidBars.add(randomBar(time));
+				}
+
+				if (random.nextBoolean())
+					ring.addAll(askBars, bidBars);
+				else
+					ring.addAll(BarBlock.of(askBars), BarBlock.of(bidBars));
+
+				askQueue.addAll(askBars);
+				bidQueue.addAll(bidBars);
+			} else if (!askQueue.isEmpty()) {
+				checkBar(ring.firstAskBar(), askQueue.removeFirst(), "first ask bar");
+				checkBar(ring.firstBidBar(), bidQueue.removeFirst(), "first bid bar");
+
+				ring.removeFirst();
+			}
+
+			checkAgainst(ring, askQueue);
+		}
+
+		testIncoherent(ring, askQueue);
+
+		ring.clear();
+		check(ring.isEmpty() && ring.size() == 0, "cleared ring isn't empty");
+
+		System.out.println("BarRingTest passed.");
+	}
+
+	private static void testIncoherent(BarRing ring, ArrayDeque<IBar> askQueue) {
+		long time = askQueue.isEmpty() ? 0 : askQueue.peekLast().getTime();
+
+		ArrayList<IBar> askBars = new ArrayList<IBar>();
+		ArrayList<IBar> bidBars = new ArrayList<IBar>();
+		askBars.add(randomBar(time + 10));
+		askBars.add(randomBar(time + 20));
+		bidBars.add(randomBar(time + 10));
+		bidBars.add(randomBar(time + 30));
+
+		try {
+			ring.addAll(askBars, bidBars);
+			throw new AssertionError("bars of different times appended");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+
+		bidBars.remove(1);
+		try {
+			ring.addAll(askBars, bidBars);
+			throw new AssertionError("bars of different numbers appended");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+	}
+
+	private static IBar randomBar(long time) {
+		return new Bar(time, random.nextDouble(), random.nextDouble(), random.nextDouble(),
+				random.nextDouble(), random.nextInt(100));
+	}
+
+	private static void checkAgainst(BarRing ring, ArrayDeque<IBar> askQueue) {
+		check(ring.size() == askQueue.size(), "size " + ring.size() + ", expected "
+				+ askQueue.size());
+		check(ring.isEmpty() == askQueue.isEmpty(), "isEmpty");
+
+		if (askQueue.isEmpty())
+			return;
+
+		check(ring.firstTime() == askQueue.peekFirst().getTime(), "first time");
+		check(ring.lastTime() == askQueue.peekLast().getTime(), "last time");
+
+		Iterator<IBar> it = askQueue.iterator();
+		for (int i = 0; i < ring.size(); i++)
+			check(ring.time(i) == it.next().getTime(), "time of bar " + i);
+	}
+
+	private static void checkBar(IBar actual, IBar expected, String what) {
+		check(actual.getTime() == expected.getTime()
+				&& actual.getOpen() == expected.getOpen()
+				&& actual.getClose() == expected.getClose()
+				&& actual.getHigh() == expected.getHigh()
+				&& actual.getLow() == expected.getLow()
+				&& actual.getVolume() == expected.getVolume(), what + " is " + actual
+				+ ", expected " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
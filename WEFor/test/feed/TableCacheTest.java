@@ -0,0 +1,213 @@
+package feed;
+
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+import forex.BarBlock;
+import forex.RangeTree;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * Tests the segmented least recently used eviction of TableCache: tables
+ * requested once are evicted before tables requested again, the protected
+ * segment is bounded, and tables are evicted in least recently used order
+ * within each segment. Invalidation by instrument and the keys of ticks, bars
+ * and range trees are tested as well.
+ *
+ * Every table cached is an empty bar table, so the capacity is given in
+ * tables, see TABLE.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java feed.TableCacheTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class TableCacheTest {
+
+	// the weight of an empty table
+	private static final long TABLE = 128;
+
+	private static final Instrument INSTRUMENT = Instrument.EURUSD;
+	private static final Instrument OTHER_INSTRUMENT = Instrument.USDJPY;
+	private static final Period PERIOD = Period.TEN_SECS;
+
+	private static final TableCache cache = TableCache.getInstance();
+
+	public static void main(String[] args) {
+		testEvictsEldest();
+		testScanResistance();
+		testProtectedBound();
+		testProtectedOrder();
+		testInvalidate();
+		testKeys();
+		testTooLarge();
+
+		System.out.println("TableCacheTest passed.");
+	}
+
+	/**
+	 * Empties the cache and sets its capacity to given number of tables.
+	 */
+	private static void reset(int tables) {
+		cache.clear();
+		cache.setCapacity(tables * TABLE);
+	}
+
+	private static void put(Instrument instrument, int table) {
+		cache.putBars(instrument, PERIOD, OfferSide.ASK, table, new BarBlock(0));
+	}
+
+	private static void put(int table) {
+		put(INSTRUMENT, table);
+	}
+
+	private static boolean get(Instrument instrument, int table) {
+		return cache.getBars(instrument, PERIOD, OfferSide.ASK, table) != null;
+	}
+
+	private static boolean get(int table) {
+		return get(INSTRUMENT, table);
+	}
+
+	private static void testEvictsEldest() {
+		reset(10);
+
+		long evictions = cache.getEvictions();
+
+		for (int i = 0; i < 11; i++)
+			put(i);
+
+		check(cache.getTables() == 10, "tables " + cache.getTables() + ", expected 10");
+		check(cache.getWeight() == 10 * TABLE, "weight " + cache.getWeight());
+		check(cache.getEvictions() == evictions + 1, "evictions "
+				+ (cache.getEvictions() - evictions) + ", expected 1");
+		check(!get(0), "eldest table not evicted");
+		check(get(1) && get(10), "tables evicted other than the eldest");
+	}
+
+	private static void testScanResistance() {
+		reset(10);
+
+		put(100);
+		put(101);
+		check(get(100) && get(101), "tables not cached");
+
+		// a scan through tables requested once
+		for (int i = 0; i < 30; i++)
+			put(i);
+
+		check(cache.getTables() == 10, "tables " + cache.getTables() + ", expected 10");
+		check(get(100) && get(101), "tables requested again evicted by a scan");
+		check(get(29), "last table of the scan not cached");
+		check(!get(0), "first table of the scan not evicted");
+	}
+
+	private static void testProtectedBound() {
+		reset(10);
+
+		// the protected segment holds at most 8 of 10 tables, the 2 promoted
+		// first are demoted
+		for (int i = 0; i < 10; i++)
+			put(i);
+		for (int i = 0; i < 10; i++)
+			check(get(i), "table " + i + " not cached");
+
+		// evicts the table demoted first
+		put(10);
+
+		check(cache.getTables() == 10, "tables " + cache.getTables() + ", expected 10");
+		check(!get(0), "table demoted first not evicted");
+		for (int i = 1; i <= 10; i++)
+			check(get(i), "table " + i + " evicted");
+	}
+
+	private static void testProtectedOrder() {
+		reset(10);
+
+		for (int i = 0; i < 8; i++) {
+			put(i);
+			check(get(i), "table " + i + " not cached");
+		}
+
+		// table 0 requested again, so table 1 is the least recently used
+		check(get(0), "table 0 not cached");
+
+		put(8);
+		check(get(8), "table 8 not cached");
+
+		// table 1, demoted, is evicted before the tables put after it
+		put(20);
+		put(21);
+
+		check(!get(1), "least recently used protected table not evicted");
+		check(get(0), "recently used protected table evicted");
+		check(get(20) && get(21), "tables put last evicted");
+	}
+
+	private static void testInvalidate() {
+		reset(10);
+
+		for (int i = 0; i < 3; i++) {
+			put(INSTRUMENT, i);
+			put(OTHER_INSTRUMENT, i);
+		}
+		check(get(INSTRUMENT, 0), "table not cached");
+
+		cache.stored(INSTRUMENT);
+
+		check(cache.getTables() == 3, "tables " + cache.getTables() + ", expected 3");
+		check(cache.getWeight() == 3 * TABLE, "weight " + cache.getWeight());
+		for (int i = 0; i < 3; i++) {
+			check(!get(INSTRUMENT, i), "table " + i + " of stored instrument not dropped");
+			check(get(OTHER_INSTRUMENT, i), "table " + i + " of other instrument dropped");
+		}
+	}
+
+	private static void testKeys() {
+		reset(10);
+
+		cache.putTicks(INSTRUMENT, 0, new TickBlock(0));
+		cache.putBars(INSTRUMENT, PERIOD, OfferSide.ASK, 0, new BarBlock(0));
+		cache.putBars(INSTRUMENT, PERIOD, OfferSide.BID, 0, new BarBlock(0));
+		cache.putTree(INSTRUMENT, PERIOD, OfferSide.ASK, 0, new RangeTree(0));
+
+		check(cache.getTables() == 4, "tables " + cache.getTables() + ", expected 4");
+		check(cache.getTicks(INSTRUMENT, 0) != null, "ticks not cached");
+		check(cache.getBars(INSTRUMENT, PERIOD, OfferSide.BID, 0) != null,
+				"bid bars not cached");
+		check(cache.getTree(INSTRUMENT, PERIOD, OfferSide.ASK, 0) != null,
+				"tree not cached");
+		check(cache.getTree(INSTRUMENT, PERIOD, OfferSide.BID, 0) == null,
+				"tree of other offer side cached");
+		check(cache.getBars(INSTRUMENT, Period.ONE_MIN, OfferSide.ASK, 0) == null,
+				"bars of other period cached");
+
+		// replacing a table keeps one
+		cache.putTicks(INSTRUMENT, 0, new TickBlock(0));
+		check(cache.getTables() == 4, "replaced table cached twice");
+	}
+
+	private static void testTooLarge() {
+		reset(10);
+
+		put(0);
+
+		BarBlock bars = new BarBlock(0);
+		for (int i = 0; i < 1000; i++)
+			bars.add(i, 1, 1, 1, 1, 1);
+
+		cache.putBars(INSTRUMENT, PERIOD, OfferSide.ASK, 1, bars);
+
+		check(!get(1), "table larger than the cache cached");
+		check(get(0), "table evicted by a table larger than the cache");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
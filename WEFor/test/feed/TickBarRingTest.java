@@ -0,0 +1,159 @@
+package feed;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Random;
+
+import com.dukascopy.api.feed.ITickBar;
+
+import forex.ForexException;
+import forex.TickBar;
+
+// @formatter:off
+/**
+ * Tests TickBarRing against queues of ask and bid tick bars, with random
+ * appends and removals making the ring wrap around and grow while wrapped,
+ * and tests that ask and bid tick bars added out of turn, or not formed by
+ * the same ticks, are rejected without appending anything.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java feed.TickBarRingTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class TickBarRingTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		TickBarRing ring = new TickBarRing(0);
+		ArrayDeque<ITickBar> askQueue = new ArrayDeque<ITickBar>();
+		ArrayDeque<ITickBar> bidQueue = new ArrayDeque<ITickBar>();
+
+		check(ring.isEmpty(), "new ring isn't empty");
+
+		long time = 0;
+		for (int step = 0; step < 5000; step++) {
+			if (random.nextInt(3) == 0) {
+				int n = random.nextInt(step % 500 == 0 ? 100 : 10);
+				for (int i = 0; i < n; i++) {
+					time += 10;
+					long endTime = time + random.nextInt(3) * 10;
+					long count = random.nextInt(4) + 2;
+
+					ITickBar ask = randomTickBar(time, endTime, count);
+					ITickBar bid = randomTickBar(time, endTime, count);
+					time = endTime;
+
+					add(ring, ask, true);
+					add(ring, bid, false);
+
+					askQueue.add(ask);
+					bidQueue.add(bid);
+				}
+			} else if (!askQueue.isEmpty()) {
+				checkTickBar(ring.firstAskTickBar(), askQueue.removeFirst(),
+						"first ask tick bar");
+				checkTickBar(ring.firstBidTickBar(), bidQueue.removeFirst(),
+						"first bid tick bar");
+
+				ring.removeFirst();
+			}
+
+			checkAgainst(ring, askQueue);
+		}
+
+		testIncoherent(ring, askQueue);
+
+		ring.clear();
+		check(ring.isEmpty() && ring.size() == 0, "cleared ring isn't empty");
+
+		System.out.println("TickBarRingTest passed.");
+	}
+
+	private static void testIncoherent(TickBarRing ring, ArrayDeque<ITickBar> askQueue) {
+		long time = askQueue.isEmpty() ? 0 : askQueue.peekLast().getEndTime();
+
+		ITickBar ask = randomTickBar(time + 10, time + 20, 3);
+
+		try {
+			add(ring, ask, false);
+			throw new AssertionError("bid tick bar added before ask tick bar");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+
+		add(ring, ask, true);
+		try {
+			add(ring, ask, true);
+			throw new AssertionError("ask tick bar added twice");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+
+		try {
+			add(ring, randomTickBar(time + 10, time + 30, 3), false);
+			throw new AssertionError("bid tick bar of other end time added");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+
+		try {
+			add(ring, randomTickBar(time + 10, time + 20, 4), false);
+			throw new AssertionError("bid tick bar of other number of ticks added");
+		} catch (ForexException e) {
+			checkAgainst(ring, askQueue);
+		}
+	}
+
+	private static void add(TickBarRing ring, ITickBar tickBar, boolean ask) {
+		if (ask)
+			ring.addAsk(tickBar.getTime(), tickBar.getEndTime(), tickBar.getOpen(),
+					tickBar.getClose(), tickBar.getHigh(), tickBar.getLow(),
+					tickBar.getVolume(), tickBar.getFormedElementsCount());
+		else
+			ring.addBid(tickBar.getTime(), tickBar.getEndTime(), tickBar.getOpen(),
+					tickBar.getClose(), tickBar.getHigh(), tickBar.getLow(),
+					tickBar.getVolume(), tickBar.getFormedElementsCount());
+	}
+
+	private static ITickBar randomTickBar(long time, long endTime, long count) {
+		return new TickBar(time, random.nextDouble(), random.nextDouble(),
+				random.nextDouble(), random.nextDouble(), random.nextInt(100), endTime,
+				count);
+	}
+
+	private static void checkAgainst(TickBarRing ring, ArrayDeque<ITickBar> askQueue) {
+		check(ring.size() == askQueue.size(), "size " + ring.size() + ", expected "
+				+ askQueue.size());
+		check(ring.isEmpty() == askQueue.isEmpty(), "isEmpty");
+
+		if (askQueue.isEmpty())
+			return;
+
+		check(ring.firstEndTime() == askQueue.peekFirst().getEndTime(), "first end time");
+
+		Iterator<ITickBar> it = askQueue.iterator();
+		for (int i = 0; i < ring.size(); i++)
+			check(ring.endTime(i) == it.next().getEndTime(), "end time of tick bar " + i);
+	}
+
+	private static void checkTickBar(ITickBar actual, ITickBar expected, String what) {
+		check(actual.getTime() == expected.getTime()
+				&& actual.getEndTime() == expected.getEndTime()
+				&& actual.getFormedElementsCount() == expected.getFormedElementsCount()
+				&& actual.getOpen() == expected.getOpen()
+				&& actual.getClose() == expected.getClose()
+				&& actual.getHigh() == expected.getHigh()
+				&& actual.getLow() == expected.getLow()
+				&& actual.getVolume() == expected.getVolume(), what + " is " + actual
+				+ ", expected " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,98 @@
+package feed;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Random;
+
+import com.dukascopy.api.ITick;
+
+import forex.Tick;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * Tests TickRing against a queue of ticks, with random appends and removals
+ * making the ring wrap around and grow while wrapped.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java feed.TickRingTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class TickRingTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		TickRing ring = new TickRing(0);
+		ArrayDeque<ITick> queue = new ArrayDeque<ITick>();
+
+		check(ring.isEmpty(), "new ring isn't empty");
+
+		long time = 0;
+		for (int step = 0; step < 5000; step++) {
+			if (random.nextInt(3) == 0) {
+				// appended as a list or as a block
+				int n = random.nextInt(step % 500 == 0 ? 100 : 10);
+				ArrayList<ITick> ticks = new ArrayList<ITick>();
+				for (int i = 0; i < n; i++) {
+					time += random.nextInt(100);
+					ticks.add(new Tick(time, random.nextDouble(), random.nextDouble(),
+							random.nextInt(10), random.nextInt(10)));
+				}
+
+				ring.addAll(random.nextBoolean() ? ticks : TickBlock.of(ticks));
+				queue.addAll(ticks);
+			} else if (!queue.isEmpty()) {
+				checkTick(ring.first(), queue.peekFirst(), "first tick");
+
+				ring.removeFirst();
+				queue.removeFirst();
+			}
+
+			checkAgainst(ring, queue);
+		}
+
+		ring.clear();
+		check(ring.isEmpty() && ring.size() == 0, "cleared ring isn't empty");
+
+		System.out.println("TickRingTest passed.");
+	}
+
+	private static void checkAgainst(TickRing ring, ArrayDeque<ITick> queue) {
+		check(ring.size() == queue.size(), "size " + ring.size() + ", expected "
+				+ queue.size());
+		check(ring.isEmpty() == queue.isEmpty(), "isEmpty");
+
+		if (queue.isEmpty())
+			return;
+
+		check(ring.firstTime() == queue.peekFirst().getTime(), "first time");
+		check(ring.lastTime() == queue.peekLast().getTime(), "last time");
+
+		Iterator<ITick> it = queue.iterator();
+		for (int i = 0; i < ring.size(); i++) {
+			ITick tick = it.next();
+
+			check(ring.time(i) == tick.getTime(), "time of tick " + i);
+			checkTick(ring.get(i), tick, "tick " + i);
+		}
+	}
+
+	private static void checkTick(ITick actual, ITick expected, String what) {
+		check(actual.getTime() == expected.getTime()
+				&& actual.getAsk() == expected.getAsk()
+				&& actual.getBid() == expected.getBid()
+				&& actual.getAskVolume() == expected.getAskVolume()
+				&& actual.getBidVolume() == expected.getBidVolume(), what + " is " + actual
+				+ ", expected " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,204 @@
+package forex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.OfferSide;
+
+// @formatter:off
+/**
+ * Tests the ranges answered by RangeTree against ranges aggregated by brute
+ * force, for trees built at once and trees appended to one element at a
+ * time, growing past their capacity.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java forex.RangeTreeTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class RangeTreeTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		testEmpty();
+		testBuilt();
+		testAppended();
+		testTicks();
+
+		System.out.println("RangeTreeTest passed.");
+	}
+
+	private static void testEmpty() {
+		RangeTree tree = new RangeTree();
+
+		check(tree.isEmpty(), "new tree isn't empty");
+		check(tree.ceilingIndex(0) == 0, "ceiling index of empty tree");
+		check(tree.getRangeBar(Long.MIN_VALUE, Long.MAX_VALUE) == null,
+				"range bar of empty tree");
+
+		try {
+			tree.getHigh(0, 0);
+		} catch (IndexOutOfBoundsException e) {
+			return;
+		}
+
+		throw new AssertionError("empty range answered");
+	}
+
+	private static void testBuilt() {
+		for (int n : new int[] { 1, 2, 15, 16, 17, 100, 1000 }) {
+			List<IBar> bars = randomBars(n);
+
+			checkAgainst(RangeTree.ofBars(bars), bars);
+
+			BarBlock block = new BarBlock(n);
+			for (IBar bar : bars)
+				block.add(bar);
+			checkAgainst(RangeTree.ofBars(block), bars);
+		}
+	}
+
+	private static void testAppended() {
+		List<IBar> bars = randomBars(700);
+
+		RangeTree tree = new RangeTree(0);
+		for (int i = 0; i < bars.size(); i++) {
+			tree.add(bars.get(i));
+
+			if (i < 40 || i % 97 == 0)
+				checkAgainst(tree, bars.subList(0, i + 1));
+		}
+
+		checkAgainst(tree, bars);
+
+		// appended to a tree built at once
+		tree = RangeTree.ofBars(bars.subList(0, 300));
+		for (IBar bar : bars.subList(300, bars.size()))
+			tree.add(bar);
+
+		checkAgainst(tree, bars);
+	}
+
+	private static void testTicks() {
+		ArrayList<ITick> ticks = new ArrayList<ITick>();
+		ArrayList<IBar> bids = new ArrayList<IBar>();
+		long time = 0;
+		for (int i = 0; i < 500; i++) {
+			time += random.nextInt(3);
+			double ask = 1 + random.nextInt(1000) / 1e4;
+			double bid = ask - random.nextInt(10) / 1e4;
+			double bidVolume = random.nextInt(100);
+
+			ticks.add(new Tick(time, ask, bid, random.nextInt(100), bidVolume));
+			bids.add(new Bar(time, bid, bid, bid, bid, bidVolume));
+		}
+
+		checkAgainst(RangeTree.ofTicks(ticks, OfferSide.BID), bids);
+	}
+
+	/**
+	 * Returns bars of random rates and integral volumes, some of equal time.
+	 */
+	private static List<IBar> randomBars(int n) {
+		ArrayList<IBar> bars = new ArrayList<IBar>();
+
+		long time = 1000;
+		for (int i = 0; i < n; i++) {
+			time += random.nextInt(4) * 10;
+
+			double open = 1 + random.nextInt(1000) / 1e4;
+			double close = 1 + random.nextInt(1000) / 1e4;
+			double high = Math.max(open, close) + random.nextInt(50) / 1e4;
+			double low = Math.min(open, close) - random.nextInt(50) / 1e4;
+
+			bars.add(new Bar(time, open, close, high, low, random.nextInt(1000)));
+		}
+
+		return bars;
+	}
+
+	/**
+	 * Checks every index range of given tree, and ranges of time around the
+	 * times of the bars, against given bars.
+	 */
+	private static void checkAgainst(RangeTree tree, List<IBar> bars) {
+		int n = bars.size();
+
+		check(tree.size() == n, "size " + tree.size() + ", expected " + n);
+
+		for (int from = 0; from < n; from++) {
+			double high = Double.NEGATIVE_INFINITY;
+			double low = Double.POSITIVE_INFINITY;
+			double volume = 0;
+
+			for (int to = from + 1; to <= n; to++) {
+				IBar bar = bars.get(to - 1);
+				high = Math.max(high, bar.getHigh());
+				low = Math.min(low, bar.getLow());
+				volume += bar.getVolume();
+
+				String range = "[" + from + ", " + to + ")";
+				check(tree.getHigh(from, to) == high, "high of " + range);
+				check(tree.getLow(from, to) == low, "low of " + range);
+				check(tree.getVolume(from, to) == volume, "volume of " + range);
+
+				IBar aggregated = tree.getBar(from, to);
+				check(aggregated.getTime() == bars.get(from).getTime(), "time of " + range);
+				check(aggregated.getOpen() == bars.get(from).getOpen(), "open of " + range);
+				check(aggregated.getClose() == bar.getClose(), "close of " + range);
+			}
+		}
+
+		if (n == 0)
+			return;
+
+		long first = bars.get(0).getTime(), last = bars.get(n - 1).getTime();
+		for (int i = 0; i < 200; i++) {
+			long from = first - 20 + random.nextInt((int) (last - first) + 40);
+			long to = from + random.nextInt(200);
+
+			checkRangeBar(tree, bars, from, to);
+		}
+	}
+
+	private static void checkRangeBar(RangeTree tree, List<IBar> bars, long from, long to) {
+		int fromIndex = 0;
+		while (fromIndex < bars.size() && bars.get(fromIndex).getTime() < from)
+			fromIndex++;
+
+		check(tree.ceilingIndex(from) == fromIndex, "ceiling index of " + from);
+
+		int toIndex = fromIndex;
+		while (toIndex < bars.size() && bars.get(toIndex).getTime() < to)
+			toIndex++;
+
+		IBar bar = tree.getRangeBar(from, to);
+		String range = "[" + from + ", " + to + ")";
+
+		if (fromIndex == toIndex) {
+			check(bar == null, "range bar of empty " + range);
+			return;
+		}
+
+		check(bar != null, "no range bar of " + range);
+		check(bar.getTime() == bars.get(fromIndex).getTime(), "time of range bar "
+				+ range);
+		check(bar.getClose() == bars.get(toIndex - 1).getClose(), "close of range bar "
+				+ range);
+		check(bar.getHigh() == tree.getHigh(fromIndex, toIndex), "high of range bar "
+				+ range);
+		check(bar.getLow() == tree.getLow(fromIndex, toIndex), "low of range bar "
+				+ range);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
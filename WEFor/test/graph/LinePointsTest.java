@@ -0,0 +1,195 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+// @formatter:off
+/**
+ * Tests the decimation of LinePoints to pixel columns against decimation by
+ * brute force, with points at the edges of pixel columns, columns of one,
+ * two and three points, columns skipped and equal rates.
+ *
+ * The points are decimated by a fixed mapping of times and rates to pixels,
+ * without any graph or chart.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java graph.LinePointsTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class LinePointsTest {
+
+	// milliseconds per pixel column of the mapping
+	private static final long COLUMN = 10;
+
+	private static final Random random = new Random(42);
+
+	/**
+	 * Maps every COLUMN milliseconds to a pixel column and every thousandth of
+	 * a rate to a pixel row.
+	 */
+	private static final PixelMapping mapping = new PixelMapping() {
+
+		@Override
+		public int timeToXPixelPos(long time) {
+			return (int) (time / COLUMN);
+		}
+
+		@Override
+		public int rateToYPixelPos(double rate) {
+			return (int) Math.round(-rate * 1000);
+		}
+	};
+
+	public static void main(String[] args) {
+		testEmpty(mapping);
+		testColumnEdges(mapping);
+		testSmallColumns(mapping);
+		testEqualRates(mapping);
+		testRandom(mapping);
+
+		System.out.println("LinePointsTest passed.");
+	}
+
+	private static void testEmpty(PixelMapping mapping) {
+		LinePoints points = new LinePoints(0);
+
+		check(points.decimate(mapping) == 0, "points decimated of empty line");
+	}
+
+	private static void testColumnEdges(PixelMapping mapping) {
+		// the first and last millisecond of adjacent columns
+		long[] times = { 0, 9, 10, 19, 20, 29, 29, 30 };
+		double[] rates = { 1.000, 1.005, 1.001, 1.002, 1.010, 0.990, 1.000, 1.003 };
+
+		checkAgainst(mapping, times, rates);
+
+		LinePoints points = line(times, rates);
+		int n = points.decimate(mapping);
+
+		// column 0: 0, 1; column 1: 2, 3; column 2: 4, 5, 6; column 3: 7
+		int[] expected = { 0, 1, 2, 3, 4, 5, 6, 7 };
+		check(n == expected.length, "decimated to " + n + " points, expected "
+				+ expected.length);
+		for (int i = 0; i < n; i++)
+			check(points.getIndices()[i] == expected[i], "index " + i + " is "
+					+ points.getIndices()[i] + ", expected " + expected[i]);
+	}
+
+	private static void testSmallColumns(PixelMapping mapping) {
+		// columns of one, two and three points, and columns skipped
+		long[] times = { 5, 21, 22, 40, 41, 42, 100, 1000, 1001, 1009 };
+		double[] rates = { 1, 2, 1, 3, 1, 2, 5, 4, 6, 5 };
+
+		checkAgainst(mapping, times, rates);
+	}
+
+	private static void testEqualRates(PixelMapping mapping) {
+		// the first lowest and highest are kept
+		long[] times = { 0, 1, 2, 3, 4, 10, 11, 12 };
+		double[] rates = { 1, 1, 1, 1, 1, 2, 2, 3 };
+
+		checkAgainst(mapping, times, rates);
+
+		LinePoints points = line(times, rates);
+		int n = points.decimate(mapping);
+
+		int[] expected = { 0, 4, 5, 7 };
+		check(n == expected.length, "decimated to " + n + " points, expected "
+				+ expected.length);
+		for (int i = 0; i < n; i++)
+			check(points.getIndices()[i] == expected[i], "index " + i + " is "
+					+ points.getIndices()[i] + ", expected " + expected[i]);
+	}
+
+	private static void testRandom(PixelMapping mapping) {
+		for (int run = 0; run < 200; run++) {
+			int n = random.nextInt(300) + 1;
+
+			long[] times = new long[n];
+			double[] rates = new double[n];
+			long time = random.nextInt(100);
+			for (int i = 0; i < n; i++) {
+				time += random.nextInt(5) == 0 ? random.nextInt(50) : random.nextInt(3);
+				times[i] = time;
+				rates[i] = 1 + random.nextInt(50) / 1000.0;
+			}
+
+			checkAgainst(mapping, times, rates);
+		}
+	}
+
+	private static LinePoints line(long[] times, double[] rates) {
+		LinePoints points = new LinePoints(0);
+		for (int i = 0; i < times.length; i++)
+			points.add(times[i], rates[i]);
+
+		return points;
+	}
+
+	/**
+	 * Checks the decimation of given points against the first, lowest,
+	 * highest and last point of each pixel column, found by brute force.
+	 */
+	private static void checkAgainst(PixelMapping mapping, long[] times, double[] rates) {
+		ArrayList<Integer> expected = new ArrayList<Integer>();
+
+		int from = 0;
+		while (from < times.length) {
+			int x = mapping.timeToXPixelPos(times[from]);
+
+			int to = from;
+			while (to < times.length && mapping.timeToXPixelPos(times[to]) == x)
+				to++;
+
+			int low = from, high = from;
+			for (int i = from; i < to; i++) {
+				if (rates[i] < rates[low])
+					low = i;
+				if (rates[i] > rates[high])
+					high = i;
+			}
+
+			int[] column = { from, Math.min(low, high), Math.max(low, high), to - 1 };
+			for (int index : column) {
+				if (expected.isEmpty() || expected.get(expected.size() - 1) != index)
+					expected.add(index);
+			}
+
+			from = to;
+		}
+
+		LinePoints points = line(times, rates);
+		int n = points.decimate(mapping);
+
+		check(n == expected.size(), "decimated to " + n + " points, expected "
+				+ expected.size());
+
+		for (int i = 0; i < n; i++) {
+			int index = expected.get(i);
+
+			check(points.getIndices()[i] == index, "index " + i + " is "
+					+ points.getIndices()[i] + ", expected " + index);
+			check(points.getXs()[i] == mapping.timeToXPixelPos(times[index]), "x of point "
+					+ i);
+			check(points.getYs()[i] == mapping.rateToYPixelPos(rates[index]), "y of point "
+					+ i);
+		}
+
+		// the decimated points are in order
+		for (int i = 1; i < n; i++) {
+			check(points.getIndices()[i - 1] < points.getIndices()[i], "points of index "
+					+ points.getIndices()[i - 1] + " and " + points.getIndices()[i]
+					+ " out of order");
+			check(points.getXs()[i - 1] <= points.getXs()[i], "x of point " + i
+					+ " decreasing");
+		}
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
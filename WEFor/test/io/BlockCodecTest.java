@@ -0,0 +1,208 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+
+import forex.Bar;
+import forex.BarBlock;
+import forex.ForexException;
+import forex.Tick;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * Tests that blocks encoded by BlockCodec decode to the exact ticks and bars
+ * encoded, for every mode of a column of decimals, and that decoding and
+ * counting respect the interval given.
+ *
+ * Run with the classes of weforex and the libraries on the class path:
+ *
+ * java io.BlockCodecTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class BlockCodecTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		testEmpty();
+		testTicksOfPipettes();
+		testTicksOfRawDoubles();
+		testBarsOfMixedColumns();
+		testInterval();
+		testUnknownFormat();
+
+		System.out.println("BlockCodecTest passed.");
+	}
+
+	private static void testEmpty() {
+		TickBlock ticks = new TickBlock(0);
+		BlockCodec.decodeTicks(BlockCodec.encodeTicks(new ArrayList<ITick>()),
+				Long.MIN_VALUE, Long.MAX_VALUE, ticks);
+		check(ticks.isEmpty(), "empty tick block decoded to " + ticks.size() + " ticks");
+
+		BarBlock bars = new BarBlock(0);
+		BlockCodec.decodeBars(BlockCodec.encodeBars(new ArrayList<IBar>()),
+				Long.MIN_VALUE, Long.MAX_VALUE, bars);
+		check(bars.isEmpty(), "empty bar block decoded to " + bars.size() + " bars");
+	}
+
+	private static void testTicksOfPipettes() {
+		// prices of five decimals, volumes rounded to floats as received
+		ArrayList<ITick> ticks = new ArrayList<ITick>();
+		long time = 1262304000000L;
+		long pipettes = 135000;
+		for (int i = 0; i < 5000; i++) {
+			time += random.nextInt(3) == 0 ? random.nextInt(60000) : random.nextInt(500);
+			pipettes += random.nextInt(21) - 10;
+
+			ticks.add(new Tick(time, (pipettes + 2) / 1e5, pipettes / 1e5, (float) (random
+					.nextDouble() * 10), (float) (random.nextDouble() * 10)));
+		}
+
+		checkTicks(ticks);
+	}
+
+	private static void testTicksOfRawDoubles() {
+		ArrayList<ITick> ticks = new ArrayList<ITick>();
+		long time = 0;
+		for (int i = 0; i < 1000; i++) {
+			time += random.nextInt(1000) + 1;
+
+			ticks.add(new Tick(time, random.nextDouble(), -random.nextDouble() * 1e9,
+					random.nextDouble(), 0));
+		}
+
+		checkTicks(ticks);
+	}
+
+	private static void testBarsOfMixedColumns() {
+		ArrayList<IBar> bars = new ArrayList<IBar>();
+		long time = 1262304000000L;
+		for (int i = 0; i < 3000; i++) {
+			time += 10000;
+
+			// integer, float and raw volumes in one block
+			double volume = i % 3 == 0 ? random.nextInt(1000) : i % 3 == 1 ? (float) random
+					.nextDouble() : random.nextDouble();
+			double open = 1.3 + random.nextInt(1000) / 1e5;
+			double close = 1.3 + random.nextInt(1000) / 1e5;
+			double high = Math.max(open, close) + random.nextInt(10) / 1e5;
+			double low = Math.min(open, close) - random.nextInt(10) / 1e5;
+
+			bars.add(new Bar(time, open, close, high, low, volume));
+		}
+
+		checkBars(bars);
+
+		// large prices and a price of ten decimals
+		bars.clear();
+		bars.add(new Bar(0, 101.123, 99.5, 102, 98.25, 0));
+		bars.add(new Bar(Long.MAX_VALUE / 2, 0.0000000001, 1e12, 1e12, -1e12, 1e15));
+		checkBars(bars);
+	}
+
+	private static void testInterval() {
+		ArrayList<IBar> bars = new ArrayList<IBar>();
+		for (int i = 0; i < 100; i++)
+			bars.add(new Bar(i * 10, i, i, i, i, i));
+
+		byte[] block = BlockCodec.encodeBars(bars);
+
+		long[][] intervals = { { 0, 990 }, { 5, 15 }, { 10, 10 }, { 11, 19 }, { -100, -1 },
+				{ 991, 2000 }, { Long.MIN_VALUE, Long.MAX_VALUE } };
+		for (long[] interval : intervals) {
+			long from = interval[0], to = interval[1];
+
+			int expected = 0;
+			for (IBar bar : bars) {
+				if (bar.getTime() >= from && bar.getTime() <= to)
+					expected++;
+			}
+
+			BarBlock decoded = new BarBlock(0);
+			BlockCodec.decodeBars(block, from, to, decoded);
+
+			check(decoded.size() == expected, "decoded " + decoded.size() + " bars of ["
+					+ from + ", " + to + "], expected " + expected);
+			check(BlockCodec.count(block, from, to) == expected, "counted "
+					+ BlockCodec.count(block, from, to) + " bars of [" + from + ", " + to
+					+ "], expected " + expected);
+
+			for (int i = 0; i < decoded.size(); i++) {
+				long time = decoded.getTime(i);
+				check(time >= from && time <= to, "decoded bar of time " + time
+						+ " outside [" + from + ", " + to + "]");
+			}
+		}
+	}
+
+	private static void testUnknownFormat() {
+		byte[] block = BlockCodec.encodeBars(new ArrayList<IBar>());
+		block[0] = 0x7F;
+
+		try {
+			BlockCodec.decodeBars(block, Long.MIN_VALUE, Long.MAX_VALUE, new BarBlock(0));
+		} catch (ForexException e) {
+			return;
+		}
+
+		throw new AssertionError("block of unknown format decoded");
+	}
+
+	private static void checkTicks(ArrayList<ITick> ticks) {
+		TickBlock decoded = new TickBlock(0);
+		BlockCodec.decodeTicks(BlockCodec.encodeTicks(ticks), Long.MIN_VALUE,
+				Long.MAX_VALUE, decoded);
+
+		check(decoded.size() == ticks.size(), "decoded " + decoded.size()
+				+ " ticks, expected " + ticks.size());
+
+		for (int i = 0; i < ticks.size(); i++) {
+			ITick tick = ticks.get(i);
+
+			check(decoded.getTime(i) == tick.getTime(), "time of tick " + i);
+			checkExact(decoded.getAsk(i), tick.getAsk(), "ask of tick " + i);
+			checkExact(decoded.getBid(i), tick.getBid(), "bid of tick " + i);
+			checkExact(decoded.getAskVolume(i), tick.getAskVolume(), "ask volume of tick "
+					+ i);
+			checkExact(decoded.getBidVolume(i), tick.getBidVolume(), "bid volume of tick "
+					+ i);
+		}
+	}
+
+	private static void checkBars(ArrayList<IBar> bars) {
+		BarBlock decoded = new BarBlock(0);
+		BlockCodec.decodeBars(BlockCodec.encodeBars(bars), Long.MIN_VALUE,
+				Long.MAX_VALUE, decoded);
+
+		check(decoded.size() == bars.size(), "decoded " + decoded.size()
+				+ " bars, expected " + bars.size());
+
+		for (int i = 0; i < bars.size(); i++) {
+			IBar bar = bars.get(i);
+
+			check(decoded.getTime(i) == bar.getTime(), "time of bar " + i);
+			checkExact(decoded.getOpen(i), bar.getOpen(), "open of bar " + i);
+			checkExact(decoded.getClose(i), bar.getClose(), "close of bar " + i);
+			checkExact(decoded.getHigh(i), bar.getHigh(), "high of bar " + i);
+			checkExact(decoded.getLow(i), bar.getLow(), "low of bar " + i);
+			checkExact(decoded.getVolume(i), bar.getVolume(), "volume of bar " + i);
+		}
+	}
+
+	private static void checkExact(double actual, double expected, String what) {
+		check(Double.doubleToLongBits(actual) == Double.doubleToLongBits(expected), what
+				+ " decoded as " + actual + ", expected " + expected);
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
@@ -0,0 +1,123 @@
+package io;
+
+import java.util.HashMap;
+import java.util.Random;
+
+// @formatter:off
+/**
+ * Tests the prefix counts of TickCountIndex against counts summed by brute
+ * force, while the sizes set make the covered range grow towards later as
+ * well as towards earlier tick table indices.
+ *
+ * Run with the classes of weforex on the class path:
+ *
+ * java io.TickCountIndexTest
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class TickCountIndexTest {
+
+	private static final Random random = new Random(42);
+
+	public static void main(String[] args) {
+		testEmpty();
+		testGrowing();
+		testRandom();
+
+		System.out.println("TickCountIndexTest passed.");
+	}
+
+	private static void testEmpty() {
+		TickCountIndex index = new TickCountIndex();
+
+		check(index.total() == 0, "total of empty index");
+		check(index.countBefore(Long.MAX_VALUE) == 0, "count of empty index");
+		check(index.get(17) == 0, "size of table of empty index");
+
+		// setting a size of 0 covers nothing
+		index.set(17, 0);
+		check(index.countBefore(18) == 0, "count after setting size 0");
+	}
+
+	private static void testGrowing() {
+		TickCountIndex index = new TickCountIndex();
+		HashMap<Long, Integer> sizes = new HashMap<Long, Integer>();
+
+		// first the middle, then far later, then far earlier
+		long[] tables = { 100000, 100001, 100500, 103000, 250000, 99999, 98000, 2000,
+				400000, 0 };
+		for (long table : tables) {
+			int size = random.nextInt(5000) + 1;
+			index.set(table, size);
+			sizes.put(table, size);
+
+			checkAgainst(index, sizes, -10, 410000);
+		}
+
+		// clearing and replacing sizes
+		index.set(100500, 0);
+		sizes.put(100500L, 0);
+		index.set(2000, 7);
+		sizes.put(2000L, 7);
+		checkAgainst(index, sizes, -10, 410000);
+	}
+
+	private static void testRandom() {
+		TickCountIndex index = new TickCountIndex();
+		HashMap<Long, Integer> sizes = new HashMap<Long, Integer>();
+
+		for (int i = 0; i < 2000; i++) {
+			long table = 50000 + random.nextInt(20000) - 10000;
+			int size = random.nextInt(4) == 0 ? 0 : random.nextInt(100000);
+
+			index.set(table, size);
+			sizes.put(table, size);
+
+			if (i % 200 == 0)
+				checkAgainst(index, sizes, 39000, 61000);
+		}
+
+		checkAgainst(index, sizes, 39000, 61000);
+	}
+
+	/**
+	 * Checks the sizes and prefix counts of given index for every tick table
+	 * index of [from, to].
+	 */
+	private static void checkAgainst(TickCountIndex index, HashMap<Long, Integer> sizes,
+			long from, long to) {
+		long total = 0;
+		for (int size : sizes.values())
+			total += size;
+
+		check(index.total() == total, "total " + index.total() + ", expected " + total);
+
+		// count of the tables before from
+		long count = 0;
+		for (Long table : sizes.keySet()) {
+			if (table < from)
+				count += sizes.get(table);
+		}
+
+		for (long table = from; table <= to; table++) {
+			check(index.countBefore(table) == count, "count before " + table + " is "
+					+ index.countBefore(table) + ", expected " + count);
+
+			Integer size = sizes.get(table);
+			int expected = size == null ? 0 : size;
+			check(index.get(table) == expected, "size of " + table + " is "
+					+ index.get(table) + ", expected " + expected);
+
+			count += expected;
+		}
+
+		check(index.countBefore(Long.MAX_VALUE) == total, "count before Long.MAX_VALUE");
+		check(index.countBefore(Long.MIN_VALUE) == 0, "count before Long.MIN_VALUE");
+	}
+
+	private static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+}
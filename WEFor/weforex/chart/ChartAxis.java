@@ -36,7 +36,7 @@ public abstract class ChartAxis extends ChartView {
 		@Override
 		public void mouseExited(MouseEvent evt) {
 			setDisplayPosition(null);
-			repaint();
+			FrameScheduler.getInstance().repaint(ChartAxis.this);
 		}
 	};
 
@@ -51,7 +51,7 @@ public abstract class ChartAxis extends ChartView {
 				setDisplayPosition(evt.getPoint().y);
 			} else {
 				setDisplayPosition(null);
-				repaint();
+				FrameScheduler.getInstance().repaint(ChartAxis.this);
 			}
 		}
 	};
@@ -0,0 +1,309 @@
+package chart;
+
+import java.awt.Rectangle;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+// @formatter:off
+/**
+ * Renders the chart and client windows in frames of at most a maximum number
+ * per second, rather than once per element supplied by a feed.
+ *
+ * Repaints and updates of Swing components are requested of the scheduler,
+ * see repaint and update, from any thread. Requests are collected until the
+ * next frame, run on the event dispatch thread: the regions of a component
+ * requested to be repainted are joined into one dirty region, and an update
+ * replaces any update of the same key not yet run. So a feed supplying
+ * hundreds of ticks per second only updates the state of the models, while
+ * the components are rendered at most getMaxFps() times per second.
+ *
+ * The scheduler counts the frames rendered, the requests coalesced into a
+ * frame already requested, and the frames dropped for being rendered late,
+ * when the event dispatch thread was busy at the time of a frame, see
+ * toString().
+ *
+ * The maximum number of frames per second is read from the system property
+ * weforex.maxfps, 60 if not set, and can be set by setMaxFps.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class FrameScheduler {
+
+	/**
+	 * The system property naming the maximum number of frames per second.
+	 */
+	public static final String MAX_FPS_PROPERTY = "weforex.maxfps";
+
+	private static final int DEFAULT_MAX_FPS = 60;
+
+	private static FrameScheduler instance;
+
+	private final Timer timer;
+
+	// the dirty region of each component, null if all of it
+	private Map<JComponent, Rectangle> dirty = new LinkedHashMap<JComponent, Rectangle>();
+	private Map<Object, Runnable> updates = new LinkedHashMap<Object, Runnable>();
+
+	private int maxFps;
+	private boolean running;
+
+	// the time of the last frame, in nanoseconds
+	private long lastFrame;
+
+	// statistics
+	private long frames;
+	private long requests;
+	private long coalesced;
+	private long dropped;
+
+	private FrameScheduler(int maxFps) {
+		timer = new Timer(0, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				frame();
+			}
+		});
+		timer.setCoalesce(true);
+
+		setMaxFps(maxFps);
+	}
+
+	/**
+	 * Returns the scheduler shared by all windows.
+	 *
+	 * @return the scheduler shared by all windows
+	 */
+	public static synchronized FrameScheduler getInstance() {
+		if (instance == null)
+			instance = new FrameScheduler(Integer.getInteger(MAX_FPS_PROPERTY,
+					DEFAULT_MAX_FPS));
+
+		return instance;
+	}
+
+	/**
+	 * Requests all of given component to be repainted at the next frame.
+	 *
+	 * @param component the component to repaint
+	 * @throws IllegalArgumentException if component is null
+	 */
+	public void repaint(JComponent component) {
+		if (component == null)
+			throw new IllegalArgumentException("component can't be null");
+
+		synchronized (this) {
+			requests++;
+
+			if (dirty.containsKey(component))
+				coalesced++;
+
+			dirty.put(component, null);
+
+			start();
+		}
+	}
+
+	/**
+	 * Requests given region of given component to be repainted at the next
+	 * frame, along with any other region requested of the component.
+	 *
+	 * @param component the component to repaint
+	 * @param x the x-coordinate of the region
+	 * @param y the y-coordinate of the region
+	 * @param width the width of the region
+	 * @param height the height of the region
+	 * @throws IllegalArgumentException if component is null
+	 */
+	public void repaint(JComponent component, int x, int y, int width, int height) {
+		if (component == null)
+			throw new IllegalArgumentException("component can't be null");
+
+		synchronized (this) {
+			requests++;
+
+			Rectangle region = new Rectangle(x, y, width, height);
+
+			if (dirty.containsKey(component)) {
+				coalesced++;
+
+				Rectangle old = dirty.get(component);
+				if (old != null)
+					dirty.put(component, old.union(region));
+			} else {
+				dirty.put(component, region);
+			}
+
+			start();
+		}
+	}
+
+	/**
+	 * Requests given update to be run on the event dispatch thread at the next
+	 * frame, replacing any update of given key not yet run.
+	 *
+	 * @param key the key of the update, such as the component updated
+	 * @param update the update to run
+	 * @throws IllegalArgumentException if key or update is null
+	 */
+	public void update(Object key, Runnable update) {
+		if (key == null)
+			throw new IllegalArgumentException("key can't be null");
+		else if (update == null)
+			throw new IllegalArgumentException("update can't be null");
+
+		synchronized (this) {
+			requests++;
+
+			if (updates.put(key, update) != null)
+				coalesced++;
+
+			start();
+		}
+	}
+
+	// starts the frames if stopped, when requested
+	private void start() {
+		if (running)
+			return;
+
+		running = true;
+		lastFrame = System.nanoTime();
+		timer.restart();
+	}
+
+	/**
+	 * Runs the updates and repaints requested since the last frame. Invoked on
+	 * the event dispatch thread.
+	 */
+	private void frame() {
+		Map<JComponent, Rectangle> dirty;
+		Map<Object, Runnable> updates;
+
+		synchronized (this) {
+			// stop the frames until requested again
+			if (this.dirty.isEmpty() && this.updates.isEmpty()) {
+				running = false;
+				timer.stop();
+				return;
+			}
+
+			long now = System.nanoTime();
+			long interval = 1000000000L / maxFps;
+
+			// the frames that should have been rendered since the last one
+			long late = (now - lastFrame) / interval - 1;
+			if (late > 0)
+				dropped += late;
+
+			lastFrame = now;
+			frames++;
+
+			dirty = this.dirty;
+			updates = this.updates;
+			this.dirty = new LinkedHashMap<JComponent, Rectangle>();
+			this.updates = new LinkedHashMap<Object, Runnable>();
+		}
+
+		for (Runnable update : updates.values()) {
+			try {
+				update.run();
+			} catch (RuntimeException e) {
+				System.err.println("Exception updating frame: " + e.getMessage());
+				e.printStackTrace();
+			}
+		}
+
+		for (Map.Entry<JComponent, Rectangle> e : dirty.entrySet()) {
+			Rectangle region = e.getValue();
+
+			if (region == null)
+				e.getKey().repaint();
+			else
+				e.getKey().repaint(region);
+		}
+	}
+
+	/**
+	 * Returns the maximum number of frames per second.
+	 *
+	 * @return the maximum number of frames per second
+	 */
+	public synchronized int getMaxFps() {
+		return maxFps;
+	}
+
+	/**
+	 * Sets the maximum number of frames per second.
+	 *
+	 * @param maxFps the maximum number of frames per second
+	 * @throws IllegalArgumentException if maxFps < 1
+	 */
+	public synchronized void setMaxFps(int maxFps) {
+		if (maxFps < 1)
+			throw new IllegalArgumentException("maxFps(" + maxFps + ") < 1");
+
+		this.maxFps = maxFps;
+
+		int delay = Math.max(1, 1000 / maxFps);
+		timer.setDelay(delay);
+		timer.setInitialDelay(delay);
+	}
+
+	/**
+	 * Returns the number of frames rendered.
+	 *
+	 * @return the number of frames rendered
+	 */
+	public synchronized long getFrames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of repaints and updates requested.
+	 *
+	 * @return the number of repaints and updates requested
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Returns the number of repaints and updates requested of a component or
+	 * key already requested for the next frame, and so coalesced into it.
+	 *
+	 * @return the number of requests coalesced
+	 */
+	public synchronized long getCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * Returns the number of frames not rendered in time since the event
+	 * dispatch thread was busy.
+	 *
+	 * @return the number of frames dropped
+	 */
+	public synchronized long getDroppedFrames() {
+		return dropped;
+	}
+
+	@Override
+	public synchronized String toString() {
+		// @formatter:off
+		return String.format("%s:  maxFps=%d  frames=%d  requests=%d  coalesced=%d  " +
+				"dropped=%d",
+				getClass().getSimpleName(),
+				maxFps,
+				frames,
+				requests,
+				coalesced,
+				dropped);
+		// @formatter:on
+	}
+}
@@ -26,7 +26,7 @@ public class MousePositionCross extends JPanel {
 		public void mouseExited(MouseEvent evt) {
 			setCross(null);
 
-			repaint();
+			FrameScheduler.getInstance().repaint(MousePositionCross.this);
 		}
 	};
 
@@ -35,7 +35,7 @@ public class MousePositionCross extends JPanel {
 		public void mouseMoved(MouseEvent evt) {
 			setCross(new PixelPoint(evt.getPoint()));
 
-			repaint();
+			FrameScheduler.getInstance().repaint(MousePositionCross.this);
 		}
 	};
 
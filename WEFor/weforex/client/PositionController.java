@@ -6,6 +6,7 @@ import java.util.Collections;
 import com.dukascopy.api.ITick;
 import com.dukascopy.api.Instrument;
 
+import chart.FrameScheduler;
 import feed.TimeRelativeFeed;
 import feed.ITickFeedListener;
 import forex.ForexException;
@@ -14,6 +15,10 @@ import forex.ForexException;
  * Handles orders and positions. Implements feed to update each positions
  * accordingly. Also updates the host (Client UI) to display the current values.
  * 
+ * The positions are updated upon every tick, on the event dispatch thread
+ * along with the orders, while the host is updated at the frames of the
+ * FrameScheduler.
+ * 
  * @author Tobias
  * 
  */
@@ -43,6 +48,33 @@ public class PositionController implements ITickFeedListener {
 	// components to be notified about changes
 	private UIClosedPositionPanel closedPosPanel;
 
+	// passes on the ticks supplied by the feed on the event dispatch thread
+	private final ITickFeedListener tickForwarder = new ITickFeedListener() {
+		@Override
+		public void onTick(final Instrument instrument, final ITick tick) {
+			feed.invokeOnEventDispatchThread(new Runnable() {
+				@Override
+				public void run() {
+					PositionController.this.onTick(instrument, tick);
+				}
+			});
+		}
+	};
+
+	// displays the current values in the host
+	private final Runnable hostUpdate = new Runnable() {
+		@Override
+		public void run() {
+			host.repaintPositionPanel();
+
+			// update rate label in client
+			updateRateLabel();
+			// update balance label
+			updateBalanceLabel();
+			updateOpenProfitLabel();
+		}
+	};
+
 	public PositionController(UIClientMain host, TimeRelativeFeed feed, User user,
 			UIClosedPositionPanel closedPosPanel) {
 		openPositions = new ArrayList<Position>();
@@ -55,7 +87,7 @@ public class PositionController implements ITickFeedListener {
 		this.user = user;
 		this.closedPosPanel = closedPosPanel;
 
-		this.feed.addTickFeedListener(this);
+		this.feed.addTickFeedListener(tickForwarder);
 	}
 
 	public ArrayList<Position> getOpenPositions() {
@@ -175,6 +207,10 @@ public class PositionController implements ITickFeedListener {
 		return host;
 	}
 
+	/**
+	 * Updates the positions upon tick arrival. Invoked on the event dispatch
+	 * thread.
+	 */
 	@Override
 	public void onTick(Instrument instrument, ITick tick) {
 
@@ -188,15 +224,10 @@ public class PositionController implements ITickFeedListener {
 		for (Position position : openPositions)
 			position.adjustProfit(tick);
 
-		host.repaintPositionPanel();
-
-		// update rate label in client
-		updateRateLabel();
-		// update balance label
-		updateBalanceLabel();
-		// update daily profit label
+		// update daily profit
 		updateDynamicDailyProfit();
-		updateOpenProfitLabel();
+
+		FrameScheduler.getInstance().update(this, hostUpdate);
 
 	}
 
@@ -13,6 +13,7 @@ import javax.swing.JMenuBar;
 import javax.swing.JTabbedPane;
 
 import chart.ChartFrame;
+import chart.FrameScheduler;
 
 import feed.TimeRelativeFeed;
 import forex.ForexConstants;
@@ -85,9 +86,15 @@ public class UIClientMain extends JFrame {
 		feed.addCurrentTimeListener(new PropertyChangeListener() {
 
 			@Override
-			public void propertyChange(PropertyChangeEvent evt) {
-				time.setTimeInMillis((Long) evt.getNewValue());
-				clockLabel.setText(String.format("%1$tY/%1$tm/%1$td %1$tR", time));
+			public void propertyChange(final PropertyChangeEvent evt) {
+				// notified by the thread of the feed
+				FrameScheduler.getInstance().update(clockLabel, new Runnable() {
+					@Override
+					public void run() {
+						time.setTimeInMillis((Long) evt.getNewValue());
+						clockLabel.setText(String.format("%1$tY/%1$tm/%1$td %1$tR", time));
+					}
+				});
 			}
 		});
 
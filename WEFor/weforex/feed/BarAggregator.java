@@ -0,0 +1,480 @@
+package feed;
+
+import io.ForexDataIO;
+
+import java.util.List;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+import com.dukascopy.api.TickBarSize;
+import com.dukascopy.api.feed.ITickBar;
+
+import forex.BarBlock;
+import forex.BarSeries;
+import forex.ForexException;
+import forex.ForexTools;
+import forex.TickBlock;
+import forex.TickSeries;
+
+// @formatter:off
+/**
+ * Builds ask and bid bars of several periods and ask and bid tick bars of
+ * several sizes simultaneously, using ticks for continuous construction. Each
+ * tick added updates every bar being built in one pass.
+ *
+ * Bars being built are kept as primitives, so adding a tick or a bar doesn't
+ * create any object. Completed bars are supplied to a listener as primitives
+ * as well, and the listener decides whether to create any object.
+ *
+ * A bar of a period is complete as soon as an element of a later bar start is
+ * added or the aggregator is advanced past it, bar starts being those of
+ * ForexDataIO.getBarStart. A tick bar is complete as soon as it has been
+ * formed by tickBarSize ticks, every tick forming exactly one tick bar. The
+ * first bars built may be partial, if adding started in the middle of them.
+ *
+ * Bars being built are read through getBuildingBar and getBuildingTickBar.
+ *
+ * Elements are added in ascending order with respect to time. An aggregator is
+ * not thread safe and should be fed by one thread.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class BarAggregator {
+
+	/**
+	 * Receives the bars completed by a BarAggregator.
+	 */
+	public interface Listener {
+
+		/**
+		 * Invoked when a bar has been completed.
+		 *
+		 * @param period the period of the bar
+		 * @param offerSide the offer side of the bar
+		 * @param time the start time of the bar
+		 * @param open the open of the bar
+		 * @param close the close of the bar
+		 * @param high the high of the bar
+		 * @param low the low of the bar
+		 * @param volume the volume of the bar
+		 */
+		void onBar(Period period, OfferSide offerSide, long time, double open,
+				double close, double high, double low, double volume);
+
+		/**
+		 * Invoked when a tick bar has been completed.
+		 *
+		 * @param tickBarSize the size of the tick bar
+		 * @param offerSide the offer side of the tick bar
+		 * @param time the time of the first tick of the tick bar
+		 * @param endTime the time of the last tick of the tick bar
+		 * @param open the open of the tick bar
+		 * @param close the close of the tick bar
+		 * @param high the high of the tick bar
+		 * @param low the low of the tick bar
+		 * @param volume the volume of the tick bar
+		 * @param formedElementsCount the number of ticks forming the tick bar
+		 */
+		void onTickBar(TickBarSize tickBarSize, OfferSide offerSide, long time,
+				long endTime, double open, double close, double high, double low,
+				double volume, long formedElementsCount);
+	}
+
+	private static final OfferSide[] OFFER_SIDES = { OfferSide.ASK, OfferSide.BID };
+
+	private final Period[] periods;
+	private final TickBarSize[] tickBarSizes;
+	private final Listener listener;
+
+	// bars being built, [offer side][period]
+	private final Slot[][] bars;
+
+	// tick bars being built, [offer side][tick bar size]
+	private final Slot[][] tickBars;
+
+	// bar starts of the time last added, of each period
+	private final long[] starts;
+
+	// the day of which calendar bar starts were computed
+	private long dayStart, dayEnd;
+
+	// the time of the last element added, Long.MIN_VALUE if none
+	private long lastTime;
+
+	/**
+	 * A bar or tick bar being built.
+	 */
+	private static final class Slot implements ITickBar {
+		boolean isOpen;
+		long time, endTime, count;
+		double open, close, high, low, volume;
+
+		void add(long time, double open, double close, double high, double low,
+				double volume) {
+			if (!isOpen) {
+				this.time = time;
+				this.open = open;
+				this.high = high;
+				this.low = low;
+				this.volume = volume;
+				count = 0;
+				isOpen = true;
+			} else {
+				if (this.high < high)
+					this.high = high;
+				if (this.low > low)
+					this.low = low;
+
+				this.volume += volume;
+			}
+
+			this.close = close;
+			endTime = time;
+			count++;
+		}
+
+		@Override
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public long getEndTime() {
+			return endTime;
+		}
+
+		@Override
+		public long getFormedElementsCount() {
+			return count;
+		}
+
+		@Override
+		public double getOpen() {
+			return open;
+		}
+
+		@Override
+		public double getClose() {
+			return close;
+		}
+
+		@Override
+		public double getHigh() {
+			return high;
+		}
+
+		@Override
+		public double getLow() {
+			return low;
+		}
+
+		@Override
+		public double getVolume() {
+			return volume;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format(
+					"%s:  %s  O: %3$.4f  C: %4$.4f  H: %5$.4f  L: %6$.4f  V: %7$.4f",
+					"BuildingBar",
+					ForexTools.getTimeRepresentation(time),
+					open,
+					close,
+					high,
+					low,
+					volume);
+			// @formatter:on
+		}
+	}
+
+	/**
+	 * Create an aggregator building bars of given periods and tick bars of
+	 * given sizes.
+	 *
+	 * @param periods the periods of the bars to build
+	 * @param tickBarSizes the sizes of the tick bars to build
+	 * @param listener the listener to supply completed bars to, null if
+	 *            completed bars should be dropped
+	 * @throws IllegalArgumentException if periods or tickBarSizes is null
+	 * @throws IllegalArgumentException if any of the periods is Period.TICK
+	 */
+	public BarAggregator(List<Period> periods, List<TickBarSize> tickBarSizes,
+			Listener listener) {
+		if (periods == null || tickBarSizes == null)
+			throw new IllegalArgumentException("arguments can't be null");
+		else if (periods.contains(Period.TICK))
+			throw new IllegalArgumentException("Period.TICK isn't a bar period");
+
+		this.periods = periods.toArray(new Period[periods.size()]);
+		this.tickBarSizes = tickBarSizes.toArray(new TickBarSize[tickBarSizes.size()]);
+		this.listener = listener;
+
+		bars = createSlots(this.periods.length);
+		tickBars = createSlots(this.tickBarSizes.length);
+
+		starts = new long[this.periods.length];
+		dayStart = dayEnd = 0;
+		lastTime = Long.MIN_VALUE;
+	}
+
+	private static Slot[][] createSlots(int length) {
+		Slot[][] slots = new Slot[OFFER_SIDES.length][length];
+		for (Slot[] side : slots) {
+			for (int k = 0; k < side.length; k++)
+				side[k] = new Slot();
+		}
+
+		return slots;
+	}
+
+	/**
+	 * Adds a tick to the bars and tick bars being built.
+	 *
+	 * @param tick the tick to add
+	 * @throws IllegalArgumentException if the tick is older than the last
+	 *             element added
+	 */
+	public void addTick(ITick tick) {
+		addTick(tick.getTime(), tick.getAsk(), tick.getBid(), tick.getAskVolume(),
+				tick.getBidVolume());
+	}
+
+	/**
+	 * Adds a tick to the bars and tick bars being built.
+	 *
+	 * @param time the time of the tick
+	 * @param ask the best ask price of the tick
+	 * @param bid the best bid price of the tick
+	 * @param askVolume the volume at the best ask price of the tick
+	 * @param bidVolume the volume at the best bid price of the tick
+	 * @throws IllegalArgumentException if the tick is older than the last
+	 *             element added
+	 */
+	public void addTick(long time, double ask, double bid, double askVolume,
+			double bidVolume) {
+		advance(time);
+
+		for (int s = 0; s < OFFER_SIDES.length; s++) {
+			double rate = s == 0 ? ask : bid;
+			double volume = s == 0 ? askVolume : bidVolume;
+
+			for (int k = 0; k < periods.length; k++) {
+				Slot b = bars[s][k];
+
+				b.add(starts[k], rate, rate, rate, rate, volume);
+			}
+
+			for (int k = 0; k < tickBarSizes.length; k++) {
+				Slot b = tickBars[s][k];
+
+				b.add(time, rate, rate, rate, rate, volume);
+
+				if (b.count == tickBarSizes[k].getSize()) {
+					if (listener != null)
+						listener.onTickBar(tickBarSizes[k], OFFER_SIDES[s], b.time,
+								b.endTime, b.open, b.close, b.high, b.low, b.volume,
+								b.count);
+
+					b.isOpen = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds ticks to the bars and tick bars being built. The ticks are read
+	 * without creating any object if given as a TickBlock or a TickSeries.
+	 *
+	 * @param ticks the ticks to add, in ascending order with respect to time
+	 * @throws IllegalArgumentException if the ticks are older than the last
+	 *             element added
+	 */
+	public void addTicks(List<ITick> ticks) {
+		if (ticks instanceof TickBlock) {
+			TickBlock block = (TickBlock) ticks;
+
+			for (int i = 0; i < block.size(); i++)
+				addTick(block.getTime(i), block.getAsk(i), block.getBid(i),
+						block.getAskVolume(i), block.getBidVolume(i));
+		} else if (ticks instanceof TickSeries) {
+			TickSeries series = (TickSeries) ticks;
+
+			for (int i = 0; i < series.size(); i++)
+				addTick(series.getTime(i), series.getAsk(i), series.getBid(i),
+						series.getAskVolume(i), series.getBidVolume(i));
+		} else {
+			for (ITick tick : ticks)
+				addTick(tick);
+		}
+	}
+
+	/**
+	 * Adds a bar of given offer side to the bars being built of that offer
+	 * side. The bar has to be of a period smaller than the periods built, so
+	 * that it is contained by one bar of each period. Tick bars aren't
+	 * affected.
+	 *
+	 * @param offerSide the offer side of the bar
+	 * @param bar the bar to add
+	 * @throws IllegalArgumentException if offerSide is null
+	 * @throws IllegalArgumentException if the bar is older than the last
+	 *             element added
+	 */
+	public void addBar(OfferSide offerSide, IBar bar) {
+		addBar(offerSide, bar.getTime(), bar.getOpen(), bar.getClose(), bar.getHigh(),
+				bar.getLow(), bar.getVolume());
+	}
+
+	/**
+	 * Adds bars of given offer side to the bars being built of that offer
+	 * side, see addBar. The bars are read without creating any object if given
+	 * as a BarBlock or a BarSeries.
+	 *
+	 * @param offerSide the offer side of the bars
+	 * @param bars the bars to add, in ascending order with respect to time
+	 * @throws IllegalArgumentException if offerSide is null
+	 * @throws IllegalArgumentException if the bars are older than the last
+	 *             element added
+	 */
+	public void addBars(OfferSide offerSide, List<IBar> bars) {
+		if (bars instanceof BarBlock) {
+			BarBlock block = (BarBlock) bars;
+
+			for (int i = 0; i < block.size(); i++)
+				addBar(offerSide, block.getTime(i), block.getOpen(i), block.getClose(i),
+						block.getHigh(i), block.getLow(i), block.getVolume(i));
+		} else if (bars instanceof BarSeries) {
+			BarSeries series = (BarSeries) bars;
+
+			for (int i = 0; i < series.size(); i++)
+				addBar(offerSide, series.getTime(i), series.getOpen(i),
+						series.getClose(i), series.getHigh(i), series.getLow(i),
+						series.getVolume(i));
+		} else {
+			for (IBar bar : bars)
+				addBar(offerSide, bar);
+		}
+	}
+
+	private void addBar(OfferSide offerSide, long time, double open, double close,
+			double high, double low, double volume) {
+		int s = indexOf(offerSide);
+
+		advance(time);
+
+		for (int k = 0; k < periods.length; k++) {
+			Slot b = bars[s][k];
+
+			b.add(starts[k], open, close, high, low, volume);
+		}
+	}
+
+	/**
+	 * Advances this aggregator to given time without adding anything,
+	 * completing all bars of earlier bar starts than the bar starts of given
+	 * time.
+	 *
+	 * @param time the time to advance to
+	 * @throws IllegalArgumentException if time is older than the last element
+	 *             added
+	 */
+	public void advance(long time) {
+		if (time < lastTime)
+			throw new IllegalArgumentException("time(" + time + ") < time of last added("
+					+ lastTime + ")");
+
+		lastTime = time;
+
+		// calendar bar starts only change between days
+		boolean newDay = time < dayStart || time >= dayEnd;
+		if (newDay) {
+			dayStart = ForexDataIO.getBarStart(Period.DAILY, time);
+			dayEnd = dayStart + Period.DAILY.getInterval();
+		}
+
+		for (int k = 0; k < periods.length; k++) {
+			Period p = periods[k];
+
+			if (p.isSmallerThan(Period.WEEKLY))
+				starts[k] = (time / p.getInterval()) * p.getInterval();
+			else if (newDay)
+				starts[k] = ForexDataIO.getBarStart(p, time);
+		}
+
+		for (int s = 0; s < OFFER_SIDES.length; s++) {
+			for (int k = 0; k < periods.length; k++) {
+				Slot b = bars[s][k];
+
+				if (b.isOpen && b.time != starts[k]) {
+					if (listener != null)
+						listener.onBar(periods[k], OFFER_SIDES[s], b.time, b.open,
+								b.close, b.high, b.low, b.volume);
+
+					b.isOpen = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the bar being built of given period and offer side, null if no
+	 * element has been added to it yet. The bar returned is a view of the bar
+	 * being built, changing as elements are added, and no longer valid once
+	 * the bar is complete.
+	 *
+	 * @param period the period of the bar
+	 * @param offerSide the offer side of the bar
+	 * @return the bar being built of given period and offer side, null if no
+	 *         element has been added to it
+	 * @throws ForexException if bars of given period aren't built
+	 * @throws IllegalArgumentException if offerSide is null
+	 */
+	public IBar getBuildingBar(Period period, OfferSide offerSide) {
+		for (int k = 0; k < periods.length; k++) {
+			if (periods[k].equals(period)) {
+				Slot b = bars[indexOf(offerSide)][k];
+
+				return b.isOpen ? b : null;
+			}
+		}
+
+		throw new ForexException("Bars of period " + period + " aren't built");
+	}
+
+	/**
+	 * Returns the tick bar being built of given size and offer side, null if
+	 * no tick has been added to it yet. The tick bar returned is a view of the
+	 * tick bar being built, changing as ticks are added, and no longer valid
+	 * once the tick bar is complete.
+	 *
+	 * @param tickBarSize the size of the tick bar
+	 * @param offerSide the offer side of the tick bar
+	 * @return the tick bar being built of given size and offer side, null if
+	 *         no tick has been added to it
+	 * @throws ForexException if tick bars of given size aren't built
+	 * @throws IllegalArgumentException if offerSide is null
+	 */
+	public ITickBar getBuildingTickBar(TickBarSize tickBarSize, OfferSide offerSide) {
+		for (int k = 0; k < tickBarSizes.length; k++) {
+			if (tickBarSizes[k].equals(tickBarSize)) {
+				Slot b = tickBars[indexOf(offerSide)][k];
+
+				return b.isOpen ? b : null;
+			}
+		}
+
+		throw new ForexException("Tick bars of size " + tickBarSize + " aren't built");
+	}
+
+	private static int indexOf(OfferSide offerSide) {
+		if (offerSide == null)
+			throw new IllegalArgumentException("offerSide can't be null");
+
+		return offerSide == OfferSide.ASK ? 0 : 1;
+	}
+}
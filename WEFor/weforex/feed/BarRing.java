@@ -0,0 +1,202 @@
+package feed;
+
+import java.util.List;
+
+import com.dukascopy.api.IBar;
+
+import forex.Bar;
+import forex.BarBlock;
+import forex.ForexException;
+
+// @formatter:off
+/**
+ * A first in, first out queue of pairs of ask and bid bars of one period,
+ * stored as columns of primitives in ring buffers. An ask bar and the bid bar
+ * of the same time share one slot, so the ask and bid bars held are always of
+ * the same number and times. Bars are appended in bulk and removed one pair
+ * at a time from the front, without moving or creating any object. The
+ * buffers only grow when more bars are appended than fit.
+ *
+ * A ring is not thread safe.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class BarRing {
+
+	// value columns, the ask bar followed by the bid bar
+	private static final int OPEN = 0;
+	private static final int CLOSE = 1;
+	private static final int HIGH = 2;
+	private static final int LOW = 3;
+	private static final int VOLUME = 4;
+	private static final int BID = 5;
+
+	private long[] times;
+	private double[][] values;
+
+	// index of the first pair, and number of pairs held
+	private int head, size;
+
+	// capacity - 1, the capacity being a power of two
+	private int mask;
+
+	/**
+	 * Create an empty ring able to hold at least given number of pairs before
+	 * growing.
+	 */
+	BarRing(int capacity) {
+		allocate(capacityFor(capacity));
+	}
+
+	private static int capacityFor(int n) {
+		int capacity = 16;
+		while (capacity < n)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		times = new long[capacity];
+		values = new double[2 * BID][capacity];
+		mask = capacity - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the time of the first pair. Must not be called on an empty ring.
+	 */
+	long firstTime() {
+		return times[head];
+	}
+
+	/**
+	 * Returns the time of the pair at given index, counted from the first.
+	 * Must only be called with 0 <= index < size().
+	 */
+	long time(int index) {
+		return times[(head + index) & mask];
+	}
+
+	/**
+	 * Returns the time of the last pair. Must not be called on an empty ring.
+	 */
+	long lastTime() {
+		return times[(head + size - 1) & mask];
+	}
+
+	/**
+	 * Returns a copy of the first ask bar. Must not be called on an empty
+	 * ring.
+	 */
+	IBar firstAskBar() {
+		return bar(0);
+	}
+
+	/**
+	 * Returns a copy of the first bid bar. Must not be called on an empty
+	 * ring.
+	 */
+	IBar firstBidBar() {
+		return bar(BID);
+	}
+
+	private IBar bar(int side) {
+		// @formatter:off
+		return new Bar(
+				times[head],
+				values[side + OPEN][head],
+				values[side + CLOSE][head],
+				values[side + HIGH][head],
+				values[side + LOW][head],
+				values[side + VOLUME][head]);
+		// @formatter:on
+	}
+
+	/**
+	 * Removes the first pair. Must not be called on an empty ring.
+	 */
+	void removeFirst() {
+		head = (head + 1) & mask;
+		size--;
+	}
+
+	/**
+	 * Removes all pairs.
+	 */
+	void clear() {
+		head = size = 0;
+	}
+
+	/**
+	 * Appends given ask and bid bars, in ascending order with respect to time.
+	 * The bars are read without creating any object if given as BarBlocks.
+	 *
+	 * @throws ForexException if the ask and bid bars aren't of the same number
+	 *             and times, in which case nothing is appended
+	 */
+	void addAll(List<IBar> askBars, List<IBar> bidBars) {
+		BarBlock ask = BarBlock.of(askBars);
+		BarBlock bid = BarBlock.of(bidBars);
+		int n = ask.size();
+
+		if (bid.size() != n)
+			throw new ForexException("incoherency of ask and bid bars detected");
+
+		for (int i = 0; i < n; i++) {
+			if (ask.getTime(i) != bid.getTime(i))
+				throw new ForexException("incoherency of ask and bid bars detected");
+		}
+
+		if (size + n > times.length)
+			grow(size + n);
+
+		int tail = (head + size) & mask;
+		for (int i = 0; i < n; i++) {
+			times[tail] = ask.getTime(i);
+
+			values[OPEN][tail] = ask.getOpen(i);
+			values[CLOSE][tail] = ask.getClose(i);
+			values[HIGH][tail] = ask.getHigh(i);
+			values[LOW][tail] = ask.getLow(i);
+			values[VOLUME][tail] = ask.getVolume(i);
+
+			values[BID + OPEN][tail] = bid.getOpen(i);
+			values[BID + CLOSE][tail] = bid.getClose(i);
+			values[BID + HIGH][tail] = bid.getHigh(i);
+			values[BID + LOW][tail] = bid.getLow(i);
+			values[BID + VOLUME][tail] = bid.getVolume(i);
+
+			tail = (tail + 1) & mask;
+		}
+
+		size += n;
+	}
+
+	// moves the pairs held to the front of new buffers
+	private void grow(int n) {
+		long[] oldTimes = times;
+		double[][] oldValues = values;
+		int first = Math.min(size, oldTimes.length - head);
+
+		allocate(capacityFor(n));
+
+		System.arraycopy(oldTimes, head, times, 0, first);
+		System.arraycopy(oldTimes, 0, times, first, size - first);
+
+		for (int c = 0; c < values.length; c++) {
+			System.arraycopy(oldValues[c], head, values[c], 0, first);
+			System.arraycopy(oldValues[c], 0, values[c], first, size - first);
+		}
+
+		head = 0;
+	}
+}
@@ -0,0 +1,149 @@
+package feed;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.SwingUtilities;
+
+// @formatter:off
+/**
+ * Runs the calls of feed listeners that must run on the event dispatch
+ * thread, such as graphs and other Swing components, see
+ * Feed.invokeOnEventDispatchThread.
+ *
+ * Calls made while the elements of an update are supplied are collected into
+ * a batch, which is posted to the event dispatch thread as one event when
+ * the feed is done supplying the update, see flush(), rather than as one
+ * event per element. At most one batch is waiting for or being run by the
+ * event dispatch thread: flushing a batch waits for the batch before it to
+ * complete, so a feed never gets more than one update ahead of the event
+ * dispatch thread, however fast it is driven. A batch grown to MAX_BATCH
+ * calls is flushed before the end of its update.
+ *
+ * A feed being stopped by the event dispatch thread must release the relay,
+ * see release(), so an update waiting for the event dispatch thread doesn't
+ * keep the feed from stopping. The relay stays released, flushing without
+ * waiting, until engaged again when the feed is started, see engage().
+ *
+ * Calls made on the event dispatch thread are run at once, after the calls
+ * batched before them.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class EventDispatchRelay {
+
+	// the number of calls at which a batch is flushed before the end of its
+	// update
+	private static final int MAX_BATCH = 4096;
+
+	private ArrayList<Runnable> batch = new ArrayList<Runnable>();
+
+	// batches posted to, and not yet completed by, the event dispatch thread
+	private int posted;
+	private boolean released;
+
+	/**
+	 * Adds given call to the batch of the current update, or runs it at once
+	 * if on the event dispatch thread.
+	 */
+	void add(Runnable call) {
+		if (SwingUtilities.isEventDispatchThread()) {
+			run(take());
+			run(call);
+			return;
+		}
+
+		boolean full;
+		synchronized (this) {
+			batch.add(call);
+			full = batch.size() >= MAX_BATCH;
+		}
+
+		if (full)
+			flush();
+	}
+
+	/**
+	 * Posts the batch of the current update to the event dispatch thread,
+	 * once the batch posted before is completed, unless released. Runs the
+	 * batch at once if on the event dispatch thread.
+	 */
+	void flush() {
+		if (SwingUtilities.isEventDispatchThread()) {
+			run(take());
+			return;
+		}
+
+		final List<Runnable> calls;
+
+		synchronized (this) {
+			while (posted > 0 && !released) {
+				try {
+					wait();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+
+			if (batch.isEmpty())
+				return;
+
+			calls = take();
+			posted++;
+		}
+
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					EventDispatchRelay.run(calls);
+				} finally {
+					synchronized (EventDispatchRelay.this) {
+						posted--;
+						EventDispatchRelay.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Makes a flush waiting for the event dispatch thread, and every flush
+	 * after it until engaged again, post its batch without waiting.
+	 */
+	synchronized void release() {
+		released = true;
+		notifyAll();
+	}
+
+	/**
+	 * Makes flushes wait for the batch posted before to complete again, after
+	 * released.
+	 */
+	synchronized void engage() {
+		released = false;
+	}
+
+	private synchronized List<Runnable> take() {
+		List<Runnable> calls = batch;
+		batch = new ArrayList<Runnable>();
+
+		return calls;
+	}
+
+	private static void run(List<Runnable> calls) {
+		for (Runnable call : calls)
+			run(call);
+	}
+
+	private static void run(Runnable call) {
+		try {
+			call.run();
+		} catch (RuntimeException e) {
+			System.err.println("Exception calling feed listener: " + e.getMessage());
+			e.printStackTrace();
+		}
+	}
+}
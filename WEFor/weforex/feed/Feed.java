@@ -1,6 +1,6 @@
 package feed;
 
-import java.util.HashSet;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import com.dukascopy.api.IBar;
 import com.dukascopy.api.ITick;
@@ -12,6 +12,26 @@ import com.dukascopy.api.feed.IBarFeedListener;
 import com.dukascopy.api.feed.ITickBar;
 import com.dukascopy.api.feed.ITickBarFeedListener;
 
+/**
+ * A feed supplying ticks, tick bars and bars to registered listeners.
+ * 
+ * Listeners are registered copy-on-write, so they may be added and removed
+ * by any thread, also while elements are supplied.
+ * 
+ * By default listeners are called one after the other by the thread
+ * supplying the elements. With parallel dispatch, see
+ * setDispatchThreads(int), every listener is called by a pool of worker
+ * threads instead, in the order elements are supplied, while different
+ * listeners are called in parallel. All listeners complete the elements of a
+ * supply time before any element of a later time is dispatched.
+ * 
+ * Listeners that must work on the event dispatch thread, such as graphs,
+ * pass on the elements through invokeOnEventDispatchThread, which runs the
+ * calls of an update on the event dispatch thread in one batch, never more
+ * than one update behind the feed.
+ * 
+ * @author Dennis Ekstrom
+ */
 public abstract class Feed {
 
 	// debugging
@@ -19,14 +39,20 @@ public abstract class Feed {
 	private boolean printTickBarSupply = false;
 	private boolean printBarSupply = false;
 
-	private HashSet<ITickFeedListener> tickFeedListeners;
-	private HashSet<ITickBarFeedListener> tickBarFeedListeners;
-	private HashSet<IBarFeedListener> barFeedListeners;
+	private final CopyOnWriteArraySet<ITickFeedListener> tickFeedListeners;
+	private final CopyOnWriteArraySet<ITickBarFeedListener> tickBarFeedListeners;
+	private final CopyOnWriteArraySet<IBarFeedListener> barFeedListeners;
+
+	// calls listeners in parallel, null if called by the supplying thread
+	private volatile ListenerDispatcher dispatcher;
+
+	// runs calls of listeners on the event dispatch thread
+	private final EventDispatchRelay relay = new EventDispatchRelay();
 
 	protected Feed() {
-		tickFeedListeners = new HashSet<ITickFeedListener>();
-		tickBarFeedListeners = new HashSet<ITickBarFeedListener>();
-		barFeedListeners = new HashSet<IBarFeedListener>();
+		tickFeedListeners = new CopyOnWriteArraySet<ITickFeedListener>();
+		tickBarFeedListeners = new CopyOnWriteArraySet<ITickBarFeedListener>();
+		barFeedListeners = new CopyOnWriteArraySet<IBarFeedListener>();
 	}
 
 	/**
@@ -58,6 +84,7 @@ public abstract class Feed {
 	 */
 	public final void removeTickFeedListener(ITickFeedListener listener) {
 		tickFeedListeners.remove(listener);
+		forget(listener);
 	}
 
 	/**
@@ -79,6 +106,7 @@ public abstract class Feed {
 	 */
 	public final void removeTickBarFeedListener(ITickBarFeedListener listener) {
 		tickBarFeedListeners.remove(listener);
+		forget(listener);
 	}
 
 	/**
@@ -100,6 +128,7 @@ public abstract class Feed {
 	 */
 	public final void removeBarFeedListener(IBarFeedListener listener) {
 		barFeedListeners.remove(listener);
+		forget(listener);
 	}
 
 	/**
@@ -138,19 +167,159 @@ public abstract class Feed {
 
 		if (listener instanceof IBarFeedListener)
 			barFeedListeners.remove(listener);
+
+		forget(listener);
+	}
+
+	/**
+	 * Drops the dispatch statistics of given listener if no longer registered.
+	 */
+	private void forget(Object listener) {
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		if (dispatcher != null && !tickFeedListeners.contains(listener)
+				&& !tickBarFeedListeners.contains(listener)
+				&& !barFeedListeners.contains(listener))
+			dispatcher.forget(listener);
+	}
+
+	/**
+	 * Sets the number of worker threads calling listeners in parallel. If set
+	 * to 0, listeners are called one after the other by the thread supplying
+	 * the elements, which is the default.
+	 * 
+	 * With parallel dispatch every listener is called in the order elements
+	 * are supplied, by one thread at a time, but different listeners are
+	 * called at the same time. All listeners complete the elements of a supply
+	 * time before any element of a later time is dispatched. Supplied elements
+	 * must not be changed once supplied.
+	 * 
+	 * Should not be invoked while elements are supplied.
+	 * 
+	 * @param threads the number of worker threads, 0 for none
+	 * @throws IllegalArgumentException if threads < 0
+	 */
+	public final void setDispatchThreads(int threads) {
+		if (threads < 0)
+			throw new IllegalArgumentException("threads(" + threads + ") < 0");
+
+		if (dispatcher != null)
+			dispatcher.shutdown();
+
+		dispatcher = threads == 0 ? null : new ListenerDispatcher(threads);
+	}
+
+	/**
+	 * Returns the number of calls of given listener queued by parallel
+	 * dispatch and not yet completed, 0 if dispatched by the supplying thread.
+	 * 
+	 * @param listener the listener
+	 * @return the number of calls of given listener queued
+	 */
+	public final int getQueueDepth(Object listener) {
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		return dispatcher == null ? 0 : dispatcher.getQueueDepth(listener);
+	}
+
+	/**
+	 * Returns the largest number of calls of given listener queued by parallel
+	 * dispatch at once, 0 if dispatched by the supplying thread.
+	 * 
+	 * @param listener the listener
+	 * @return the largest number of calls of given listener queued at once
+	 */
+	public final int getMaxQueueDepth(Object listener) {
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		return dispatcher == null ? 0 : dispatcher.getMaxQueueDepth(listener);
+	}
+
+	/**
+	 * Runs given call on the event dispatch thread, in one batch with the
+	 * other calls made while the elements of the current update are supplied.
+	 * The batch is run once the feed is done supplying the update, see
+	 * awaitListeners, and the feed waits for it to complete before running the
+	 * batch of the next update. Calls are run in the order made, at once if
+	 * made on the event dispatch thread.
+	 * 
+	 * Invoked by listeners, while called by this feed, to work on the elements
+	 * supplied on the event dispatch thread.
+	 * 
+	 * @param call the call to run on the event dispatch thread
+	 * @throws IllegalArgumentException if call is null
+	 */
+	public final void invokeOnEventDispatchThread(Runnable call) {
+		if (call == null)
+			throw new IllegalArgumentException("call can't be null");
+
+		relay.add(call);
+	}
+
+	/**
+	 * Waits until listeners have completed all elements supplied, and posts
+	 * the calls made on the event dispatch thread to it, see
+	 * invokeOnEventDispatchThread, once it has completed those of the update
+	 * before. Returns at once if not dispatching in parallel and not behind
+	 * the event dispatch thread. Feeds should invoke this when done supplying,
+	 * before returning control.
+	 */
+	protected final void awaitListeners() {
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		if (dispatcher != null)
+			dispatcher.await();
+
+		relay.flush();
+	}
+
+	/**
+	 * Makes a feed waiting for the event dispatch thread in awaitListeners
+	 * return without waiting, and awaitListeners not wait for it until
+	 * engageListeners is invoked. Feeds waiting for a stopped update to
+	 * complete must invoke this before, since the feed may be stopped by the
+	 * event dispatch thread.
+	 */
+	protected final void releaseListeners() {
+		relay.release();
+	}
+
+	/**
+	 * Makes awaitListeners wait for the event dispatch thread again, after
+	 * releaseListeners. Feeds releasing listeners when stopped must invoke
+	 * this when started.
+	 */
+	protected final void engageListeners() {
+		relay.engage();
 	}
 
 	/**
 	 * Supplies a Tick to registered ITickFeedListeners if an appropriate tick
 	 * is available.
 	 */
-	protected final void supplyTick(Instrument instrument, ITick tick) {
+	protected final void supplyTick(final Instrument instrument, final ITick tick) {
 
 		if (printTickSupply)
 			System.out.printf("%-11s%s%n", "", tick);
 
-		for (ITickFeedListener listener : tickFeedListeners) {
-			listener.onTick(instrument, tick);
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		if (dispatcher == null) {
+			for (ITickFeedListener listener : tickFeedListeners) {
+				listener.onTick(instrument, tick);
+			}
+			return;
+		}
+
+		dispatcher.publish(tick.getTime());
+
+		for (final ITickFeedListener listener : tickFeedListeners) {
+			dispatcher.dispatch(listener, new Runnable() {
+				@Override
+				public void run() {
+					listener.onTick(instrument, tick);
+				}
+			});
 		}
 	}
 
@@ -158,15 +327,34 @@ public abstract class Feed {
 	 * Supplies an askTickBar with corresponding bidTickBar to registered
 	 * ITickBarFeedListeners.
 	 */
-	protected final void supplyTickBars(Instrument instrument, TickBarSize tickBarSize,
-			ITickBar askTickBar, ITickBar bidTickBar) {
+	protected final void supplyTickBars(final Instrument instrument,
+			final TickBarSize tickBarSize, final ITickBar askTickBar,
+			final ITickBar bidTickBar) {
 
 		if (printTickBarSupply)
 			System.out.printf("%-2s%s%n", tickBarSize, askTickBar);
 
-		for (ITickBarFeedListener listener : tickBarFeedListeners) {
-			listener.onBar(instrument, OfferSide.ASK, tickBarSize, askTickBar);
-			listener.onBar(instrument, OfferSide.BID, tickBarSize, bidTickBar);
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		if (dispatcher == null) {
+			for (ITickBarFeedListener listener : tickBarFeedListeners) {
+				listener.onBar(instrument, OfferSide.ASK, tickBarSize, askTickBar);
+				listener.onBar(instrument, OfferSide.BID, tickBarSize, bidTickBar);
+			}
+			return;
+		}
+
+		dispatcher.publish(askTickBar.getEndTime());
+
+		// the ask and bid tick bar in one call of the lane
+		for (final ITickBarFeedListener listener : tickBarFeedListeners) {
+			dispatcher.dispatch(listener, new Runnable() {
+				@Override
+				public void run() {
+					listener.onBar(instrument, OfferSide.ASK, tickBarSize, askTickBar);
+					listener.onBar(instrument, OfferSide.BID, tickBarSize, bidTickBar);
+				}
+			});
 		}
 	}
 
@@ -174,15 +362,34 @@ public abstract class Feed {
 	 * Supplies an askBar with corresponding bidBar to registered
 	 * ITickFeedListeners if appropriate bars are available.
 	 */
-	protected final void supplyBars(Instrument instrument, Period barPeriod, IBar askBar,
-			IBar bidBar) {
+	protected final void supplyBars(final Instrument instrument, final Period barPeriod,
+			final IBar askBar, final IBar bidBar) {
 
 		if (printBarSupply)
 			System.out.printf("%-12s%s%n", barPeriod, askBar);
 
-		for (IBarFeedListener listener : barFeedListeners) {
-			listener.onBar(instrument, barPeriod, OfferSide.ASK, askBar);
-			listener.onBar(instrument, barPeriod, OfferSide.BID, bidBar);
+		ListenerDispatcher dispatcher = this.dispatcher;
+
+		if (dispatcher == null) {
+			for (IBarFeedListener listener : barFeedListeners) {
+				listener.onBar(instrument, barPeriod, OfferSide.ASK, askBar);
+				listener.onBar(instrument, barPeriod, OfferSide.BID, bidBar);
+			}
+			return;
+		}
+
+		// bars are supplied when completed
+		dispatcher.publish(askBar.getTime() + barPeriod.getInterval());
+
+		// the ask and bid bar in one call of the lane
+		for (final IBarFeedListener listener : barFeedListeners) {
+			dispatcher.dispatch(listener, new Runnable() {
+				@Override
+				public void run() {
+					listener.onBar(instrument, barPeriod, OfferSide.ASK, askBar);
+					listener.onBar(instrument, barPeriod, OfferSide.BID, bidBar);
+				}
+			});
 		}
 	}
 
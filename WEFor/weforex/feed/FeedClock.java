@@ -0,0 +1,356 @@
+package feed;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+// @formatter:off
+/**
+ * A clock driving a TimeRelativeFeed by running the steps of the feed on a
+ * dedicated thread of its own, never on the event dispatch thread.
+ *
+ * A real-time clock, see realTime(), runs a step every step interval of wall
+ * clock time, on a high resolution scheduler. Steps are never coalesced, a
+ * step running late is followed by the steps it delayed as soon as possible,
+ * so no step is lost. How late the steps run relative to their schedule is
+ * reported as the drift of the clock.
+ *
+ * A virtual clock, see virtual(), runs steps back to back, as fast as the
+ * feed and its listeners consume them, without ever waiting for the wall
+ * clock. Since a feed advances its time by the same amount every step, the
+ * same steps supply the same elements in the same order with either clock.
+ * Only the pace differs.
+ *
+ * A step and stop() never run at the same time, stop() waits for a step
+ * being run to complete, so a feed may change its state once its clock is
+ * stopped. A step may stop the clock, which then runs no more steps. A step
+ * is run without holding the lock of the clock, so a step waiting for the
+ * event dispatch thread doesn't block the event dispatch thread on the clock,
+ * as long as the feed lets the step go on before stopping the clock.
+ *
+ * The thread running the steps exists only while the clock is running, it
+ * ends when the clock is stopped.
+ *
+ * The number of steps and supplied elements, the elements supplied per
+ * second of running, and the drift are kept as statistics, see toString().
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public abstract class FeedClock {
+
+	/**
+	 * A step of a feed, run by a clock.
+	 */
+	public interface Step {
+
+		/**
+		 * Runs the step, returning the number of elements supplied.
+		 *
+		 * @return the number of elements supplied by the step
+		 */
+		public int step();
+	}
+
+	private ScheduledExecutorService scheduler;
+
+	private volatile boolean running;
+	private Future<?> task;
+	// the thread running a step, null if no step is run
+	private Thread stepThread;
+	private CountDownLatch stopped = new CountDownLatch(0);
+
+	// statistics
+	private volatile long steps;
+	private volatile long events;
+	private volatile long runningTime;
+	private volatile long startedAt;
+	private volatile long drift;
+	private volatile long maxDrift;
+
+	/**
+	 * Runs steps every step interval of wall clock time.
+	 */
+	private static final class RealTimeClock extends FeedClock {
+
+		@Override
+		Future<?> schedule(ScheduledExecutorService scheduler, final Step step,
+				final long stepInterval) {
+
+			final long origin = System.nanoTime();
+
+			return scheduler.scheduleAtFixedRate(new Runnable() {
+
+				private long scheduled = origin;
+
+				@Override
+				public void run() {
+					setDrift(System.nanoTime() - scheduled);
+					scheduled += stepInterval;
+
+					runStep(step);
+				}
+			}, 0, stepInterval, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Runs steps back to back.
+	 */
+	private static final class VirtualClock extends FeedClock {
+
+		@Override
+		Future<?> schedule(ScheduledExecutorService scheduler, final Step step,
+				long stepInterval) {
+
+			return scheduler.submit(new Runnable() {
+
+				@Override
+				public void run() {
+					while (runStep(step))
+						;
+				}
+			});
+		}
+	}
+
+	FeedClock() {
+	}
+
+	/**
+	 * Returns a new scheduler of one thread, ended when shut down.
+	 */
+	private static ScheduledExecutorService newScheduler() {
+		return Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "FeedClock");
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns a new clock running steps every step interval of wall clock
+	 * time.
+	 *
+	 * @return a new real-time clock
+	 */
+	public static FeedClock realTime() {
+		return new RealTimeClock();
+	}
+
+	/**
+	 * Returns a new clock running steps back to back, as fast as they are
+	 * run.
+	 *
+	 * @return a new virtual clock
+	 */
+	public static FeedClock virtual() {
+		return new VirtualClock();
+	}
+
+	/**
+	 * Schedules given step on given scheduler, returning the scheduled task.
+	 */
+	abstract Future<?> schedule(ScheduledExecutorService scheduler, Step step,
+			long stepInterval);
+
+	/**
+	 * Starts running given step every given step interval, unless already
+	 * running.
+	 *
+	 * @param step the step to run
+	 * @param stepInterval the interval, in nanoseconds, between steps
+	 * @throws IllegalArgumentException if step is null or if stepInterval <= 0
+	 */
+	public synchronized void start(Step step, long stepInterval) {
+		if (step == null)
+			throw new IllegalArgumentException("step can't be null");
+		if (stepInterval <= 0)
+			throw new IllegalArgumentException("stepInterval(" + stepInterval + ") <= 0");
+
+		if (running)
+			return;
+
+		running = true;
+		startedAt = System.nanoTime();
+		stopped = new CountDownLatch(1);
+		scheduler = newScheduler();
+		task = schedule(scheduler, step, stepInterval);
+	}
+
+	/**
+	 * Stops running steps and ends the thread running them. Waits for a step
+	 * being run to complete, unless called by the step.
+	 */
+	public synchronized void stop() {
+		running = false;
+
+		if (task != null) {
+			task.cancel(false);
+			task = null;
+
+			scheduler.shutdown();
+			scheduler = null;
+
+			runningTime += System.nanoTime() - startedAt;
+		}
+
+		while (stepThread != null && stepThread != Thread.currentThread()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		stopped.countDown();
+	}
+
+	/**
+	 * Returns true if this clock is running steps.
+	 *
+	 * @return true if this clock is running steps
+	 */
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * Waits until this clock is stopped.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void awaitStop() throws InterruptedException {
+		CountDownLatch stopped;
+		synchronized (this) {
+			stopped = this.stopped;
+		}
+
+		stopped.await();
+	}
+
+	/**
+	 * Runs given step unless stopped, returning true if still running.
+	 */
+	boolean runStep(Step step) {
+		synchronized (this) {
+			if (!running)
+				return false;
+
+			stepThread = Thread.currentThread();
+		}
+
+		try {
+			int supplied = step.step();
+
+			steps++;
+			events += supplied;
+		} catch (RuntimeException e) {
+			System.err.println("Exception running step of feed: " + e.getMessage());
+			e.printStackTrace();
+
+			stop();
+		} finally {
+			synchronized (this) {
+				stepThread = null;
+				notifyAll();
+			}
+		}
+
+		return running;
+	}
+
+	void setDrift(long drift) {
+		this.drift = drift;
+
+		if (drift > maxDrift)
+			maxDrift = drift;
+	}
+
+	/**
+	 * Returns the number of steps run since creation.
+	 *
+	 * @return the number of steps run
+	 */
+	public long getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Returns the number of elements supplied by the steps run since creation.
+	 *
+	 * @return the number of elements supplied
+	 */
+	public long getEvents() {
+		return events;
+	}
+
+	/**
+	 * Returns the time, in milliseconds, this clock has been running since
+	 * creation.
+	 *
+	 * @return the running time in milliseconds
+	 */
+	public double getRunningTime() {
+		long time = runningTime;
+		if (running)
+			time += System.nanoTime() - startedAt;
+
+		return time / 1e6;
+	}
+
+	/**
+	 * Returns the number of elements supplied per second of running.
+	 *
+	 * @return the number of elements supplied per second of running
+	 */
+	public double getEventsPerSecond() {
+		double time = getRunningTime();
+
+		return time == 0 ? 0 : events / time * 1000;
+	}
+
+	/**
+	 * Returns how late, in milliseconds, the last step was run relative to its
+	 * schedule. Always 0 for a virtual clock.
+	 *
+	 * @return the drift of the last step in milliseconds
+	 */
+	public double getDrift() {
+		return drift / 1e6;
+	}
+
+	/**
+	 * Returns the largest drift, in milliseconds, of any step. Always 0 for a
+	 * virtual clock.
+	 *
+	 * @return the largest drift in milliseconds
+	 */
+	public double getMaxDrift() {
+		return maxDrift / 1e6;
+	}
+
+	@Override
+	public String toString() {
+		// @formatter:off
+		return String.format(
+				"%s:  running=%b  steps=%d  events=%d  events/sec=%.0f  drift=%.1f ms (max %.1f ms)",
+				getClass().getSimpleName(),
+				isRunning(),
+				getSteps(),
+				getEvents(),
+				getEventsPerSecond(),
+				getDrift(),
+				getMaxDrift());
+		// @formatter:on
+	}
+}
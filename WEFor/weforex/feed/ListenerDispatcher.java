@@ -0,0 +1,246 @@
+package feed;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// @formatter:off
+/**
+ * Calls the listeners of a feed on a pool of worker threads, in parallel.
+ *
+ * Every listener has a lane of its own, a queue of calls run one at a time
+ * in the order queued, so a listener is called in the order elements are
+ * supplied and never by two threads at once. Different listeners are called
+ * in parallel.
+ *
+ * Elements are published with the time they are supplied at. Before the
+ * first element of a later time is published, all calls of the elements
+ * published before are completed, so no listener sees time T + 1 before all
+ * listeners are done with time T.
+ *
+ * The number of calls queued for each listener, and the largest number ever
+ * queued, are kept as statistics.
+ *
+ * The lane of a listener that is forgotten is dropped once it has no calls
+ * queued. A listener dispatched to again before its lane is dropped keeps
+ * the lane, so its calls are never run by two lanes at once.
+ *
+ * Elements must be published by one thread at a time.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class ListenerDispatcher {
+
+	private final ExecutorService workers;
+
+	private final ConcurrentHashMap<Object, Lane> lanes = new ConcurrentHashMap<Object, Lane>();
+
+	// calls queued but not completed, of all lanes
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Object idle = new Object();
+
+	// the supply time of the elements published last
+	private long time = Long.MIN_VALUE;
+
+	/**
+	 * The calls of one listener.
+	 */
+	private final class Lane implements Runnable {
+
+		private final Object listener;
+
+		private final ConcurrentLinkedQueue<Runnable> calls = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger depth = new AtomicInteger();
+		private volatile int maxDepth;
+
+		// forgotten lanes are dropped once idle, dropped lanes take no calls
+		private volatile boolean forgotten;
+		private boolean dropped;
+
+		Lane(Object listener) {
+			this.listener = listener;
+		}
+
+		/**
+		 * Queues given call, returning false if this lane is dropped.
+		 */
+		boolean add(Runnable call) {
+			int depth;
+
+			synchronized (this) {
+				if (dropped)
+					return false;
+
+				forgotten = false;
+
+				pending.incrementAndGet();
+				calls.add(call);
+
+				depth = this.depth.incrementAndGet();
+			}
+
+			if (depth > maxDepth)
+				maxDepth = depth;
+
+			// the lane is run by a worker while it has calls queued
+			if (depth == 1)
+				workers.execute(this);
+
+			return true;
+		}
+
+		/**
+		 * Drops this lane once it has no calls queued.
+		 */
+		synchronized void forget() {
+			forgotten = true;
+
+			dropIfIdle();
+		}
+
+		private synchronized void dropIfIdle() {
+			if (!forgotten || dropped || depth.get() > 0)
+				return;
+
+			dropped = true;
+			lanes.remove(listener, this);
+		}
+
+		@Override
+		public void run() {
+			do {
+				try {
+					calls.poll().run();
+				} catch (RuntimeException e) {
+					System.err.println("Exception calling feed listener: " + e.getMessage());
+					e.printStackTrace();
+				}
+
+				if (pending.decrementAndGet() == 0) {
+					synchronized (idle) {
+						idle.notifyAll();
+					}
+				}
+			} while (depth.decrementAndGet() > 0);
+
+			if (forgotten)
+				dropIfIdle();
+		}
+	}
+
+	/**
+	 * Create a dispatcher calling listeners on given number of worker
+	 * threads.
+	 *
+	 * @throws IllegalArgumentException if threads < 1
+	 */
+	ListenerDispatcher(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads(" + threads + ") < 1");
+
+		workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "Feed listener " + count.incrementAndGet());
+				thread.setDaemon(true);
+
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Publishes elements of given supply time, waiting for the calls of
+	 * elements of an earlier time to complete.
+	 */
+	void publish(long time) {
+		if (time == this.time)
+			return;
+
+		await();
+
+		this.time = time;
+	}
+
+	/**
+	 * Queues given call of given listener.
+	 */
+	void dispatch(Object listener, Runnable call) {
+		while (true) {
+			Lane lane = lanes.get(listener);
+
+			if (lane == null) {
+				Lane created = new Lane(listener);
+
+				lane = lanes.putIfAbsent(listener, created);
+				if (lane == null)
+					lane = created;
+			}
+
+			// a lane dropped meanwhile is replaced
+			if (lane.add(call))
+				return;
+		}
+	}
+
+	/**
+	 * Waits until all queued calls are completed.
+	 */
+	void await() {
+		synchronized (idle) {
+			while (pending.get() > 0) {
+				try {
+					idle.wait();
+				} catch (InterruptedException e) {
+					System.err.println("Exception awaiting feed listeners: " + e.getMessage());
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the lane and statistics of given listener, once its queued calls
+	 * are completed, unless dispatched to again before.
+	 */
+	void forget(Object listener) {
+		Lane lane = lanes.get(listener);
+
+		if (lane != null)
+			lane.forget();
+	}
+
+	/**
+	 * Completes all queued calls and stops the worker threads.
+	 */
+	void shutdown() {
+		await();
+		workers.shutdown();
+	}
+
+	/**
+	 * Returns the number of calls of given listener queued or being run.
+	 */
+	int getQueueDepth(Object listener) {
+		Lane lane = lanes.get(listener);
+
+		return lane == null ? 0 : lane.depth.get();
+	}
+
+	/**
+	 * Returns the largest number of calls of given listener queued at once.
+	 */
+	int getMaxQueueDepth(Object listener) {
+		Lane lane = lanes.get(listener);
+
+		return lane == null ? 0 : lane.maxDepth;
+	}
+}
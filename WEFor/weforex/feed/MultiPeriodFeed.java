@@ -1,9 +1,8 @@
 package feed;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 
 import forex.Bar;
 import forex.ForexConstants;
@@ -25,6 +24,15 @@ import com.dukascopy.api.feed.IBarFeedListener;
  * feed does not simulate a real-time feed in the matter of delay between
  * supplies.
  * 
+ * Upcoming ticks and bars are buffered in ring buffers of primitives, refilled
+ * one table at a time, with ask and bid bars of the same time kept in one slot.
+ * The tables of ticks and of the bars of each period are loaded ahead of the
+ * feed by a background thread per stream, at most a prefetch depth of tables
+ * ahead, see setPrefetchDepth(Period, int). Loading starts upon construction
+ * and is cancelled when the feed is stopped, to continue from where it was
+ * if started again. The number of times and the time the feed had to wait for
+ * tables to be loaded are kept as statistics.
+ * 
  * Feed will stop automatically when running out of historical data. To manually
  * stop the feed at a specific time, add an appropriate listener for the
  * purpose.
@@ -84,15 +92,44 @@ public class MultiPeriodFeed extends Feed {
 		feed.startFeed();
 	}
 
+	/**
+	 * The default number of tables of each stream loaded ahead of the feed.
+	 */
+	public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
 	private static final int NUM_ELEMENTS_TO_TRIGGER_UPDATE = 500;
 
+	// the periods of ForexConstants.BAR_PERIODS and their intervals, indexing
+	// the upcoming bars
+	private static final Period[] PERIODS = ForexConstants.BAR_PERIODS
+			.toArray(new Period[ForexConstants.BAR_PERIODS.size()]);
+	private static final long[] INTERVALS = new long[PERIODS.length];
+	static {
+		for (int k = 0; k < PERIODS.length; k++)
+			INTERVALS[k] = PERIODS[k].getInterval();
+	}
+
+	// time of next supply when there is nothing left to supply
+	private static final long NO_SUPPLY = Long.MAX_VALUE;
+
 	private final Instrument instrument;
 	private final long startTime;
 
-	private LinkedList<ITick> upcomingTicks;
-	private HashMap<Period, LinkedList<IBar>> upcomingAskBars;
-	private HashMap<Period, LinkedList<IBar>> upcomingBidBars;
-	private HashMap<Period, Boolean> outOfData;
+	private TickRing upcomingTicks;
+	private BarRing[] upcomingBars;
+	private boolean outOfTickData;
+	private boolean[] outOfBarData;
+
+	// loaders of upcoming tables, null while not loading
+	// cancelled by other threads while taken from by the thread of the feed
+	private volatile TablePrefetcher<List<ITick>> tickPrefetcher;
+	private TablePrefetcher<List<IBar>[]>[] barPrefetchers;
+	private int tickPrefetchDepth;
+	private int[] barPrefetchDepths;
+
+	// statistics of cancelled loaders
+	private long stalls;
+	private long stallTime;
 
 	private boolean isRunning;
 
@@ -109,33 +146,34 @@ public class MultiPeriodFeed extends Feed {
 		if (instrument == null)
 			throw new IllegalArgumentException("instrument can't be null");
 
-		upcomingTicks = new LinkedList<ITick>();
-		upcomingAskBars = new HashMap<Period, LinkedList<IBar>>();
-		upcomingBidBars = new HashMap<Period, LinkedList<IBar>>();
-		outOfData = new HashMap<Period, Boolean>();
-
-		// initialize HashMap contents
-		outOfData.put(Period.TICK, false);
-		for (Period p : ForexConstants.BAR_PERIODS) {
-			upcomingAskBars.put(p, new LinkedList<IBar>());
-			upcomingBidBars.put(p, new LinkedList<IBar>());
-			outOfData.put(p, false);
-		}
+		upcomingTicks = new TickRing(4 * NUM_ELEMENTS_TO_TRIGGER_UPDATE);
+		upcomingBars = new BarRing[PERIODS.length];
+		outOfBarData = new boolean[PERIODS.length];
+
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		TablePrefetcher<List<IBar>[]>[] barPrefetchers = new TablePrefetcher[PERIODS.length];
+		this.barPrefetchers = barPrefetchers;
+
+		tickPrefetchDepth = DEFAULT_PREFETCH_DEPTH;
+		barPrefetchDepths = new int[PERIODS.length];
+		Arrays.fill(barPrefetchDepths, DEFAULT_PREFETCH_DEPTH);
+
+		for (int k = 0; k < PERIODS.length; k++)
+			upcomingBars[k] = new BarRing(4 * NUM_ELEMENTS_TO_TRIGGER_UPDATE);
 
 		io = ForexDataIO.getInstance();
 
 		Long earliestTimeOfSupply = io.getStartOfStorage(instrument, Period.TICK);
 
-		for (Period p : ForexConstants.BAR_PERIODS) {
-
-			outOfData.put(p, false);
+		for (int k = 0; k < PERIODS.length; k++) {
+			Period p = PERIODS[k];
 
 			Long timeOfSupply = io.getStartOfStorage(instrument, p);
 
 			if (timeOfSupply != null) {
 				timeOfSupply += p.getInterval();
 			} else {
-				outOfData.put(p, true);
+				outOfBarData[k] = true;
 				continue;
 			}
 
@@ -148,10 +186,10 @@ public class MultiPeriodFeed extends Feed {
 			timeOfSupply = io.getEndOfStorage(instrument, p) + p.getInterval();
 
 			if (startTime > timeOfSupply)
-				outOfData.put(p, true);
+				outOfBarData[k] = true;
 		}
 
-		if (startTime < earliestTimeOfSupply)
+		if (earliestTimeOfSupply != null && startTime < earliestTimeOfSupply)
 			startTime = earliestTimeOfSupply;
 
 		this.instrument = instrument;
@@ -164,36 +202,15 @@ public class MultiPeriodFeed extends Feed {
 	private void clearPreviousElements() {
 
 		// ticks
-		while (!upcomingTicks.isEmpty() && upcomingTicks.getFirst().getTime() < startTime) {
-
+		while (!upcomingTicks.isEmpty() && upcomingTicks.firstTime() < startTime)
 			upcomingTicks.removeFirst();
-		}
 
 		// bars
-		for (Period p : ForexConstants.BAR_PERIODS) {
-			//
-			// if (p.equals(Period.ONE_HOUR)) {
-			// System.out.println(upcomingAskBars.get(p).isEmpty());
-			//
-			// //
-			// System.out.println(ForexTools.getTimeRepresentation(upcomingAskBars
-			// // .get(p).getFirst().getTime()));
-			// }
-
-			while (!upcomingAskBars.get(p).isEmpty()
-					&& upcomingAskBars.get(p).getFirst().getTime() + p.getInterval() < startTime) {
-				//
-				// if (p.equals(Period.ONE_HOUR))
-				// System.out.println(new
-				// Bar(upcomingAskBars.get(p).getFirst()));
-				// else
-				// System.out.println(p);
-
-				upcomingAskBars.get(p).removeFirst();
-				upcomingBidBars.get(p).removeFirst();
-
-				checkUpcomingBarsCoherency(p);
-			}
+		for (int k = 0; k < PERIODS.length; k++) {
+			BarRing bars = upcomingBars[k];
+
+			while (!bars.isEmpty() && bars.firstTime() + INTERVALS[k] < startTime)
+				bars.removeFirst();
 		}
 	}
 
@@ -202,147 +219,257 @@ public class MultiPeriodFeed extends Feed {
 
 		isRunning = true;
 
-		Long timeOfNextSupply = getTimeOfNextSupply();
+		// continue loading if stopped
+		updateUpcoming();
+
+		long timeOfNextSupply = getTimeOfNextSupply();
 
-		while (isRunning && timeOfNextSupply != null) {
+		while (isRunning && timeOfNextSupply != NO_SUPPLY) {
 
-			for (Period p : ForexConstants.BAR_PERIODS) {
+			for (int k = 0; k < PERIODS.length; k++) {
+				BarRing bars = upcomingBars[k];
 
-				if (!upcomingAskBars.get(p).isEmpty()
-						&& upcomingAskBars.get(p).getFirst().getTime() + p.getInterval() == timeOfNextSupply) {
+				if (!bars.isEmpty() && bars.firstTime() + INTERVALS[k] == timeOfNextSupply) {
 
-					supplyBars(instrument, p, upcomingAskBars.get(p).removeFirst(),
-							upcomingBidBars.get(p).removeFirst());
+					supplyBars(instrument, PERIODS[k], bars.firstAskBar(),
+							bars.firstBidBar());
+					bars.removeFirst();
 				}
 			}
 
-			if (!upcomingTicks.isEmpty()
-					&& upcomingTicks.getFirst().getTime() == timeOfNextSupply) {
+			if (!upcomingTicks.isEmpty() && upcomingTicks.firstTime() == timeOfNextSupply) {
 
-				supplyTick(instrument, upcomingTicks.removeFirst());
+				supplyTick(instrument, upcomingTicks.first());
+				upcomingTicks.removeFirst();
 			}
 
-			updateUpcoming();
+			// don't start loading again if stopped by a listener
+			if (isRunning)
+				updateUpcoming();
 
 			timeOfNextSupply = getTimeOfNextSupply();
 		}
+
+		awaitListeners();
 	}
 
 	/**
-	 * Returns the time of the next element to be supplied, null if no elements
-	 * of any kind were found.
+	 * Returns the time of the next element to be supplied, NO_SUPPLY if no
+	 * elements of any kind were found.
 	 */
-	private Long getTimeOfNextSupply() {
-		Long timeOfNextSupply = null;
+	private long getTimeOfNextSupply() {
+		long timeOfNextSupply = NO_SUPPLY;
 
 		if (!upcomingTicks.isEmpty())
-			timeOfNextSupply = upcomingTicks.getFirst().getTime();
+			timeOfNextSupply = upcomingTicks.firstTime();
 
-		for (Period p : ForexConstants.BAR_PERIODS) {
+		for (int k = 0; k < PERIODS.length; k++) {
+			BarRing bars = upcomingBars[k];
 
-			if (!upcomingAskBars.get(p).isEmpty())
-				timeOfNextSupply = Math.min(timeOfNextSupply, upcomingAskBars.get(p)
-						.getFirst().getTime()
-						+ p.getInterval());
+			if (!bars.isEmpty())
+				timeOfNextSupply = Math.min(timeOfNextSupply, bars.firstTime()
+						+ INTERVALS[k]);
 		}
 
 		return timeOfNextSupply;
 	}
 
+	/**
+	 * Stops the feed, and cancels loading of upcoming tables.
+	 */
 	@Override
 	public void stopFeed() {
 		isRunning = false;
+
+		cancelPrefetching();
 	}
 
-	private void updateUpcoming() {
+	/**
+	 * Sets the number of tables of given period loaded ahead of the feed.
+	 * Period.TICK sets the number of tick tables. Takes effect at once if the
+	 * feed is running, otherwise when started.
+	 * 
+	 * @param period the period of the tables
+	 * @param depth the number of tables loaded ahead of the feed
+	 * @throws IllegalArgumentException if period is null or if depth < 1
+	 * @throws ForexException if period is neither Period.TICK nor of
+	 *             ForexConstants.BAR_PERIODS
+	 */
+	public void setPrefetchDepth(Period period, int depth) {
+		if (period == null)
+			throw new IllegalArgumentException("period can't be null");
+		if (depth < 1)
+			throw new IllegalArgumentException("depth(" + depth + ") < 1");
+
+		if (period == Period.TICK) {
+			tickPrefetchDepth = depth;
+
+			TablePrefetcher<?> tickPrefetcher = this.tickPrefetcher;
+			if (tickPrefetcher != null) {
+				cancel(tickPrefetcher);
+				this.tickPrefetcher = null;
+			}
 
-		// update ticks
-		if (!outOfData.get(Period.TICK) && updateNeeded(Period.TICK)) {
-			long tickTableIndex;
+			return;
+		}
 
-			if (upcomingTicks.isEmpty())
-				tickTableIndex = ForexDataIO.getTickTableIndex(startTime);
-			else
-				tickTableIndex = ForexDataIO.getTickTableIndex(upcomingTicks.getLast()
-						.getTime()) + 1;
+		int k = ForexConstants.BAR_PERIODS.indexOf(period);
+		if (k < 0)
+			throw new ForexException("period not supported: " + period);
 
-			while (!outOfData.get(Period.TICK) && updateNeeded(Period.TICK)) {
+		barPrefetchDepths[k] = depth;
 
-				if (tickTableIndex > ForexDataIO.getTickTableIndex(io.getEndOfStorage(
-						instrument, Period.TICK))) {
+		TablePrefetcher<?> barPrefetcher = barPrefetchers[k];
+		if (barPrefetcher != null) {
+			cancel(barPrefetcher);
+			barPrefetchers[k] = null;
+		}
+	}
 
-					outOfData.put(Period.TICK, true);
-					break;
-				}
+	/**
+	 * Returns the number of times the feed has waited for tables to be
+	 * loaded.
+	 * 
+	 * @return the number of times the feed has waited for tables
+	 */
+	public long getPrefetchStalls() {
+		long stalls = this.stalls;
 
-				ArrayList<ITick> ticks = io.loadTickTable(instrument, tickTableIndex);
+		if (tickPrefetcher != null)
+			stalls += tickPrefetcher.getStalls();
 
-				if (ticks != null)
-					upcomingTicks.addAll(ticks);
+		for (TablePrefetcher<?> prefetcher : barPrefetchers) {
+			if (prefetcher != null)
+				stalls += prefetcher.getStalls();
+		}
 
-				tickTableIndex++;
+		return stalls;
+	}
+
+	/**
+	 * Returns the time, in milliseconds, the feed has waited for tables to be
+	 * loaded.
+	 * 
+	 * @return the time waited for tables in milliseconds
+	 */
+	public double getPrefetchStallTime() {
+		long stallTime = this.stallTime;
+
+		if (tickPrefetcher != null)
+			stallTime += tickPrefetcher.getStallTime();
+
+		for (TablePrefetcher<?> prefetcher : barPrefetchers) {
+			if (prefetcher != null)
+				stallTime += prefetcher.getStallTime();
+		}
+
+		return stallTime / 1e6;
+	}
+
+	private void cancelPrefetching() {
+		TablePrefetcher<?> tickPrefetcher = this.tickPrefetcher;
+		if (tickPrefetcher != null) {
+			cancel(tickPrefetcher);
+			this.tickPrefetcher = null;
+		}
+
+		for (int k = 0; k < PERIODS.length; k++) {
+			TablePrefetcher<?> barPrefetcher = barPrefetchers[k];
+			if (barPrefetcher != null) {
+				cancel(barPrefetcher);
+				barPrefetchers[k] = null;
 			}
 		}
+	}
 
-		// update bars
-		for (Period p : ForexConstants.BAR_PERIODS) {
+	private void cancel(TablePrefetcher<?> prefetcher) {
+		prefetcher.cancel();
 
-			if (outOfData.get(p) || !updateNeeded(p))
-				continue;
+		stalls += prefetcher.getStalls();
+		stallTime += prefetcher.getStallTime();
+	}
+
+	/**
+	 * Takes loaded tables until the upcoming ticks and bars of each period
+	 * are more than NUM_ELEMENTS_TO_TRIGGER_UPDATE, or out of data. Tables
+	 * are loaded from the table after the last upcoming element, or from the
+	 * table of the start time if none.
+	 */
+	private void updateUpcoming() {
 
-			long barTableIndex;
+		// update ticks, the prefetchers being read once since they may be
+		// cancelled meanwhile
+		while (!outOfTickData && upcomingTicks.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE) {
 
-			if (upcomingAskBars.get(p).isEmpty())
-				barTableIndex = ForexDataIO.getBarTableIndex(p, startTime);
-			else
-				barTableIndex = ForexDataIO.getBarTableIndex(p, upcomingAskBars.get(p)
-						.getLast().getTime()) + 1;
+			TablePrefetcher<List<ITick>> tickPrefetcher = this.tickPrefetcher;
 
-			while (!outOfData.get(p) && updateNeeded(p)) {
+			if (tickPrefetcher == null) {
+				long tickTableIndex;
 
-				if (barTableIndex > ForexDataIO.getBarTableIndex(p,
-						io.getEndOfStorage(instrument, p))) {
-					outOfData.put(p, true);
-					break;
-				}
+				if (upcomingTicks.isEmpty())
+					tickTableIndex = ForexDataIO.getTickTableIndex(startTime);
+				else
+					tickTableIndex = ForexDataIO.getTickTableIndex(upcomingTicks.lastTime()) + 1;
 
-				ArrayList<IBar> askBars = io.loadBarTable(instrument, p, OfferSide.ASK,
-						barTableIndex);
-				ArrayList<IBar> bidBars = io.loadBarTable(instrument, p, OfferSide.BID,
-						barTableIndex);
+				Long endOfStorage = io.getEndOfStorage(instrument, Period.TICK);
 
-				if (askBars != null && bidBars != null) {
-					upcomingAskBars.get(p).addAll(askBars);
-					upcomingBidBars.get(p).addAll(bidBars);
+				if (endOfStorage == null) {
+					outOfTickData = true;
+					break;
 				}
 
-				checkUpcomingBarsCoherency(p);
+				tickPrefetcher = TablePrefetcher.startTicks(instrument, tickTableIndex,
+						ForexDataIO.getTickTableIndex(endOfStorage), tickPrefetchDepth);
+				this.tickPrefetcher = tickPrefetcher;
+			}
+
+			List<ITick> ticks = tickPrefetcher.next();
 
-				barTableIndex++;
+			if (ticks == null) {
+				// a cancelled prefetcher isn't out of data
+				if (!tickPrefetcher.isCancelled())
+					outOfTickData = true;
+				break;
 			}
-		}
-	}
 
-	private boolean updateNeeded(Period p) {
-		if (p.equals(Period.TICK)) {
-			return upcomingTicks.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE;
-		} else {
-			return upcomingAskBars.get(p).size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE;
+			upcomingTicks.addAll(ticks);
 		}
-	}
 
-	private void checkUpcomingBarsCoherency(Period p) {
-		if (upcomingAskBars.get(p).isEmpty() && upcomingBidBars.get(p).isEmpty())
-			return;
+		// update bars
+		for (int k = 0; k < PERIODS.length; k++) {
+			Period p = PERIODS[k];
+			BarRing bars = upcomingBars[k];
+
+			while (!outOfBarData[k] && bars.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE) {
+
+				TablePrefetcher<List<IBar>[]> barPrefetcher = barPrefetchers[k];
+
+				if (barPrefetcher == null) {
+					long barTableIndex;
 
-		if (upcomingAskBars.get(p).size() != upcomingBidBars.get(p).size()
-				|| upcomingAskBars.get(p).getFirst().getTime() != upcomingBidBars.get(p)
-						.getFirst().getTime()
-				|| upcomingAskBars.get(p).getLast().getTime() != upcomingBidBars.get(p)
-						.getLast().getTime()) {
-			throw new ForexException(
-					"incoherency of upcoming ask and bid bars of period " + p
-							+ " detected");
+					if (bars.isEmpty())
+						barTableIndex = ForexDataIO.getBarTableIndex(p, startTime);
+					else
+						barTableIndex = ForexDataIO.getBarTableIndex(p, bars.lastTime()) + 1;
+
+					long endTableIndex = ForexDataIO.getBarTableIndex(p,
+							io.getEndOfStorage(instrument, p));
+
+					barPrefetcher = TablePrefetcher.startBars(instrument, p, barTableIndex,
+							endTableIndex, barPrefetchDepths[k]);
+					barPrefetchers[k] = barPrefetcher;
+				}
+
+				List<IBar>[] loadedBars = barPrefetcher.next();
+
+				if (loadedBars == null) {
+					if (!barPrefetcher.isCancelled())
+						outOfBarData[k] = true;
+					break;
+				}
+
+				bars.addAll(loadedBars[0], loadedBars[1]);
+			}
 		}
 	}
-}
\ No newline at end of file
+}
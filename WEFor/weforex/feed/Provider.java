@@ -1,13 +1,22 @@
 package feed;
 
+import forex.Bar;
+import forex.BarBlock;
+import forex.BarSeries;
 import forex.ForexConstants;
 import forex.ForexException;
+import forex.RangeTree;
+import forex.TickBlock;
+import forex.TickSeries;
 import io.ForexDataIO;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import chart.TimeRange;
 
@@ -18,6 +27,7 @@ import com.dukascopy.api.Instrument;
 import com.dukascopy.api.JFException;
 import com.dukascopy.api.OfferSide;
 import com.dukascopy.api.Period;
+import com.dukascopy.api.TickBarSize;
 
 /**
  * This class uses a BarRequester and ForexDataIO to provide bars of time less
@@ -25,26 +35,41 @@ import com.dukascopy.api.Period;
  * the upper time limit of the bar requester shouldn't be supplied as they
  * virtually lie in the future.
  * 
+ * Ticks and bars are cached and returned as TickBlocks and BarBlocks, which
+ * keep them as columns of primitives rather than as one object each. Tables
+ * are cached in the TableCache shared by all providers, once complete, that
+ * is ending before the end of storage, and dropped from the cache when more
+ * ticks or bars of their instrument are stored. Ticks and bars of a
+ * time range are returned as TickSeries and BarSeries slicing the tables,
+ * found by binary search, without copying them. Ranges of ticks and bars
+ * are aggregated by the RangeTrees of the tables, see getRangeBar, and a
+ * time range can be provided at a coarser level of detail, see getRangeBars.
+ * 
+ * Ticks and bars can be requested asynchronously, see requestTicks,
+ * requestBars and submit, to keep loading off the event dispatch thread.
+ * 
  * @author Dennis Ekstrom
  */
 public class Provider {
-	// number of tables to keep in cache
-	public static final int NUM_TABLES_TO_CACHE = 200;
+	// runs the asynchronous requests of all providers
+	private static final ExecutorService loader = Executors
+			.newSingleThreadExecutor(new ThreadFactory() {
 
-	private ForexDataIO io;
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Provider loader");
+					thread.setDaemon(true);
 
-	private final Requester requester;
-	private IHistory history;
+					return thread;
+				}
+			});
+
+	private ForexDataIO io;
 
-	// tick cache
-	private NavigableMap<Long, List<ITick>> tickCache;
-	private long recentlyRequestedTickTable;
+	private final TableCache cache;
 
-	// bar cache
-	private NavigableMap<Long, List<IBar>> barCache;
-	private long recentlyRequestedBarTable;
-	private OfferSide cachingOfferSide;
-	private Period cachingPeriod;
+	private final Requester requester;
+	private volatile IHistory history;
 
 	/**
 	 * Create a provider.
@@ -59,11 +84,10 @@ public class Provider {
 		this.requester = requester;
 
 		io = ForexDataIO.getInstance();
+		cache = TableCache.getInstance();
 
-		resetTickCache();
-
-		if (requester instanceof BarRequester)
-			resetBarCache();
+		// added once, by the first provider
+		io.addStoreListener(cache);
 	}
 
 	/**
@@ -75,6 +99,74 @@ public class Provider {
 		this.history = history;
 	}
 
+	/**
+	 * Runs given load on the loader thread shared by all providers, returning
+	 * the future of its result. Loads are run one at a time, in the order
+	 * submitted. A load cancelled before being started is never run, so a load
+	 * superseded by a later one should be cancelled.
+	 * 
+	 * @param load the load to run
+	 * @return the future of the result of the load
+	 * @throws IllegalArgumentException if load is null
+	 */
+	public <T> Future<T> submit(Callable<T> load) {
+		if (load == null)
+			throw new IllegalArgumentException("load can't be null");
+
+		return loader.submit(load);
+	}
+
+	/**
+	 * Returns the future of the ticks of getTicks(from, to), loaded on the
+	 * loader thread, see submit.
+	 * 
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return the future of the ticks of time on the interval [from, to]
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public Future<List<ITick>> requestTicks(final long from, final long to) {
+		if (from > to) {
+			throw new IllegalArgumentException("Illegal interval from(" + from
+					+ ") > to(" + to + ")");
+		}
+
+		return submit(new Callable<List<ITick>>() {
+			@Override
+			public List<ITick> call() {
+				return getTicks(from, to);
+			}
+		});
+	}
+
+	/**
+	 * Returns the future of the bars of getBars(from, to), loaded on the
+	 * loader thread, see submit.
+	 * 
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @return the future of the bars of time on the interval [from, to)
+	 * @throws IllegalArgumentException if from >= to
+	 * @throws ForexException if the requester registered with this provider is
+	 *             not a BarRequester
+	 */
+	public Future<List<IBar>> requestBars(final long from, final long to) {
+		if (!(requester instanceof BarRequester)) {
+			throw new ForexException(
+					"The requester registered with provider is not a BarRequester");
+		} else if (from >= to) {
+			throw new IllegalArgumentException("Illegal interval from(" + from
+					+ ") >= to(" + to + ")");
+		}
+
+		return submit(new Callable<List<IBar>>() {
+			@Override
+			public List<IBar> call() {
+				return getBars(from, to);
+			}
+		});
+	}
+
 	private Long getStartOfData(Period period) {
 		return io.getStartOfStorage(requester.getInstrument(), period);
 	}
@@ -100,23 +192,25 @@ public class Provider {
 		}
 	}
 
-	private List<ITick> loadTickTable(long tableIndex) {
+	/**
+	 * Loads the tick table of given index, null if it couldn't be loaded.
+	 */
+	private TickBlock loadTickTable(long tableIndex) {
 		Instrument instrument = requester.getInstrument();
+		TimeRange range = ForexDataIO.getTickTableTimeRange(tableIndex);
 
 		if (history == null
 				|| tableIndex <= ForexDataIO.getTickTableIndex(io
 						.getEndOfStorage(instrument, Period.TICK))) {
 
-			return io.loadTickTable(instrument, tableIndex);
+			return TickBlock.of(io.loadTicks(instrument, range.startTime, range.endTime));
 
 		} else {
 
-			TimeRange range = ForexDataIO.getTickTableTimeRange(tableIndex);
-
 			try {
 
-				return history.getTicks(instrument, range.startTime,
-						range.endTime);
+				return TickBlock.of(history.getTicks(instrument, range.startTime,
+						range.endTime));
 
 			} catch (JFException e) {
 				throw new ForexException(e.getMessage());
@@ -124,7 +218,11 @@ public class Provider {
 		}
 	}
 
-	private List<IBar> loadBarTable(Period period, OfferSide offerSide,
+	/**
+	 * Loads the bar table of given period, offer side and index, null if it
+	 * couldn't be loaded.
+	 */
+	private BarBlock loadBarTable(Period period, OfferSide offerSide,
 			long tableIndex) {
 		Instrument instrument = requester.getInstrument();
 
@@ -132,7 +230,10 @@ public class Provider {
 				|| tableIndex <= ForexDataIO.getBarTableIndex(period,
 						io.getEndOfStorage(instrument, period))) {
 
-			return io.loadBarTable(instrument, period, offerSide, tableIndex);
+			TimeRange range = ForexDataIO.getBarTableTimeRange(period, tableIndex);
+
+			return BarBlock.of(io.loadBars(instrument, period, offerSide,
+					range.startTime, range.endTime));
 
 		} else {
 
@@ -140,9 +241,9 @@ public class Provider {
 
 			try {
 
-				return history.getBars(instrument, period, offerSide,
+				return BarBlock.of(history.getBars(instrument, period, offerSide,
 						range.startTime,
-						history.getBarStart(period, range.endTime));
+						history.getBarStart(period, range.endTime)));
 
 			} catch (JFException e) {
 				throw new ForexException(e.getMessage());
@@ -161,7 +262,7 @@ public class Provider {
 	 *         interval [from, to]
 	 * @throws IllegalArgumentException if from > to
 	 */
-	public ArrayList<ITick> getTicks(long from, long to) {
+	public List<ITick> getTicks(long from, long to) {
 		if (from > to) {
 			throw new IllegalArgumentException("Illegal interval from(" + from
 					+ ") > to(" + to + ")");
@@ -169,22 +270,43 @@ public class Provider {
 
 		long futureTime = requester.getUpperTimeLimit();
 
-		// set recently requested table
-		long centerOfRequestedTicks = (to - from) / 2;
-		if (centerOfRequestedTicks > futureTime)
-			centerOfRequestedTicks = futureTime;
-		recentlyRequestedTickTable = ForexDataIO
-				.getTickTableIndex(centerOfRequestedTicks);
-
 		// don't provide ticks of the future
 		if (from >= futureTime)
-			return new ArrayList<ITick>();
+			return new TickBlock(0);
 		if (to >= futureTime)
 			to = futureTime;
 
 		return loadTicks(requester.getInstrument(), from, to, true);
 	}
 
+	/**
+	 * Returns an estimate of the number of ticks of time on the interval
+	 * [from, to], see ForexDataIO.estimateTickCount, without loading any. Ticks
+	 * outside the storage range aren't counted.
+	 * 
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return an estimate of the number of ticks of time on the interval
+	 *         [from, to]
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public long estimateTickCount(long from, long to) {
+		if (from > to) {
+			throw new IllegalArgumentException("Illegal interval from(" + from
+					+ ") > to(" + to + ")");
+		}
+
+		long futureTime = requester.getUpperTimeLimit();
+
+		// don't count ticks of the future
+		if (from >= futureTime)
+			return 0L;
+		if (to >= futureTime)
+			to = futureTime;
+
+		return io.estimateTickCount(requester.getInstrument(), from, to);
+	}
+
 	/**
 	 * Returns the most recent tick using the given time as current time. If a
 	 * tick exists of time equals to the given time, that tick is returned.
@@ -201,29 +323,15 @@ public class Provider {
 			time = Math.min(requester.getUpperTimeLimit(),
 					getEndOfData(Period.TICK));
 
-		List<ITick> ticks;
+		TickBlock ticks;
 		long tableIndex = ForexDataIO.getTickTableIndex(time);
 		do {
-			if (tickCache.containsKey(tableIndex)) {
-				ticks = tickCache.get(tableIndex);
-			} else {
-				ticks = loadTickTable(tableIndex);
-				cacheTicks(tableIndex, ticks);
-			}
+			ticks = getTickTable(tableIndex, true);
 
-			if (ticks != null && !ticks.isEmpty()
-					&& ticks.get(0).getTime() <= time) {
-
-				// check last
-				if (ticks.get(ticks.size() - 1).getTime() <= time)
-					return ticks.get(ticks.size() - 1);
-
-				for (int i = 0; i < ticks.size(); i++) {
-					if (ticks.get(i).getTime() > time) {
-						return ticks.get(i - 1);
-					}
-				}
-			}
+			// the last tick of time <= time
+			int index = ticks.higherIndex(time) - 1;
+			if (index >= 0)
+				return ticks.get(index);
 		} while (--tableIndex >= ForexDataIO
 				.getTickTableIndex(getStartOfData(Period.TICK)));
 
@@ -245,120 +353,91 @@ public class Provider {
 		else if (time < getStartOfData(Period.TICK))
 			time = getStartOfData(Period.TICK);
 
-		List<ITick> ticks;
+		TickBlock ticks;
 		long tableIndex = ForexDataIO.getTickTableIndex(time);
 		do {
-			if (tickCache.containsKey(tableIndex)) {
-				ticks = tickCache.get(tableIndex);
-			} else {
-				ticks = loadTickTable(tableIndex);
-				cacheTicks(tableIndex, ticks);
-			}
-
-			if (ticks != null && !ticks.isEmpty()
-					&& ticks.get(ticks.size() - 1).getTime() >= time) {
-
-				// check first
-				if (ticks.get(0).getTime() >= time)
-					return ticks.get(0);
+			ticks = getTickTable(tableIndex, true);
 
-				for (int i = ticks.size() - 2; i <= 0; i--) {
-					if (ticks.get(i).getTime() < time) {
-						return ticks.get(i + 1);
-					}
-				}
-			}
+			// the first tick of time >= time
+			int index = ticks.ceilingIndex(time);
+			if (index < ticks.size())
+				return ticks.get(index);
 		} while (++tableIndex <= ForexDataIO
 				.getTickTableIndex(getEndOfData(Period.TICK)));
 
 		return null;
 	}
 
-	private ArrayList<ITick> loadTicks(Instrument instrument, long from,
+	private TickSeries loadTicks(Instrument instrument, long from,
 			long to, boolean cacheLoadedTicks) {
 		long startTableIndex = ForexDataIO.getTickTableIndex(from);
 		long endTableIndex = ForexDataIO.getTickTableIndex(to);
 
-		ArrayList<ITick> ticks = new ArrayList<ITick>();
-		List<ITick> table = null;
-		boolean cacheContains = false;
+		TickSeries ticks = new TickSeries();
 		for (long i = startTableIndex; i <= endTableIndex; i++) {
-			// look for requested table in cache, otherwise load from database
-			if (tickCache.containsKey(i)) {
-				cacheContains = true;
-				table = tickCache.get(i);
-			} else {
-				table = loadTickTable(i);
-			}
+			TickBlock table = getTickTable(i, cacheLoadedTicks);
 
-			if (table != null) // loading successful
-				ticks.addAll(table);
-
-			if (cacheLoadedTicks && !cacheContains)
-				cacheTicks(i, table); // cache loaded table
+			// the ticks of the table on [from, to]
+			ticks.addSlice(table, table.ceilingIndex(from), table.higherIndex(to));
 		}
 
-		int fromIndex = -1, toIndex = -1;
-		for (int i = 0; i < ticks.size(); i++) {
-			if (ticks.get(i).getTime() >= from) {
-				fromIndex = i;
-				break;
-			}
-		}
+		return ticks;
+	}
 
-		for (int i = ticks.size() - 1; i >= 0; i--) {
-			if (ticks.get(i).getTime() <= to) {
-				toIndex = i;
-				break;
-			}
-		}
+	/**
+	 * Returns the tick table of given index from the cache, loading it if not
+	 * cached. A table that couldn't be loaded is returned as an empty block,
+	 * not cached. The loaded table is cached if cacheLoaded is true and the
+	 * table is complete, see isComplete.
+	 */
+	private TickBlock getTickTable(long tableIndex, boolean cacheLoaded) {
+		Instrument instrument = requester.getInstrument();
 
-		if (fromIndex < 0 || fromIndex < 0 || toIndex < fromIndex)
-			return new ArrayList<ITick>();
+		TickBlock table = cache.getTicks(instrument, tableIndex);
+		if (table != null)
+			return table;
 
-		ArrayList<ITick> ret = new ArrayList<ITick>(toIndex - fromIndex + 1);
+		table = loadTickTable(tableIndex);
+		if (table == null)
+			return new TickBlock(0);
 
-		for (int i = fromIndex; i <= toIndex; i++)
-			ret.add(ticks.get(i));
+		if (cacheLoaded
+				&& isComplete(Period.TICK, ForexDataIO.getTickTableTimeRange(tableIndex)))
+			cache.putTicks(instrument, tableIndex, table);
 
-		return ret;
+		return table;
 	}
 
 	/**
-	 * Cache the given tick table. If cache is full, clear all tables but those
-	 * within (NUM_TABLES_TO_CACHE / 4) on both sides of
-	 * recentlyRequestedTickTable.
+	 * Returns true if a table of given period and time range is complete,
+	 * ending before the end of storage of the period, so no more ticks or
+	 * bars are appended to it.
 	 */
-	private void cacheTicks(Long tableIndex, List<ITick> tableData) {
-		if (tickCache.size() < NUM_TABLES_TO_CACHE) {
-			tickCache.put(tableIndex, tableData);
-		} else {
-			Long fromKey = recentlyRequestedTickTable, toKey = recentlyRequestedTickTable;
-			for (int i = 0; i < NUM_TABLES_TO_CACHE / 4; i++) {
-				if (fromKey != null)
-					fromKey = tickCache.lowerKey(fromKey);
-				if (toKey != null)
-					toKey = tickCache.lowerKey(toKey);
-			}
-			tickCache = tickCache.subMap(fromKey, true, toKey, true);
-		}
-	}
+	private boolean isComplete(Period period, TimeRange range) {
+		Long endOfStorage = io.getEndOfStorage(requester.getInstrument(), period);
 
-	private void resetTickCache() {
-		tickCache = new TreeMap<Long, List<ITick>>();
-		recentlyRequestedTickTable = 0;
+		return endOfStorage != null && range.endTime < endOfStorage;
 	}
 
 	/**
-	 * Returns a bar builder representing the bar as it would look if it was
-	 * currently being built, treating the time given as the current time.
+	 * Returns an aggregator building the bar of the period and offer side of
+	 * the requester as it would look if it was currently being built, treating
+	 * the time given as the current time. The bar is read through
+	 * getBuildingBar of the aggregator, and is null if no data of the bar could
+	 * be loaded. Ticks supplied later can be added to the aggregator to keep
+	 * building the bar.
+	 * 
+	 * The tables loaded are not cached, as the bar is built from the most
+	 * recent tables, which are still growing.
 	 * 
-	 * @param time the time to be treated as upper time limit of the returned
-	 *            building bar
-	 * @return a bar builder representing the bar as it would look if it was
+	 * @param time the time to be treated as upper time limit of the building
+	 *            bar
+	 * @return an aggregator building the bar as it would look if it was
 	 *         currently being built, given the time as the current time
+	 * @throws ForexException if the requester registered with this provider is
+	 *             not a BarRequester
 	 */
-	public BarBuilder getBuildingBar(long time) {
+	public BarAggregator getBarAggregator(long time) {
 		if (!(requester instanceof BarRequester)) {
 			throw new ForexException(
 					"The requester registered with provider is not a BarRequester");
@@ -369,7 +448,9 @@ public class Provider {
 		long openTime = ForexDataIO.getBarStart(requester.getPeriod(), time);
 		long startTime = openTime;
 		long endTime;
-		BarBuilder builder = new BarBuilder(requester.getOfferSide(), openTime);
+		BarAggregator aggregator = new BarAggregator(
+				Collections.singletonList(requester.getPeriod()),
+				Collections.<TickBarSize> emptyList(), null);
 		Period p;
 		for (int i = ForexConstants.BAR_PERIODS.size() - 1; i >= 0; i--) {
 			p = ForexConstants.BAR_PERIODS.get(i);
@@ -380,21 +461,254 @@ public class Provider {
 			if (startTime + p.getInterval() > endTime)
 				continue;
 
-			ArrayList<IBar> bars = loadBars(requester.getInstrument(), p,
-					requester.getOfferSide(), startTime, endTime, false);
+			// the bars of the period aggregated as one
+			IBar bar = aggregate(p, requester.getOfferSide(), startTime, endTime,
+					false);
 
-			builder.addBars(bars);
+			if (bar != null)
+				aggregator.addBar(requester.getOfferSide(), bar);
 
 			startTime = endTime;
 		}
 
-		builder.addTicks(loadTicks(requester.getInstrument(), startTime, time,
+		aggregator.addTicks(loadTicks(requester.getInstrument(), startTime, time,
 				false));
 
-		if (builder.isOpen())
-			return builder;
-		else
+		return aggregator;
+	}
+
+	/**
+	 * Returns the bars of the period and offer side of the requester of time on
+	 * the interval [from, to) aggregated as one bar, of the time and open of
+	 * the first bar and the close of the last. If the period of the requester
+	 * is Period.TICK, the prices and volumes of the offer side of the ticks are
+	 * aggregated. Returns null if there are no such bars or ticks.
+	 * 
+	 * The bars or ticks aren't read one by one, but aggregated by the range
+	 * trees of their tables, in O(log n) time per table.
+	 * 
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @return the bars or ticks on the interval aggregated as one bar, or null
+	 *         if there are no such bars or ticks
+	 * @throws IllegalArgumentException if from >= to
+	 * @throws ForexException if the requester registered with this provider is
+	 *             not a BarRequester
+	 */
+	public IBar getRangeBar(long from, long to) {
+		if (!(requester instanceof BarRequester)) {
+			throw new ForexException(
+					"The requester registered with provider is not a BarRequester");
+		} else if (from >= to) {
+			throw new IllegalArgumentException("Illegal interval from(" + from
+					+ ") >= to(" + to + ")");
+		}
+
+		BarRequester requester = (BarRequester) this.requester;
+
+		// don't aggregate bars or ticks of the future
+		long timeLimit = getTimeLimit(requester.getPeriod());
+
+		if (from >= timeLimit)
+			return null;
+		else if (to > timeLimit)
+			to = timeLimit;
+
+		return aggregate(requester.getPeriod(), requester.getOfferSide(), from, to,
+				true);
+	}
+
+	/**
+	 * Returns the bars of the period and offer side of the requester, or the
+	 * ticks if of Period.TICK, of time on the interval [from, to) aggregated
+	 * into bars of given interval, see getRangeBar. The first bar is of the
+	 * interval starting at from, and each bar is of the time of the start of
+	 * its interval. Intervals without any bar or tick are skipped.
+	 * 
+	 * The bars are aggregated at the coarsest level of detail that still keeps
+	 * the highs and lows of the intervals: the coarsest period of
+	 * ForexConstants.BAR_PERIODS stored from from on, of the period of the
+	 * requester or coarser and of an interval not greater than given interval.
+	 * As the bars or ticks are aggregated by the range trees of their tables,
+	 * the time taken depends on the number of intervals rather than on the
+	 * number of bars or ticks on the interval [from, to).
+	 * 
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @param interval the interval of the bars to return
+	 * @return the bars or ticks on the interval aggregated into bars of given
+	 *         interval
+	 * @throws IllegalArgumentException if from >= to or interval < 1
+	 * @throws ForexException if the requester registered with this provider is
+	 *             not a BarRequester
+	 */
+	public List<IBar> getRangeBars(long from, long to, long interval) {
+		if (!(requester instanceof BarRequester)) {
+			throw new ForexException(
+					"The requester registered with provider is not a BarRequester");
+		} else if (from >= to) {
+			throw new IllegalArgumentException("Illegal interval from(" + from
+					+ ") >= to(" + to + ")");
+		} else if (interval < 1) {
+			throw new IllegalArgumentException("interval(" + interval + ") < 1");
+		}
+
+		BarRequester requester = (BarRequester) this.requester;
+		Period period = requester.getPeriod();
+		OfferSide offerSide = requester.getOfferSide();
+
+		// don't aggregate bars or ticks of the future
+		long timeLimit = getTimeLimit(period);
+		if (to > timeLimit)
+			to = timeLimit;
+
+		BarBlock bars = new BarBlock();
+
+		Period resolution = getResolution(period, from, interval);
+
+		// the bars of the resolution are aggregated until the last one
+		// completed, the time after at the level of detail of the requester
+		long resolutionLimit = Math.min(to, getTimeLimit(resolution));
+
+		for (long start = from; start < to; start += interval) {
+			long end = Math.min(start + interval, to);
+
+			IBar bar = null;
+			if (start < resolutionLimit)
+				bar = aggregate(resolution, offerSide, start,
+						Math.min(end, resolutionLimit), true);
+			if (end > resolutionLimit)
+				bar = merge(bar, aggregate(period, offerSide,
+						Math.max(start, resolutionLimit), end, true));
+
+			if (bar != null)
+				bars.add(start, bar.getOpen(), bar.getClose(), bar.getHigh(),
+						bar.getLow(), bar.getVolume());
+		}
+
+		return bars;
+	}
+
+	/**
+	 * Returns the time before which the bars of given period, or the ticks if
+	 * of Period.TICK, are completed at the upper time limit of the requester.
+	 */
+	private long getTimeLimit(Period period) {
+		long upperTimeLimit = requester.getUpperTimeLimit();
+
+		return period.equals(Period.TICK) ? upperTimeLimit + 1 : ForexDataIO
+				.getBarStart(period, upperTimeLimit);
+	}
+
+	/**
+	 * Returns the coarsest period of ForexConstants.BAR_PERIODS stored from
+	 * given time on, coarser than given period and of an interval not greater
+	 * than given interval. Returns given period if there is no such period.
+	 */
+	private Period getResolution(Period period, long from, long interval) {
+		Period resolution = period;
+
+		for (Period p : ForexConstants.BAR_PERIODS) {
+			if (p.getInterval() > interval)
+				break;
+
+			if (!period.equals(Period.TICK) && p.getInterval() <= period.getInterval())
+				continue;
+
+			Long startOfStorage = getStartOfData(p);
+			if (startOfStorage != null && startOfStorage <= from)
+				resolution = p;
+		}
+
+		return resolution;
+	}
+
+	/**
+	 * Returns given bars aggregated as one bar, the first preceding the
+	 * second, or either of them if the other is null.
+	 */
+	private static IBar merge(IBar first, IBar second) {
+		if (first == null)
+			return second;
+		else if (second == null)
+			return first;
+
+		return new Bar(first.getTime(), first.getOpen(), second.getClose(), Math.max(
+				first.getHigh(), second.getHigh()), Math.min(first.getLow(),
+				second.getLow()), first.getVolume() + second.getVolume());
+	}
+
+	/**
+	 * Returns the bars of given period and offer side, or the ticks if of
+	 * Period.TICK, of time on the interval [from, to) aggregated as one bar,
+	 * null if there are no such bars or ticks. The tables loaded and their range
+	 * trees are cached if cacheLoaded is true, see getRangeTree.
+	 */
+	private IBar aggregate(Period period, OfferSide offerSide, long from, long to,
+			boolean cacheLoaded) {
+		boolean ticks = period.equals(Period.TICK);
+
+		long startTableIndex = ticks ? ForexDataIO.getTickTableIndex(from)
+				: ForexDataIO.getBarTableIndex(period, from);
+		long endTableIndex = ticks ? ForexDataIO.getTickTableIndex(to - 1)
+				: ForexDataIO.getBarTableIndex(period, to - 1);
+
+		IBar first = null, last = null;
+		double high = Double.NEGATIVE_INFINITY, low = Double.POSITIVE_INFINITY;
+		double volume = 0;
+
+		for (long i = startTableIndex; i <= endTableIndex; i++) {
+			IBar bar = getRangeTree(period, offerSide, i, cacheLoaded).getRangeBar(
+					from, to);
+			if (bar == null)
+				continue;
+
+			if (first == null)
+				first = bar;
+			last = bar;
+
+			high = Math.max(high, bar.getHigh());
+			low = Math.min(low, bar.getLow());
+			volume += bar.getVolume();
+		}
+
+		if (first == null)
 			return null;
+
+		return new Bar(first.getTime(), first.getOpen(), last.getClose(), high, low,
+				volume);
+	}
+
+	/**
+	 * Returns the range tree of the bar table of given period, offer side and
+	 * index, or of the prices of given offer side of the tick table of given
+	 * index if of Period.TICK, from the cache, building it if not cached. The
+	 * tree is cached, like its table, if cacheLoaded is true and the table is
+	 * complete, see isComplete, unless empty: an empty tree is cheap to build,
+	 * and may be of a table that couldn't be loaded.
+	 */
+	private RangeTree getRangeTree(Period period, OfferSide offerSide, long tableIndex,
+			boolean cacheLoaded) {
+		Instrument instrument = requester.getInstrument();
+
+		RangeTree tree = cache.getTree(instrument, period, offerSide, tableIndex);
+		if (tree != null)
+			return tree;
+
+		TimeRange range;
+		if (period.equals(Period.TICK)) {
+			tree = RangeTree.ofTicks(getTickTable(tableIndex, cacheLoaded), offerSide);
+			range = ForexDataIO.getTickTableTimeRange(tableIndex);
+		} else {
+			tree = RangeTree.ofBars(getBarTable(period, offerSide, tableIndex,
+					cacheLoaded));
+			range = ForexDataIO.getBarTableTimeRange(period, tableIndex);
+		}
+
+		if (cacheLoaded && !tree.isEmpty() && isComplete(period, range))
+			cache.putTree(instrument, period, offerSide, tableIndex, tree);
+
+		return tree;
 	}
 
 	/**
@@ -415,7 +729,7 @@ public class Provider {
 	 * @throws ForexException if the requester registered with this provider is
 	 *             not a BarRequester
 	 */
-	public ArrayList<IBar> getBars(long from, long to) {
+	public List<IBar> getBars(long from, long to) {
 		if (!(requester instanceof BarRequester)) {
 			throw new ForexException(
 					"The requester registered with provider is not a BarRequester");
@@ -429,22 +743,9 @@ public class Provider {
 		long barTimeLimit = ForexDataIO.getBarStart(requester.getPeriod(),
 				requester.getUpperTimeLimit());
 
-		// reset cache if offer side or period has changed
-		if (!cachingOfferSide.equals(requester.getOfferSide())
-				|| !cachingPeriod.equals(requester.getPeriod()))
-			resetBarCache();
-
-		// set recently requested table
-		long centerOfRequestedBars = (from + to) / 2;
-		if (centerOfRequestedBars > barTimeLimit)
-			centerOfRequestedBars = barTimeLimit;
-
-		recentlyRequestedBarTable = ForexDataIO.getBarTableIndex(
-				requester.getPeriod(), centerOfRequestedBars);
-
 		// don't provide ticks of the future
 		if (from >= barTimeLimit)
-			return new ArrayList<IBar>();
+			return new BarBlock(0);
 		else if (to > barTimeLimit)
 			to = barTimeLimit;
 
@@ -484,35 +785,18 @@ public class Provider {
 			time = Math.min(requester.getUpperTimeLimit(), endOfStorage);
 		}
 
-		List<IBar> bars;
+		BarBlock bars;
 		long tableIndex = ForexDataIO.getBarTableIndex(requester.getPeriod(),
 				time);
 		do {
-			if (barCache.containsKey(tableIndex)) {
-				bars = barCache.get(tableIndex);
-			} else {
-				bars = loadBarTable(requester.getPeriod(),
-						requester.getOfferSide(), tableIndex);
-				cacheBars(tableIndex, bars);
-			}
-
-			if (bars != null
-					&& !bars.isEmpty()
-					&& bars.get(0).getTime()
-							+ requester.getPeriod().getInterval() <= time) {
-
-				// check last
-				if (bars.get(bars.size() - 1).getTime()
-						+ requester.getPeriod().getInterval() <= time)
-					return bars.get(bars.size() - 1);
-
-				for (int i = 0; i < bars.size(); i++) {
-					if (bars.get(i).getTime()
-							+ requester.getPeriod().getInterval() > time) {
-						return bars.get(i - 1);
-					}
-				}
-			}
+			bars = getBarTable(requester.getPeriod(), requester.getOfferSide(),
+					tableIndex, true);
+
+			// the last bar completed at time, of time + interval <= time
+			int index = bars.higherIndex(time
+					- requester.getPeriod().getInterval()) - 1;
+			if (index >= 0)
+				return bars.get(index);
 		} while (--tableIndex >= ForexDataIO.getBarTableIndex(
 				requester.getPeriod(), getStartOfData(requester.getPeriod())));
 
@@ -527,84 +811,62 @@ public class Provider {
 	 * 
 	 * An empty list is returned if any bar on the interval couldn't be loaded.
 	 */
-	private ArrayList<IBar> loadBars(Instrument instrument, Period period,
+	private BarSeries loadBars(Instrument instrument, Period period,
 			OfferSide offerSide, long from, long to, boolean cacheLoadedBars) {
 
 		long startTableIndex = ForexDataIO.getBarTableIndex(period, from);
 		long endTableIndex = ForexDataIO.getBarTableIndex(period, to);
 
-		int initialCapacity = (int) (endTableIndex - startTableIndex + 1)
-				* ForexDataIO.MAX_ROWS_PER_BAR_TABLE + 1;
-
-		ArrayList<IBar> bars = new ArrayList<IBar>(initialCapacity);
-		List<IBar> table = null;
-		boolean cacheContains = false;
-		for (long i = startTableIndex; i <= endTableIndex; i++) {
-			// look for requested table in cache, otherwise load from database
-			if (barCache.containsKey(i)) {
-				cacheContains = true;
-				table = barCache.get(i);
-			} else {
-				table = loadBarTable(period, offerSide, i);
-			}
-
-			if (table != null) // loading successful
-				bars.addAll(table);
-
-			if (cacheLoadedBars && !cacheContains)
-				cacheBars(i, table); // cache loaded table
-		}
+		int numTables = (int) (endTableIndex - startTableIndex + 1);
+		BarBlock[] tables = new BarBlock[numTables];
 
-		int fromIndex = -1, toIndex = -1;
-		for (int i = 1; i < bars.size(); i++) {
-			if (bars.get(i).getTime() > from) {
-				fromIndex = i - 1;
-				break;
-			}
-		}
+		// the table and index of the first bar, the last of time <= from
+		int first = 0, firstIndex = 0;
+		for (int t = 0; t < numTables; t++) {
+			tables[t] = getBarTable(period, offerSide, startTableIndex + t,
+					cacheLoadedBars);
 
-		for (int i = bars.size() - 1; i >= 0; i--) {
-			if (bars.get(i).getTime() < to) {
-				toIndex = i;
-				break;
+			int index = tables[t].higherIndex(from) - 1;
+			if (index >= 0) {
+				first = t;
+				firstIndex = index;
 			}
 		}
 
-		if (fromIndex < 0 || fromIndex < 0 || toIndex < fromIndex)
-			return new ArrayList<IBar>();
+		BarSeries bars = new BarSeries();
+		for (int t = first; t < numTables; t++) {
+			int fromIndex = t == first ? firstIndex : 0;
+			int toIndex = tables[t].ceilingIndex(to);
 
-		ArrayList<IBar> ret = new ArrayList<IBar>(toIndex - fromIndex + 1);
-
-		for (int i = fromIndex; i <= toIndex; i++)
-			ret.add(bars.get(i));
+			if (fromIndex < toIndex)
+				bars.addSlice(tables[t], fromIndex, toIndex);
+		}
 
-		return ret;
+		return bars;
 	}
 
 	/**
-	 * Cache the given bar table. If cache is full, clear all tables but those
-	 * within (NUM_TABLES_TO_CACHE / 4) on both sides of
-	 * recentlyRequestedBarTable.
+	 * Returns the bar table of given period, offer side and index from the
+	 * cache, loading it if not cached. A table that couldn't be loaded is
+	 * returned as an empty block, not cached. The loaded table is cached if
+	 * cacheLoaded is true and the table is complete, see isComplete.
 	 */
-	private void cacheBars(Long tableIndex, List<IBar> tableData) {
-		if (barCache.size() < NUM_TABLES_TO_CACHE) {
-			barCache.put(tableIndex, tableData);
-		} else {
-			Long fromKey = recentlyRequestedBarTable, toKey = recentlyRequestedBarTable;
-			for (int i = 0; i < NUM_TABLES_TO_CACHE / 4; i++) {
-				if (fromKey != null)
-					fromKey = barCache.lowerKey(fromKey);
-				if (toKey != null)
-					toKey = barCache.lowerKey(toKey);
-			}
-			barCache = barCache.subMap(fromKey, true, toKey, true);
-		}
-	}
+	private BarBlock getBarTable(Period period, OfferSide offerSide,
+			long tableIndex, boolean cacheLoaded) {
+		Instrument instrument = requester.getInstrument();
+
+		BarBlock table = cache.getBars(instrument, period, offerSide, tableIndex);
+		if (table != null)
+			return table;
+
+		table = loadBarTable(period, offerSide, tableIndex);
+		if (table == null)
+			return new BarBlock(0);
+
+		if (cacheLoaded
+				&& isComplete(period, ForexDataIO.getBarTableTimeRange(period, tableIndex)))
+			cache.putBars(instrument, period, offerSide, tableIndex, table);
 
-	private void resetBarCache() {
-		barCache = new TreeMap<Long, List<IBar>>();
-		cachingOfferSide = ((BarRequester) requester).getOfferSide();
-		cachingPeriod = ((BarRequester) requester).getPeriod();
-		recentlyRequestedBarTable = 0;
+		return table;
 	}
-}
\ No newline at end of file
+}
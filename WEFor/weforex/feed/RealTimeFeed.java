@@ -2,22 +2,18 @@ package feed;
 
 import io.ForexDataIO;
 
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-
-import javax.swing.Timer;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.dukascopy.api.IBar;
 import com.dukascopy.api.ITick;
@@ -45,37 +41,94 @@ import forex.ForexException;
  * be unexpectedly big in the event of ticks not being found in the data base in
  * the middle of creation a TickBar.
  * 
+ * The feed is driven by a FeedClock, running the updates of the feed on a
+ * thread of its own. Every update advances the current time by [updateInterval
+ * * speed] milliseconds. A real-time clock paces the updates at one per
+ * updateInterval of wall clock time, while a virtual clock runs them back to
+ * back, as fast as listeners consume the supplied elements. An update waits
+ * for the upcoming elements of the current time to be loaded, so the same
+ * elements are supplied in the same order with either clock. Listeners are
+ * called on the thread of the clock, or on the event dispatch thread through
+ * invokeOnEventDispatchThread, one update at a time.
+ * 
  * @author Dennis Ekstrom
  */
 public class RealTimeFeed extends TimeRelativeFeed {
 
-	@SuppressWarnings("serial")
-	private class UpdateTimer extends Timer {
+	/**
+	 * An update of the feed, run by the clock.
+	 */
+	private class Update implements FeedClock.Step {
 
-		public UpdateTimer(int updateInterval) {
-			super(updateInterval, new ActionListener() {
+		@Override
+		public int step() {
 
-				@Override
-				public void actionPerformed(ActionEvent evt) {
+			if (latestTimeOfSupply == null || currentTime > latestTimeOfSupply)
+				stopFeed();
 
-					if (latestTimeOfSupply == null || currentTime > latestTimeOfSupply)
-						stopFeed();
+			setCurrentTime(currentTime + getTimeIncrement());
 
-					setCurrentTime(currentTime + getTimeIncrement());
+			awaitUpcoming();
 
-					supplyElements();
+			int supplied = supplyElements();
 
-					updateCache();
-				}
-			});
+			updateCache();
+
+			return supplied;
+		}
+	}
+
+	/**
+	 * Appends tick bars completed by the tick bar aggregator to the upcoming
+	 * tick bars.
+	 */
+	private class UpcomingTickBarCollector implements BarAggregator.Listener {
+
+		@Override
+		public void onBar(Period period, OfferSide offerSide, long time, double open,
+				double close, double high, double low, double volume) {
+			// no bars are aggregated
+		}
 
-			// timer should not be coalesce since it keeps track of time
-			this.setCoalesce(false);
+		@Override
+		public void onTickBar(TickBarSize tickBarSize, OfferSide offerSide, long time,
+				long endTime, double open, double close, double high, double low,
+				double volume, long formedElementsCount) {
+
+			// the aggregator completes the ask tick bar before the bid tick bar
+			// formed by the same ticks
+			TickBarRing tickBars = upcomingTickBars[indexOf(tickBarSize)];
+
+			if (offerSide == OfferSide.ASK)
+				tickBars.addAsk(time, endTime, open, close, high, low, volume,
+						formedElementsCount);
+			else
+				tickBars.addBid(time, endTime, open, close, high, low, volume,
+						formedElementsCount);
 		}
 	}
 
+	/**
+	 * Loads the next table of upcoming ticks. A finder is created for every
+	 * load, so a finder still being run after being cancelled doesn't affect
+	 * the next load.
+	 */
 	private class NextTickFinder implements Callable<List<ITick>> {
-		private boolean outOfTickData;
+
+		// whether out of tick data, shared by the finders of one cache
+		private final AtomicBoolean outOfTickData;
+
+		// the time of the last upcoming tick, null if none, and the time to
+		// load from otherwise, set upon submission since the upcoming ticks
+		// and the current time are only accessed by the thread of the clock
+		private final Long lastTime;
+		private final long time;
+
+		NextTickFinder(AtomicBoolean outOfTickData, Long lastTime, long time) {
+			this.outOfTickData = outOfTickData;
+			this.lastTime = lastTime;
+			this.time = time;
+		}
 
 		@Override
 		public List<ITick> call() {
@@ -89,17 +142,17 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		 * OBS: use only from within tickFuture.
 		 */
 		private List<ITick> getUpcomingTicks() {
-			if (outOfTickData)
+			if (outOfTickData.get())
 				return null;
 
-			// add time increment since ticks of the current time upon supply
-			// will have increased
+			// load from the table of the current time, since ticks after the
+			// current time are supplied by the next update
 			long tickTableIndex;
-			if (upcomingTicks.isEmpty()) {
-				long time = currentTime + getTimeIncrement();
+			if (lastTime == null) {
+				long time = this.time;
 
 				if (time >= io.getEndOfStorage(instrument, Period.TICK)) {
-					outOfTickData = true;
+					outOfTickData.set(true);
 					return null;
 				} else if (time < io.getStartOfStorage(instrument, Period.TICK)) {
 					time = io.getStartOfStorage(instrument, Period.TICK);
@@ -107,8 +160,7 @@ public class RealTimeFeed extends TimeRelativeFeed {
 
 				tickTableIndex = ForexDataIO.getTickTableIndex(time);
 			} else {
-				long time = upcomingTicks.getLast().getTime();
-				tickTableIndex = ForexDataIO.getTickTableIndex(time) + 1;
+				tickTableIndex = ForexDataIO.getTickTableIndex(lastTime) + 1;
 			}
 
 			List<ITick> ticks;
@@ -121,14 +173,28 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		}
 	}
 
+	/**
+	 * Loads the next table of upcoming bars of one period, see
+	 * NextTickFinder.
+	 */
 	private class NextBarFinder implements Callable<List<IBar>[]> {
 
-		private Period barPeriod;
+		private final Period barPeriod;
+
+		// whether out of bar data, shared by the finders of one cache
+		private final AtomicBoolean outOfBarData;
 
-		private boolean outOfBarData;
+		// the time of the last upcoming bars, null if none, and the time to
+		// load from otherwise, see NextTickFinder
+		private final Long lastTime;
+		private final long time;
 
-		NextBarFinder(Period barPeriod) {
+		NextBarFinder(Period barPeriod, AtomicBoolean outOfBarData, Long lastTime,
+				long time) {
 			this.barPeriod = barPeriod;
+			this.outOfBarData = outOfBarData;
+			this.lastTime = lastTime;
+			this.time = time;
 		}
 
 		@Override
@@ -149,21 +215,19 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		 *             bars
 		 */
 		private List<IBar>[] getUpcomingBars() {
-			if (outOfBarData)
+			if (outOfBarData.get())
 				return null;
 
-			checkUpcomingBarsCoherency(barPeriod);
-
-			// add time increment since bars of the current time upon supply
-			// will have increased
+			// load from the table of the current time, since bars ending
+			// after the current time are supplied by the next update
 			long barTableIndex;
-			if (upcomingAskBars.get(barPeriod).isEmpty()) {
-				long time = currentTime + getTimeIncrement();
+			if (lastTime == null) {
+				long time = this.time;
 
 				if (io.getStartOfStorage(instrument, barPeriod) == null
 						|| io.getEndOfStorage(instrument, barPeriod) == null
 						|| time >= io.getEndOfStorage(instrument, barPeriod)) {
-					outOfBarData = true;
+					outOfBarData.set(true);
 					return null;
 				} else if (time < io.getStartOfStorage(instrument, barPeriod)) {
 					time = io.getStartOfStorage(instrument, barPeriod);
@@ -171,8 +235,7 @@ public class RealTimeFeed extends TimeRelativeFeed {
 
 				barTableIndex = ForexDataIO.getBarTableIndex(barPeriod, time);
 			} else {
-				long time = upcomingAskBars.get(barPeriod).getLast().getTime();
-				barTableIndex = ForexDataIO.getBarTableIndex(barPeriod, time) + 1;
+				barTableIndex = ForexDataIO.getBarTableIndex(barPeriod, lastTime) + 1;
 			}
 
 			List<IBar> askBars;
@@ -191,7 +254,7 @@ public class RealTimeFeed extends TimeRelativeFeed {
 							.isEmpty()));
 
 			if (askBars != null && bidBars != null) {
-				@SuppressWarnings("unchecked")
+				@SuppressWarnings({ "unchecked", "rawtypes" })
 				List<IBar>[] ret = new List[2];
 				ret[0] = askBars;
 				ret[1] = bidBars;
@@ -204,26 +267,50 @@ public class RealTimeFeed extends TimeRelativeFeed {
 
 	private static final int NUM_ELEMENTS_TO_TRIGGER_LOADING = 200;
 
+	// streams of supply, indexed in order of supply of elements of equal
+	// supply time: bars (in ascending order of Period), tick, tick bars
+	private static final Period[] PERIODS = ForexConstants.BAR_PERIODS
+			.toArray(new Period[ForexConstants.BAR_PERIODS.size()]);
+	private static final TickBarSize[] TICK_BAR_SIZES = ForexConstants.TICK_BAR_SIZES
+			.toArray(new TickBarSize[ForexConstants.TICK_BAR_SIZES.size()]);
+	private static final int TICK_STREAM = PERIODS.length;
+	private static final int STREAMS = PERIODS.length + 1 + TICK_BAR_SIZES.length;
+
 	private final ExecutorService executor;
-	private NextTickFinder tickFinder;
+	private AtomicBoolean outOfTickData;
 	private Future<List<ITick>> tickFuture;
-	private HashMap<Period, NextBarFinder> barFinders;
-	private HashMap<Period, Future<List<IBar>[]>> barFutures;
+	private AtomicBoolean[] outOfBarData;
+	private final Future<List<IBar>[]>[] barFutures;
 
-	private HashSet<PropertyChangeListener> currentTimeListeners;
+	// notified by the thread of the clock
+	private CopyOnWriteArraySet<PropertyChangeListener> currentTimeListeners;
 
 	// next
-	private LinkedList<ITick> upcomingTicks;
-	private HashMap<TickBarSize, LinkedList<ITickBar>> upcomingAskTickBars;
-	private HashMap<TickBarSize, LinkedList<ITickBar>> upcomingBidTickBars;
-	private HashMap<Period, LinkedList<IBar>> upcomingAskBars;
-	private HashMap<Period, LinkedList<IBar>> upcomingBidBars;
+	private TickRing upcomingTicks;
+	private final TickBarRing[] upcomingTickBars = new TickBarRing[TICK_BAR_SIZES.length];
+	private final BarRing[] upcomingBars = new BarRing[PERIODS.length];
+
+	// builds tick bars of the upcoming ticks
+	private BarAggregator tickBarAggregator;
 
 	// previous
 	private ITick lastSuppliedTick;
 
-	// timer
-	private final UpdateTimer timer;
+	// supply slots of the streams of supply, reused every update
+	private final long[] supplyTimes = new long[STREAMS];
+	private final IBar[] askBarSupply = new IBar[PERIODS.length];
+	private final IBar[] bidBarSupply = new IBar[PERIODS.length];
+	private ITick tickSupply;
+	private final ITickBar[] askTickBarSupply = new ITickBar[TICK_BAR_SIZES.length];
+	private final ITickBar[] bidTickBarSupply = new ITickBar[TICK_BAR_SIZES.length];
+
+	// streams with an element to supply, as a min-heap
+	private final int[] supplyHeap = new int[STREAMS];
+	private int supplyHeapSize;
+
+	// clock
+	private final FeedClock clock;
+	private final Update update;
 	private final int updateInterval;
 
 	// io
@@ -234,10 +321,14 @@ public class RealTimeFeed extends TimeRelativeFeed {
 	private final Period tickInterval; // TODO TESTA ATT DENNA FUNKAR
 
 	private final double initialSpeed;
-	private double speed;
+	private volatile double speed;
 
 	private final long startTime;
-	private long currentTime;
+	private volatile long currentTime;
+
+	// elements ending before this time aren't supplied, the start time or the
+	// time sought
+	private long supplyFromTime;
 	private final Long latestTimeOfSupply;
 
 	/**
@@ -267,9 +358,38 @@ public class RealTimeFeed extends TimeRelativeFeed {
 	 */
 	public RealTimeFeed(Instrument instrument, Period tickInterval,
 			TickBarSize tickBarSize, double speed, long startTime, int updateInterval) {
+		this(instrument, tickInterval, tickBarSize, speed, startTime, updateInterval,
+				FeedClock.realTime());
+	}
+
+	/**
+	 * Create a RealTimeFeed driven by given clock. See RealTimeFeed(Instrument,
+	 * Period, TickBarSize, double, long, int).
+	 * 
+	 * A real-time clock supplies elements at the rate set by speed, while a
+	 * virtual clock supplies the same elements in the same order as fast as
+	 * listeners consume them.
+	 * 
+	 * @param instrument the instrument of the data supplied by this feed
+	 * @param tickInterval the interval of which ticks are supplied by this feed
+	 * @param tickBarSize the size of tick bars supplied by this feed
+	 * @param speed the speed of the feed
+	 * @param startTime the start time of the feed
+	 * @param updateInterval the interval, in milliseconds, between updates of
+	 *            this feed, that is, how exact the feed is relative real-time
+	 * @param clock the clock driving this feed
+	 * @throws IllegalArgumentException if any of the arguments are null
+	 * @throws IllegalArgumentException if speed <= 0
+	 * @throws IllegalArgumentException if startTime < 0
+	 * @throws IllegalArgumentException if updateInterval <= 0
+	 * @see FeedClock
+	 */
+	public RealTimeFeed(Instrument instrument, Period tickInterval,
+			TickBarSize tickBarSize, double speed, long startTime, int updateInterval,
+			FeedClock clock) {
 		super();
 
-		if (instrument == null || tickInterval == null) {
+		if (instrument == null || tickInterval == null || clock == null) {
 			throw new IllegalArgumentException("argument not allowed to be null");
 		} else if (speed <= 0) {
 			throw new IllegalArgumentException("speed(" + speed + ") <= 0");
@@ -280,12 +400,13 @@ public class RealTimeFeed extends TimeRelativeFeed {
 					+ ") <= 0");
 		}
 
-		// bar threads, finders and futures
-		barFinders = new HashMap<Period, NextBarFinder>();
-		barFutures = new HashMap<Period, Future<List<IBar>[]>>();
+		// bar threads and futures
+		@SuppressWarnings({ "unchecked", "rawtypes" })
+		Future<List<IBar>[]>[] barFutures = new Future[PERIODS.length];
+		this.barFutures = barFutures;
 
 		// listener lists
-		currentTimeListeners = new HashSet<PropertyChangeListener>();
+		currentTimeListeners = new CopyOnWriteArraySet<PropertyChangeListener>();
 
 		// initialize fields
 		this.instrument = instrument;
@@ -295,21 +416,18 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		this.startTime = startTime;
 		this.updateInterval = updateInterval;
 
-		timer = new UpdateTimer(updateInterval);
+		this.clock = clock;
+		update = new Update();
 
 		io = ForexDataIO.getInstance();
 
-		tickFinder = new NextTickFinder();
-		for (Period p : ForexConstants.BAR_PERIODS) {
-			barFinders.put(p, new NextBarFinder(p));
-		}
-
 		// executor to run futures - one thread for tick and one for each
 		// bar-period
 		executor = Executors.newFixedThreadPool(1 + ForexConstants.BAR_PERIODS.size());
 
 		// set current time
 		setCurrentTime(startTime);
+		supplyFromTime = startTime;
 
 		// set latest time of supply
 		Long latestTimeOfSupply = io.getEndOfStorage(instrument, Period.TICK);
@@ -329,78 +447,50 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		this.latestTimeOfSupply = latestTimeOfSupply;
 
 		resetCache();
-
-		prepareUpcomingTicks(true);
-
-		for (Period p : ForexConstants.BAR_PERIODS)
-			prepareUpcomingBars(p, true);
-
-		updateCache();
 	}
 
 	private long getTimeIncrement() {
 		return (long) (updateInterval * getSpeed());
 	}
 
-	private void prepareUpcomingTicks(boolean wait) {
+	private void prepareUpcomingTicks() {
+		// a finder being run isn't interrupted, its ticks are just dropped
 		if (tickFuture != null) {
-			tickFuture.cancel(true);
+			tickFuture.cancel(false);
 		}
 
-		tickFuture = executor.submit(tickFinder);
-
-		if (wait)
-			getNewlyLoadedTicks();
+		tickFuture = executor.submit(new NextTickFinder(outOfTickData, upcomingTicks
+				.isEmpty() ? null : upcomingTicks.lastTime(), currentTime));
 	}
 
-	private void prepareUpcomingTickBars() {
-
-		for (TickBarSize tbs : ForexConstants.TICK_BAR_SIZES) {
-
-			checkUpcomingTickBarsCoherency(tbs);
-
-			long time;
-			TickBarBuilder askBuilder = new TickBarBuilder(OfferSide.ASK);
-			TickBarBuilder bidBuilder = new TickBarBuilder(OfferSide.BID);
-
-			if (upcomingAskTickBars.get(tbs).isEmpty()) {
-				time = 0L;
-			} else {
-				time = upcomingAskTickBars.get(tbs).getLast().getEndTime();
-			}
-
-			for (ITick tick : upcomingTicks) {
-				if (tick.getTime() > time) {
-
-					askBuilder.addTick(tick);
-					bidBuilder.addTick(tick);
-
-					if (askBuilder.getFormedElementsCount() == tbs.getSize()) {
-						upcomingAskTickBars.get(tbs).add(askBuilder.produceTickBar());
-						upcomingBidTickBars.get(tbs).add(bidBuilder.produceTickBar());
-
-						askBuilder.reset(OfferSide.ASK);
-						bidBuilder.reset(OfferSide.BID);
+	/**
+	 * Builds the tick bars of all sizes of given ticks, newly added to the
+	 * upcoming ticks, in one pass. Tick bars being built are kept by the tick
+	 * bar aggregator until completed by later ticks.
+	 */
+	private void prepareUpcomingTickBars(List<ITick> ticks) {
+		tickBarAggregator.addTicks(ticks);
+	}
 
-						askBuilder.addTick(tick);
-						bidBuilder.addTick(tick);
-					}
-				}
-			}
+	/**
+	 * Returns the index of given tick bar size in TICK_BAR_SIZES.
+	 */
+	private static int indexOf(TickBarSize tickBarSize) {
+		int k = 0;
+		while (!TICK_BAR_SIZES[k].equals(tickBarSize))
+			k++;
 
-			checkUpcomingTickBarsCoherency(tbs);
-		}
+		return k;
 	}
 
-	private void prepareUpcomingBars(Period p, boolean wait) {
-		if (barFutures.get(p) != null) {
-			barFutures.get(p).cancel(true);
+	private void prepareUpcomingBars(int index) {
+		if (barFutures[index] != null) {
+			barFutures[index].cancel(false);
 		}
 
-		barFutures.put(p, executor.submit(barFinders.get(p)));
-
-		if (wait)
-			getNewlyLoadedBars(p);
+		BarRing bars = upcomingBars[index];
+		barFutures[index] = executor.submit(new NextBarFinder(PERIODS[index],
+				outOfBarData[index], bars.isEmpty() ? null : bars.lastTime(), currentTime));
 	}
 
 	private List<ITick> getNewlyLoadedTicks() {
@@ -413,9 +503,9 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		return null;
 	}
 
-	private List<IBar>[] getNewlyLoadedBars(Period p) {
+	private List<IBar>[] getNewlyLoadedBars(int index) {
 		try {
-			return barFutures.get(p).get();
+			return barFutures[index].get();
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
@@ -423,6 +513,46 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		return null;
 	}
 
+	/**
+	 * Waits for the upcoming ticks and bars to be loaded past the current
+	 * time, unless out of data, so what is supplied doesn't depend on how fast
+	 * elements are loaded relative to the clock.
+	 */
+	private void awaitUpcoming() {
+		// ticks and tick bars
+		while (upcomingTicks.isEmpty() || upcomingTicks.lastTime() <= currentTime) {
+
+			List<ITick> loadedTicks = getNewlyLoadedTicks();
+
+			if (loadedTicks == null || loadedTicks.isEmpty())
+				break;
+
+			upcomingTicks.addAll(loadedTicks);
+			prepareUpcomingTickBars(loadedTicks);
+
+			prepareUpcomingTicks();
+		}
+
+		// bars
+		for (int k = 0; k < PERIODS.length; k++) {
+
+			BarRing bars = upcomingBars[k];
+
+			while (bars.isEmpty() || bars.lastTime() + PERIODS[k].getInterval() <= currentTime) {
+
+				List<IBar>[] loadedBars = getNewlyLoadedBars(k);
+
+				if (loadedBars == null || loadedBars[0] == null || loadedBars[1] == null
+						|| loadedBars[0].isEmpty())
+					break;
+
+				bars.addAll(loadedBars[0], loadedBars[1]);
+
+				prepareUpcomingBars(k);
+			}
+		}
+	}
+
 	private void updateCache() {
 		// ticks and tick bars
 		if (upcomingTicks.size() < NUM_ELEMENTS_TO_TRIGGER_LOADING && tickFuture.isDone()) {
@@ -431,30 +561,24 @@ public class RealTimeFeed extends TimeRelativeFeed {
 
 			if (loadedTicks != null) {
 				upcomingTicks.addAll(loadedTicks);
-				prepareUpcomingTickBars();
+				prepareUpcomingTickBars(loadedTicks);
 			}
 
-			prepareUpcomingTicks(false);
+			prepareUpcomingTicks();
 		}
 
 		// bars
-		for (Period p : ForexConstants.BAR_PERIODS) {
-
-			checkUpcomingBarsCoherency(p);
-
-			if (upcomingAskBars.get(p).size() < NUM_ELEMENTS_TO_TRIGGER_LOADING
-					&& barFutures.get(p).isDone()) {
+		for (int k = 0; k < PERIODS.length; k++) {
 
-				List<IBar>[] loadedBars = getNewlyLoadedBars(p);
+			if (upcomingBars[k].size() < NUM_ELEMENTS_TO_TRIGGER_LOADING
+					&& barFutures[k].isDone()) {
 
-				if (loadedBars != null && loadedBars[0] != null && loadedBars[1] != null) {
-					upcomingAskBars.get(p).addAll(loadedBars[0]);
-					upcomingBidBars.get(p).addAll(loadedBars[1]);
+				List<IBar>[] loadedBars = getNewlyLoadedBars(k);
 
-					checkUpcomingBarsCoherency(p);
-				}
+				if (loadedBars != null && loadedBars[0] != null && loadedBars[1] != null)
+					upcomingBars[k].addAll(loadedBars[0], loadedBars[1]);
 
-				prepareUpcomingBars(p, false);
+				prepareUpcomingBars(k);
 			}
 		}
 	}
@@ -507,6 +631,16 @@ public class RealTimeFeed extends TimeRelativeFeed {
 		this.currentTime = currentTime;
 	}
 
+	/**
+	 * Returns the clock driving the feed, keeping statistics of the elements
+	 * supplied per second and the drift of the updates.
+	 * 
+	 * @return the clock driving the feed
+	 */
+	public FeedClock getClock() {
+		return clock;
+	}
+
 	/**
 	 * Returns the instrument of the feed.
 	 * 
@@ -558,12 +692,18 @@ public class RealTimeFeed extends TimeRelativeFeed {
 
 	@Override
 	public void startFeed() {
-		timer.start();
+		engageListeners();
+
+		clock.start(update, updateInterval * 1000000L);
 	}
 
 	@Override
 	public void stopFeed() {
-		timer.stop();
+		// an update waiting for the event dispatch thread keeps the clock from
+		// stopping, the relay stays released until the feed is started again
+		releaseListeners();
+
+		clock.stop();
 	}
 
 	/**
@@ -577,146 +717,277 @@ public class RealTimeFeed extends TimeRelativeFeed {
 	 *            automatically after reset, set to false for feed to stop
 	 */
 	public void reset(boolean continueAfterReset) {
-		timer.stop();
+		stopFeed();
 
 		// minus one since only looking for elements of higher time than current
 		// time
 		setCurrentTime(startTime);
+		supplyFromTime = startTime;
 
 		setSpeed(initialSpeed);
 
 		resetCache();
 
 		if (continueAfterReset)
-			timer.start();
+			startFeed();
+	}
+
+	/**
+	 * Moves the feed to given time, from which elements are supplied as if the
+	 * feed was started at the time. The feed keeps running if it was running.
+	 * 
+	 * Upcoming ticks and bars still buffered are kept if seeking forward
+	 * within them, so only the streams having run out of buffered elements
+	 * are reloaded, from the tables of given time. Tick bars are built anew
+	 * from the ticks kept. All streams are
+	 * reloaded if seeking backward. Streams are loaded in parallel, and this
+	 * method returns once the elements of the first update are loaded.
+	 * 
+	 * @param time the time to move the feed to
+	 * @throws IllegalArgumentException if time < 0
+	 */
+	public void seek(long time) {
+		if (time < 0)
+			throw new IllegalArgumentException("time(" + time + ") < 0");
+
+		boolean running = clock.isRunning();
+		stopFeed();
+
+		boolean forward = time >= currentTime;
+
+		setCurrentTime(time);
+		supplyFromTime = time;
+		lastSuppliedTick = null;
+
+		if (forward)
+			dropUpcoming(time);
+		else
+			resetCache();
+
+		if (running)
+			startFeed();
 	}
 
 	/**
-	 * Resets all caching.
+	 * Drops upcoming elements ending before given time and loads the streams
+	 * left without any upcoming elements.
+	 */
+	private void dropUpcoming(long time) {
+		// ticks, of which tick bars are built anew, since the tick bars and
+		// the tick bars being built include ticks dropped
+		while (!upcomingTicks.isEmpty() && upcomingTicks.firstTime() < time)
+			upcomingTicks.removeFirst();
+
+		resetUpcomingTickBars();
+
+		if (!upcomingTicks.isEmpty()) {
+			ArrayList<ITick> ticks = new ArrayList<ITick>(upcomingTicks.size());
+			for (int i = 0; i < upcomingTicks.size(); i++)
+				ticks.add(upcomingTicks.get(i));
+
+			prepareUpcomingTickBars(ticks);
+		}
+
+		// bars
+		for (int k = 0; k < PERIODS.length; k++) {
+			BarRing bars = upcomingBars[k];
+
+			while (!bars.isEmpty() && bars.firstTime() + PERIODS[k].getInterval() < time)
+				bars.removeFirst();
+		}
+
+		loadCache();
+	}
+
+	/**
+	 * Resets all caching and loads the upcoming elements of the current time.
 	 */
 	private void resetCache() {
+		// whether out of data, shared by the finders of this cache only, so
+		// finders still being run don't affect it
+		outOfTickData = new AtomicBoolean();
+		outOfBarData = new AtomicBoolean[PERIODS.length];
+		for (int k = 0; k < PERIODS.length; k++)
+			outOfBarData[k] = new AtomicBoolean();
+
 		// ticks
-		upcomingTicks = new LinkedList<ITick>();
+		upcomingTicks = new TickRing(4 * NUM_ELEMENTS_TO_TRIGGER_LOADING);
 
 		// tick bars
-		upcomingAskTickBars = new HashMap<TickBarSize, LinkedList<ITickBar>>();
-		upcomingBidTickBars = new HashMap<TickBarSize, LinkedList<ITickBar>>();
-		for (TickBarSize tbs : ForexConstants.TICK_BAR_SIZES) {
-			upcomingAskTickBars.put(tbs, new LinkedList<ITickBar>());
-			upcomingBidTickBars.put(tbs, new LinkedList<ITickBar>());
-		}
+		resetUpcomingTickBars();
 
 		// bars
-		upcomingAskBars = new HashMap<Period, LinkedList<IBar>>();
-		upcomingBidBars = new HashMap<Period, LinkedList<IBar>>();
-		for (Period p : ForexConstants.BAR_PERIODS) {
-			upcomingAskBars.put(p, new LinkedList<IBar>());
-			upcomingBidBars.put(p, new LinkedList<IBar>());
-		}
+		for (int k = 0; k < PERIODS.length; k++)
+			upcomingBars[k] = new BarRing(4 * NUM_ELEMENTS_TO_TRIGGER_LOADING);
+
+		loadCache();
 	}
 
 	/**
-	 * Elements of equal supply time gets supplied in order: { bars (in
-	 * ascending order of Period), tick, tick bars }
+	 * Clears the upcoming tick bars and starts building tick bars anew.
 	 */
-	private void supplyElements() {
+	private void resetUpcomingTickBars() {
+		for (int k = 0; k < TICK_BAR_SIZES.length; k++) {
+			if (upcomingTickBars[k] == null)
+				upcomingTickBars[k] = new TickBarRing(4 * NUM_ELEMENTS_TO_TRIGGER_LOADING);
+			else
+				upcomingTickBars[k].clear();
+		}
 
-		TreeMap<Long, LinkedList<Object>> supply = new TreeMap<Long, LinkedList<Object>>();
+		tickBarAggregator = new BarAggregator(Collections.<Period> emptyList(),
+				ForexConstants.TICK_BAR_SIZES, new UpcomingTickBarCollector());
+	}
 
-		// check whether bars should be supplied
-		for (Period p : ForexConstants.BAR_PERIODS) {
+	/**
+	 * Starts loading the streams without any upcoming elements, all at once,
+	 * and waits for the elements of the next update to be loaded.
+	 */
+	private void loadCache() {
+		if (upcomingTicks.isEmpty())
+			prepareUpcomingTicks();
 
-			IBar[] barSupply = clearPreviousBars(p);
+		for (int k = 0; k < PERIODS.length; k++) {
+			if (upcomingBars[k].isEmpty())
+				prepareUpcomingBars(k);
+		}
 
-			if (barSupply != null && barSupply[0] != null && barSupply[1] != null
-					&& barSupply[0].getTime() + p.getInterval() >= startTime) {
+		awaitUpcoming();
 
-				long endTime = barSupply[0].getTime() + p.getInterval();
+		updateCache();
+	}
 
-				if (supply.containsKey(endTime)) {
+	/**
+	 * Elements of equal supply time gets supplied in order: { bars (in
+	 * ascending order of Period), tick, tick bars }
+	 * 
+	 * The latest element of each stream (each bar period, ticks and each tick
+	 * bar size) due for supply is put in the supply slot of the stream, and
+	 * the streams are merged through a min-heap of stream indices, ordered by
+	 * supply time and then by stream index. Streams are indexed in order of
+	 * supply, so no other ordering is needed.
+	 * 
+	 * @return the number of elements supplied
+	 */
+	private int supplyElements() {
 
-					supply.get(endTime).addLast(new Object[] { barSupply, p });
+		supplyHeapSize = 0;
 
-				} else {
+		// check whether bars should be supplied
+		for (int k = 0; k < PERIODS.length; k++) {
+			if (clearPreviousBars(k)) {
+				long endTime = askBarSupply[k].getTime() + PERIODS[k].getInterval();
 
-					LinkedList<Object> list = new LinkedList<Object>();
-					list.addLast(new Object[] { barSupply, p });
-					supply.put(endTime, list);
-				}
+				if (endTime >= supplyFromTime)
+					scheduleSupply(k, endTime);
 			}
 		}
 
 		// check whether tick should be supplied
-		ITick tickSupply = clearPreviousTicks();
+		tickSupply = clearPreviousTicks();
 
 		if (tickSupply != null
-				&& tickSupply.getTime() >= startTime
+				&& tickSupply.getTime() >= supplyFromTime
 				&& (tickInterval.equals(Period.TICK) || lastSuppliedTick == null || tickSupply
 						.getTime() >= lastSuppliedTick.getTime()
 						+ tickInterval.getInterval())) {
 
-			LinkedList<Object> list = new LinkedList<Object>();
-			list.addLast(tickSupply);
-			supply.put(tickSupply.getTime(), list);
+			scheduleSupply(TICK_STREAM, tickSupply.getTime());
 		}
 
 		// check whether tick bar should be supplied
-		for (TickBarSize tbs : ForexConstants.TICK_BAR_SIZES) {
+		for (int k = 0; k < TICK_BAR_SIZES.length; k++) {
+			if (clearPreviousTickBars(k)) {
+				long endTime = askTickBarSupply[k].getEndTime();
 
-			ITickBar[] tickBarSupply = clearPreviousTickBars(tbs);
+				if (endTime >= supplyFromTime)
+					scheduleSupply(TICK_STREAM + 1 + k, endTime);
+			}
+		}
 
-			if (tickBarSupply != null && tickBarSupply[0] != null
-					&& tickBarSupply[1] != null
-					&& tickBarSupply[0].getEndTime() >= startTime) {
+		// supply stuff
+		int supplied = supplyHeapSize;
+		while (supplyHeapSize > 0) {
 
-				long endTime = tickBarSupply[0].getEndTime();
+			int stream = pollSupply();
 
-				if (supply.containsKey(endTime)) {
+			if (stream < TICK_STREAM) {
 
-					supply.get(endTime).addLast(new Object[] { tickBarSupply, tbs });
+				supplyBars(instrument, PERIODS[stream], askBarSupply[stream],
+						bidBarSupply[stream]);
 
-				} else {
+			} else if (stream == TICK_STREAM) {
 
-					LinkedList<Object> list = new LinkedList<Object>();
-					list.addLast(new Object[] { tickBarSupply, tbs });
-					supply.put(endTime, list);
-				}
+				supplyTick(instrument, tickSupply);
+				lastSuppliedTick = tickSupply;
+
+			} else {
+
+				int k = stream - TICK_STREAM - 1;
+
+				supplyTickBars(instrument, TICK_BAR_SIZES[k], askTickBarSupply[k],
+						bidTickBarSupply[k]);
 			}
 		}
 
-		// supply stuff
-		Iterator<LinkedList<Object>> iterator = supply.values().iterator();
-		while (iterator.hasNext()) {
+		// don't keep supplied elements
+		Arrays.fill(askBarSupply, null);
+		Arrays.fill(bidBarSupply, null);
+		Arrays.fill(askTickBarSupply, null);
+		Arrays.fill(bidTickBarSupply, null);
+		tickSupply = null;
 
-			for (Object o : iterator.next()) {
+		// an update is done once its elements are
+		awaitListeners();
 
-				if (o instanceof ITick) {
+		return supplied;
+	}
 
-					ITick tick = (ITick) o;
-					supplyTick(instrument, tick);
-					lastSuppliedTick = tick;
+	private void scheduleSupply(int stream, long supplyTime) {
+		supplyTimes[stream] = supplyTime;
 
-				} else {
+		// sift up
+		int i = supplyHeapSize++;
+		while (i > 0) {
+			int parent = (i - 1) >> 1;
 
-					if (((Object[]) o)[0] instanceof ITickBar[]) {
+			if (!suppliedBefore(stream, supplyHeap[parent]))
+				break;
 
-						TickBarSize tickBarSize = ((TickBarSize) (((Object[]) o)[1]));
-						ITickBar askTickBar = ((ITickBar[]) (((Object[]) o)[0]))[0];
-						ITickBar bidTickBar = ((ITickBar[]) (((Object[]) o)[0]))[1];
+			supplyHeap[i] = supplyHeap[parent];
+			i = parent;
+		}
+		supplyHeap[i] = stream;
+	}
 
-						supplyTickBars(instrument, tickBarSize, askTickBar, bidTickBar);
+	private int pollSupply() {
+		int first = supplyHeap[0];
+		int last = supplyHeap[--supplyHeapSize];
 
-					} else {
+		// sift down
+		int i = 0;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= supplyHeapSize)
+				break;
 
-						Period barPeriod = ((Period) (((Object[]) o)[1]));
-						IBar askBar = ((IBar[]) (((Object[]) o)[0]))[0];
-						IBar bidBar = ((IBar[]) (((Object[]) o)[0]))[1];
+			if (child + 1 < supplyHeapSize
+					&& suppliedBefore(supplyHeap[child + 1], supplyHeap[child]))
+				child++;
 
-						supplyBars(instrument, barPeriod, askBar, bidBar);
-					}
-				}
-			}
+			if (!suppliedBefore(supplyHeap[child], last))
+				break;
+
+			supplyHeap[i] = supplyHeap[child];
+			i = child;
 		}
+		supplyHeap[i] = last;
+
+		return first;
+	}
+
+	private boolean suppliedBefore(int stream, int otherStream) {
+		return supplyTimes[stream] < supplyTimes[otherStream]
+				|| (supplyTimes[stream] == supplyTimes[otherStream] && stream < otherStream);
 	}
 
 	/**
@@ -726,119 +997,66 @@ public class RealTimeFeed extends TimeRelativeFeed {
 	 * @return the latest tick <= currentTime, null if no such tick was cached
 	 */
 	private ITick clearPreviousTicks() {
-		ITick ret = null;
+		if (upcomingTicks.isEmpty() || upcomingTicks.firstTime() > currentTime)
+			return null;
+
+		while (upcomingTicks.size() > 1 && upcomingTicks.time(1) <= currentTime)
+			upcomingTicks.removeFirst();
 
-		while (!upcomingTicks.isEmpty()
-				&& upcomingTicks.getFirst().getTime() <= currentTime)
-			ret = upcomingTicks.removeFirst();
+		ITick ret = upcomingTicks.first();
+		upcomingTicks.removeFirst();
 
 		return ret;
 	}
 
 	/**
-	 * Clears previous tick bars and returns the latest tick bar of end time <=
-	 * currentTime, null if there was no tick bar of end time <= currentTime
-	 * cached.
+	 * Clears previous tick bars of the tick bar size at given index of
+	 * TICK_BAR_SIZES and puts the latest tick bars of end time <= currentTime
+	 * in the supply slots of the size. Returns false if there were no such
+	 * tick bars cached.
 	 * 
-	 * @return the latest tick bar of end time <= currentTime, null if no tick
-	 *         bar of end time <= currentTime cached
+	 * @return true if the supply slots were set, false if no tick bars of end
+	 *         time <= currentTime were cached
 	 */
-	private ITickBar[] clearPreviousTickBars(TickBarSize tbs) {
-
-		checkUpcomingTickBarsCoherency(tbs);
-
-		if (upcomingAskTickBars.get(tbs).isEmpty())
-			return null;
+	private boolean clearPreviousTickBars(int index) {
+		TickBarRing tickBars = upcomingTickBars[index];
 
-		ITickBar[] ret = new ITickBar[2];
+		if (tickBars.isEmpty() || tickBars.firstEndTime() > currentTime)
+			return false;
 
-		while (upcomingAskTickBars.get(tbs).getFirst().getEndTime() <= currentTime) {
-			ret[0] = upcomingAskTickBars.get(tbs).removeFirst();
-		}
-
-		while (upcomingBidTickBars.get(tbs).getFirst().getEndTime() <= currentTime) {
-			ret[1] = upcomingBidTickBars.get(tbs).removeFirst();
-		}
+		while (tickBars.size() > 1 && tickBars.endTime(1) <= currentTime)
+			tickBars.removeFirst();
 
-		checkUpcomingTickBarsCoherency(tbs);
+		askTickBarSupply[index] = tickBars.firstAskTickBar();
+		bidTickBarSupply[index] = tickBars.firstBidTickBar();
+		tickBars.removeFirst();
 
-		return ret;
+		return true;
 	}
 
 	/**
-	 * Clears previous bars of given period and returns an array { askBar,
-	 * bidBar } with the latest bars for which bar.getTime() +
-	 * barPeriod.getInterval() <= currentTime, null if there were no such bars
-	 * cached cached.
+	 * Clears previous bars of the period at given index of PERIODS and puts the
+	 * latest bars for which bar.getTime() + barPeriod.getInterval() <=
+	 * currentTime in the supply slots of the period. Returns false if there
+	 * were no such bars cached.
 	 * 
-	 * @return the latest bar for which bar.getTime() + barPeriod.getInterval()
-	 *         <= currentTime, null if no such bars were cached cached
+	 * @return true if the supply slots were set, false if no bars for which
+	 *         bar.getTime() + barPeriod.getInterval() <= currentTime were cached
 	 */
-	private IBar[] clearPreviousBars(Period barPeriod) {
+	private boolean clearPreviousBars(int index) {
+		BarRing bars = upcomingBars[index];
+		long latestTime = currentTime - PERIODS[index].getInterval();
 
-		checkUpcomingBarsCoherency(barPeriod);
+		if (bars.isEmpty() || bars.firstTime() > latestTime)
+			return false;
 
-		if (upcomingAskBars.get(barPeriod).isEmpty())
-			return null;
-
-		IBar[] ret = new IBar[2];
+		while (bars.size() > 1 && bars.time(1) <= latestTime)
+			bars.removeFirst();
 
-		while (upcomingAskBars.get(barPeriod).getFirst().getTime()
-				+ barPeriod.getInterval() <= currentTime) {
-			ret[0] = upcomingAskBars.get(barPeriod).removeFirst();
-		}
-
-		while (upcomingBidBars.get(barPeriod).getFirst().getTime()
-				+ barPeriod.getInterval() <= currentTime) {
-			ret[1] = upcomingBidBars.get(barPeriod).removeFirst();
-		}
-
-		checkUpcomingBarsCoherency(barPeriod);
-
-		return ret;
-	}
+		askBarSupply[index] = bars.firstAskBar();
+		bidBarSupply[index] = bars.firstBidBar();
+		bars.removeFirst();
 
-	private void checkUpcomingTickBarsCoherency(TickBarSize tickBarSize) {
-		// if (upcomingAskTickBars == null && upcomingBidTickBars == null)
-		// return;
-		//
-		// if (upcomingAskTickBars == null ^ upcomingBidTickBars == null)
-		// throw new ForexException(
-		// "incoherency of upcoming ask and bid tick bars detected");
-
-		LinkedList<ITickBar> askTickBars = upcomingAskTickBars.get(tickBarSize);
-		LinkedList<ITickBar> bidTickBars = upcomingBidTickBars.get(tickBarSize);
-
-		if (askTickBars.isEmpty() && bidTickBars.isEmpty())
-			return;
-
-		if (askTickBars.size() != bidTickBars.size()
-				|| askTickBars.getFirst().getTime() != bidTickBars.getFirst().getTime()
-				|| askTickBars.getLast().getEndTime() != bidTickBars.getLast()
-						.getEndTime()) {
-			throw new ForexException(
-					"incoherency of upcoming ask and bid tick bars detected");
-		}
-	}
-
-	private void checkUpcomingBarsCoherency(Period barPeriod) {
-		// if (upcomingAskBars == null && upcomingBidBars == null)
-		// return;
-		//
-		// if (upcomingAskBars == null ^ upcomingBidBars == null)
-		// throw new
-		// ForexException("incoherency of upcoming ask and bid bars detected");
-
-		LinkedList<IBar> askBars = upcomingAskBars.get(barPeriod);
-		LinkedList<IBar> bidBars = upcomingBidBars.get(barPeriod);
-
-		if (askBars.isEmpty() && bidBars.isEmpty())
-			return;
-
-		if (askBars.size() != bidBars.size()
-				|| askBars.getFirst().getTime() != bidBars.getFirst().getTime()
-				|| askBars.getLast().getTime() != bidBars.getLast().getTime()) {
-			throw new ForexException("incoherency of upcoming ask and bid bars detected");
-		}
+		return true;
 	}
 }
\ No newline at end of file
@@ -1,15 +1,12 @@
 package feed;
 
-import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.List;
 
-import forex.ForexException;
 import io.ForexDataIO;
 
 import com.dukascopy.api.IBar;
 import com.dukascopy.api.ITick;
 import com.dukascopy.api.Instrument;
-import com.dukascopy.api.OfferSide;
 import com.dukascopy.api.Period;
 
 /**
@@ -17,6 +14,14 @@ import com.dukascopy.api.Period;
  * Elements are supplied without any delay so the feed does not simulate a
  * real-time feed in the matter of delay between supplies.
  * 
+ * Upcoming ticks or bars are buffered in a ring buffer of primitives, refilled
+ * one table at a time, with ask and bid bars of the same time kept in one slot.
+ * The tables are loaded ahead of the feed by a background thread, at most a
+ * prefetch depth of tables ahead, see setPrefetchDepth(int). Loading starts
+ * upon construction and is cancelled when the feed is stopped, to continue
+ * from where it was if started again. The number of times and the time the
+ * feed had to wait for tables to be loaded are kept as statistics.
+ * 
  * Feed will stop automatically when running out of historical data. To manually
  * stop the feed at a specific time, add an appropriate listener for the
  * purpose.
@@ -25,18 +30,32 @@ import com.dukascopy.api.Period;
  */
 public class SinglePeriodFeed extends Feed {
 
+	/**
+	 * The default number of tables loaded ahead of the feed.
+	 */
+	public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
 	private static final int NUM_ELEMENTS_TO_TRIGGER_UPDATE = 500;
 
 	private final Instrument instrument;
 	private final Period period;
 	private final long startTime;
 
-	private LinkedList<ITick> upcomingTicks;
-	private LinkedList<IBar> upcomingAskBars;
-	private LinkedList<IBar> upcomingBidBars;
+	private TickRing upcomingTicks;
+	private BarRing upcomingBars;
 
 	private boolean outOfData, isRunning;
 
+	// loader of upcoming tables, null while not loading
+	// cancelled by other threads while taken from by the thread of the feed
+	private volatile TablePrefetcher<List<ITick>> tickPrefetcher;
+	private volatile TablePrefetcher<List<IBar>[]> barPrefetcher;
+	private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+
+	// statistics of cancelled loaders
+	private long stalls;
+	private long stallTime;
+
 	private ForexDataIO io;
 
 	/**
@@ -64,30 +83,23 @@ public class SinglePeriodFeed extends Feed {
 
 		if (period.equals(Period.TICK)) {
 
-			upcomingTicks = new LinkedList<ITick>();
+			upcomingTicks = new TickRing(4 * NUM_ELEMENTS_TO_TRIGGER_UPDATE);
 
 			updateUpcoming();
 
-			while (!upcomingTicks.isEmpty()
-					&& upcomingTicks.getFirst().getTime() < startTime) {
-
+			while (!upcomingTicks.isEmpty() && upcomingTicks.firstTime() < startTime)
 				upcomingTicks.removeFirst();
-			}
 
 		} else {
 
-			upcomingAskBars = new LinkedList<IBar>();
-			upcomingBidBars = new LinkedList<IBar>();
+			upcomingBars = new BarRing(4 * NUM_ELEMENTS_TO_TRIGGER_UPDATE);
 
 			updateUpcoming();
 
-			while (!upcomingAskBars.isEmpty()
-					&& upcomingAskBars.getFirst().getTime() + period.getInterval() < startTime) {
-
-				upcomingAskBars.removeFirst();
-				upcomingBidBars.removeFirst();
+			while (!upcomingBars.isEmpty()
+					&& upcomingBars.firstTime() + period.getInterval() < startTime) {
 
-				checkUpcomingBarsCoherency();
+				upcomingBars.removeFirst();
 			}
 		}
 	}
@@ -97,96 +109,181 @@ public class SinglePeriodFeed extends Feed {
 
 		isRunning = true;
 
+		// continue loading if stopped
+		updateUpcoming();
+
 		while (gotSupply() && isRunning) {
 
 			if (period.equals(Period.TICK)) {
 
-				supplyTick(instrument, upcomingTicks.removeFirst());
+				supplyTick(instrument, upcomingTicks.first());
+				upcomingTicks.removeFirst();
 
 			} else {
 
-				supplyBars(instrument, period, upcomingAskBars.removeFirst(),
-						upcomingBidBars.removeFirst());
+				supplyBars(instrument, period, upcomingBars.firstAskBar(),
+						upcomingBars.firstBidBar());
+				upcomingBars.removeFirst();
 			}
 
-			updateUpcoming();
+			// don't start loading again if stopped by a listener
+			if (isRunning)
+				updateUpcoming();
 		}
+
+		awaitListeners();
 	}
 
 	private boolean gotSupply() {
 		if (period.equals(Period.TICK)) {
 			return !upcomingTicks.isEmpty();
 		} else {
-			checkUpcomingBarsCoherency();
-			return !upcomingAskBars.isEmpty();
+			return !upcomingBars.isEmpty();
 		}
 	}
 
+	/**
+	 * Stops the feed, and cancels loading of upcoming tables.
+	 */
 	@Override
 	public void stopFeed() {
 		isRunning = false;
+
+		cancelPrefetching();
+	}
+
+	/**
+	 * Sets the number of tables loaded ahead of the feed. Takes effect at once
+	 * if the feed is running, otherwise when started.
+	 * 
+	 * @param depth the number of tables loaded ahead of the feed
+	 * @throws IllegalArgumentException if depth < 1
+	 */
+	public void setPrefetchDepth(int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth(" + depth + ") < 1");
+
+		prefetchDepth = depth;
+
+		cancelPrefetching();
+	}
+
+	/**
+	 * Returns the number of times the feed has waited for tables to be
+	 * loaded.
+	 * 
+	 * @return the number of times the feed has waited for tables
+	 */
+	public long getPrefetchStalls() {
+		TablePrefetcher<?> prefetcher = getPrefetcher();
+
+		return prefetcher == null ? stalls : stalls + prefetcher.getStalls();
+	}
+
+	/**
+	 * Returns the time, in milliseconds, the feed has waited for tables to be
+	 * loaded.
+	 * 
+	 * @return the time waited for tables in milliseconds
+	 */
+	public double getPrefetchStallTime() {
+		TablePrefetcher<?> prefetcher = getPrefetcher();
+
+		return (prefetcher == null ? stallTime : stallTime + prefetcher.getStallTime()) / 1e6;
+	}
+
+	private TablePrefetcher<?> getPrefetcher() {
+		TablePrefetcher<?> tickPrefetcher = this.tickPrefetcher;
+
+		return tickPrefetcher != null ? tickPrefetcher : barPrefetcher;
 	}
 
+	private void cancelPrefetching() {
+		TablePrefetcher<?> prefetcher = getPrefetcher();
+
+		if (prefetcher == null)
+			return;
+
+		prefetcher.cancel();
+
+		stalls += prefetcher.getStalls();
+		stallTime += prefetcher.getStallTime();
+
+		tickPrefetcher = null;
+		barPrefetcher = null;
+	}
+
+	/**
+	 * Takes loaded tables until the upcoming ticks or bars are more than
+	 * NUM_ELEMENTS_TO_TRIGGER_UPDATE, or out of data. Tables are loaded from
+	 * the table after the last upcoming element, or from the table of the
+	 * start time if none.
+	 */
 	private void updateUpcoming() {
 		if (outOfData || !updateNeeded())
 			return;
 
+		// the prefetchers are read once, since they may be cancelled meanwhile
 		if (period.equals(Period.TICK)) {
 
-			long tickTableIndex;
+			TablePrefetcher<List<ITick>> tickPrefetcher = this.tickPrefetcher;
+
+			if (tickPrefetcher == null) {
+				long tickTableIndex;
 
-			if (upcomingTicks.isEmpty())
-				tickTableIndex = ForexDataIO.getTickTableIndex(startTime);
-			else
-				tickTableIndex = ForexDataIO.getTickTableIndex(upcomingTicks.getLast()
-						.getTime()) + 1;
+				if (upcomingTicks.isEmpty())
+					tickTableIndex = ForexDataIO.getTickTableIndex(startTime);
+				else
+					tickTableIndex = ForexDataIO.getTickTableIndex(upcomingTicks.lastTime()) + 1;
+
+				tickPrefetcher = TablePrefetcher.startTicks(instrument, tickTableIndex,
+						ForexDataIO.getTickTableIndex(io.getEndOfStorage(instrument, period)),
+						prefetchDepth);
+				this.tickPrefetcher = tickPrefetcher;
+			}
 
 			while (!outOfData && updateNeeded()) {
-				if (tickTableIndex > ForexDataIO.getTickTableIndex(io.getEndOfStorage(
-						instrument, period))) {
-					outOfData = true;
+				List<ITick> ticks = tickPrefetcher.next();
+
+				if (ticks == null) {
+					// a cancelled prefetcher isn't out of data
+					if (!tickPrefetcher.isCancelled())
+						outOfData = true;
 					return;
 				}
 
-				ArrayList<ITick> ticks = io.loadTickTable(instrument, tickTableIndex);
-
-				if (ticks != null)
-					upcomingTicks.addAll(ticks);
-
-				tickTableIndex++;
+				upcomingTicks.addAll(ticks);
 			}
 
 		} else {
 
-			long barTableIndex;
+			TablePrefetcher<List<IBar>[]> barPrefetcher = this.barPrefetcher;
 
-			if (upcomingAskBars.isEmpty())
-				barTableIndex = ForexDataIO.getBarTableIndex(period, startTime);
-			else
-				barTableIndex = ForexDataIO.getBarTableIndex(period, upcomingAskBars
-						.getLast().getTime()) + 1;
+			if (barPrefetcher == null) {
+				long barTableIndex;
 
-			while (!outOfData && updateNeeded()) {
+				if (upcomingBars.isEmpty())
+					barTableIndex = ForexDataIO.getBarTableIndex(period, startTime);
+				else
+					barTableIndex = ForexDataIO.getBarTableIndex(period,
+							upcomingBars.lastTime()) + 1;
 
-				if (barTableIndex > ForexDataIO.getBarTableIndex(period,
-						io.getEndOfStorage(instrument, period))) {
-					outOfData = true;
-					return;
-				}
+				barPrefetcher = TablePrefetcher.startBars(instrument, period,
+						barTableIndex, ForexDataIO.getBarTableIndex(period,
+								io.getEndOfStorage(instrument, period)), prefetchDepth);
+				this.barPrefetcher = barPrefetcher;
+			}
 
-				ArrayList<IBar> askBars = io.loadBarTable(instrument, period,
-						OfferSide.ASK, barTableIndex);
-				ArrayList<IBar> bidBars = io.loadBarTable(instrument, period,
-						OfferSide.BID, barTableIndex);
+			while (!outOfData && updateNeeded()) {
+				List<IBar>[] loadedBars = barPrefetcher.next();
 
-				if (askBars != null && bidBars != null) {
-					upcomingAskBars.addAll(askBars);
-					upcomingBidBars.addAll(bidBars);
+				if (loadedBars == null) {
+					if (!barPrefetcher.isCancelled())
+						outOfData = true;
+					return;
 				}
 
-				checkUpcomingBarsCoherency();
-
-				barTableIndex++;
+				upcomingBars.addAll(loadedBars[0], loadedBars[1]);
 			}
 		}
 	}
@@ -195,22 +292,7 @@ public class SinglePeriodFeed extends Feed {
 		if (period.equals(Period.TICK)) {
 			return upcomingTicks.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE;
 		} else {
-			checkUpcomingBarsCoherency();
-			return upcomingAskBars.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE;
-		}
-	}
-
-	private void checkUpcomingBarsCoherency() {
-		if (upcomingAskBars.isEmpty() && upcomingBidBars.isEmpty())
-			return;
-
-		if (upcomingAskBars.size() != upcomingBidBars.size()
-				|| upcomingAskBars.getFirst().getTime() != upcomingBidBars.getFirst()
-						.getTime()
-				|| upcomingAskBars.getLast().getTime() != upcomingBidBars.getLast()
-						.getTime()) {
-			throw new ForexException("incoherency of upcoming ask and bid bars detected");
+			return upcomingBars.size() <= NUM_ELEMENTS_TO_TRIGGER_UPDATE;
 		}
 	}
-
-}
\ No newline at end of file
+}
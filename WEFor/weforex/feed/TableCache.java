@@ -0,0 +1,507 @@
+package feed;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+import forex.BarBlock;
+import forex.RangeTree;
+import forex.TickBlock;
+import io.StoreListener;
+
+// @formatter:off
+/**
+ * A cache of tick and bar tables shared by all Providers of the process, so a
+ * table requested by several providers, e.g. the ask and bid providers of one
+ * graph or the providers of a graph replacing another, is loaded and held
+ * once. Tables are keyed by instrument, period, offer side and table index,
+ * tick tables by Period.TICK and no offer side. The RangeTrees of tables are
+ * cached likewise, those of tick tables by the offer side of their prices.
+ *
+ * The cache holds tables up to a capacity in bytes, each table weighing the
+ * bytes of its columns, see CAPACITY_PROPERTY. Tables are evicted using a
+ * segmented least recently used policy: a table enters a probationary
+ * segment, and is promoted to a protected segment, taking at most 80 % of the
+ * capacity, once requested again. Tables are evicted from the probationary
+ * segment first, so a scan through many tables requested once, e.g. a graph
+ * scrolled far, doesn't evict the tables requested over and over.
+ *
+ * The cache is thread safe. Tables are loaded by the callers outside the
+ * cache, and tables held by the cache must not be modified. Tables still
+ * being stored to shouldn't be cached, and the tables of an instrument are
+ * dropped when more of it is stored, see stored.
+ *
+ * The number of hits, misses and evictions are kept as statistics, see
+ * toString().
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class TableCache implements StoreListener {
+
+	/**
+	 * The system property holding the capacity, in bytes, of the cache,
+	 * DEFAULT_CAPACITY if not set.
+	 */
+	public static final String CAPACITY_PROPERTY = "weforex.tablecache";
+
+	/**
+	 * The default capacity, in bytes, of the cache.
+	 */
+	public static final long DEFAULT_CAPACITY = 64L << 20;
+
+	// bytes of a tick and a bar held by a block, and of the block itself
+	private static final int TICK_WEIGHT = 8 + 4 * 8;
+	private static final int BAR_WEIGHT = 8 + 5 * 8;
+	private static final int TREE_WEIGHT = 8 + 3 * 8 + 2 * 2 * 8;
+	private static final int TABLE_WEIGHT = 128;
+
+	// part of the capacity taken at most by the protected segment, in percent
+	private static final int PROTECTED_PERCENT = 80;
+
+	private static final TableCache instance = new TableCache(Long.getLong(
+			CAPACITY_PROPERTY, DEFAULT_CAPACITY));
+
+	// segments in access order, least recently used first
+	private final LinkedHashMap<Key, Entry> probation = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+	private final LinkedHashMap<Key, Entry> protect = new LinkedHashMap<Key, Entry>(
+			16, 0.75f, true);
+
+	private long capacity;
+	private long probationWeight;
+	private long protectedWeight;
+
+	// statistics
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Identifies a table, or the range tree of a table.
+	 */
+	private static final class Key {
+
+		private final Instrument instrument;
+		private final Period period;
+		private final OfferSide offerSide;
+		private final long tableIndex;
+		private final boolean tree;
+
+		Key(Instrument instrument, Period period, OfferSide offerSide, long tableIndex,
+				boolean tree) {
+			this.instrument = instrument;
+			this.period = period;
+			this.offerSide = offerSide;
+			this.tableIndex = tableIndex;
+			this.tree = tree;
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = instrument.hashCode();
+			hash = 31 * hash + period.hashCode();
+			hash = 31 * hash + (offerSide == null ? 0 : offerSide.hashCode());
+			hash = 31 * hash + (int) (tableIndex ^ (tableIndex >>> 32));
+			hash = 31 * hash + (tree ? 1 : 0);
+
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+
+			// @formatter:off
+			return tableIndex == other.tableIndex
+					&& tree == other.tree
+					&& instrument == other.instrument
+					&& period.equals(other.period)
+					&& offerSide == other.offerSide;
+			// @formatter:on
+		}
+	}
+
+	/**
+	 * A table held, with its weight.
+	 */
+	private static final class Entry {
+
+		private final Object table;
+		private final long weight;
+
+		Entry(Object table, long weight) {
+			this.table = table;
+			this.weight = weight;
+		}
+	}
+
+	private TableCache(long capacity) {
+		setCapacity(capacity);
+	}
+
+	/**
+	 * Returns the cache shared by all providers.
+	 *
+	 * @return the cache shared by all providers
+	 */
+	public static TableCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the cached tick table of given instrument and index, or null if
+	 * not cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param tableIndex the index of the table
+	 * @return the cached tick table, or null if not cached
+	 */
+	public TickBlock getTicks(Instrument instrument, long tableIndex) {
+		return (TickBlock) get(new Key(instrument, Period.TICK, null, tableIndex, false));
+	}
+
+	/**
+	 * Caches given tick table of given instrument and index, replacing any
+	 * table cached before. The table is trimmed to its size, and must not be
+	 * modified once cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param tableIndex the index of the table
+	 * @param ticks the ticks of the table
+	 * @throws IllegalArgumentException if instrument or ticks is null
+	 */
+	public void putTicks(Instrument instrument, long tableIndex, TickBlock ticks) {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		if (ticks == null)
+			throw new IllegalArgumentException("ticks can't be null");
+
+		ticks.trimToSize();
+
+		put(new Key(instrument, Period.TICK, null, tableIndex, false), ticks,
+				TABLE_WEIGHT + (long) ticks.size() * TICK_WEIGHT);
+	}
+
+	/**
+	 * Returns the cached bar table of given instrument, period, offer side and
+	 * index, or null if not cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param tableIndex the index of the table
+	 * @return the cached bar table, or null if not cached
+	 */
+	public BarBlock getBars(Instrument instrument, Period period, OfferSide offerSide,
+			long tableIndex) {
+
+		return (BarBlock) get(new Key(instrument, period, offerSide, tableIndex, false));
+	}
+
+	/**
+	 * Caches given bar table of given instrument, period, offer side and index,
+	 * replacing any table cached before. The table is trimmed to its size, and
+	 * must not be modified once cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param tableIndex the index of the table
+	 * @param bars the bars of the table
+	 * @throws IllegalArgumentException if instrument, period, offerSide or bars
+	 *             is null
+	 */
+	public void putBars(Instrument instrument, Period period, OfferSide offerSide,
+			long tableIndex, BarBlock bars) {
+
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		if (period == null)
+			throw new IllegalArgumentException("period can't be null");
+		if (offerSide == null)
+			throw new IllegalArgumentException("offerSide can't be null");
+		if (bars == null)
+			throw new IllegalArgumentException("bars can't be null");
+
+		bars.trimToSize();
+
+		put(new Key(instrument, period, offerSide, tableIndex, false), bars, TABLE_WEIGHT
+				+ (long) bars.size() * BAR_WEIGHT);
+	}
+
+	/**
+	 * Returns the cached range tree of the table of given instrument, period,
+	 * offer side and index, or null if not cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param period the period of the bars, Period.TICK for ticks
+	 * @param offerSide the offer side of the bars or tick prices
+	 * @param tableIndex the index of the table
+	 * @return the cached range tree, or null if not cached
+	 */
+	public RangeTree getTree(Instrument instrument, Period period, OfferSide offerSide,
+			long tableIndex) {
+
+		return (RangeTree) get(new Key(instrument, period, offerSide, tableIndex, true));
+	}
+
+	/**
+	 * Caches given range tree of the table of given instrument, period, offer
+	 * side and index, replacing any tree cached before. The tree must not be
+	 * modified once cached.
+	 *
+	 * @param instrument the instrument of the table
+	 * @param period the period of the bars, Period.TICK for ticks
+	 * @param offerSide the offer side of the bars or tick prices
+	 * @param tableIndex the index of the table
+	 * @param tree the range tree of the table
+	 * @throws IllegalArgumentException if instrument, period, offerSide or tree
+	 *             is null
+	 */
+	public void putTree(Instrument instrument, Period period, OfferSide offerSide,
+			long tableIndex, RangeTree tree) {
+
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		if (period == null)
+			throw new IllegalArgumentException("period can't be null");
+		if (offerSide == null)
+			throw new IllegalArgumentException("offerSide can't be null");
+		if (tree == null)
+			throw new IllegalArgumentException("tree can't be null");
+
+		put(new Key(instrument, period, offerSide, tableIndex, true), tree, TABLE_WEIGHT
+				+ (long) tree.size() * TREE_WEIGHT);
+	}
+
+	private synchronized Object get(Key key) {
+		Entry entry = protect.get(key);
+
+		if (entry == null) {
+			entry = probation.remove(key);
+
+			if (entry == null) {
+				misses++;
+				return null;
+			}
+
+			// requested again, promote
+			probationWeight -= entry.weight;
+			protect.put(key, entry);
+			protectedWeight += entry.weight;
+
+			demote();
+		}
+
+		hits++;
+		return entry.table;
+	}
+
+	private synchronized void put(Key key, Object table, long weight) {
+		remove(key);
+
+		// a table larger than the cache would evict everything, and then itself
+		if (weight > capacity)
+			return;
+
+		probation.put(key, new Entry(table, weight));
+		probationWeight += weight;
+
+		evict();
+	}
+
+	private void remove(Key key) {
+		Entry entry = probation.remove(key);
+		if (entry != null)
+			probationWeight -= entry.weight;
+
+		entry = protect.remove(key);
+		if (entry != null)
+			protectedWeight -= entry.weight;
+	}
+
+	// moves the least recently used protected tables to the probationary
+	// segment until the protected segment fits
+	private void demote() {
+		long protectedCapacity = capacity / 100 * PROTECTED_PERCENT;
+		Iterator<Map.Entry<Key, Entry>> it = protect.entrySet().iterator();
+
+		while (protectedWeight > protectedCapacity && it.hasNext()) {
+			Map.Entry<Key, Entry> eldest = it.next();
+			it.remove();
+
+			protectedWeight -= eldest.getValue().weight;
+			probation.put(eldest.getKey(), eldest.getValue());
+			probationWeight += eldest.getValue().weight;
+		}
+	}
+
+	// evicts the least recently used tables, probationary ones first, until
+	// the cache fits
+	private void evict() {
+		Iterator<Entry> it = probation.values().iterator();
+		while (probationWeight + protectedWeight > capacity && it.hasNext()) {
+			probationWeight -= it.next().weight;
+			it.remove();
+			evictions++;
+		}
+
+		it = protect.values().iterator();
+		while (probationWeight + protectedWeight > capacity && it.hasNext()) {
+			protectedWeight -= it.next().weight;
+			it.remove();
+			evictions++;
+		}
+	}
+
+	/**
+	 * Drops all tables of given instrument, e.g. after more data of it has
+	 * been stored.
+	 *
+	 * @param instrument the instrument to drop the tables of
+	 */
+	public synchronized void invalidate(Instrument instrument) {
+		Iterator<Map.Entry<Key, Entry>> it = probation.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().instrument == instrument) {
+				probationWeight -= e.getValue().weight;
+				it.remove();
+			}
+		}
+
+		it = protect.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Key, Entry> e = it.next();
+			if (e.getKey().instrument == instrument) {
+				protectedWeight -= e.getValue().weight;
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Drops all tables of given instrument, see invalidate.
+	 *
+	 * @param instrument the instrument of the ticks or bars stored
+	 */
+	@Override
+	public void stored(Instrument instrument) {
+		invalidate(instrument);
+	}
+
+	/**
+	 * Drops all tables.
+	 */
+	public synchronized void clear() {
+		probation.clear();
+		protect.clear();
+		probationWeight = protectedWeight = 0;
+	}
+
+	/**
+	 * Sets the capacity, in bytes, of the cache, evicting tables if needed.
+	 *
+	 * @param capacity the capacity in bytes
+	 * @throws IllegalArgumentException if capacity < 0
+	 */
+	public synchronized void setCapacity(long capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+
+		this.capacity = capacity;
+
+		demote();
+		evict();
+	}
+
+	/**
+	 * Returns the capacity, in bytes, of the cache.
+	 *
+	 * @return the capacity in bytes
+	 */
+	public synchronized long getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the weight, in bytes, of the tables held.
+	 *
+	 * @return the weight of the tables held in bytes
+	 */
+	public synchronized long getWeight() {
+		return probationWeight + protectedWeight;
+	}
+
+	/**
+	 * Returns the number of tables held.
+	 *
+	 * @return the number of tables held
+	 */
+	public synchronized int getTables() {
+		return probation.size() + protect.size();
+	}
+
+	/**
+	 * Returns the number of requests of a cached table.
+	 *
+	 * @return the number of hits
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests of a table not cached.
+	 *
+	 * @return the number of misses
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of tables evicted to fit the capacity.
+	 *
+	 * @return the number of evictions
+	 */
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the fraction of requests of a cached table, 0 if no table has
+	 * been requested.
+	 *
+	 * @return the hit rate
+	 */
+	public synchronized double getHitRate() {
+		long requests = hits + misses;
+
+		return requests == 0 ? 0 : (double) hits / requests;
+	}
+
+	@Override
+	public synchronized String toString() {
+		// @formatter:off
+		return String.format("%s:  tables=%d  weight=%.1f/%.1f MB  hits=%d  misses=%d  " +
+				"hitRate=%.1f %%  evictions=%d",
+				getClass().getSimpleName(),
+				getTables(),
+				getWeight() / 1048576.0,
+				getCapacity() / 1048576.0,
+				getHits(),
+				getMisses(),
+				getHitRate() * 100,
+				getEvictions());
+		// @formatter:on
+	}
+}
@@ -0,0 +1,248 @@
+package feed;
+
+import io.ForexDataIO;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+// @formatter:off
+/**
+ * Loads the tables of one stream of ticks or bars ahead of a feed, on a
+ * background thread of its own. Tables are loaded in ascending order of
+ * table index and queued in a bounded queue, so the loader runs at most
+ * depth tables ahead of the feed taking them. The feed takes the tables in
+ * the order loaded, see next(). Tables that don't exist are skipped.
+ *
+ * Every time the feed has to wait for a table not yet loaded is counted as a
+ * stall, along with the time waited.
+ *
+ * A prefetcher is cancelled by cancel(), after which its loader stops once
+ * done loading the table being loaded, and no more tables are taken. A feed
+ * waiting for a table when the prefetcher is cancelled gets none.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+abstract class TablePrefetcher<T> {
+
+	// marks the end of the tables
+	private static final Object END = new Object();
+
+	private final BlockingQueue<Object> queue;
+	private final Thread loader;
+
+	private final long firstTableIndex;
+	private final long lastTableIndex;
+
+	private volatile boolean cancelled;
+	private boolean ended;
+
+	// statistics
+	private volatile long loaded;
+	private long stalls;
+	private long stallTime;
+
+	/**
+	 * Create a prefetcher loading the tables on the index interval
+	 * [firstTableIndex, lastTableIndex], queueing at most depth of them. The
+	 * loader isn't started by the constructor.
+	 *
+	 * @throws IllegalArgumentException if depth < 1
+	 */
+	TablePrefetcher(String name, long firstTableIndex, long lastTableIndex, int depth) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth(" + depth + ") < 1");
+
+		this.firstTableIndex = firstTableIndex;
+		this.lastTableIndex = lastTableIndex;
+
+		queue = new ArrayBlockingQueue<Object>(depth);
+
+		loader = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loadTables();
+			}
+		}, "TablePrefetcher " + name);
+		loader.setDaemon(true);
+	}
+
+	/**
+	 * Returns a started prefetcher of the tick tables of given instrument on
+	 * the index interval [firstTableIndex, lastTableIndex].
+	 */
+	static TablePrefetcher<List<ITick>> startTicks(final Instrument instrument,
+			long firstTableIndex, long lastTableIndex, int depth) {
+
+		final ForexDataIO io = ForexDataIO.getInstance();
+
+		TablePrefetcher<List<ITick>> prefetcher = new TablePrefetcher<List<ITick>>(
+				instrument + " " + Period.TICK, firstTableIndex, lastTableIndex, depth) {
+
+			@Override
+			List<ITick> load(long tableIndex) {
+				return io.loadTickTable(instrument, tableIndex);
+			}
+		};
+		prefetcher.loader.start();
+
+		return prefetcher;
+	}
+
+	/**
+	 * Returns a started prefetcher of the ask and bid bar tables of given
+	 * instrument and period on the index interval [firstTableIndex,
+	 * lastTableIndex], loading the ask and bid bars of a table as an array: {
+	 * ask, bid }
+	 */
+	static TablePrefetcher<List<IBar>[]> startBars(final Instrument instrument,
+			final Period period, long firstTableIndex, long lastTableIndex, int depth) {
+
+		final ForexDataIO io = ForexDataIO.getInstance();
+
+		TablePrefetcher<List<IBar>[]> prefetcher = new TablePrefetcher<List<IBar>[]>(
+				instrument + " " + period, firstTableIndex, lastTableIndex, depth) {
+
+			@Override
+			List<IBar>[] load(long tableIndex) {
+				List<IBar> askBars = io.loadBarTable(instrument, period, OfferSide.ASK,
+						tableIndex);
+				List<IBar> bidBars = io.loadBarTable(instrument, period, OfferSide.BID,
+						tableIndex);
+
+				if (askBars == null || bidBars == null)
+					return null;
+
+				@SuppressWarnings({ "unchecked", "rawtypes" })
+				List<IBar>[] ret = new List[2];
+				ret[0] = askBars;
+				ret[1] = bidBars;
+				return ret;
+			}
+		};
+		prefetcher.loader.start();
+
+		return prefetcher;
+	}
+
+	/**
+	 * Loads the table of given index, returning null if there is no such
+	 * table. Invoked by the loader thread.
+	 */
+	abstract T load(long tableIndex);
+
+	private void loadTables() {
+		try {
+			for (long i = firstTableIndex; i <= lastTableIndex && !cancelled; i++) {
+				T table = load(i);
+
+				if (table != null) {
+					queue.put(table);
+					loaded++;
+				}
+			}
+
+			if (!cancelled)
+				queue.put(END);
+
+		} catch (InterruptedException e) {
+			System.err.println("Exception prefetching tables: " + e.getMessage());
+		} catch (RuntimeException e) {
+			System.err.println("Exception prefetching tables: " + e.getMessage());
+			e.printStackTrace();
+
+			// end the tables rather than leaving the feed waiting
+			if (!cancelled)
+				queue.offer(END);
+		}
+	}
+
+	/**
+	 * Returns the next loaded table, waiting for it to be loaded if needed.
+	 * Returns null if all tables have been taken, or if cancelled.
+	 */
+	@SuppressWarnings("unchecked")
+	T next() {
+		if (ended || cancelled)
+			return null;
+
+		Object table = queue.poll();
+
+		if (table == null) {
+			long waitStart = System.nanoTime();
+
+			try {
+				table = queue.take();
+			} catch (InterruptedException e) {
+				System.err.println("Exception waiting for table: " + e.getMessage());
+				Thread.currentThread().interrupt();
+
+				return null;
+			} finally {
+				stalls++;
+				stallTime += System.nanoTime() - waitStart;
+			}
+		}
+
+		if (table == END) {
+			ended = true;
+			return null;
+		}
+
+		// a table queued by the loader as it was cancelled
+		if (cancelled)
+			return null;
+
+		return (T) table;
+	}
+
+	/**
+	 * Stops loading tables and drops the tables queued.
+	 */
+	void cancel() {
+		cancelled = true;
+
+		// lets a loader waiting for space see it is cancelled
+		queue.clear();
+
+		// wakes a feed waiting for a table, unless the loader has put a table
+		// since the queue was cleared, which wakes it as well
+		queue.offer(END);
+	}
+
+	/**
+	 * Returns true if cancelled.
+	 */
+	boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * Returns the number of tables loaded.
+	 */
+	long getLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Returns the number of times next() waited for a table to be loaded.
+	 */
+	long getStalls() {
+		return stalls;
+	}
+
+	/**
+	 * Returns the time, in nanoseconds, next() has waited for tables to be
+	 * loaded.
+	 */
+	long getStallTime() {
+		return stallTime;
+	}
+}
@@ -0,0 +1,225 @@
+package feed;
+
+import com.dukascopy.api.feed.ITickBar;
+
+import forex.ForexException;
+import forex.TickBar;
+
+// @formatter:off
+/**
+ * A first in, first out queue of pairs of ask and bid tick bars of one tick
+ * bar size, stored as columns of primitives in ring buffers. The ask tick bar
+ * and the bid tick bar formed by the same ticks share one slot, and with it
+ * their time, end time and number of ticks, so the ask and bid tick bars held
+ * are always of the same number and times. Tick bars are appended one pair at
+ * a time, as completed by a BarAggregator, and removed one pair at a time
+ * from the front, without moving or creating any object. The buffers only
+ * grow when more tick bars are appended than fit.
+ *
+ * A pair is appended by addAsk() followed by addBid(), the pair being held
+ * once the bid tick bar is added.
+ *
+ * A ring is not thread safe.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class TickBarRing {
+
+	// value columns, the ask tick bar followed by the bid tick bar
+	private static final int OPEN = 0;
+	private static final int CLOSE = 1;
+	private static final int HIGH = 2;
+	private static final int LOW = 3;
+	private static final int VOLUME = 4;
+	private static final int BID = 5;
+
+	private long[] times;
+	private long[] endTimes;
+	private long[] formedElementsCounts;
+	private double[][] values;
+
+	// index of the first pair, and number of pairs held
+	private int head, size;
+
+	// whether the ask tick bar of the pair after the last is added
+	private boolean askAdded;
+
+	// capacity - 1, the capacity being a power of two
+	private int mask;
+
+	/**
+	 * Create an empty ring able to hold at least given number of pairs before
+	 * growing.
+	 */
+	TickBarRing(int capacity) {
+		allocate(capacityFor(capacity));
+	}
+
+	private static int capacityFor(int n) {
+		int capacity = 16;
+		while (capacity < n)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		times = new long[capacity];
+		endTimes = new long[capacity];
+		formedElementsCounts = new long[capacity];
+		values = new double[2 * BID][capacity];
+		mask = capacity - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the end time of the first pair. Must not be called on an empty
+	 * ring.
+	 */
+	long firstEndTime() {
+		return endTimes[head];
+	}
+
+	/**
+	 * Returns the end time of the pair at given index, counted from the
+	 * first. Must only be called with 0 <= index < size().
+	 */
+	long endTime(int index) {
+		return endTimes[(head + index) & mask];
+	}
+
+	/**
+	 * Returns a copy of the first ask tick bar. Must not be called on an
+	 * empty ring.
+	 */
+	ITickBar firstAskTickBar() {
+		return tickBar(0);
+	}
+
+	/**
+	 * Returns a copy of the first bid tick bar. Must not be called on an
+	 * empty ring.
+	 */
+	ITickBar firstBidTickBar() {
+		return tickBar(BID);
+	}
+
+	private ITickBar tickBar(int side) {
+		// @formatter:off
+		return new TickBar(
+				times[head],
+				values[side + OPEN][head],
+				values[side + CLOSE][head],
+				values[side + HIGH][head],
+				values[side + LOW][head],
+				values[side + VOLUME][head],
+				endTimes[head],
+				formedElementsCounts[head]);
+		// @formatter:on
+	}
+
+	/**
+	 * Removes the first pair. Must not be called on an empty ring.
+	 */
+	void removeFirst() {
+		head = (head + 1) & mask;
+		size--;
+	}
+
+	/**
+	 * Removes all pairs, and the ask tick bar of a pair not completed.
+	 */
+	void clear() {
+		head = size = 0;
+		askAdded = false;
+	}
+
+	/**
+	 * Adds the ask tick bar of the pair after the last.
+	 *
+	 * @throws ForexException if the ask tick bar of the pair is already added
+	 */
+	void addAsk(long time, long endTime, double open, double close, double high,
+			double low, double volume, long formedElementsCount) {
+
+		if (askAdded)
+			throw new ForexException("incoherency of ask and bid tick bars detected");
+
+		if (size == times.length)
+			grow(size + 1);
+
+		int tail = (head + size) & mask;
+
+		times[tail] = time;
+		endTimes[tail] = endTime;
+		formedElementsCounts[tail] = formedElementsCount;
+
+		values[OPEN][tail] = open;
+		values[CLOSE][tail] = close;
+		values[HIGH][tail] = high;
+		values[LOW][tail] = low;
+		values[VOLUME][tail] = volume;
+
+		askAdded = true;
+	}
+
+	/**
+	 * Adds the bid tick bar of the pair after the last, which is then held.
+	 *
+	 * @throws ForexException if the ask tick bar of the pair isn't added, or
+	 *             isn't formed by the same ticks
+	 */
+	void addBid(long time, long endTime, double open, double close, double high,
+			double low, double volume, long formedElementsCount) {
+
+		int tail = (head + size) & mask;
+
+		if (!askAdded || times[tail] != time || endTimes[tail] != endTime
+				|| formedElementsCounts[tail] != formedElementsCount)
+			throw new ForexException("incoherency of ask and bid tick bars detected");
+
+		values[BID + OPEN][tail] = open;
+		values[BID + CLOSE][tail] = close;
+		values[BID + HIGH][tail] = high;
+		values[BID + LOW][tail] = low;
+		values[BID + VOLUME][tail] = volume;
+
+		askAdded = false;
+		size++;
+	}
+
+	// moves the pairs held to the front of new buffers
+	private void grow(int n) {
+		long[] oldTimes = times;
+		long[] oldEndTimes = endTimes;
+		long[] oldCounts = formedElementsCounts;
+		double[][] oldValues = values;
+		int first = Math.min(size, oldTimes.length - head);
+
+		allocate(capacityFor(n));
+
+		copy(oldTimes, times, first);
+		copy(oldEndTimes, endTimes, first);
+		copy(oldCounts, formedElementsCounts, first);
+
+		for (int c = 0; c < values.length; c++) {
+			System.arraycopy(oldValues[c], head, values[c], 0, first);
+			System.arraycopy(oldValues[c], 0, values[c], first, size - first);
+		}
+
+		head = 0;
+	}
+
+	private void copy(long[] from, long[] to, int first) {
+		System.arraycopy(from, head, to, 0, first);
+		System.arraycopy(from, 0, to, first, size - first);
+	}
+}
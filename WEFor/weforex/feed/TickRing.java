@@ -0,0 +1,257 @@
+package feed;
+
+import java.util.List;
+
+import com.dukascopy.api.ITick;
+
+import forex.ForexTools;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * A first in, first out queue of ticks, stored as columns of primitives in
+ * ring buffers. Ticks are appended in bulk and removed one at a time from the
+ * front, without moving or creating any object. The buffers only grow when
+ * more ticks are appended than fit.
+ *
+ * A ring is not thread safe.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class TickRing {
+
+	private long[] times;
+	private double[] asks;
+	private double[] bids;
+	private double[] askVolumes;
+	private double[] bidVolumes;
+
+	// index of the first tick, and number of ticks held
+	private int head, size;
+
+	// capacity - 1, the capacity being a power of two
+	private int mask;
+
+	/**
+	 * A tick removed from the ring.
+	 */
+	private static final class Entry implements ITick {
+
+		private final long time;
+		private final double ask, bid, askVolume, bidVolume;
+
+		Entry(long time, double ask, double bid, double askVolume, double bidVolume) {
+			this.time = time;
+			this.ask = ask;
+			this.bid = bid;
+			this.askVolume = askVolume;
+			this.bidVolume = bidVolume;
+		}
+
+		@Override
+		public long getTime() {
+			return time;
+		}
+
+		@Override
+		public double getAsk() {
+			return ask;
+		}
+
+		@Override
+		public double getBid() {
+			return bid;
+		}
+
+		@Override
+		public double getAskVolume() {
+			return askVolume;
+		}
+
+		@Override
+		public double getBidVolume() {
+			return bidVolume;
+		}
+
+		@Override
+		public double[] getAsks() {
+			return new double[] { ask };
+		}
+
+		@Override
+		public double[] getBids() {
+			return new double[] { bid };
+		}
+
+		@Override
+		public double[] getAskVolumes() {
+			return new double[] { askVolume };
+		}
+
+		@Override
+		public double[] getBidVolumes() {
+			return new double[] { bidVolume };
+		}
+
+		@Override
+		public double getTotalAskVolume() {
+			return askVolume;
+		}
+
+		@Override
+		public double getTotalBidVolume() {
+			return bidVolume;
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format("%s:  %s  ask=%3$f  bid=%4$f",
+					"Tick",
+					ForexTools.getTimeRepresentation(time),
+					ask,
+					bid);
+			// @formatter:on
+		}
+	}
+
+	/**
+	 * Create an empty ring able to hold at least given number of ticks before
+	 * growing.
+	 */
+	TickRing(int capacity) {
+		allocate(capacityFor(capacity));
+	}
+
+	private static int capacityFor(int n) {
+		int capacity = 16;
+		while (capacity < n)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		times = new long[capacity];
+		asks = new double[capacity];
+		bids = new double[capacity];
+		askVolumes = new double[capacity];
+		bidVolumes = new double[capacity];
+		mask = capacity - 1;
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the time of the first tick. Must not be called on an empty ring.
+	 */
+	long firstTime() {
+		return times[head];
+	}
+
+	/**
+	 * Returns the time of the tick at given index, counted from the first.
+	 * Must only be called with 0 <= index < size().
+	 */
+	long time(int index) {
+		return times[(head + index) & mask];
+	}
+
+	/**
+	 * Returns the time of the last tick. Must not be called on an empty ring.
+	 */
+	long lastTime() {
+		return times[(head + size - 1) & mask];
+	}
+
+	/**
+	 * Returns a copy of the first tick. Must not be called on an empty ring.
+	 */
+	ITick first() {
+		return new Entry(times[head], asks[head], bids[head], askVolumes[head],
+				bidVolumes[head]);
+	}
+
+	/**
+	 * Returns a copy of the tick at given index, counted from the first. Must
+	 * only be called with 0 <= index < size().
+	 */
+	ITick get(int index) {
+		int i = (head + index) & mask;
+
+		return new Entry(times[i], asks[i], bids[i], askVolumes[i], bidVolumes[i]);
+	}
+
+	/**
+	 * Removes the first tick. Must not be called on an empty ring.
+	 */
+	void removeFirst() {
+		head = (head + 1) & mask;
+		size--;
+	}
+
+	/**
+	 * Removes all ticks.
+	 */
+	void clear() {
+		head = size = 0;
+	}
+
+	/**
+	 * Appends given ticks, in ascending order with respect to time. The ticks
+	 * are read without creating any object if given as a TickBlock.
+	 */
+	void addAll(List<ITick> ticks) {
+		TickBlock block = TickBlock.of(ticks);
+		int n = block.size();
+
+		if (size + n > times.length)
+			grow(size + n);
+
+		int tail = (head + size) & mask;
+		for (int i = 0; i < n; i++) {
+			times[tail] = block.getTime(i);
+			asks[tail] = block.getAsk(i);
+			bids[tail] = block.getBid(i);
+			askVolumes[tail] = block.getAskVolume(i);
+			bidVolumes[tail] = block.getBidVolume(i);
+			tail = (tail + 1) & mask;
+		}
+
+		size += n;
+	}
+
+	// moves the ticks held to the front of new buffers
+	private void grow(int n) {
+		long[] oldTimes = times;
+		double[][] old = { asks, bids, askVolumes, bidVolumes };
+
+		allocate(capacityFor(n));
+
+		unwrap(oldTimes, times);
+		unwrap(old[0], asks);
+		unwrap(old[1], bids);
+		unwrap(old[2], askVolumes);
+		unwrap(old[3], bidVolumes);
+		head = 0;
+	}
+
+	private void unwrap(long[] from, long[] to) {
+		int first = Math.min(size, from.length - head);
+		System.arraycopy(from, head, to, 0, first);
+		System.arraycopy(from, 0, to, first, size - first);
+	}
+
+	private void unwrap(double[] from, double[] to) {
+		int first = Math.min(size, from.length - head);
+		System.arraycopy(from, head, to, 0, first);
+		System.arraycopy(from, 0, to, first, size - first);
+	}
+}
@@ -0,0 +1,367 @@
+package forex;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.dukascopy.api.IBar;
+
+// @formatter:off
+/**
+ * A list of bars stored as columns of primitives, one array per field,
+ * instead of one object per bar. See TickBlock.
+ *
+ * The fields of a bar are read by index without creating any object, see
+ * getTime(int), getOpen(int) and so on. For compatibility with code using
+ * IBar, get(int) returns a small view of the bar at the index, which reads
+ * the columns of the block.
+ *
+ * Bars can only be appended, so a bar never changes once added and views
+ * stay valid. A block is not thread safe while bars are appended.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class BarBlock extends AbstractList<IBar> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] times;
+	private double[] opens;
+	private double[] closes;
+	private double[] highs;
+	private double[] lows;
+	private double[] volumes;
+	private int size;
+
+	/**
+	 * Create an empty block.
+	 */
+	public BarBlock() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty block able to hold given number of bars before growing.
+	 *
+	 * @param capacity the initial capacity
+	 * @throws IllegalArgumentException if capacity < 0
+	 */
+	public BarBlock(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+
+		times = new long[capacity];
+		opens = new double[capacity];
+		closes = new double[capacity];
+		highs = new double[capacity];
+		lows = new double[capacity];
+		volumes = new double[capacity];
+	}
+
+	/**
+	 * Returns given bars as a block. Returns bars itself if it is a block,
+	 * otherwise a new block holding the bars. Returns null if bars is null.
+	 *
+	 * @param bars the bars
+	 * @return the bars as a block
+	 */
+	public static BarBlock of(List<IBar> bars) {
+		if (bars == null || bars instanceof BarBlock)
+			return (BarBlock) bars;
+
+		BarBlock block = new BarBlock(bars.size());
+		block.addAll(bars);
+
+		return block;
+	}
+
+	/**
+	 * Appends a bar.
+	 *
+	 * @param time the time of the bar
+	 * @param open the open of the bar
+	 * @param close the close of the bar
+	 * @param high the high of the bar
+	 * @param low the low of the bar
+	 * @param volume the volume of the bar
+	 */
+	public void add(long time, double open, double close, double high, double low,
+			double volume) {
+		ensureCapacity(size + 1);
+
+		times[size] = time;
+		opens[size] = open;
+		closes[size] = close;
+		highs[size] = high;
+		lows[size] = low;
+		volumes[size] = volume;
+		size++;
+	}
+
+	/**
+	 * Appends given bar.
+	 *
+	 * @param bar the bar to append
+	 * @return true
+	 */
+	@Override
+	public boolean add(IBar bar) {
+		add(bar.getTime(), bar.getOpen(), bar.getClose(), bar.getHigh(), bar.getLow(),
+				bar.getVolume());
+
+		return true;
+	}
+
+	/**
+	 * Appends the bars of given block on the index interval [fromIndex,
+	 * toIndex), copying columns without creating any views.
+	 *
+	 * @param block the block to append bars of
+	 * @param fromIndex the index of the first bar to append (inclusive)
+	 * @param toIndex the index of the last bar to append (exclusive)
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds
+	 */
+	public void addAll(BarBlock block, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > block.size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: "
+					+ toIndex + ", Size: " + block.size);
+
+		int n = toIndex - fromIndex;
+
+		ensureCapacity(size + n);
+
+		System.arraycopy(block.times, fromIndex, times, size, n);
+		System.arraycopy(block.opens, fromIndex, opens, size, n);
+		System.arraycopy(block.closes, fromIndex, closes, size, n);
+		System.arraycopy(block.highs, fromIndex, highs, size, n);
+		System.arraycopy(block.lows, fromIndex, lows, size, n);
+		System.arraycopy(block.volumes, fromIndex, volumes, size, n);
+		size += n;
+	}
+
+	/**
+	 * Makes sure this block can hold given number of bars without growing.
+	 *
+	 * @param capacity the number of bars
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= times.length)
+			return;
+
+		resize(Math.max(capacity, times.length + (times.length >> 1) + 1));
+	}
+
+	/**
+	 * Shrinks the columns of this block to its size.
+	 */
+	public void trimToSize() {
+		if (size < times.length)
+			resize(size);
+	}
+
+	private void resize(int capacity) {
+		long[] newTimes = new long[capacity];
+		System.arraycopy(times, 0, newTimes, 0, size);
+		times = newTimes;
+
+		opens = copyOf(opens, capacity);
+		closes = copyOf(closes, capacity);
+		highs = copyOf(highs, capacity);
+		lows = copyOf(lows, capacity);
+		volumes = copyOf(volumes, capacity);
+	}
+
+	private double[] copyOf(double[] column, int capacity) {
+		double[] copy = new double[capacity];
+		System.arraycopy(column, 0, copy, 0, size);
+
+		return copy;
+	}
+
+	/**
+	 * Returns the time of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the time of the bar at given index
+	 */
+	public long getTime(int index) {
+		checkIndex(index);
+		return times[index];
+	}
+
+	/**
+	 * Returns the index of the first bar of time greater than or equal to
+	 * given time, or size() if there is no such bar. The bars must be in
+	 * ascending order with respect to time.
+	 *
+	 * @param time the time to search for
+	 * @return the index of the first bar of time greater than or equal to
+	 *         time
+	 */
+	public int ceilingIndex(long time) {
+		return search(time, true);
+	}
+
+	/**
+	 * Returns the index of the first bar of time greater than given time, or
+	 * size() if there is no such bar. The bars must be in ascending order
+	 * with respect to time.
+	 *
+	 * @param time the time to search for
+	 * @return the index of the first bar of time greater than time
+	 */
+	public int higherIndex(long time) {
+		return search(time, false);
+	}
+
+	// binary search of the first time >= time, or > time if not inclusive
+	private int search(long time, boolean inclusive) {
+		int low = 0, high = size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (times[mid] < time || (!inclusive && times[mid] == time))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the open of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the open of the bar at given index
+	 */
+	public double getOpen(int index) {
+		checkIndex(index);
+		return opens[index];
+	}
+
+	/**
+	 * Returns the close of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the close of the bar at given index
+	 */
+	public double getClose(int index) {
+		checkIndex(index);
+		return closes[index];
+	}
+
+	/**
+	 * Returns the high of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the high of the bar at given index
+	 */
+	public double getHigh(int index) {
+		checkIndex(index);
+		return highs[index];
+	}
+
+	/**
+	 * Returns the low of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the low of the bar at given index
+	 */
+	public double getLow(int index) {
+		checkIndex(index);
+		return lows[index];
+	}
+
+	/**
+	 * Returns the volume of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the volume of the bar at given index
+	 */
+	public double getVolume(int index) {
+		checkIndex(index);
+		return volumes[index];
+	}
+
+	/**
+	 * Returns a view of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return a view of the bar at given index
+	 */
+	@Override
+	public IBar get(int index) {
+		checkIndex(index);
+		return new View(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	/**
+	 * A bar of the block.
+	 */
+	private final class View implements IBar {
+
+		private final int index;
+
+		View(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public long getTime() {
+			return times[index];
+		}
+
+		@Override
+		public double getOpen() {
+			return opens[index];
+		}
+
+		@Override
+		public double getClose() {
+			return closes[index];
+		}
+
+		@Override
+		public double getHigh() {
+			return highs[index];
+		}
+
+		@Override
+		public double getLow() {
+			return lows[index];
+		}
+
+		@Override
+		public double getVolume() {
+			return volumes[index];
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format(
+					"%s:  %s  O: %3$.4f  C: %4$.4f  H: %5$.4f  L: %6$.4f  V: %7$.4f",
+					"Bar",
+					ForexTools.getTimeRepresentation(getTime()),
+					getOpen(),
+					getClose(),
+					getHigh(),
+					getLow(),
+					getVolume());
+			// @formatter:on
+		}
+	}
+}
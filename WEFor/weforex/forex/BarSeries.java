@@ -0,0 +1,243 @@
+package forex;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.dukascopy.api.IBar;
+
+// @formatter:off
+/**
+ * A list of bars made of slices of BarBlocks, without copying any bar. A
+ * series lets bars spread over several blocks, e.g. the bar tables of a
+ * time range, be read as one list.
+ *
+ * Slices are appended in ascending order with respect to time, and the
+ * blocks sliced must not be modified while the series is in use. Bars
+ * appended one at a time, see add(IBar), are kept in a block of the series'
+ * own, so the blocks sliced are never modified by the series.
+ *
+ * The fields of a bar are read by index without creating any object, see
+ * getTime(int), getOpen(int) and so on. Reading the bars in order finds the
+ * slice of each bar in constant time, other indices by binary search over
+ * the slices.
+ *
+ * A series is not thread safe while bars are appended.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class BarSeries extends AbstractList<IBar> implements RandomAccess {
+
+	private BarBlock[] blocks = new BarBlock[4];
+	// the index in its block of the first bar of each slice
+	private int[] offsets = new int[4];
+	// the index in the series of the first bar of each slice, and the size
+	private int[] starts = new int[5];
+	private int slices;
+
+	// the bars appended one at a time, after the slices
+	private BarBlock tail;
+
+	// the slice of the last index read
+	private int current;
+
+	/**
+	 * Create an empty series.
+	 */
+	public BarSeries() {
+	}
+
+	/**
+	 * Appends the bars of given block on the index interval [fromIndex,
+	 * toIndex) as a slice, without copying them.
+	 *
+	 * @param block the block to append bars of
+	 * @param fromIndex the index of the first bar to append (inclusive)
+	 * @param toIndex the index of the last bar to append (exclusive)
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds
+	 */
+	public void addSlice(BarBlock block, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > block.size() || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: "
+					+ toIndex + ", Size: " + block.size());
+
+		// bars appended before the slice are sliced first
+		if (tail != null) {
+			BarBlock bars = tail;
+			tail = null;
+			addSlice(bars, 0, bars.size());
+		}
+
+		if (fromIndex == toIndex)
+			return;
+
+		if (slices == blocks.length) {
+			blocks = copyOf(blocks, 2 * slices);
+			offsets = copyOf(offsets, 2 * slices);
+			starts = copyOf(starts, 2 * slices + 1);
+		}
+
+		blocks[slices] = block;
+		offsets[slices] = fromIndex;
+		starts[slices + 1] = starts[slices] + toIndex - fromIndex;
+		slices++;
+	}
+
+	private static BarBlock[] copyOf(BarBlock[] array, int length) {
+		BarBlock[] copy = new BarBlock[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+
+		return copy;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+
+		return copy;
+	}
+
+	/**
+	 * Appends a bar, to a block of the series' own.
+	 *
+	 * @param bar the bar to append
+	 * @return true
+	 */
+	@Override
+	public boolean add(IBar bar) {
+		if (tail == null)
+			tail = new BarBlock();
+
+		return tail.add(bar);
+	}
+
+	@Override
+	public int size() {
+		return starts[slices] + (tail == null ? 0 : tail.size());
+	}
+
+	/**
+	 * Returns the number of slices, not counting the bars appended one at a
+	 * time.
+	 *
+	 * @return the number of slices
+	 */
+	public int getSlices() {
+		return slices;
+	}
+
+	// returns the slice of the bar at given index, slices if in the tail
+	private int slice(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+		if (index >= starts[slices])
+			return slices;
+
+		int s = current;
+		if (index >= starts[s] && index < starts[s + 1])
+			return s;
+
+		// the slice following the slice of the last index read
+		if (s + 1 < slices && index >= starts[s + 1] && index < starts[s + 2])
+			return current = s + 1;
+
+		int low = 0, high = slices - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+
+			if (starts[mid] <= index)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		return current = low;
+	}
+
+	private BarBlock block(int s) {
+		return s == slices ? tail : blocks[s];
+	}
+
+	private int indexInBlock(int s, int index) {
+		return s == slices ? index - starts[slices] : offsets[s] + index - starts[s];
+	}
+
+	/**
+	 * Returns the time of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the time of the bar at given index
+	 */
+	public long getTime(int index) {
+		int s = slice(index);
+		return block(s).getTime(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the open of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the open of the bar at given index
+	 */
+	public double getOpen(int index) {
+		int s = slice(index);
+		return block(s).getOpen(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the close of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the close of the bar at given index
+	 */
+	public double getClose(int index) {
+		int s = slice(index);
+		return block(s).getClose(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the high of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the high of the bar at given index
+	 */
+	public double getHigh(int index) {
+		int s = slice(index);
+		return block(s).getHigh(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the low of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the low of the bar at given index
+	 */
+	public double getLow(int index) {
+		int s = slice(index);
+		return block(s).getLow(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the volume of the bar at given index.
+	 *
+	 * @param index the index of the bar
+	 * @return the volume of the bar at given index
+	 */
+	public double getVolume(int index) {
+		int s = slice(index);
+		return block(s).getVolume(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns a view of the bar at given index, see BarBlock.get(int).
+	 *
+	 * @param index the index of the bar
+	 * @return a view of the bar at given index
+	 */
+	@Override
+	public IBar get(int index) {
+		int s = slice(index);
+		return block(s).get(indexInBlock(s, index));
+	}
+}
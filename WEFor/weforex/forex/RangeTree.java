@@ -0,0 +1,410 @@
+package forex;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.OfferSide;
+
+// @formatter:off
+/**
+ * An index answering the open, close, high, low and volume of any range of a
+ * sequence of bars, or ticks of one offer side, in O(log n) time.
+ *
+ * Highs and lows are kept in segment trees, and volumes as prefix sums. The
+ * open and close of a range are those of its first and last element. Ranges
+ * are given by index, see getHigh(int, int) and so on, or by time, see
+ * getRangeBar(long, long), for which the elements must be added in ascending
+ * order with respect to time.
+ *
+ * Elements are appended in O(log n) time, so an index can follow elements
+ * supplied by a feed. The columns only grow when more elements are appended
+ * than fit.
+ *
+ * A tree is not thread safe while elements are appended.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class RangeTree {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] times;
+	private double[] opens;
+	private double[] closes;
+
+	// volume of the elements before each index, of length capacity + 1
+	private double[] volumes;
+
+	// segment trees, the leaves at [capacity, 2 * capacity)
+	private double[] highs;
+	private double[] lows;
+
+	// a power of two
+	private int capacity;
+	private int size;
+
+	/**
+	 * Create an empty tree.
+	 */
+	public RangeTree() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty tree able to hold given number of elements before
+	 * growing.
+	 *
+	 * @param capacity the initial capacity
+	 * @throws IllegalArgumentException if capacity < 0
+	 */
+	public RangeTree(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+
+		allocate(capacityFor(capacity));
+	}
+
+	private static int capacityFor(int n) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity < n)
+			capacity <<= 1;
+
+		return capacity;
+	}
+
+	private void allocate(int capacity) {
+		this.capacity = capacity;
+
+		times = new long[capacity];
+		opens = new double[capacity];
+		closes = new double[capacity];
+		volumes = new double[capacity + 1];
+
+		highs = new double[2 * capacity];
+		lows = new double[2 * capacity];
+		Arrays.fill(highs, Double.NEGATIVE_INFINITY);
+		Arrays.fill(lows, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Returns a tree of given bars. The bars are read without creating any
+	 * object if given as a BarBlock or a BarSeries.
+	 *
+	 * @param bars the bars
+	 * @return a tree of the bars
+	 */
+	public static RangeTree ofBars(List<IBar> bars) {
+		int n = bars.size();
+		RangeTree tree = new RangeTree(n);
+
+		if (bars instanceof BarBlock) {
+			BarBlock block = (BarBlock) bars;
+
+			for (int i = 0; i < n; i++)
+				tree.append(block.getTime(i), block.getOpen(i), block.getClose(i),
+						block.getHigh(i), block.getLow(i), block.getVolume(i));
+		} else if (bars instanceof BarSeries) {
+			BarSeries series = (BarSeries) bars;
+
+			for (int i = 0; i < n; i++)
+				tree.append(series.getTime(i), series.getOpen(i), series.getClose(i),
+						series.getHigh(i), series.getLow(i), series.getVolume(i));
+		} else {
+			for (IBar bar : bars)
+				tree.append(bar.getTime(), bar.getOpen(), bar.getClose(), bar.getHigh(),
+						bar.getLow(), bar.getVolume());
+		}
+
+		tree.build();
+
+		return tree;
+	}
+
+	/**
+	 * Returns a tree of the prices and volumes of given offer side of given
+	 * ticks, each tick as an element of equal open, close, high and low. The
+	 * ticks are read without creating any object if given as a TickBlock or a
+	 * TickSeries.
+	 *
+	 * @param ticks the ticks
+	 * @param offerSide the offer side of the prices and volumes
+	 * @return a tree of the ticks
+	 * @throws IllegalArgumentException if offerSide is null
+	 */
+	public static RangeTree ofTicks(List<ITick> ticks, OfferSide offerSide) {
+		if (offerSide == null)
+			throw new IllegalArgumentException("offerSide can't be null");
+
+		boolean ask = offerSide == OfferSide.ASK;
+		int n = ticks.size();
+		RangeTree tree = new RangeTree(n);
+
+		if (ticks instanceof TickBlock) {
+			TickBlock block = (TickBlock) ticks;
+
+			for (int i = 0; i < n; i++) {
+				double price = ask ? block.getAsk(i) : block.getBid(i);
+				tree.append(block.getTime(i), price, price, price, price,
+						ask ? block.getAskVolume(i) : block.getBidVolume(i));
+			}
+		} else if (ticks instanceof TickSeries) {
+			TickSeries series = (TickSeries) ticks;
+
+			for (int i = 0; i < n; i++) {
+				double price = ask ? series.getAsk(i) : series.getBid(i);
+				tree.append(series.getTime(i), price, price, price, price,
+						ask ? series.getAskVolume(i) : series.getBidVolume(i));
+			}
+		} else {
+			for (ITick tick : ticks) {
+				double price = ask ? tick.getAsk() : tick.getBid();
+				tree.append(tick.getTime(), price, price, price, price,
+						ask ? tick.getAskVolume() : tick.getBidVolume());
+			}
+		}
+
+		tree.build();
+
+		return tree;
+	}
+
+	// appends an element without updating the inner nodes, see build()
+	private void append(long time, double open, double close, double high, double low,
+			double volume) {
+
+		if (size == capacity)
+			grow();
+
+		times[size] = time;
+		opens[size] = open;
+		closes[size] = close;
+		volumes[size + 1] = volumes[size] + volume;
+		highs[capacity + size] = high;
+		lows[capacity + size] = low;
+		size++;
+	}
+
+	// computes the inner nodes from the leaves
+	private void build() {
+		for (int i = capacity - 1; i > 0; i--) {
+			highs[i] = Math.max(highs[2 * i], highs[2 * i + 1]);
+			lows[i] = Math.min(lows[2 * i], lows[2 * i + 1]);
+		}
+	}
+
+	private void grow() {
+		long[] oldTimes = times;
+		double[] oldOpens = opens, oldCloses = closes, oldVolumes = volumes;
+		double[] oldHighs = highs, oldLows = lows;
+		int oldCapacity = capacity;
+
+		allocate(2 * oldCapacity);
+
+		System.arraycopy(oldTimes, 0, times, 0, size);
+		System.arraycopy(oldOpens, 0, opens, 0, size);
+		System.arraycopy(oldCloses, 0, closes, 0, size);
+		System.arraycopy(oldVolumes, 0, volumes, 0, size + 1);
+		System.arraycopy(oldHighs, oldCapacity, highs, capacity, size);
+		System.arraycopy(oldLows, oldCapacity, lows, capacity, size);
+
+		build();
+	}
+
+	/**
+	 * Appends an element.
+	 *
+	 * @param time the time of the element
+	 * @param open the open of the element
+	 * @param close the close of the element
+	 * @param high the high of the element
+	 * @param low the low of the element
+	 * @param volume the volume of the element
+	 */
+	public void add(long time, double open, double close, double high, double low,
+			double volume) {
+
+		append(time, open, close, high, low, volume);
+
+		for (int i = (capacity + size - 1) >> 1; i > 0; i >>= 1) {
+			highs[i] = Math.max(highs[2 * i], highs[2 * i + 1]);
+			lows[i] = Math.min(lows[2 * i], lows[2 * i + 1]);
+		}
+	}
+
+	/**
+	 * Appends a bar.
+	 *
+	 * @param bar the bar to append
+	 */
+	public void add(IBar bar) {
+		add(bar.getTime(), bar.getOpen(), bar.getClose(), bar.getHigh(), bar.getLow(),
+				bar.getVolume());
+	}
+
+	/**
+	 * Appends an element of equal open, close, high and low, such as a point
+	 * of a line.
+	 *
+	 * @param time the time of the element
+	 * @param rate the rate of the element
+	 */
+	public void add(long time, double rate) {
+		add(time, rate, rate, rate, rate, 0);
+	}
+
+	/**
+	 * Returns the number of elements.
+	 *
+	 * @return the number of elements
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns true if there are no elements.
+	 *
+	 * @return true if there are no elements
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Returns the index of the first element of time greater than or equal to
+	 * given time, or size() if there is no such element.
+	 *
+	 * @param time the time to search for
+	 * @return the index of the first element of time greater than or equal to
+	 *         time
+	 */
+	public int ceilingIndex(long time) {
+		int low = 0, high = size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (times[mid] < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	private void checkRange(int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > size || fromIndex >= toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: "
+					+ toIndex + ", Size: " + size);
+	}
+
+	/**
+	 * Returns the highest high of the elements on the index interval
+	 * [fromIndex, toIndex).
+	 *
+	 * @param fromIndex the index of the first element (inclusive)
+	 * @param toIndex the index of the last element (exclusive)
+	 * @return the highest high of the elements
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds or
+	 *             empty
+	 */
+	public double getHigh(int fromIndex, int toIndex) {
+		checkRange(fromIndex, toIndex);
+
+		double high = Double.NEGATIVE_INFINITY;
+		for (int l = fromIndex + capacity, r = toIndex + capacity; l < r; l >>= 1, r >>= 1) {
+			if ((l & 1) == 1)
+				high = Math.max(high, highs[l++]);
+			if ((r & 1) == 1)
+				high = Math.max(high, highs[--r]);
+		}
+
+		return high;
+	}
+
+	/**
+	 * Returns the lowest low of the elements on the index interval [fromIndex,
+	 * toIndex).
+	 *
+	 * @param fromIndex the index of the first element (inclusive)
+	 * @param toIndex the index of the last element (exclusive)
+	 * @return the lowest low of the elements
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds or
+	 *             empty
+	 */
+	public double getLow(int fromIndex, int toIndex) {
+		checkRange(fromIndex, toIndex);
+
+		double low = Double.POSITIVE_INFINITY;
+		for (int l = fromIndex + capacity, r = toIndex + capacity; l < r; l >>= 1, r >>= 1) {
+			if ((l & 1) == 1)
+				low = Math.min(low, lows[l++]);
+			if ((r & 1) == 1)
+				low = Math.min(low, lows[--r]);
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the total volume of the elements on the index interval
+	 * [fromIndex, toIndex).
+	 *
+	 * @param fromIndex the index of the first element (inclusive)
+	 * @param toIndex the index of the last element (exclusive)
+	 * @return the total volume of the elements
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds or
+	 *             empty
+	 */
+	public double getVolume(int fromIndex, int toIndex) {
+		checkRange(fromIndex, toIndex);
+
+		return volumes[toIndex] - volumes[fromIndex];
+	}
+
+	/**
+	 * Returns the elements on the index interval [fromIndex, toIndex)
+	 * aggregated as one bar, of the time and open of the first element and the
+	 * close of the last.
+	 *
+	 * @param fromIndex the index of the first element (inclusive)
+	 * @param toIndex the index of the last element (exclusive)
+	 * @return the elements aggregated as one bar
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds or
+	 *             empty
+	 */
+	public IBar getBar(int fromIndex, int toIndex) {
+		checkRange(fromIndex, toIndex);
+
+		// @formatter:off
+		return new Bar(
+				times[fromIndex],
+				opens[fromIndex],
+				closes[toIndex - 1],
+				getHigh(fromIndex, toIndex),
+				getLow(fromIndex, toIndex),
+				getVolume(fromIndex, toIndex));
+		// @formatter:on
+	}
+
+	/**
+	 * Returns the elements of time on the interval [from, to) aggregated as
+	 * one bar, see getBar(int, int). Returns null if there are no such
+	 * elements.
+	 *
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @return the elements of time on the interval aggregated as one bar, or
+	 *         null if there are no such elements
+	 */
+	public IBar getRangeBar(long from, long to) {
+		int fromIndex = ceilingIndex(from);
+		int toIndex = ceilingIndex(to);
+
+		return fromIndex < toIndex ? getBar(fromIndex, toIndex) : null;
+	}
+}
@@ -0,0 +1,374 @@
+package forex;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.dukascopy.api.ITick;
+
+// @formatter:off
+/**
+ * A list of ticks stored as columns of primitives, one array per field,
+ * instead of one object per tick. A tick takes 40 bytes of a TickBlock, while
+ * a Tick takes well over 100 bytes including its arrays.
+ *
+ * The fields of a tick are read by index without creating any object, see
+ * getTime(int), getAsk(int) and so on. For compatibility with code using
+ * ITick, get(int) returns a small view of the tick at the index, which reads
+ * the columns of the block. Views are created on demand and don't copy any
+ * values.
+ *
+ * Ticks can only be appended, so a tick never changes once added and views
+ * stay valid. A block is not thread safe while ticks are appended.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class TickBlock extends AbstractList<ITick> implements RandomAccess {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] times;
+	private double[] asks;
+	private double[] bids;
+	private double[] askVolumes;
+	private double[] bidVolumes;
+	private int size;
+
+	/**
+	 * Create an empty block.
+	 */
+	public TickBlock() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty block able to hold given number of ticks before
+	 * growing.
+	 *
+	 * @param capacity the initial capacity
+	 * @throws IllegalArgumentException if capacity < 0
+	 */
+	public TickBlock(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+
+		times = new long[capacity];
+		asks = new double[capacity];
+		bids = new double[capacity];
+		askVolumes = new double[capacity];
+		bidVolumes = new double[capacity];
+	}
+
+	/**
+	 * Returns given ticks as a block. Returns ticks itself if it is a block,
+	 * otherwise a new block holding the best prices and volumes of the ticks.
+	 * Returns null if ticks is null.
+	 *
+	 * @param ticks the ticks
+	 * @return the ticks as a block
+	 */
+	public static TickBlock of(List<ITick> ticks) {
+		if (ticks == null || ticks instanceof TickBlock)
+			return (TickBlock) ticks;
+
+		TickBlock block = new TickBlock(ticks.size());
+		block.addAll(ticks);
+
+		return block;
+	}
+
+	/**
+	 * Appends a tick.
+	 *
+	 * @param time the time of the tick
+	 * @param ask the best ask price
+	 * @param bid the best bid price
+	 * @param askVolume the volume at the best ask price
+	 * @param bidVolume the volume at the best bid price
+	 */
+	public void add(long time, double ask, double bid, double askVolume, double bidVolume) {
+		ensureCapacity(size + 1);
+
+		times[size] = time;
+		asks[size] = ask;
+		bids[size] = bid;
+		askVolumes[size] = askVolume;
+		bidVolumes[size] = bidVolume;
+		size++;
+	}
+
+	/**
+	 * Appends the best prices and volumes of given tick.
+	 *
+	 * @param tick the tick to append
+	 * @return true
+	 */
+	@Override
+	public boolean add(ITick tick) {
+		add(tick.getTime(), tick.getAsk(), tick.getBid(), tick.getAskVolume(),
+				tick.getBidVolume());
+
+		return true;
+	}
+
+	/**
+	 * Appends the ticks of given block on the index interval [fromIndex,
+	 * toIndex), copying columns without creating any views.
+	 *
+	 * @param block the block to append ticks of
+	 * @param fromIndex the index of the first tick to append (inclusive)
+	 * @param toIndex the index of the last tick to append (exclusive)
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds
+	 */
+	public void addAll(TickBlock block, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > block.size || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: "
+					+ toIndex + ", Size: " + block.size);
+
+		int n = toIndex - fromIndex;
+
+		ensureCapacity(size + n);
+
+		System.arraycopy(block.times, fromIndex, times, size, n);
+		System.arraycopy(block.asks, fromIndex, asks, size, n);
+		System.arraycopy(block.bids, fromIndex, bids, size, n);
+		System.arraycopy(block.askVolumes, fromIndex, askVolumes, size, n);
+		System.arraycopy(block.bidVolumes, fromIndex, bidVolumes, size, n);
+		size += n;
+	}
+
+	/**
+	 * Makes sure this block can hold given number of ticks without growing.
+	 *
+	 * @param capacity the number of ticks
+	 */
+	public void ensureCapacity(int capacity) {
+		if (capacity <= times.length)
+			return;
+
+		resize(Math.max(capacity, times.length + (times.length >> 1) + 1));
+	}
+
+	/**
+	 * Shrinks the columns of this block to its size.
+	 */
+	public void trimToSize() {
+		if (size < times.length)
+			resize(size);
+	}
+
+	private void resize(int capacity) {
+		long[] newTimes = new long[capacity];
+		System.arraycopy(times, 0, newTimes, 0, size);
+		times = newTimes;
+
+		asks = copyOf(asks, capacity);
+		bids = copyOf(bids, capacity);
+		askVolumes = copyOf(askVolumes, capacity);
+		bidVolumes = copyOf(bidVolumes, capacity);
+	}
+
+	private double[] copyOf(double[] column, int capacity) {
+		double[] copy = new double[capacity];
+		System.arraycopy(column, 0, copy, 0, size);
+
+		return copy;
+	}
+
+	/**
+	 * Returns the time of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the time of the tick at given index
+	 */
+	public long getTime(int index) {
+		checkIndex(index);
+		return times[index];
+	}
+
+	/**
+	 * Returns the index of the first tick of time greater than or equal to
+	 * given time, or size() if there is no such tick. The ticks must be in
+	 * ascending order with respect to time.
+	 *
+	 * @param time the time to search for
+	 * @return the index of the first tick of time greater than or equal to
+	 *         time
+	 */
+	public int ceilingIndex(long time) {
+		return search(time, true);
+	}
+
+	/**
+	 * Returns the index of the first tick of time greater than given time, or
+	 * size() if there is no such tick. The ticks must be in ascending order
+	 * with respect to time.
+	 *
+	 * @param time the time to search for
+	 * @return the index of the first tick of time greater than time
+	 */
+	public int higherIndex(long time) {
+		return search(time, false);
+	}
+
+	// binary search of the first time >= time, or > time if not inclusive
+	private int search(long time, boolean inclusive) {
+		int low = 0, high = size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (times[mid] < time || (!inclusive && times[mid] == time))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the best ask price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the best ask price of the tick at given index
+	 */
+	public double getAsk(int index) {
+		checkIndex(index);
+		return asks[index];
+	}
+
+	/**
+	 * Returns the best bid price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the best bid price of the tick at given index
+	 */
+	public double getBid(int index) {
+		checkIndex(index);
+		return bids[index];
+	}
+
+	/**
+	 * Returns the volume at the best ask price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the volume at the best ask price of the tick at given index
+	 */
+	public double getAskVolume(int index) {
+		checkIndex(index);
+		return askVolumes[index];
+	}
+
+	/**
+	 * Returns the volume at the best bid price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the volume at the best bid price of the tick at given index
+	 */
+	public double getBidVolume(int index) {
+		checkIndex(index);
+		return bidVolumes[index];
+	}
+
+	/**
+	 * Returns a view of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return a view of the tick at given index
+	 */
+	@Override
+	public ITick get(int index) {
+		checkIndex(index);
+		return new View(index);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+
+	/**
+	 * A tick of the block.
+	 */
+	private final class View implements ITick {
+
+		private final int index;
+
+		View(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public long getTime() {
+			return times[index];
+		}
+
+		@Override
+		public double getAsk() {
+			return asks[index];
+		}
+
+		@Override
+		public double getBid() {
+			return bids[index];
+		}
+
+		@Override
+		public double getAskVolume() {
+			return askVolumes[index];
+		}
+
+		@Override
+		public double getBidVolume() {
+			return bidVolumes[index];
+		}
+
+		@Override
+		public double[] getAsks() {
+			return new double[] { getAsk() };
+		}
+
+		@Override
+		public double[] getBids() {
+			return new double[] { getBid() };
+		}
+
+		@Override
+		public double[] getAskVolumes() {
+			return new double[] { getAskVolume() };
+		}
+
+		@Override
+		public double[] getBidVolumes() {
+			return new double[] { getBidVolume() };
+		}
+
+		@Override
+		public double getTotalAskVolume() {
+			return getAskVolume();
+		}
+
+		@Override
+		public double getTotalBidVolume() {
+			return getBidVolume();
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format("%s:  %s  ask=%3$f  bid=%4$f",
+					"Tick",
+					ForexTools.getTimeRepresentation(getTime()),
+					getAsk(),
+					getBid());
+			// @formatter:on
+		}
+	}
+}
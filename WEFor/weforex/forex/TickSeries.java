@@ -0,0 +1,232 @@
+package forex;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import com.dukascopy.api.ITick;
+
+// @formatter:off
+/**
+ * A list of ticks made of slices of TickBlocks, without copying any tick. A
+ * series lets ticks spread over several blocks, e.g. the tick tables of a
+ * time range, be read as one list.
+ *
+ * Slices are appended in ascending order with respect to time, and the
+ * blocks sliced must not be modified while the series is in use. Ticks
+ * appended one at a time, see add(ITick), are kept in a block of the series'
+ * own, so the blocks sliced are never modified by the series.
+ *
+ * The fields of a tick are read by index without creating any object, see
+ * getTime(int), getAsk(int) and so on. Reading the ticks in order finds the
+ * slice of each tick in constant time, other indices by binary search over
+ * the slices.
+ *
+ * A series is not thread safe while ticks are appended.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public final class TickSeries extends AbstractList<ITick> implements RandomAccess {
+
+	private TickBlock[] blocks = new TickBlock[4];
+	// the index in its block of the first tick of each slice
+	private int[] offsets = new int[4];
+	// the index in the series of the first tick of each slice, and the size
+	private int[] starts = new int[5];
+	private int slices;
+
+	// the ticks appended one at a time, after the slices
+	private TickBlock tail;
+
+	// the slice of the last index read
+	private int current;
+
+	/**
+	 * Create an empty series.
+	 */
+	public TickSeries() {
+	}
+
+	/**
+	 * Appends the ticks of given block on the index interval [fromIndex,
+	 * toIndex) as a slice, without copying them.
+	 *
+	 * @param block the block to append ticks of
+	 * @param fromIndex the index of the first tick to append (inclusive)
+	 * @param toIndex the index of the last tick to append (exclusive)
+	 * @throws IndexOutOfBoundsException if the interval is out of bounds
+	 */
+	public void addSlice(TickBlock block, int fromIndex, int toIndex) {
+		if (fromIndex < 0 || toIndex > block.size() || fromIndex > toIndex)
+			throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: "
+					+ toIndex + ", Size: " + block.size());
+
+		// ticks appended before the slice are sliced first
+		if (tail != null) {
+			TickBlock ticks = tail;
+			tail = null;
+			addSlice(ticks, 0, ticks.size());
+		}
+
+		if (fromIndex == toIndex)
+			return;
+
+		if (slices == blocks.length) {
+			blocks = copyOf(blocks, 2 * slices);
+			offsets = copyOf(offsets, 2 * slices);
+			starts = copyOf(starts, 2 * slices + 1);
+		}
+
+		blocks[slices] = block;
+		offsets[slices] = fromIndex;
+		starts[slices + 1] = starts[slices] + toIndex - fromIndex;
+		slices++;
+	}
+
+	private static TickBlock[] copyOf(TickBlock[] array, int length) {
+		TickBlock[] copy = new TickBlock[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+
+		return copy;
+	}
+
+	private static int[] copyOf(int[] array, int length) {
+		int[] copy = new int[length];
+		System.arraycopy(array, 0, copy, 0, array.length);
+
+		return copy;
+	}
+
+	/**
+	 * Appends a tick, to a block of the series' own.
+	 *
+	 * @param tick the tick to append
+	 * @return true
+	 */
+	@Override
+	public boolean add(ITick tick) {
+		if (tail == null)
+			tail = new TickBlock();
+
+		return tail.add(tick);
+	}
+
+	@Override
+	public int size() {
+		return starts[slices] + (tail == null ? 0 : tail.size());
+	}
+
+	/**
+	 * Returns the number of slices, not counting the ticks appended one at a
+	 * time.
+	 *
+	 * @return the number of slices
+	 */
+	public int getSlices() {
+		return slices;
+	}
+
+	// returns the slice of the tick at given index, slices if in the tail
+	private int slice(int index) {
+		if (index < 0 || index >= size())
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+		if (index >= starts[slices])
+			return slices;
+
+		int s = current;
+		if (index >= starts[s] && index < starts[s + 1])
+			return s;
+
+		// the slice following the slice of the last index read
+		if (s + 1 < slices && index >= starts[s + 1] && index < starts[s + 2])
+			return current = s + 1;
+
+		int low = 0, high = slices - 1;
+		while (low < high) {
+			int mid = (low + high + 1) >>> 1;
+
+			if (starts[mid] <= index)
+				low = mid;
+			else
+				high = mid - 1;
+		}
+
+		return current = low;
+	}
+
+	private TickBlock block(int s) {
+		return s == slices ? tail : blocks[s];
+	}
+
+	private int indexInBlock(int s, int index) {
+		return s == slices ? index - starts[slices] : offsets[s] + index - starts[s];
+	}
+
+	/**
+	 * Returns the time of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the time of the tick at given index
+	 */
+	public long getTime(int index) {
+		int s = slice(index);
+		return block(s).getTime(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the best ask price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the best ask price of the tick at given index
+	 */
+	public double getAsk(int index) {
+		int s = slice(index);
+		return block(s).getAsk(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the best bid price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the best bid price of the tick at given index
+	 */
+	public double getBid(int index) {
+		int s = slice(index);
+		return block(s).getBid(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the volume at the best ask price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the volume at the best ask price of the tick at given index
+	 */
+	public double getAskVolume(int index) {
+		int s = slice(index);
+		return block(s).getAskVolume(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns the volume at the best bid price of the tick at given index.
+	 *
+	 * @param index the index of the tick
+	 * @return the volume at the best bid price of the tick at given index
+	 */
+	public double getBidVolume(int index) {
+		int s = slice(index);
+		return block(s).getBidVolume(indexInBlock(s, index));
+	}
+
+	/**
+	 * Returns a view of the tick at given index, see TickBlock.get(int).
+	 *
+	 * @param index the index of the tick
+	 * @return a view of the tick at given index
+	 */
+	@Override
+	public ITick get(int index) {
+		int s = slice(index);
+		return block(s).get(indexInBlock(s, index));
+	}
+}
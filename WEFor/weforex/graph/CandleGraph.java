@@ -4,6 +4,8 @@ import java.awt.Color;
 import java.awt.Graphics;
 import java.beans.PropertyChangeEvent;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 import chart.ChartController;
 import chart.RateAxis;
@@ -18,13 +20,14 @@ import com.dukascopy.api.OfferSide;
 import com.dukascopy.api.Period;
 import com.dukascopy.api.feed.IBarFeedListener;
 
-import feed.BarBuilder;
+import feed.BarAggregator;
 import feed.TimeRelativeFeed;
 import feed.ITickFeedListener;
 import feed.Provider;
 import feed.BarRequester;
 import forex.ForexConstants;
 import forex.ForexException;
+import forex.RangeTree;
 
 /**
  * This class implements a graph displaying bars.
@@ -46,8 +49,15 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 	private static final int HORIZONTAL_CANDLE_STICK_EDGE_CUT = 1;
 
 	// currently displayed bars
-	private ArrayList<IBar> displayingBars;
-	private BarBuilder buildingBar; // currently building bar
+	private List<IBar> displayingBars;
+	private RangeTree displayingRanges; // highs and lows of the displayed bars
+	// builds the currently building bar, null until loaded
+	private BarAggregator aggregator;
+
+	// the time the aggregator is advanced to, and the time of the last tick
+	// added, elements of earlier times being built into the bar already
+	private long aggregatedTime;
+	private long aggregatedTickTime;
 
 	private OfferSide offerSide;
 	private Period period;
@@ -74,6 +84,7 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 		this.provider = new Provider(this);
 		this.displayingBars = new ArrayList<IBar>();
+		this.displayingRanges = new RangeTree();
 	}
 
 	@Override
@@ -98,7 +109,7 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 	@Override
 	public long getUpperTimeLimit() {
-		return this.getCurrentTime();
+		return getLoadTimeLimit();
 	}
 
 	@Override
@@ -121,18 +132,12 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 		Double high = null;
 
-		if (!displayingBars.isEmpty()) {
-
-			high = displayingBars.get(0).getHigh();
-
-			for (IBar bar : displayingBars)
-				if (bar.getHigh() > high)
-					high = bar.getHigh();
-		}
+		if (!displayingRanges.isEmpty())
+			high = displayingRanges.getHigh(0, displayingRanges.size());
 
 		if (isBuildingBarOpenAndVisible()
-				&& (high == null || buildingBar.getHigh() > high))
-			high = buildingBar.getHigh();
+				&& (high == null || getBuildingBar().getHigh() > high))
+			high = getBuildingBar().getHigh();
 
 		return high;
 	}
@@ -142,16 +147,12 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 		Double low = null;
 
-		if (!displayingBars.isEmpty()) {
+		if (!displayingRanges.isEmpty())
+			low = displayingRanges.getLow(0, displayingRanges.size());
 
-			low = displayingBars.get(0).getLow();
-			for (IBar bar : displayingBars)
-				if (bar.getLow() < low)
-					low = bar.getLow();
-		}
-
-		if (isBuildingBarOpenAndVisible() && (low == null || buildingBar.getLow() < low))
-			low = buildingBar.getLow();
+		if (isBuildingBarOpenAndVisible()
+				&& (low == null || getBuildingBar().getLow() < low))
+			low = getBuildingBar().getLow();
 
 		return low;
 	}
@@ -162,25 +163,25 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 	@Override
 	public void onTick(Instrument instrument, ITick tick) {
 
-		if (buildingBar == null) {
-
-			updateBuildingBar();
-
-		} else {
-
-			buildingBar.addTick(tick);
+		// the tick is added once the aggregator is loaded otherwise
+		if (aggregator != null && tick.getTime() > aggregatedTickTime) {
+			aggregator.addTick(tick);
+			aggregatedTime = aggregatedTickTime = tick.getTime();
 		}
 
 		// repaint if building bar is visible
-		if (isBuildingBarOpenAndVisible())
-			repaint();
+		if (isBuildingBarOpenAndVisible()) {
+			IBar buildingBar = getBuildingBar();
+			scheduleRepaint(buildingBar.getTime(),
+					buildingBar.getTime() + period.getInterval());
+		}
 	}
 
-	private void updateBuildingBar() {
-		buildingBar = provider.getBuildingBar(this.getUpperTimeLimit());
+	private IBar getBuildingBar() {
+		if (aggregator == null)
+			return null;
 
-		if (buildingBar != null)
-			setTimeOfFront(buildingBar.getTime() + period.getInterval());
+		return aggregator.getBuildingBar(period, offerSide);
 	}
 
 	/**
@@ -192,20 +193,74 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 		if (!this.offerSide.equals(offerSide) || !this.period.equals(period))
 			return;
 
-		buildingBar = new BarBuilder(offerSide, bar.getTime() + period.getInterval());
+		// start building the next bar, once the aggregator is loaded otherwise
+		long nextBarTime = bar.getTime() + period.getInterval();
+		if (aggregator != null && nextBarTime > aggregatedTime) {
+			aggregator.advance(nextBarTime);
+			aggregatedTime = nextBarTime;
+		}
 
 		if (isBarVisible(bar)) {
 			displayingBars.add(bar);
-			repaint();
+			displayingRanges.add(bar);
+
+			Graphics g = getSettledGraphics();
+			if (g != null) {
+				drawCandleStick(bar, g);
+				g.dispose();
+			}
+
+			scheduleRepaint(bar.getTime(), nextBarTime);
 		}
 
-		setTimeOfFront(buildingBar.getTime() + period.getInterval());
+		setTimeOfFront(nextBarTime + period.getInterval());
 	}
 
+	/**
+	 * Loads the displaying bars, and the aggregator building the building bar
+	 * unless loaded already, since it is kept up to date by the elements
+	 * forwarded.
+	 */
 	@Override
 	protected final void updateDisplayingElements() {
-		displayingBars = provider.getBars(getStartTime() - period.getInterval(),
-				getEndTime());
+		final long from = getStartTime() - period.getInterval();
+		final long to = getEndTime();
+		final boolean loadAggregator = aggregator == null;
+
+		loadDisplayingElements(provider, new Callable<Runnable>() {
+			@Override
+			public Runnable call() {
+				final List<IBar> bars = provider.getBars(from, to);
+				final RangeTree ranges = RangeTree.ofBars(bars);
+
+				final long time = getLoadTimeLimit();
+				final BarAggregator loadedAggregator = loadAggregator ? provider
+						.getBarAggregator(time) : null;
+
+				return new Runnable() {
+					@Override
+					public void run() {
+						displayingBars = bars;
+						displayingRanges = ranges;
+
+						if (loadedAggregator != null)
+							setAggregator(loadedAggregator, time);
+					}
+				};
+			}
+		});
+	}
+
+	/**
+	 * Sets the aggregator building the building bar, built up to given time.
+	 */
+	private void setAggregator(BarAggregator aggregator, long time) {
+		this.aggregator = aggregator;
+		aggregatedTime = aggregatedTickTime = time;
+
+		IBar buildingBar = getBuildingBar();
+		if (buildingBar != null)
+			setTimeOfFront(buildingBar.getTime() + period.getInterval());
 	}
 
 	private boolean isBarVisible(IBar bar) {
@@ -217,16 +272,19 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 	}
 
 	private boolean isBuildingBarOpenAndVisible() {
-		return buildingBar != null && buildingBar.isOpen() && isBarVisible(buildingBar);
+		return isBarVisible(getBuildingBar());
 	}
 
 	@Override
 	protected final void drawDisplayingElements(Graphics g) {
 		for (IBar bar : displayingBars)
 			drawCandleStick(bar, g);
+	}
 
+	@Override
+	protected final void drawFrontElements(Graphics g) {
 		if (isBuildingBarOpenAndVisible())
-			drawCandleStick(buildingBar, g);
+			drawCandleStick(getBuildingBar(), g);
 	}
 
 	/**
@@ -286,7 +344,8 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 			focusAboutTime(getDefaultTimeRange(), getCurrentTime());
 
-			updateBuildingBar();
+			// loaded with the displaying bars
+			aggregator = null;
 
 			repaint();
 
@@ -294,7 +353,8 @@ public class CandleGraph extends Graph implements BarRequester, ITickFeedListene
 
 			this.offerSide = (OfferSide) evt.getNewValue();
 
-			updateBuildingBar();
+			// loaded with the displaying bars
+			aggregator = null;
 
 			repaint();
 		}
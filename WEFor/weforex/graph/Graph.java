@@ -1,23 +1,44 @@
 package graph;
 
+import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
+import javax.swing.SwingUtilities;
+
+import com.dukascopy.api.IBar;
 import com.dukascopy.api.IHistory;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+import com.dukascopy.api.TickBarSize;
+import com.dukascopy.api.feed.IBarFeedListener;
+import com.dukascopy.api.feed.ITickBar;
+import com.dukascopy.api.feed.ITickBarFeedListener;
 
 import chart.ChartBounds;
 import chart.ChartController;
 import chart.ChartView;
+import chart.FrameScheduler;
 import chart.RateAxis;
 import chart.RateRange;
 import chart.TimeAxis;
 import chart.TimeRange;
 
+import feed.ITickFeedListener;
+import feed.Provider;
 import feed.TimeRelativeFeed;
 import forex.ForexException;
 
@@ -31,10 +52,35 @@ import forex.ForexException;
  * have a constructor taking the following parameters in the declared order:
  * ChartController, TimeAxis, RateAxis, ForexDataFeed
  * 
+ * Elements supplied by the feed are forwarded to the graph on the event
+ * dispatch thread, an update of the feed at a time, see
+ * Feed.invokeOnEventDispatchThread. The current time of the graph is the
+ * time of the elements forwarded so far, which may be behind the current
+ * time of the feed, see getCurrentTime.
+ * 
+ * The displaying elements are loaded off the event dispatch thread, see
+ * loadDisplayingElements. Until loaded, the elements loaded before are
+ * painted. Elements are loaded up to the current time of the graph at the
+ * time the load is submitted, see getLoadTimeLimit, and the elements
+ * forwarded while loading are forwarded anew once loaded.
+ * 
+ * Unless rendering is set not to be cached, see setRenderingCached, the
+ * displaying elements are drawn on an offscreen image, which is painted until
+ * the time range, rate range or size of the graph changes, see
+ * graphicsDependentParametersChanged, or the displaying elements are
+ * reloaded. Elements changing from paint to paint, such as a bar being built,
+ * are drawn on top of the image, see drawFrontElements, and elements
+ * appended are drawn onto the image, see getSettledGraphics, so a repaint
+ * upon a tick draws only what changed.
+ * 
+ * Repaints upon elements supplied by the feed are requested of the
+ * FrameScheduler, see scheduleRepaint, so the graph is painted at most at
+ * the frame rate of the scheduler however fast the feed.
+ * 
  * @author Dennis Ekstrom
  */
 @SuppressWarnings("serial")
-public abstract class Graph extends ChartView implements InteractiveGraph {
+public abstract class Graph extends ChartView implements InteractiveGraph, PixelMapping {
 
 	/**
 	 * An array with all types of graphs.
@@ -72,6 +118,14 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 
 	private volatile long timeOfFront;
 
+	// the time of the elements forwarded from the feed so far
+	private volatile long forwardedTime;
+
+	// the upper time limit of the elements loaded, and the elements forwarded
+	// while loading, to be forwarded anew once loaded
+	private volatile long loadTimeLimit;
+	private ArrayList<Runnable> forwardedWhileLoading = new ArrayList<Runnable>();
+
 	// parameters at last repaint
 	private long oldStartTime;
 	private long oldEndTime;
@@ -79,11 +133,86 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	private double oldLowRate;
 	private Dimension oldSize;
 
+	// the displaying elements drawn at the parameters at last repaint
+	private BufferedImage settledImage;
+	private boolean settledImageValid;
+	private boolean renderingCached = true;
+
 	// listeners to be informed about changes of rateAdjustingToFeed
 	private ArrayList<PropertyChangeListener> registeredListeners;
 
 	private final TimeRelativeFeed feed;
 
+	// listens to the feed on behalf of this graph
+	private final FeedForwarder feedForwarder;
+
+	// the load of the displaying elements in progress, and the number of loads
+	private Future<?> loading;
+	private long loads;
+
+	/**
+	 * Forwards elements supplied by the feed to this graph on the event
+	 * dispatch thread, since a feed may supply elements on a thread of its
+	 * own, in one batch per update of the feed.
+	 */
+	private class FeedForwarder implements ITickFeedListener, IBarFeedListener,
+			ITickBarFeedListener {
+
+		@Override
+		public void onTick(final Instrument instrument, final ITick tick) {
+			forward(tick.getTime(), new Runnable() {
+				@Override
+				public void run() {
+					((ITickFeedListener) Graph.this).onTick(instrument, tick);
+				}
+			});
+		}
+
+		@Override
+		public void onBar(final Instrument instrument, final Period period,
+				final OfferSide offerSide, final IBar bar) {
+			forward(bar.getTime() + period.getInterval(), new Runnable() {
+				@Override
+				public void run() {
+					((IBarFeedListener) Graph.this).onBar(instrument, period, offerSide,
+							bar);
+				}
+			});
+		}
+
+		@Override
+		public void onBar(final Instrument instrument, final OfferSide offerSide,
+				final TickBarSize tickBarSize, final ITickBar bar) {
+			forward(bar.getEndTime(), new Runnable() {
+				@Override
+				public void run() {
+					((ITickBarFeedListener) Graph.this).onBar(instrument, offerSide,
+							tickBarSize, bar);
+				}
+			});
+		}
+
+		/**
+		 * Forwards an element supplied at given time.
+		 */
+		private void forward(final long time, final Runnable supply) {
+			feed.invokeOnEventDispatchThread(new Runnable() {
+				@Override
+				public void run() {
+					if (time > forwardedTime)
+						forwardedTime = time;
+
+					if (loading == null)
+						loadTimeLimit = forwardedTime;
+					else
+						forwardedWhileLoading.add(supply);
+
+					supply.run();
+				}
+			});
+		}
+	}
+
 	/**
 	 * Create a graph.
 	 * 
@@ -110,6 +239,9 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 
 		this.feed = feed;
 		this.timeOfFront = feed.getCurrentTime();
+		this.forwardedTime = feed.getCurrentTime();
+		this.loadTimeLimit = feed.getCurrentTime();
+		this.feedForwarder = new FeedForwarder();
 
 		this.registeredListeners = new ArrayList<PropertyChangeListener>();
 
@@ -156,15 +288,24 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	 * Sets whether this graph is listening to the feed or not. Listening to the
 	 * feed means listening to supplies of all possible types of elements
 	 * depending on which types of feed listeners this graph is an instance of.
+	 * Elements are always received on the event dispatch thread.
 	 * 
 	 * @param listening set to true if graph should be listening to the feed,
 	 *            otherwise false
 	 */
 	public void setListeningToFeed(boolean listening) {
-		if (listening)
-			feed.addListener(this);
-		else
-			feed.removeListener(this);
+		if (listening) {
+			if (this instanceof ITickFeedListener)
+				feed.addTickFeedListener(feedForwarder);
+
+			if (this instanceof IBarFeedListener)
+				feed.addBarFeedListener(feedForwarder);
+
+			if (this instanceof ITickBarFeedListener)
+				feed.addTickBarFeedListener(feedForwarder);
+		} else {
+			feed.removeListener(feedForwarder);
+		}
 	}
 
 	/**
@@ -192,17 +333,176 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 
 	/**
 	 * Makes sure all that should be visible within the current time range is
-	 * updated and prepared to be drawn.
+	 * updated and prepared to be drawn. Invoked on the event dispatch thread,
+	 * so elements should be loaded using loadDisplayingElements.
 	 */
 	protected abstract void updateDisplayingElements();
 
 	/**
-	 * Draw the displaying elements on the given graphics.
+	 * Returns the upper time limit of the elements loaded by the provider(s)
+	 * of this graph: the current time of this graph when the load in progress
+	 * was submitted, or the current time of this graph if not loading. Kept
+	 * while loading, so the elements of a load are of the same time however
+	 * far the feed gets meanwhile.
+	 * 
+	 * @return the upper time limit of the elements loaded
+	 */
+	protected final long getLoadTimeLimit() {
+		return loadTimeLimit;
+	}
+
+	/**
+	 * Loads displaying elements by running given load on the loader thread of
+	 * given provider, superseding any load in progress. The load returns an
+	 * update of the displaying elements, which is run on the event dispatch
+	 * thread followed by a repaint, unless superseded by then. The load must
+	 * not access the displaying elements, only the update may.
+	 * 
+	 * Elements are loaded up to getLoadTimeLimit(). The elements forwarded
+	 * from the feed while loading, of later times, are forwarded anew once
+	 * the update is run, so they are added to the loaded elements as well.
+	 * 
+	 * Must be invoked on the event dispatch thread.
+	 * 
+	 * @param provider the provider to load on
+	 * @param load the load, returning the update of the displaying elements
+	 */
+	protected final void loadDisplayingElements(Provider provider,
+			final Callable<Runnable> load) {
+		if (loading != null)
+			loading.cancel(false);
+
+		final long number = ++loads;
+
+		// elements forwarded before are of times loaded
+		loadTimeLimit = forwardedTime;
+		forwardedWhileLoading.clear();
+
+		loading = provider.submit(new Callable<Void>() {
+			@Override
+			public Void call() {
+				Runnable loaded;
+
+				try {
+					loaded = load.call();
+				} catch (Exception e) {
+					System.err.println("Exception loading displaying elements: "
+							+ e.getMessage());
+					e.printStackTrace();
+
+					// keep the elements loaded before
+					loaded = null;
+				}
+
+				final Runnable update = loaded;
+
+				SwingUtilities.invokeLater(new Runnable() {
+					@Override
+					public void run() {
+						// superseded by a later load
+						if (number != loads)
+							return;
+
+						loading = null;
+
+						// the elements forwarded while loading
+						ArrayList<Runnable> forwarded = forwardedWhileLoading;
+						forwardedWhileLoading = new ArrayList<Runnable>();
+						loadTimeLimit = forwardedTime;
+
+						// the elements loaded before have them already
+						if (update == null)
+							return;
+
+						update.run();
+						invalidateSettledImage();
+
+						for (Runnable supply : forwarded)
+							supply.run();
+
+						repaint();
+					}
+				});
+
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Draw the displaying elements on the given graphics, but the front
+	 * elements, see drawFrontElements.
 	 * 
 	 * @param g the graphics to draw on
 	 */
 	protected abstract void drawDisplayingElements(Graphics g);
 
+	/**
+	 * Draw the displaying elements changing from repaint to repaint, such as a
+	 * bar being built, on the given graphics. These are drawn on top of the
+	 * other displaying elements at every repaint. Draws nothing by default.
+	 * 
+	 * @param g the graphics to draw on
+	 */
+	protected void drawFrontElements(Graphics g) {
+	}
+
+	/**
+	 * Returns a graphics drawing onto the image of the displaying elements
+	 * painted by this graph, for drawing a displaying element appended since
+	 * the image was drawn. Returns null if rendering isn't cached or if the
+	 * image is to be drawn anew at the next repaint, in which case the element
+	 * appended is drawn with the others by drawDisplayingElements. The
+	 * graphics returned must be disposed of by the caller.
+	 * 
+	 * Must be invoked on the event dispatch thread.
+	 * 
+	 * @return a graphics drawing onto the image of the displaying elements, or
+	 *         null if there is no such image to draw onto
+	 */
+	protected final Graphics getSettledGraphics() {
+		if (!renderingCached || !settledImageValid
+				|| graphicsDependentParametersChanged())
+			return null;
+
+		return settledImage.getGraphics();
+	}
+
+	/**
+	 * Makes the image of the displaying elements be drawn anew at the next
+	 * repaint, for when displaying elements are changed other than appended.
+	 */
+	protected final void invalidateSettledImage() {
+		settledImageValid = false;
+	}
+
+	/**
+	 * Returns true if the displaying elements are drawn on an offscreen image
+	 * painted until they or the parameters of the graph change.
+	 * 
+	 * @return true if rendering is cached
+	 */
+	public boolean isRenderingCached() {
+		return renderingCached;
+	}
+
+	/**
+	 * Sets whether to draw the displaying elements on an offscreen image
+	 * painted until they or the parameters of the graph change, rather than
+	 * drawing them at every repaint.
+	 * 
+	 * @param renderingCached true to cache rendering
+	 */
+	public void setRenderingCached(boolean renderingCached) {
+		this.renderingCached = renderingCached;
+
+		if (!renderingCached)
+			settledImage = null;
+
+		invalidateSettledImage();
+		repaint();
+	}
+
 	/**
 	 * Returns the size of the default time range of this graph, that is in
 	 * which range an appropriate number of elements is displayed.
@@ -239,7 +539,7 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 
 			setFollowingFeed(true);
 
-			repaint();
+			scheduleRepaint(timeOfFront, timeOfFront);
 
 		} else if (isFollowingFeed()) {
 
@@ -247,6 +547,30 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 		}
 	}
 
+	/**
+	 * Requests all of this graph to be repainted at the next frame of the
+	 * FrameScheduler.
+	 */
+	protected final void scheduleRepaint() {
+		FrameScheduler.getInstance().repaint(this);
+	}
+
+	/**
+	 * Requests the pixel columns of the time interval [fromTime, toTime] of
+	 * this graph to be repainted at the next frame of the FrameScheduler.
+	 * 
+	 * @param fromTime the beginning of the interval (inclusive)
+	 * @param toTime the end of the interval (inclusive)
+	 */
+	protected final void scheduleRepaint(long fromTime, long toTime) {
+		int x1 = timeToXPixelPos(fromTime);
+		int x2 = timeToXPixelPos(toTime);
+
+		// a margin for the edges of the elements drawn
+		FrameScheduler.getInstance().repaint(this, Math.min(x1, x2) - 2, 0,
+				Math.abs(x2 - x1) + 5, getHeight());
+	}
+
 	protected long getStartTime() {
 		return correspondingTimeAxis.getStartTime();
 	}
@@ -289,21 +613,27 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 		return correspondingRateAxis.inRange(rate);
 	}
 
-	protected int timeToXPixelPos(long time) {
+	@Override
+	public int timeToXPixelPos(long time) {
 		return correspondingTimeAxis.timeToXPixelPos(time);
 	}
 
-	protected int rateToYPixelPos(double rate) {
+	@Override
+	public int rateToYPixelPos(double rate) {
 		return correspondingRateAxis.rateToYPixelPos(rate);
 	}
 
 	/**
-	 * Returns the current time of this graph's feed.
+	 * Returns the current time of this graph's feed as of the elements
+	 * forwarded to this graph, which is behind the current time of the feed
+	 * while elements supplied are on their way to the event dispatch thread.
+	 * Elements forwarded later are of later times.
 	 * 
-	 * @return the current time of this graph's feed
+	 * @return the current time of this graph's feed as of the elements
+	 *         forwarded to this graph
 	 */
 	protected long getCurrentTime() {
-		return feed.getCurrentTime();
+		return forwardedTime;
 	}
 
 	/**
@@ -322,6 +652,7 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	 */
 	protected void setBullColor(Color bullColor) {
 		this.bullColor = bullColor;
+		invalidateSettledImage();
 	}
 
 	/**
@@ -340,6 +671,7 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	 */
 	protected void setBearColor(Color bearColor) {
 		this.bearColor = bearColor;
+		invalidateSettledImage();
 	}
 
 	/**
@@ -358,6 +690,7 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	 */
 	protected void setNeutralColor(Color neutralColor) {
 		this.neutralColor = neutralColor;
+		invalidateSettledImage();
 	}
 
 	/**
@@ -628,11 +961,61 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 		}
 
 		adjustHighAndLowRates();
-		drawDisplayingElements(g);
+
+		if (renderingCached) {
+			// the image is drawn at the parameters at last repaint
+			if (graphicsDependentParametersChanged())
+				invalidateSettledImage();
+
+			paintSettledImage(g);
+		} else {
+			drawDisplayingElements(g);
+		}
+
+		drawFrontElements(g);
 
 		updateOldParameters();
 	}
 
+	/**
+	 * Paints the image of the displaying elements on the given graphics,
+	 * drawing the image anew if invalid.
+	 */
+	private void paintSettledImage(Graphics g) {
+		int width = getWidth(), height = getHeight();
+		if (width <= 0 || height <= 0)
+			return;
+
+		if (settledImage == null || settledImage.getWidth() != width
+				|| settledImage.getHeight() != height) {
+
+			GraphicsConfiguration gc = getGraphicsConfiguration();
+			settledImage = gc != null ? gc.createCompatibleImage(width, height,
+					Transparency.TRANSLUCENT) : new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_ARGB);
+
+			settledImageValid = false;
+		}
+
+		if (!settledImageValid) {
+			Graphics2D ig = settledImage.createGraphics();
+
+			try {
+				ig.setComposite(AlphaComposite.Clear);
+				ig.fillRect(0, 0, width, height);
+				ig.setComposite(AlphaComposite.SrcOver);
+
+				drawDisplayingElements(ig);
+			} finally {
+				ig.dispose();
+			}
+
+			settledImageValid = true;
+		}
+
+		g.drawImage(settledImage, 0, 0, null);
+	}
+
 	@Override
 	public void modelPropertyChange(final PropertyChangeEvent evt) {
 
@@ -661,6 +1044,13 @@ public abstract class Graph extends ChartView implements InteractiveGraph {
 	 * Disables this graph from communicating with other parts of the program.
 	 */
 	public void destroy() {
+		if (loading != null)
+			loading.cancel(false);
+		loads++;
+		forwardedWhileLoading.clear();
+
+		settledImage = null;
+
 		this.setListeningToFeed(false);
 		controller.removeView(this);
 	}
@@ -1,23 +1,44 @@
 package graph;
 
+import java.util.List;
+
 import chart.ChartController;
 import chart.RateAxis;
 import chart.TimeAxis;
 
+import com.dukascopy.api.IBar;
 import com.dukascopy.api.Period;
 
 import feed.TimeRelativeFeed;
+import forex.BarBlock;
 import forex.ForexConstants;
 
 /**
  * This class implements a graph displaying line(s).
  * 
+ * When there are more ticks or bars on the time range than POINTS_PER_PIXEL
+ * per pixel column, the lines are displayed at a coarser level of detail:
+ * the ticks or bars of each pixel column are loaded aggregated as one bar,
+ * see Provider.getRangeBars, and displayed as its low and high, see
+ * addRangePoints. So about POINTS_PER_PIXEL points per pixel column are
+ * loaded and drawn however long the time range. The level of detail is
+ * decided before loading, from the number of ticks stored on the time range,
+ * see Provider.estimateTickCount, or the number of bars it holds at most,
+ * see getMaxBars, so the ticks or bars of a long time range are never loaded
+ * one by one.
+ * 
+ * The points of a line are kept as LinePoints, and drawn decimated to the
+ * first, lowest, highest and last point of each pixel column.
+ * 
  * @author Dennis Ekstrom
  * @version 2012-01-30
  */
 @SuppressWarnings("serial")
 public abstract class LineGraph extends Graph {
 
+	// the points per pixel column above which the level of detail is lowered
+	protected static final int POINTS_PER_PIXEL = 2;
+
 	protected Period period;
 
 	/**
@@ -38,6 +59,72 @@ public abstract class LineGraph extends Graph {
 		this.period = controller.getPeriod();
 	}
 
+	/**
+	 * Returns true if given number of points are more than can be told apart
+	 * on given width, in which case the points should be displayed at a
+	 * coarser level of detail.
+	 * 
+	 * @param points the number of points
+	 * @param width the width to display the points on, in pixels
+	 * @return true if the points are too many to display on given width
+	 */
+	protected static boolean exceedsDetail(long points, int width) {
+		return width > 0 && points > (long) POINTS_PER_PIXEL * width;
+	}
+
+	/**
+	 * Returns the number of bars of given period that the interval [from, to)
+	 * holds at most.
+	 * 
+	 * @param period the period of the bars
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (exclusive)
+	 * @return the number of bars the interval holds at most
+	 */
+	protected static long getMaxBars(Period period, long from, long to) {
+		return (to - from + period.getInterval() - 1) / period.getInterval();
+	}
+
+	/**
+	 * Returns the interval of time displayed by each pixel column when the
+	 * interval [startTime, endTime) is displayed on given width.
+	 * 
+	 * @param startTime the beginning of the interval (inclusive)
+	 * @param endTime the end of the interval (exclusive)
+	 * @param width the width to display the interval on, in pixels
+	 * @return the interval of time displayed by each pixel column
+	 */
+	protected static long getPixelInterval(long startTime, long endTime, int width) {
+		return Math.max(1, (endTime - startTime + width - 1) / width);
+	}
+
+	/**
+	 * Adds the low and high of each of given bars of given interval, as
+	 * returned by Provider.getRangeBars, to given points. The low and high of
+	 * a bar are added in the order taking the line from its open to its
+	 * close, at the start and the middle of the interval of the bar shifted
+	 * by given offset.
+	 * 
+	 * @param points the points to add to
+	 * @param bars the bars to add the lows and highs of
+	 * @param interval the interval of the bars
+	 * @param offset the time to shift the points by
+	 */
+	static void addRangePoints(LinePoints points, List<IBar> bars, long interval,
+			long offset) {
+		BarBlock block = BarBlock.of(bars);
+
+		for (int i = 0; i < block.size(); i++) {
+			long time = block.getTime(i) + offset;
+			double low = block.getLow(i), high = block.getHigh(i);
+
+			boolean rising = block.getClose(i) >= block.getOpen(i);
+
+			points.add(time, rising ? low : high);
+			points.add(time + interval / 2, rising ? high : low);
+		}
+	}
+
 	@Override
 	protected final long getDefaultTimeRange() {
 		if (period.equals(Period.TICK))
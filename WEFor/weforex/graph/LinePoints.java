@@ -0,0 +1,225 @@
+package graph;
+
+import java.util.List;
+
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.OfferSide;
+
+import forex.RangeTree;
+import forex.TickBlock;
+import forex.TickSeries;
+
+// @formatter:off
+/**
+ * The points of a line, kept as columns of primitives, the times and the
+ * rates, rather than as one ChartPoint each. Points are appended in
+ * ascending order with respect to time. The highest and lowest rate of the
+ * points are kept in a RangeTree.
+ *
+ * The points are drawn decimated to the pixel columns of a graph, see
+ * decimate(PixelMapping): the points of each pixel column are reduced to the
+ * first, the lowest, the highest and the last of them, in the order
+ * appended. Drawing the lines between the decimated points draws the same
+ * pixels as drawing the lines between all points, but no more than three
+ * lines per pixel column however many points, and without creating any
+ * object.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class LinePoints {
+
+	private static final int DEFAULT_CAPACITY = 16;
+
+	private long[] times;
+	private double[] rates;
+	private int size;
+
+	private final RangeTree ranges;
+
+	// the indices and pixel coordinates of the points decimated last, reused
+	// from decimation to decimation
+	private int[] indices = new int[0];
+	private int[] xs = new int[0];
+	private int[] ys = new int[0];
+
+	/**
+	 * Create an empty line.
+	 */
+	LinePoints() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create an empty line able to hold given number of points before
+	 * growing.
+	 *
+	 * @throws IllegalArgumentException if capacity < 0
+	 */
+	LinePoints(int capacity) {
+		if (capacity < 0)
+			throw new IllegalArgumentException("capacity(" + capacity + ") < 0");
+
+		times = new long[Math.max(capacity, 1)];
+		rates = new double[Math.max(capacity, 1)];
+		ranges = new RangeTree(capacity);
+	}
+
+	/**
+	 * Appends a point.
+	 */
+	void add(long time, double rate) {
+		if (size == times.length) {
+			long[] oldTimes = times;
+			double[] oldRates = rates;
+
+			times = new long[2 * size];
+			rates = new double[2 * size];
+			System.arraycopy(oldTimes, 0, times, 0, size);
+			System.arraycopy(oldRates, 0, rates, 0, size);
+		}
+
+		times[size] = time;
+		rates[size] = rate;
+		size++;
+
+		ranges.add(time, rate);
+	}
+
+	/**
+	 * Appends the rates of given offer side of given ticks. The ticks are read
+	 * without creating any object if given as a TickBlock or a TickSeries.
+	 */
+	void addTicks(List<ITick> ticks, OfferSide offerSide) {
+		boolean ask = offerSide.equals(OfferSide.ASK);
+
+		if (ticks instanceof TickSeries) {
+			TickSeries series = (TickSeries) ticks;
+
+			for (int i = 0; i < series.size(); i++)
+				add(series.getTime(i), ask ? series.getAsk(i) : series.getBid(i));
+		} else if (ticks instanceof TickBlock) {
+			TickBlock block = (TickBlock) ticks;
+
+			for (int i = 0; i < block.size(); i++)
+				add(block.getTime(i), ask ? block.getAsk(i) : block.getBid(i));
+		} else {
+			for (ITick tick : ticks)
+				add(tick.getTime(), ask ? tick.getAsk() : tick.getBid());
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	long getTime(int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		return times[index];
+	}
+
+	double getRate(int index) {
+		if (index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+		return rates[index];
+	}
+
+	/**
+	 * Returns the highest rate of the points, null if there are no points.
+	 */
+	Double getHighestRate() {
+		return size == 0 ? null : ranges.getHigh(0, size);
+	}
+
+	/**
+	 * Returns the lowest rate of the points, null if there are no points.
+	 */
+	Double getLowestRate() {
+		return size == 0 ? null : ranges.getLow(0, size);
+	}
+
+	/**
+	 * Decimates the points to the pixel columns of given mapping, such as a
+	 * graph, returning the number of points decimated to. The indices and pixel coordinates of the
+	 * decimated points are returned by getIndices(), getXs() and getYs(),
+	 * valid until the next decimation.
+	 */
+	int decimate(PixelMapping mapping) {
+		if (indices.length < size) {
+			indices = new int[size];
+			xs = new int[size];
+			ys = new int[size];
+		}
+
+		int n = 0;
+		int i = 0;
+		int x = size == 0 ? 0 : mapping.timeToXPixelPos(times[0]);
+		while (i < size) {
+			// the points of the pixel column x, starting at i
+			int first = i, low = i, high = i;
+			int j = i + 1;
+			int nextX = x;
+			while (j < size && (nextX = mapping.timeToXPixelPos(times[j])) == x) {
+				if (rates[j] < rates[low])
+					low = j;
+				if (rates[j] > rates[high])
+					high = j;
+				j++;
+			}
+			int last = j - 1;
+
+			n = append(n, first, x, mapping);
+			n = append(n, Math.min(low, high), x, mapping);
+			n = append(n, Math.max(low, high), x, mapping);
+			n = append(n, last, x, mapping);
+
+			i = j;
+			x = nextX;
+		}
+
+		return n;
+	}
+
+	// appends the point at given index to the decimated points, unless it is
+	// the point appended last
+	private int append(int n, int index, int x, PixelMapping mapping) {
+		if (n > 0 && indices[n - 1] == index)
+			return n;
+
+		indices[n] = index;
+		xs[n] = x;
+		ys[n] = mapping.rateToYPixelPos(rates[index]);
+
+		return n + 1;
+	}
+
+	/**
+	 * Returns the indices of the points decimated to by the last decimation.
+	 */
+	int[] getIndices() {
+		return indices;
+	}
+
+	/**
+	 * Returns the x-coordinates of the points decimated to by the last
+	 * decimation.
+	 */
+	int[] getXs() {
+		return xs;
+	}
+
+	/**
+	 * Returns the y-coordinates of the points decimated to by the last
+	 * decimation.
+	 */
+	int[] getYs() {
+		return ys;
+	}
+}
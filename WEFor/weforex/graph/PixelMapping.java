@@ -0,0 +1,26 @@
+package graph;
+
+/**
+ * Maps times and rates to the pixel columns and rows of a graph, as used to
+ * decimate points to pixel columns, see LinePoints.decimate.
+ * 
+ * @author Dennis Ekstrom
+ */
+interface PixelMapping {
+
+	/**
+	 * Returns the x pixel position of given time.
+	 * 
+	 * @param time the time to map
+	 * @return the x pixel position of the time
+	 */
+	public int timeToXPixelPos(long time);
+
+	/**
+	 * Returns the y pixel position of given rate.
+	 * 
+	 * @param rate the rate to map
+	 * @return the y pixel position of the rate
+	 */
+	public int rateToYPixelPos(double rate);
+}
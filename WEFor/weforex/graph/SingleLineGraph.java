@@ -5,12 +5,9 @@ import io.ForexDataIO;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.beans.PropertyChangeEvent;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.Callable;
 
 import chart.ChartController;
-import chart.ChartPoint;
-import chart.PixelPoint;
 import chart.RateAxis;
 import chart.TimeAxis;
 
@@ -38,7 +35,7 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 		ITickFeedListener, IBarFeedListener {
 
 	// currently displayed points
-	private ArrayList<ChartPoint> displayingPoints;
+	private LinePoints displayingPoints;
 
 	private OfferSide offerSide;
 
@@ -62,7 +59,7 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 		this.offerSide = controller.getOfferSide();
 
 		this.provider = new Provider(this);
-		this.displayingPoints = new ArrayList<ChartPoint>();
+		this.displayingPoints = new LinePoints();
 	}
 
 	@Override
@@ -72,7 +69,7 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 
 	@Override
 	public long getUpperTimeLimit() {
-		return this.getCurrentTime();
+		return getLoadTimeLimit();
 	}
 
 	@Override
@@ -92,28 +89,12 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 
 	@Override
 	protected Double getHighestRate() {
-		if (displayingPoints.isEmpty())
-			return null;
-
-		double high = displayingPoints.get(0).rate;
-		for (ChartPoint cp : displayingPoints)
-			if (cp.rate > high)
-				high = cp.rate;
-
-		return high;
+		return displayingPoints.getHighestRate();
 	}
 
 	@Override
 	protected Double getLowestRate() {
-		if (displayingPoints.isEmpty())
-			return null;
-
-		double low = displayingPoints.get(0).rate;
-		for (ChartPoint cp : displayingPoints)
-			if (cp.rate < low)
-				low = cp.rate;
-
-		return low;
+		return displayingPoints.getLowestRate();
 	}
 
 	/**
@@ -127,16 +108,20 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 		if (inTimeRange(tick.getTime())) {
 
 			addToDisplayingRates(tick);
-
-			repaint();
 		}
 
 		setTimeOfFront(tick.getTime());
 	}
 
 	private void addToDisplayingRates(ITick tick) {
+		addToRates(displayingPoints, tick, offerSide);
+
+		repaintLastLine();
+	}
+
+	private static void addToRates(LinePoints points, ITick tick, OfferSide offerSide) {
 		double rate = offerSide.equals(OfferSide.ASK) ? tick.getAsk() : tick.getBid();
-		displayingPoints.add(new ChartPoint(tick.getTime(), rate));
+		points.add(tick.getTime(), rate);
 	}
 
 	/**
@@ -152,66 +137,123 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 		if (inTimeRange(bar.getTime() + period.getInterval())) {
 
 			addToDisplayingRates(bar);
-
-			repaint();
 		}
 
 		setTimeOfFront(bar.getTime() + period.getInterval());
 	}
 
 	private void addToDisplayingRates(IBar bar) {
+		addToRates(displayingPoints, bar, period);
+
+		repaintLastLine();
+	}
+
+	/**
+	 * Draws the line to the point appended last onto the image of the
+	 * displaying elements, if any, and requests the line to be repainted.
+	 */
+	private void repaintLastLine() {
+		int size = displayingPoints.size();
+		if (size <= 1) {
+			scheduleRepaint();
+			return;
+		}
+
+		long time1 = displayingPoints.getTime(size - 2);
+		long time2 = displayingPoints.getTime(size - 1);
+		double rate1 = displayingPoints.getRate(size - 2);
+		double rate2 = displayingPoints.getRate(size - 1);
+
+		Graphics g = getSettledGraphics();
+		if (g != null) {
+			g.setColor(getLineColor(rate1, rate2));
+			g.drawLine(timeToXPixelPos(time1), rateToYPixelPos(rate1),
+					timeToXPixelPos(time2), rateToYPixelPos(rate2));
+			g.dispose();
+		}
+
+		scheduleRepaint(time1, time2);
+	}
+
+	private static void addToRates(LinePoints points, IBar bar, Period period) {
 		long time = bar.getTime() + period.getInterval();
-		displayingPoints.add(new ChartPoint(time, bar.getClose()));
+		points.add(time, bar.getClose());
 	}
 
 	@Override
 	protected final void updateDisplayingElements() {
-		displayingPoints.clear();
+		final long startTime = getStartTime();
+		final long endTime = getEndTime();
+		final Period period = this.period;
+		final OfferSide offerSide = this.offerSide;
+		final int width = getWidth();
+
+		loadDisplayingElements(provider, new Callable<Runnable>() {
+			@Override
+			public Runnable call() {
+				final LinePoints points = loadPoints(startTime, endTime, period,
+						offerSide, width);
+
+				return new Runnable() {
+					@Override
+					public void run() {
+						displayingPoints = points;
+					}
+				};
+			}
+		});
+	}
 
-		long startTime = getStartTime();
-		long endTime = getEndTime();
+	/**
+	 * Loads the points to display on the interval [startTime, endTime] of
+	 * given period and offer side on given width, at a coarser level of detail
+	 * if there are too many ticks or bars to tell apart. Invoked on the loader
+	 * thread.
+	 */
+	private LinePoints loadPoints(long startTime, long endTime, Period period,
+			OfferSide offerSide, int width) {
+		LinePoints points = new LinePoints();
 
 		if (period.equals(Period.TICK)) {
 
-			List<ITick> ticks = provider.getTicks(startTime, endTime);
-
-			if (!ticks.isEmpty()) {
+			// the ticks before and after the interval, joined to the line
+			// unless on its bounds and thereby loaded
+			ITick previous = provider.getPreviousTick(startTime);
+			ITick upcoming = provider.getUpcomingTick(endTime);
 
-				if (ticks.get(0).getTime() > startTime) {
-					ITick previous = provider.getPreviousTick(startTime);
-					if (previous != null)
-						addToDisplayingRates(previous);
-				}
+			if (previous != null && previous.getTime() < startTime)
+				addToRates(points, previous, offerSide);
 
-				for (ITick tick : ticks) {
-					addToDisplayingRates(tick);
-				}
-
-				if (ticks.get(ticks.size() - 1).getTime() < endTime) {
-					ITick upcoming = provider.getUpcomingTick(endTime);
-					if (upcoming != null)
-						addToDisplayingRates(upcoming);
-				}
+			if (exceedsDetail(provider.estimateTickCount(startTime, endTime), width)) {
+				long interval = getPixelInterval(startTime, endTime + 1, width);
 
+				addRangePoints(points,
+						provider.getRangeBars(startTime, endTime + 1, interval),
+						interval, 0);
 			} else {
-
-				ITick previous = provider.getPreviousTick(startTime);
-				ITick upcoming = provider.getUpcomingTick(endTime);
-
-				if (previous != null && upcoming != null) {
-					addToDisplayingRates(previous);
-					addToDisplayingRates(upcoming);
-				}
+				points.addTicks(provider.getTicks(startTime, endTime), offerSide);
 			}
 
+			if (upcoming != null && upcoming.getTime() > endTime)
+				addToRates(points, upcoming, offerSide);
+
 		} else {
 
-			List<IBar> bars = provider.getBars(startTime - period.getInterval(), endTime);
+			long from = startTime - period.getInterval();
 
-			for (IBar bar : bars) {
-				addToDisplayingRates(bar);
+			if (exceedsDetail(getMaxBars(period, from, endTime), width)) {
+				long interval = getPixelInterval(from, endTime, width);
+
+				addRangePoints(points, provider.getRangeBars(from, endTime, interval),
+						interval, period.getInterval());
+			} else {
+				for (IBar bar : provider.getBars(from, endTime)) {
+					addToRates(points, bar, period);
+				}
 			}
 		}
+
+		return points;
 	}
 
 	@Override
@@ -219,37 +261,35 @@ public class SingleLineGraph extends LineGraph implements BarRequester,
 		if (displayingPoints.size() <= 1) // no line if only one point
 			return;
 
-		ChartPoint cp1 = displayingPoints.get(0), cp2;
-		for (int i = 0; i < displayingPoints.size(); i++) {
-			cp2 = displayingPoints.get(i);
-			drawLine(cp1, cp2, g);
-			cp1 = cp2;
-		}
-	}
-
-	private void drawLine(ChartPoint cp1, ChartPoint cp2, Graphics g) {
-		Color color;
-
-		if (cp2.rate > cp1.rate)
-			color = getBullColor();
-		else if (cp2.rate < cp1.rate)
-			color = getBearColor();
-		else
-			color = getNeutralColor();
-
-		PixelPoint p1 = chartPointToPixelPoint(cp1);
-		PixelPoint p2 = chartPointToPixelPoint(cp2);
+		int n = displayingPoints.decimate(this);
+		int[] indices = displayingPoints.getIndices();
+		int[] xs = displayingPoints.getXs();
+		int[] ys = displayingPoints.getYs();
 
-		// set color
-		g.setColor(color);
+		Color color = null;
+		for (int k = 1; k < n; k++) {
+			Color lineColor = getLineColor(displayingPoints.getRate(indices[k - 1]),
+					displayingPoints.getRate(indices[k]));
 
-		// draw the line
-		g.drawLine(p1.x, p1.y, p2.x, p2.y);
+			if (lineColor != color) {
+				color = lineColor;
+				g.setColor(color);
+			}
 
+			g.drawLine(xs[k - 1], ys[k - 1], xs[k], ys[k]);
+		}
 	}
 
-	private PixelPoint chartPointToPixelPoint(ChartPoint cp) {
-		return new PixelPoint(timeToXPixelPos(cp.time), rateToYPixelPos(cp.rate));
+	/**
+	 * Returns the color of a line from rate1 to rate2.
+	 */
+	private Color getLineColor(double rate1, double rate2) {
+		if (rate2 > rate1)
+			return getBullColor();
+		else if (rate2 < rate1)
+			return getBearColor();
+		else
+			return getNeutralColor();
 	}
 
 	@Override
@@ -5,12 +5,10 @@ import io.ForexDataIO;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.beans.PropertyChangeEvent;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 import chart.ChartController;
-import chart.ChartPoint;
-import chart.PixelPoint;
 import chart.RateAxis;
 import chart.TimeAxis;
 
@@ -26,6 +24,7 @@ import feed.Provider;
 import feed.BarRequester;
 import feed.TimeRelativeFeed;
 import feed.ITickFeedListener;
+import forex.BarBlock;
 import forex.ForexException;
 
 /**
@@ -50,7 +49,7 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 
 		@Override
 		public long getUpperTimeLimit() {
-			return graph.getCurrentTime();
+			return graph.getLoadTimeLimit();
 		}
 
 		@Override
@@ -73,8 +72,8 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 	private static final Color BID_COLOR = Color.red;
 
 	// currently displayed points
-	private ArrayList<ChartPoint> displayingAskPoints;
-	private ArrayList<ChartPoint> displayingBidPoints;
+	private LinePoints displayingAskPoints;
+	private LinePoints displayingBidPoints;
 
 	private Provider askProvider, bidProvider;
 
@@ -98,8 +97,8 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 		this.askProvider = new Provider(new BarReq(this, OfferSide.ASK));
 		this.bidProvider = new Provider(new BarReq(this, OfferSide.BID));
 
-		this.displayingAskPoints = new ArrayList<ChartPoint>();
-		this.displayingBidPoints = new ArrayList<ChartPoint>();
+		this.displayingAskPoints = new LinePoints();
+		this.displayingBidPoints = new LinePoints();
 
 		this.barSupplyHandler = new BarSupplyHandler();
 	}
@@ -116,15 +115,7 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 
 		checkAskAndBidPointsCoherency();
 
-		if (displayingAskPoints.isEmpty())
-			return null;
-
-		double high = displayingAskPoints.get(0).rate;
-		for (ChartPoint cp : displayingAskPoints)
-			if (cp.rate > high)
-				high = cp.rate;
-
-		return high;
+		return displayingAskPoints.getHighestRate();
 	}
 
 	@Override
@@ -133,15 +124,7 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 
 		checkAskAndBidPointsCoherency();
 
-		if (displayingBidPoints.isEmpty())
-			return null;
-
-		double low = displayingBidPoints.get(0).rate;
-		for (ChartPoint cp : displayingBidPoints)
-			if (cp.rate < low)
-				low = cp.rate;
-
-		return low;
+		return displayingBidPoints.getLowestRate();
 	}
 
 	/**
@@ -155,18 +138,57 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 		if (inTimeRange(tick.getTime())) {
 
 			addToDisplayingRates(tick);
-
-			repaint();
 		}
 
 		setTimeOfFront(tick.getTime());
 	}
 
 	private void addToDisplayingRates(ITick tick) {
-		displayingAskPoints.add(new ChartPoint(tick.getTime(), tick.getAsk()));
-		displayingBidPoints.add(new ChartPoint(tick.getTime(), tick.getBid()));
+		addToRates(displayingAskPoints, displayingBidPoints, tick);
 
 		checkAskAndBidPointsCoherency();
+
+		repaintLastLines();
+	}
+
+	/**
+	 * Draws the ask and bid lines to the points appended last onto the image
+	 * of the displaying elements, if any, and requests the lines to be
+	 * repainted.
+	 */
+	private void repaintLastLines() {
+		int size = displayingAskPoints.size();
+		if (size <= 1) {
+			scheduleRepaint();
+			return;
+		}
+
+		Graphics g = getSettledGraphics();
+		if (g != null) {
+			g.setColor(ASK_COLOR);
+			drawLastLine(displayingAskPoints, g);
+			g.setColor(BID_COLOR);
+			drawLastLine(displayingBidPoints, g);
+			g.dispose();
+		}
+
+		scheduleRepaint(displayingAskPoints.getTime(size - 2),
+				displayingAskPoints.getTime(size - 1));
+	}
+
+	private void drawLastLine(LinePoints points, Graphics g) {
+		int size = points.size();
+
+		g.drawLine(timeToXPixelPos(points.getTime(size - 2)),
+				rateToYPixelPos(points.getRate(size - 2)),
+				timeToXPixelPos(points.getTime(size - 1)),
+				rateToYPixelPos(points.getRate(size - 1)));
+	}
+
+	private static void addToRates(LinePoints askPoints, LinePoints bidPoints,
+			ITick tick) {
+		askPoints.add(tick.getTime(), tick.getAsk());
+		bidPoints.add(tick.getTime(), tick.getBid());
 	}
 
 	private class BarSupplyHandler {
@@ -230,8 +252,6 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 			if (inTimeRange(barSupplyHandler.timeOfFront())) {
 
 				addToDisplayingRates(barSupplyHandler.askBar, barSupplyHandler.bidBar);
-
-				repaint();
 			}
 
 			setTimeOfFront(barSupplyHandler.timeOfFront());
@@ -239,68 +259,142 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 	}
 
 	private void addToDisplayingRates(IBar askBar, IBar bidBar) {
-		long time = askBar.getTime() + period.getInterval();
-
-		displayingAskPoints.add(new ChartPoint(time, askBar.getClose()));
-		displayingBidPoints.add(new ChartPoint(time, bidBar.getClose()));
+		addToRates(displayingAskPoints, displayingBidPoints, askBar, bidBar, period);
 
 		checkAskAndBidPointsCoherency();
+
+		repaintLastLines();
+	}
+
+	private static void addToRates(LinePoints askPoints, LinePoints bidPoints,
+			IBar askBar, IBar bidBar, Period period) {
+		long time = askBar.getTime() + period.getInterval();
+
+		askPoints.add(time, askBar.getClose());
+		bidPoints.add(time, bidBar.getClose());
 	}
 
 	@Override
 	protected final void updateDisplayingElements() {
-		displayingAskPoints.clear();
-		displayingBidPoints.clear();
+		final long startTime = getStartTime();
+		final long endTime = getEndTime();
+		final Period period = this.period;
+		final int width = getWidth();
+
+		loadDisplayingElements(askProvider, new Callable<Runnable>() {
+			@Override
+			public Runnable call() {
+				final LinePoints askPoints = new LinePoints();
+				final LinePoints bidPoints = new LinePoints();
+
+				loadPoints(askPoints, bidPoints, startTime, endTime, period, width);
+
+				return new Runnable() {
+					@Override
+					public void run() {
+						displayingAskPoints = askPoints;
+						displayingBidPoints = bidPoints;
+					}
+				};
+			}
+		});
+	}
 
-		long startTime = getStartTime();
-		long endTime = getEndTime();
+	/**
+	 * Loads the ask and bid points to display on the interval [startTime,
+	 * endTime] of given period on given width, at a coarser level of detail if
+	 * there are too many ticks or bars to tell apart. Invoked on the loader
+	 * thread.
+	 */
+	private void loadPoints(LinePoints askPoints, LinePoints bidPoints,
+			long startTime, long endTime, Period period, int width) {
 
 		if (period.equals(Period.TICK)) {
 
-			// use any of the providers to load ticks
-			List<ITick> ticks = askProvider.getTicks(startTime, endTime);
+			// use any of the providers to load ticks, and the ticks before
+			// and after the interval, joined to the lines unless on its bounds
+			// and thereby loaded
+			ITick previous = askProvider.getPreviousTick(startTime);
+			ITick upcoming = askProvider.getUpcomingTick(endTime);
 
-			if (!ticks.isEmpty()) {
+			if (previous != null && previous.getTime() < startTime)
+				addToRates(askPoints, bidPoints, previous);
 
-				if (ticks.get(0).getTime() > startTime) {
-					ITick previous = askProvider.getPreviousTick(startTime);
-					if (previous != null)
-						addToDisplayingRates(previous);
-				}
+			if (exceedsDetail(askProvider.estimateTickCount(startTime, endTime), width)) {
+				long interval = getPixelInterval(startTime, endTime + 1, width);
 
-				for (ITick tick : ticks) {
-					addToDisplayingRates(tick);
-				}
-
-				if (ticks.get(ticks.size() - 1).getTime() < endTime) {
-					ITick upcoming = askProvider.getUpcomingTick(endTime);
-					if (upcoming != null)
-						addToDisplayingRates(upcoming);
-				}
+				BarBlock[] bars = matchTimes(
+						askProvider.getRangeBars(startTime, endTime + 1, interval),
+						bidProvider.getRangeBars(startTime, endTime + 1, interval));
 
+				addRangePoints(askPoints, bars[0], interval, 0);
+				addRangePoints(bidPoints, bars[1], interval, 0);
 			} else {
+				List<ITick> ticks = askProvider.getTicks(startTime, endTime);
 
-				ITick previous = askProvider.getPreviousTick(startTime);
-				ITick upcoming = askProvider.getUpcomingTick(endTime);
-
-				if (previous != null && upcoming != null) {
-					addToDisplayingRates(previous);
-					addToDisplayingRates(upcoming);
-				}
+				askPoints.addTicks(ticks, OfferSide.ASK);
+				bidPoints.addTicks(ticks, OfferSide.BID);
 			}
 
+			if (upcoming != null && upcoming.getTime() > endTime)
+				addToRates(askPoints, bidPoints, upcoming);
+
 		} else {
 
-			ArrayList<IBar> askBars = askProvider.getBars(
-					startTime - period.getInterval(), endTime);
-			ArrayList<IBar> bidBars = bidProvider.getBars(
-					startTime - period.getInterval(), endTime);
+			long from = startTime - period.getInterval();
+
+			if (exceedsDetail(getMaxBars(period, from, endTime), width)) {
+				long interval = getPixelInterval(from, endTime, width);
 
-			for (int i = 0; i < askBars.size(); i++)
-				addToDisplayingRates(askBars.get(i), bidBars.get(i));
+				BarBlock[] bars = matchTimes(
+						askProvider.getRangeBars(from, endTime, interval),
+						bidProvider.getRangeBars(from, endTime, interval));
+
+				addRangePoints(askPoints, bars[0], interval, period.getInterval());
+				addRangePoints(bidPoints, bars[1], interval, period.getInterval());
+			} else {
+				BarBlock[] bars = matchTimes(askProvider.getBars(from, endTime),
+						bidProvider.getBars(from, endTime));
+
+				for (int i = 0; i < bars[0].size(); i++)
+					addToRates(askPoints, bidPoints, bars[0].get(i), bars[1].get(i),
+							period);
+			}
 		}
 	}
 
+	/**
+	 * Returns the bars of given ask and bid bars, both in ascending order of
+	 * time, of the times found among both, as a block of ask bars and a block
+	 * of bid bars of the same size. So the ask and bid points added from them
+	 * stay coherent where either offer side is missing a bar, e.g. an interval
+	 * aggregated empty.
+	 */
+	private static BarBlock[] matchTimes(List<IBar> askBars, List<IBar> bidBars) {
+		BarBlock asks = BarBlock.of(askBars);
+		BarBlock bids = BarBlock.of(bidBars);
+
+		BarBlock matchedAsks = new BarBlock();
+		BarBlock matchedBids = new BarBlock();
+
+		int i = 0, j = 0;
+		while (i < asks.size() && j < bids.size()) {
+			long askTime = asks.getTime(i);
+			long bidTime = bids.getTime(j);
+
+			if (askTime < bidTime) {
+				i++;
+			} else if (askTime > bidTime) {
+				j++;
+			} else {
+				matchedAsks.add(asks.get(i++));
+				matchedBids.add(bids.get(j++));
+			}
+		}
+
+		return new BarBlock[] { matchedAsks, matchedBids };
+	}
+
 	@Override
 	protected final void drawDisplayingElements(Graphics g) {
 		checkAskAndBidPointsCoherency();
@@ -310,34 +404,13 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 
 		// draw ask lines
 		g.setColor(ASK_COLOR);
-		ChartPoint cp1 = displayingAskPoints.get(0), cp2;
-		for (int i = 0; i < displayingAskPoints.size(); i++) {
-			cp2 = displayingAskPoints.get(i);
-			drawLine(cp1, cp2, g);
-			cp1 = cp2;
-		}
+		int n = displayingAskPoints.decimate(this);
+		g.drawPolyline(displayingAskPoints.getXs(), displayingAskPoints.getYs(), n);
 
-		// draw ask lines
+		// draw bid lines
 		g.setColor(BID_COLOR);
-		cp1 = displayingBidPoints.get(0);
-		for (int i = 0; i < displayingBidPoints.size(); i++) {
-			cp2 = displayingBidPoints.get(i);
-			drawLine(cp1, cp2, g);
-			cp1 = cp2;
-		}
-	}
-
-	private void drawLine(ChartPoint cp1, ChartPoint cp2, Graphics g) {
-		PixelPoint p1 = chartPointToPixelPoint(cp1);
-		PixelPoint p2 = chartPointToPixelPoint(cp2);
-
-		// draw the line
-		g.drawLine(p1.x, p1.y, p2.x, p2.y);
-
-	}
-
-	private PixelPoint chartPointToPixelPoint(ChartPoint cp) {
-		return new PixelPoint(timeToXPixelPos(cp.time), rateToYPixelPos(cp.rate));
+		n = displayingBidPoints.decimate(this);
+		g.drawPolyline(displayingBidPoints.getXs(), displayingBidPoints.getYs(), n);
 	}
 
 	@Override
@@ -371,9 +444,9 @@ public class TwinLineGraph extends LineGraph implements ITickFeedListener,
 			return;
 
 		if (displayingAskPoints.size() != displayingBidPoints.size()
-				|| displayingAskPoints.get(0).time != displayingBidPoints.get(0).time
-				|| displayingAskPoints.get(displayingAskPoints.size() - 1).time != displayingBidPoints
-						.get(displayingBidPoints.size() - 1).time) {
+				|| displayingAskPoints.getTime(0) != displayingBidPoints.getTime(0)
+				|| displayingAskPoints.getTime(displayingAskPoints.size() - 1) != displayingBidPoints
+						.getTime(displayingBidPoints.size() - 1)) {
 
 			throw new ForexException(
 					this.getClass().getName()
@@ -0,0 +1,80 @@
+package io;
+
+import com.dukascopy.api.IBar;
+
+import forex.Bar;
+
+/**
+ * A cursor over stored bars of one instrument, period and offer side, see
+ * SeriesCursor. Opened by ForexDataIO.openBars.
+ *
+ * @author Dennis Ekstrom
+ */
+public final class BarCursor extends SeriesCursor {
+
+	// value columns, in the order of the columns of a bar table
+	static final int OPEN = 0;
+	static final int CLOSE = 1;
+	static final int HIGH = 2;
+	static final int LOW = 3;
+	static final int VOLUME = 4;
+	static final int VALUE_COLUMNS = 5;
+
+	BarCursor(Source source, long from, long to, boolean backward) {
+		super(source, VALUE_COLUMNS, from, to, backward);
+	}
+
+	/**
+	 * Returns the open of the current bar.
+	 *
+	 * @return the open of the current bar
+	 */
+	public double open() {
+		return value(OPEN);
+	}
+
+	/**
+	 * Returns the close of the current bar.
+	 *
+	 * @return the close of the current bar
+	 */
+	public double close() {
+		return value(CLOSE);
+	}
+
+	/**
+	 * Returns the high of the current bar.
+	 *
+	 * @return the high of the current bar
+	 */
+	public double high() {
+		return value(HIGH);
+	}
+
+	/**
+	 * Returns the low of the current bar.
+	 *
+	 * @return the low of the current bar
+	 */
+	public double low() {
+		return value(LOW);
+	}
+
+	/**
+	 * Returns the volume of the current bar.
+	 *
+	 * @return the volume of the current bar
+	 */
+	public double volume() {
+		return value(VOLUME);
+	}
+
+	/**
+	 * Returns a new bar holding the values of the current bar.
+	 *
+	 * @return a new bar holding the values of the current bar
+	 */
+	public IBar bar() {
+		return new Bar(time(), open(), close(), high(), low(), volume());
+	}
+}
@@ -0,0 +1,491 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+import forex.Bar;
+import forex.ForexConstants;
+import forex.ForexException;
+
+// @formatter:off
+/**
+ * Derives the bars of every period of ForexConstants.BAR_PERIODS from bars
+ * of a base period, or from ticks, as they arrive, and stores them through an
+ * IngestQueue. This way only the bars of the base period have to be received
+ * to store bars of all periods.
+ *
+ * Ask and bid bars of the base period are added in ascending order with
+ * respect to time. Every added bar is stored, and is added to the bar being
+ * built of each higher period, both offer sides in one pass. A bar of a
+ * higher period is complete as soon as a bar of a later bar start is added,
+ * bar starts being those of ForexDataIO.getBarStart, so weekly, monthly and
+ * yearly bars follow the calendar.
+ *
+ * Completed bars are buffered and enqueued in batches, once batchSize bars
+ * are buffered or flush() is called. Bars being built aren't stored. Instead,
+ * when the first element is added, the bars that were being built when the
+ * last stored element of the base period was added are resumed from stored
+ * data, see resume(): the bar of the lowest period from the stored elements of
+ * the base period, and the bar of every higher period from the stored bars of
+ * a lower period and the bar resumed of that period. A resumed bar is
+ * completed as any other, so the bars being built when a roll-up was stopped
+ * are stored once it is restarted, and the bars it is restarted in are stored
+ * whole. A bar is only dropped if the stored data starts after its start,
+ * so that no partial bar is stored.
+ *
+ * When built from ticks, bars of every period of ForexConstants.BAR_PERIODS
+ * are built, using the ask and bid of ticks as rates and their ask and bid
+ * volumes as volumes. Ticks aren't stored. Intervals without ticks have no
+ * bars.
+ *
+ * A roll-up is not thread safe and should be fed by one thread.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class BarRollUp {
+
+	/**
+	 * The default number of buffered bars that triggers enqueuing.
+	 */
+	public static final int DEFAULT_BATCH_SIZE = 10000;
+
+	private static final OfferSide[] OFFER_SIDES = { OfferSide.ASK, OfferSide.BID };
+
+	private final Instrument instrument;
+	private final Period basePeriod;
+	private final IngestQueue queue;
+	private final int batchSize;
+
+	// the periods built, in ascending order
+	private final Period[] periods;
+
+	// bars being built, [offer side][period]
+	private final Building[][] building;
+
+	// bar starts of the time last added, of each period
+	private final long[] starts;
+
+	// the day of which calendar bar starts were computed
+	private long dayStart, dayEnd;
+
+	// the time of the last element added, Long.MIN_VALUE if none
+	private long lastTime;
+
+	// completed bars not yet enqueued
+	private HashMap<Period, ArrayList<IBar>> askBars;
+	private HashMap<Period, ArrayList<IBar>> bidBars;
+	private int buffered;
+
+	/**
+	 * A bar being built.
+	 */
+	private static final class Building {
+		boolean isOpen;
+		boolean started;
+		boolean partial;
+		long time;
+		double open, close, high, low, volume;
+
+		void add(double open, double close, double high, double low, double volume) {
+			if (!isOpen) {
+				this.open = open;
+				this.high = high;
+				this.low = low;
+				this.volume = volume;
+				isOpen = true;
+			} else {
+				if (this.high < high)
+					this.high = high;
+				if (this.low > low)
+					this.low = low;
+
+				this.volume += volume;
+			}
+
+			this.close = close;
+		}
+	}
+
+	/**
+	 * Create a roll-up storing bars of given instrument through given queue,
+	 * with a batch size of DEFAULT_BATCH_SIZE.
+	 *
+	 * @param instrument the instrument of the bars
+	 * @param basePeriod the period of the bars added, Period.TICK if ticks are
+	 *            added
+	 * @param queue the queue to store bars through
+	 * @throws IllegalArgumentException if any of the arguments is null
+	 * @throws IllegalArgumentException if basePeriod isn't Period.TICK or
+	 *             defined by ForexConstants.BAR_PERIODS
+	 */
+	public BarRollUp(Instrument instrument, Period basePeriod, IngestQueue queue) {
+		this(instrument, basePeriod, queue, DEFAULT_BATCH_SIZE);
+	}
+
+	/**
+	 * Create a roll-up storing bars of given instrument through given queue.
+	 *
+	 * @param instrument the instrument of the bars
+	 * @param basePeriod the period of the bars added, Period.TICK if ticks are
+	 *            added
+	 * @param queue the queue to store bars through
+	 * @param batchSize the number of buffered bars that triggers enqueuing
+	 * @throws IllegalArgumentException if any of the arguments is null
+	 * @throws IllegalArgumentException if basePeriod isn't Period.TICK or
+	 *             defined by ForexConstants.BAR_PERIODS
+	 * @throws IllegalArgumentException if batchSize < 1
+	 */
+	public BarRollUp(Instrument instrument, Period basePeriod, IngestQueue queue,
+			int batchSize) {
+		if (instrument == null || basePeriod == null || queue == null)
+			throw new IllegalArgumentException("arguments can't be null");
+		else if (basePeriod != Period.TICK
+				&& !ForexConstants.BAR_PERIODS.contains(basePeriod))
+			throw new IllegalArgumentException(
+					"Not a valid period (period has to be Period.TICK or defined by ForexConstants.BAR_PERIODS)");
+		else if (batchSize < 1)
+			throw new IllegalArgumentException("batchSize < 1");
+
+		this.instrument = instrument;
+		this.basePeriod = basePeriod;
+		this.queue = queue;
+		this.batchSize = batchSize;
+
+		ArrayList<Period> periods = new ArrayList<Period>();
+		for (Period p : ForexConstants.BAR_PERIODS) {
+			if (basePeriod == Period.TICK || basePeriod.isSmallerThan(p))
+				periods.add(p);
+		}
+		this.periods = periods.toArray(new Period[periods.size()]);
+
+		building = new Building[OFFER_SIDES.length][this.periods.length];
+		for (Building[] side : building) {
+			for (int k = 0; k < side.length; k++)
+				side[k] = new Building();
+		}
+
+		starts = new long[this.periods.length];
+		dayStart = dayEnd = 0;
+		lastTime = Long.MIN_VALUE;
+
+		clearBars();
+	}
+
+	/**
+	 * Returns the period of the bars added, Period.TICK if ticks are added.
+	 *
+	 * @return the period of the bars added
+	 */
+	public Period getBasePeriod() {
+		return basePeriod;
+	}
+
+	/**
+	 * Adds an ask and a bid bar of the base period. The bars are stored, and
+	 * added to the bars being built of every higher period.
+	 *
+	 * @param askBar the ask bar
+	 * @param bidBar the bid bar, of the same time as askBar
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 * @throws ForexException if ticks are added to this roll-up
+	 * @throws ForexException if the bars are of different time
+	 * @throws IllegalArgumentException if the bars are older than the last
+	 *             element added
+	 */
+	public void addBars(IBar askBar, IBar bidBar) throws InterruptedException {
+		if (basePeriod == Period.TICK)
+			throw new ForexException("Bars can't be added when rolling up ticks");
+		else if (askBar.getTime() != bidBar.getTime())
+			throw new ForexException("incoherency between ask and bid bars detected");
+
+		long time = askBar.getTime();
+
+		if (lastTime == Long.MIN_VALUE)
+			resume(time);
+
+		advance(time);
+
+		askBars.get(basePeriod).add(askBar);
+		bidBars.get(basePeriod).add(bidBar);
+		buffered += 2;
+
+		add(0, time, askBar.getOpen(), askBar.getClose(), askBar.getHigh(),
+				askBar.getLow(), askBar.getVolume());
+		add(1, time, bidBar.getOpen(), bidBar.getClose(), bidBar.getHigh(),
+				bidBar.getLow(), bidBar.getVolume());
+
+		if (buffered >= batchSize)
+			enqueueBars();
+	}
+
+	/**
+	 * Adds a tick to the bars being built of every period.
+	 *
+	 * @param tick the tick to add
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 * @throws ForexException if bars are added to this roll-up
+	 * @throws IllegalArgumentException if the tick is older than the last tick
+	 *             added
+	 */
+	public void addTick(ITick tick) throws InterruptedException {
+		if (basePeriod != Period.TICK)
+			throw new ForexException("Ticks can't be added when rolling up bars");
+
+		long time = tick.getTime();
+
+		if (lastTime == Long.MIN_VALUE)
+			resume(time);
+
+		advance(time);
+
+		double ask = tick.getAsk(), bid = tick.getBid();
+
+		add(0, time, ask, ask, ask, ask, tick.getAskVolume());
+		add(1, time, bid, bid, bid, bid, tick.getBidVolume());
+
+		if (buffered >= batchSize)
+			enqueueBars();
+	}
+
+	/**
+	 * Adds ticks to the bars being built of every period.
+	 *
+	 * @param ticks the ticks to add, in ascending order with respect to time
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 * @throws ForexException if bars are added to this roll-up
+	 * @throws IllegalArgumentException if the ticks are older than the last
+	 *             tick added
+	 */
+	public void addTicks(List<ITick> ticks) throws InterruptedException {
+		for (ITick tick : ticks)
+			addTick(tick);
+	}
+
+	/**
+	 * Enqueues all completed bars not yet enqueued. Bars being built are
+	 * kept.
+	 *
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 */
+	public void flush() throws InterruptedException {
+		enqueueBars();
+	}
+
+	/**
+	 * Resumes the bars that were being built when the last stored element of
+	 * the base period before given time was added. Elements enqueued before
+	 * are stored first. Nothing is resumed if no element of the base period
+	 * before given time is stored.
+	 */
+	private void resume(long time) throws InterruptedException {
+		queue.flush();
+
+		ForexDataIO io = queue.getForexDataIO();
+
+		Long begin = io.getStartOfStorage(instrument, basePeriod);
+		Long end = io.getEndOfStorage(instrument, basePeriod);
+		if (begin == null || end == null || end >= time)
+			return;
+
+		advance(end);
+
+		for (int k = 0; k < periods.length; k++) {
+			Long stored = io.getEndOfStorage(instrument, periods[k]);
+
+			// the lower period of which bars tile the bars of this period
+			int lower = k - 1;
+			while (lower >= 0 && ForexDataIO.getBarStart(periods[lower], starts[k]) != starts[k])
+				lower--;
+
+			for (int s = 0; s < OFFER_SIDES.length; s++) {
+				Building b = building[s][k];
+
+				b.started = true;
+				b.time = starts[k];
+
+				boolean resumed;
+				if ((stored != null && stored >= starts[k]) || begin > starts[k])
+					resumed = false;
+				else if (lower < 0)
+					resumed = resumeFromBase(s, b, io, end);
+				else
+					resumed = resumeFromLower(s, b, io, lower, end);
+
+				if (!resumed) {
+					// already stored or partial
+					b.isOpen = true;
+					b.partial = true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the stored elements of the base period of given offer side, from
+	 * the start of given bar up to given time, to given bar. Returns false if
+	 * they could not be loaded.
+	 */
+	private boolean resumeFromBase(int side, Building b, ForexDataIO io, long end) {
+		if (basePeriod == Period.TICK) {
+			List<ITick> ticks = io.loadTicks(instrument, b.time, end);
+			if (ticks == null)
+				return false;
+
+			for (ITick tick : ticks) {
+				double rate = side == 0 ? tick.getAsk() : tick.getBid();
+				b.add(rate, rate, rate, rate, side == 0 ? tick.getAskVolume() : tick
+						.getBidVolume());
+			}
+
+			return true;
+		}
+
+		return resumeFromBars(b, io.loadBars(instrument, basePeriod, OFFER_SIDES[side],
+				b.time, end));
+	}
+
+	/**
+	 * Adds the stored bars of given lower period and offer side, from the
+	 * start of given bar up to given time, and the bar resumed of the lower
+	 * period unless stored, to given bar. Returns false if the bars could not
+	 * be loaded, or if the bar of the lower period is partial.
+	 */
+	private boolean resumeFromLower(int side, Building b, ForexDataIO io, int lower,
+			long end) {
+		Building l = building[side][lower];
+
+		// a partial bar of the lower period is only included if stored
+		if (l.partial) {
+			Long stored = io.getEndOfStorage(instrument, periods[lower]);
+			if (stored == null || stored < l.time)
+				return false;
+		}
+
+		List<IBar> bars = io.loadBars(instrument, periods[lower], OFFER_SIDES[side],
+				b.time, end);
+		if (!resumeFromBars(b, bars))
+			return false;
+
+		if (l.isOpen && !l.partial)
+			b.add(l.open, l.close, l.high, l.low, l.volume);
+
+		return true;
+	}
+
+	private boolean resumeFromBars(Building b, List<IBar> bars) {
+		if (bars == null)
+			return false;
+
+		for (IBar bar : bars)
+			b.add(bar.getOpen(), bar.getClose(), bar.getHigh(), bar.getLow(), bar
+					.getVolume());
+
+		return true;
+	}
+
+	/**
+	 * Computes the bar starts of given time, completing bars of earlier bar
+	 * starts.
+	 */
+	private void advance(long time) {
+		if (time < lastTime)
+			throw new IllegalArgumentException("time(" + time + ") < time of last added("
+					+ lastTime + ")");
+
+		lastTime = time;
+
+		// calendar bar starts only change between days
+		boolean newDay = time < dayStart || time >= dayEnd;
+		if (newDay) {
+			dayStart = ForexDataIO.getBarStart(Period.DAILY, time);
+			dayEnd = dayStart + Period.DAILY.getInterval();
+		}
+
+		for (int k = 0; k < periods.length; k++) {
+			Period p = periods[k];
+
+			if (p.isSmallerThan(Period.WEEKLY))
+				starts[k] = (time / p.getInterval()) * p.getInterval();
+			else if (newDay)
+				starts[k] = ForexDataIO.getBarStart(p, time);
+		}
+
+		for (int s = 0; s < OFFER_SIDES.length; s++) {
+			for (int k = 0; k < periods.length; k++) {
+				Building b = building[s][k];
+
+				if (b.isOpen && b.time != starts[k]) {
+					if (!b.partial)
+						complete(s, periods[k], b);
+
+					b.isOpen = false;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds given values of given time to the bars being built of given offer
+	 * side.
+	 */
+	private void add(int side, long time, double open, double close, double high,
+			double low, double volume) {
+
+		for (int k = 0; k < periods.length; k++) {
+			Building b = building[side][k];
+
+			if (!b.isOpen) {
+				// only the first bar built can be partial
+				b.partial = !b.started && time != starts[k];
+				b.started = true;
+				b.time = starts[k];
+			}
+
+			b.add(open, close, high, low, volume);
+		}
+	}
+
+	private void complete(int side, Period period, Building b) {
+		Bar bar = new Bar(b.time, b.open, b.close, b.high, b.low, b.volume);
+
+		if (side == 0)
+			askBars.get(period).add(bar);
+		else
+			bidBars.get(period).add(bar);
+
+		buffered++;
+	}
+
+	private void enqueueBars() throws InterruptedException {
+		if (buffered == 0)
+			return;
+
+		for (Period p : ForexConstants.BAR_PERIODS) {
+			if (!askBars.get(p).isEmpty())
+				queue.enqueueBars(instrument, p, OfferSide.ASK, askBars.get(p));
+			if (!bidBars.get(p).isEmpty())
+				queue.enqueueBars(instrument, p, OfferSide.BID, bidBars.get(p));
+		}
+
+		clearBars();
+	}
+
+	private void clearBars() {
+		askBars = new HashMap<Period, ArrayList<IBar>>();
+		bidBars = new HashMap<Period, ArrayList<IBar>>();
+		for (Period p : ForexConstants.BAR_PERIODS) {
+			askBars.put(p, new ArrayList<IBar>());
+			bidBars.put(p, new ArrayList<IBar>());
+		}
+
+		buffered = 0;
+	}
+}
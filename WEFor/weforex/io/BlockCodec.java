@@ -0,0 +1,447 @@
+package io;
+
+import java.util.List;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+
+import forex.BarBlock;
+import forex.ForexException;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * Encoding of blocks of ticks and bars, used by ForexDataIO when ticks or
+ * bars are stored as compressed blocks. See ForexDataIO.TickStorage and
+ * ForexDataIO.BarStorage.
+ *
+ * A block starts with a format byte and the number of rows, followed by one
+ * column after the other. The time column is the time of the first row and
+ * the difference to the previous row for the rest of the rows, all as
+ * varints. Every other column is a column of decimals, see below. Prices are
+ * stored as differences to the previous row and volumes as they are.
+ *
+ * A column of decimals starts with a mode byte:
+ *
+ * 0 - MAX_DECIMALS:	values are integers k, the value is k / 10^mode
+ * 0x80 | decimals:		as above, but the value is rounded to a float
+ * RAW:					values are 8-byte doubles
+ *
+ * The fewest decimals that represent every value of the column exactly are
+ * chosen, so prices are stored as integer pipettes for most instruments.
+ * Volumes that were floats before being stored as doubles use the float
+ * mode. Integers are stored as zigzag varints. Decoding is lossless.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class BlockCodec {
+
+	// format of blocks
+	private static final byte FORMAT = 1;
+
+	/**
+	 * The largest number of decimals of a column of decimals.
+	 */
+	static final int MAX_DECIMALS = 10;
+
+	// column modes
+	private static final int FLOAT = 0x80;
+	private static final int RAW = 0xFF;
+
+	/**
+	 * Whether the value columns of a block of ticks and bars respectively are
+	 * stored as differences, in the order of the value columns.
+	 */
+	static final boolean[] TICK_DELTAS = { true, true, false, false };
+	static final boolean[] BAR_DELTAS = { true, true, true, true, false };
+
+	// integers larger than this can't be represented exactly by a double
+	private static final long MAX_EXACT = 1L << 53;
+
+	private static final double[] POW10 = new double[MAX_DECIMALS + 1];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i <= MAX_DECIMALS; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	private BlockCodec() {
+	}
+
+	/**
+	 * Encodes given ticks into a block.
+	 *
+	 * @param ticks the ticks, sorted in ascending order with respect to time
+	 * @return the block
+	 */
+	static byte[] encodeTicks(List<ITick> ticks) {
+		int n = ticks.size();
+
+		long[] times = new long[n];
+		double[] asks = new double[n], bids = new double[n];
+		double[] askVolumes = new double[n], bidVolumes = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			ITick tick = ticks.get(i);
+			times[i] = tick.getTime();
+			asks[i] = tick.getAsk();
+			bids[i] = tick.getBid();
+			askVolumes[i] = tick.getAskVolume();
+			bidVolumes[i] = tick.getBidVolume();
+		}
+
+		Writer w = new Writer(16 + n * 10);
+		w.writeByte(FORMAT);
+		w.writeVarint(n);
+		writeTimes(w, times);
+		writeDecimals(w, asks, true);
+		writeDecimals(w, bids, true);
+		writeDecimals(w, askVolumes, false);
+		writeDecimals(w, bidVolumes, false);
+
+		return w.toByteArray();
+	}
+
+	/**
+	 * Decodes the ticks of given block of time on the interval [from, to] and
+	 * appends them to given tick block.
+	 *
+	 * @param block the block
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @param ticks the tick block to append the ticks to
+	 * @throws ForexException if the block is of unknown format
+	 */
+	static void decodeTicks(byte[] block, long from, long to, TickBlock ticks) {
+		Columns c = new Columns(TICK_DELTAS.length, 0);
+		decode(block, TICK_DELTAS, c);
+
+		long[] times = c.times;
+		double[][] v = c.values;
+
+		for (int i = 0; i < c.size; i++) {
+			if (times[i] >= from && times[i] <= to)
+				ticks.add(times[i], v[0][i], v[1][i], v[2][i], v[3][i]);
+		}
+	}
+
+	/**
+	 * Encodes given bars into a block.
+	 *
+	 * @param bars the bars, sorted in ascending order with respect to time
+	 * @return the block
+	 */
+	static byte[] encodeBars(List<IBar> bars) {
+		int n = bars.size();
+
+		long[] times = new long[n];
+		double[] opens = new double[n], closes = new double[n];
+		double[] highs = new double[n], lows = new double[n];
+		double[] volumes = new double[n];
+
+		for (int i = 0; i < n; i++) {
+			IBar bar = bars.get(i);
+			times[i] = bar.getTime();
+			opens[i] = bar.getOpen();
+			closes[i] = bar.getClose();
+			highs[i] = bar.getHigh();
+			lows[i] = bar.getLow();
+			volumes[i] = bar.getVolume();
+		}
+
+		Writer w = new Writer(16 + n * 12);
+		w.writeByte(FORMAT);
+		w.writeVarint(n);
+		writeTimes(w, times);
+		writeDecimals(w, opens, true);
+		writeDecimals(w, closes, true);
+		writeDecimals(w, highs, true);
+		writeDecimals(w, lows, true);
+		writeDecimals(w, volumes, false);
+
+		return w.toByteArray();
+	}
+
+	/**
+	 * Decodes the bars of given block of time on the interval [from, to] and
+	 * appends them to given bar block.
+	 *
+	 * @param block the block
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @param bars the bar block to append the bars to
+	 * @throws ForexException if the block is of unknown format
+	 */
+	static void decodeBars(byte[] block, long from, long to, BarBlock bars) {
+		Columns c = new Columns(BAR_DELTAS.length, 0);
+		decode(block, BAR_DELTAS, c);
+
+		long[] times = c.times;
+		double[][] v = c.values;
+
+		for (int i = 0; i < c.size; i++) {
+			if (times[i] >= from && times[i] <= to)
+				bars.add(times[i], v[0][i], v[1][i], v[2][i], v[3][i], v[4][i]);
+		}
+	}
+
+	/**
+	 * Decodes all rows of given block into given columns, replacing the rows
+	 * held. No objects are created if the columns are large enough.
+	 *
+	 * @param block the block
+	 * @param deltas TICK_DELTAS for a block of ticks, BAR_DELTAS for a block
+	 *            of bars
+	 * @param columns the columns to decode into, with as many value columns as
+	 *            deltas has elements
+	 * @throws ForexException if the block is of unknown format
+	 */
+	static void decode(byte[] block, boolean[] deltas, Columns columns) {
+		Reader r = new Reader(block);
+		int n = readHeader(r);
+
+		columns.size = 0;
+		columns.ensureCapacity(n);
+
+		readTimes(r, n, columns.times);
+		for (int c = 0; c < deltas.length; c++)
+			readDecimals(r, n, deltas[c], columns.values[c]);
+
+		columns.size = n;
+	}
+
+	/**
+	 * Returns the number of rows of given block of time on the interval [from,
+	 * to]. Only the time column is decoded.
+	 *
+	 * @param block the block
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return the number of rows of time on the interval [from, to]
+	 * @throws ForexException if the block is of unknown format
+	 */
+	static int count(byte[] block, long from, long to) {
+		Reader r = new Reader(block);
+		int n = readHeader(r);
+
+		int count = 0;
+		long time = 0;
+		for (int i = 0; i < n; i++) {
+			time += r.readVarint();
+
+			if (time > to)
+				break;
+
+			if (time >= from)
+				count++;
+		}
+
+		return count;
+	}
+
+	private static int readHeader(Reader r) {
+		int format = r.readByte();
+		if (format != FORMAT)
+			throw new ForexException("Unknown format of block: " + format);
+
+		return (int) r.readVarint();
+	}
+
+	private static void writeTimes(Writer w, long[] times) {
+		long previous = 0;
+		for (long time : times) {
+			w.writeVarint(time - previous);
+			previous = time;
+		}
+	}
+
+	private static void readTimes(Reader r, int n, long[] times) {
+		long time = 0;
+		for (int i = 0; i < n; i++) {
+			time += r.readVarint();
+			times[i] = time;
+		}
+	}
+
+	/**
+	 * Writes given values as a column of decimals, the differences between
+	 * consecutive values if delta is true.
+	 */
+	private static void writeDecimals(Writer w, double[] values, boolean delta) {
+		int mode = chooseMode(values);
+
+		w.writeByte(mode);
+
+		if (mode == RAW) {
+			for (double value : values)
+				w.writeLong(Double.doubleToRawLongBits(value));
+
+			return;
+		}
+
+		double scale = POW10[mode & ~FLOAT];
+
+		long previous = 0;
+		for (double value : values) {
+			long k = Math.round(value * scale);
+
+			w.writeVarint(zigzag(delta ? k - previous : k));
+			previous = k;
+		}
+	}
+
+	private static void readDecimals(Reader r, int n, boolean delta, double[] values) {
+		int mode = r.readByte();
+
+		if (mode == RAW) {
+			for (int i = 0; i < n; i++)
+				values[i] = Double.longBitsToDouble(r.readLong());
+
+			return;
+		}
+
+		boolean isFloat = (mode & FLOAT) != 0;
+		double scale = POW10[mode & ~FLOAT];
+
+		long k = 0;
+		for (int i = 0; i < n; i++) {
+			long v = unzigzag(r.readVarint());
+			k = delta ? k + v : v;
+
+			values[i] = isFloat ? (float) (k / scale) : k / scale;
+		}
+	}
+
+	/**
+	 * Returns the mode of the column of given values, the fewest decimals that
+	 * represent all values exactly.
+	 */
+	private static int chooseMode(double[] values) {
+		for (int d = 0; d <= MAX_DECIMALS; d++) {
+			if (exact(values, d, false))
+				return d;
+		}
+
+		for (int d = 0; d <= MAX_DECIMALS; d++) {
+			if (exact(values, d, true))
+				return FLOAT | d;
+		}
+
+		return RAW;
+	}
+
+	private static boolean exact(double[] values, int decimals, boolean isFloat) {
+		double scale = POW10[decimals];
+
+		for (double value : values) {
+			if (isFloat && (float) value != value)
+				return false;
+
+			double scaled = value * scale;
+			if (Double.isNaN(scaled) || Math.abs(scaled) >= MAX_EXACT)
+				return false;
+
+			double decoded = Math.round(scaled) / scale;
+
+			if ((isFloat ? (float) decoded : decoded) != value)
+				return false;
+		}
+
+		return true;
+	}
+
+	private static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	/**
+	 * Growable byte array.
+	 */
+	private static final class Writer {
+		private byte[] buf;
+		private int pos;
+
+		Writer(int capacity) {
+			buf = new byte[capacity];
+		}
+
+		void writeByte(int b) {
+			ensure(1);
+			buf[pos++] = (byte) b;
+		}
+
+		void writeVarint(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[pos++] = (byte) v;
+		}
+
+		void writeLong(long v) {
+			ensure(8);
+			for (int i = 0; i < 8; i++) {
+				buf[pos++] = (byte) v;
+				v >>>= 8;
+			}
+		}
+
+		byte[] toByteArray() {
+			byte[] block = new byte[pos];
+			System.arraycopy(buf, 0, block, 0, pos);
+
+			return block;
+		}
+
+		private void ensure(int n) {
+			if (pos + n > buf.length) {
+				byte[] grown = new byte[Math.max(buf.length * 2, pos + n)];
+				System.arraycopy(buf, 0, grown, 0, pos);
+				buf = grown;
+			}
+		}
+	}
+
+	/**
+	 * Reader of a byte array.
+	 */
+	private static final class Reader {
+		private final byte[] buf;
+		private int pos;
+
+		Reader(byte[] buf) {
+			this.buf = buf;
+		}
+
+		int readByte() {
+			return buf[pos++] & 0xFF;
+		}
+
+		long readVarint() {
+			long v = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = buf[pos++];
+				v |= (long) (b & 0x7F) << shift;
+				shift += 7;
+			} while (b < 0);
+
+			return v;
+		}
+
+		long readLong() {
+			long v = 0;
+			for (int i = 0; i < 8; i++)
+				v |= (long) (buf[pos++] & 0xFF) << (8 * i);
+
+			return v;
+		}
+	}
+}
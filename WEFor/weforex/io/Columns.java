@@ -0,0 +1,114 @@
+package io;
+
+// @formatter:off
+/**
+ * Rows of ticks or bars held as columns of primitives: a column of times and
+ * a fixed number of columns of values. Used to read ticks and bars without
+ * creating an object per row, see SeriesCursor and BlockCodec.
+ *
+ * The columns grow as needed and are reused, so reading rows into the same
+ * Columns over and over again doesn't allocate once the columns are large
+ * enough.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+final class Columns {
+
+	/**
+	 * The number of rows.
+	 */
+	int size;
+
+	/**
+	 * The time column.
+	 */
+	long[] times;
+
+	/**
+	 * The value columns, values[column][row].
+	 */
+	final double[][] values;
+
+	/**
+	 * Create columns with given number of value columns.
+	 *
+	 * @param valueColumns the number of value columns
+	 * @param capacity the initial number of rows the columns can hold
+	 */
+	Columns(int valueColumns, int capacity) {
+		times = new long[capacity];
+		values = new double[valueColumns][capacity];
+	}
+
+	/**
+	 * Makes sure the columns can hold given number of rows. Rows held are
+	 * kept.
+	 *
+	 * @param capacity the number of rows the columns must be able to hold
+	 */
+	void ensureCapacity(int capacity) {
+		if (capacity <= times.length)
+			return;
+
+		capacity = Math.max(capacity, times.length * 2);
+
+		times = grow(times, capacity);
+		for (int c = 0; c < values.length; c++)
+			values[c] = grow(values[c], capacity);
+	}
+
+	/**
+	 * Keeps only the rows of time on the interval [from, to], in order.
+	 *
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 */
+	void retain(long from, long to) {
+		int n = 0;
+		for (int i = 0; i < size; i++) {
+			if (times[i] < from || times[i] > to)
+				continue;
+
+			if (n != i) {
+				times[n] = times[i];
+				for (double[] column : values)
+					column[n] = column[i];
+			}
+			n++;
+		}
+
+		size = n;
+	}
+
+	/**
+	 * Reverses the order of the rows.
+	 */
+	void reverse() {
+		for (int i = 0, j = size - 1; i < j; i++, j--) {
+			long time = times[i];
+			times[i] = times[j];
+			times[j] = time;
+
+			for (double[] column : values) {
+				double value = column[i];
+				column[i] = column[j];
+				column[j] = value;
+			}
+		}
+	}
+
+	private static long[] grow(long[] column, int capacity) {
+		long[] grown = new long[capacity];
+		System.arraycopy(column, 0, grown, 0, column.length);
+
+		return grown;
+	}
+
+	private static double[] grow(double[] column, int capacity) {
+		double[] grown = new double[capacity];
+		System.arraycopy(column, 0, grown, 0, column.length);
+
+		return grown;
+	}
+}
@@ -0,0 +1,558 @@
+package io;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import forex.ForexException;
+
+// @formatter:off
+/**
+ * Keeps the connections to a SQLite data base. Connections are opened once
+ * and kept open until close() is called.
+ *
+ * There is a single writer connection. A thread that wants to write calls
+ * lockWriter() and unlockWriter() around its work, and while holding the
+ * writer lock getConnection() returns the writer connection. Every other
+ * thread gets a reader connection of its own, so readers never share a
+ * connection with each other or with the writer. Reader connections of
+ * threads that have died are closed when a new reader connection is opened.
+ *
+ * SQLite connections don't see tables created by other connections until
+ * they reload their schema. Whoever creates a table calls schemaChanged(),
+ * and reader connections reload their schema before they are handed out the
+ * next time.
+ *
+ * Writes of several calls can be grouped into one transaction of the writer
+ * connection with beginTransaction() and endTransaction(). Transactions nest,
+ * only the outermost endTransaction() commits.
+ *
+ * Connections are opened with WAL journal mode, so readers don't block the
+ * writer and vice versa, together with a tuned page cache and mmap size.
+ * Versions of SQLite that don't know WAL or mmap silently ignore them, the
+ * journal mode in effect can be read with getJournalMode().
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class ConnectionManager {
+
+	private static final String DRIVER_NAME = "org.sqlite.JDBC";
+
+	/**
+	 * The number of pages of the page cache of each connection.
+	 */
+	public static final int CACHE_SIZE = 20000;
+
+	/**
+	 * The number of bytes of the data base file to memory-map.
+	 */
+	public static final long MMAP_SIZE = 256L * 1024 * 1024;
+
+	/**
+	 * The number of seconds to wait for a lock held by another connection.
+	 */
+	public static final int BUSY_TIMEOUT = 30;
+
+	static {
+		try {
+			// Load the JDBC driver class once, it registers itself.
+			Class.forName(DRIVER_NAME);
+		} catch (ClassNotFoundException e) {
+			System.err.println("Exception loading driver: " + e);
+		}
+	}
+
+	private final String url;
+
+	private final ReentrantLock writerLock = new ReentrantLock();
+	private Connection writer;
+
+	// nesting depth of the transaction of the writer connection
+	private int transactionDepth;
+
+	// reader connection of each thread
+	private final Map<Thread, Reader> readers = new HashMap<Thread, Reader>();
+
+	// incremented each time a table is created
+	private final AtomicInteger schemaVersion = new AtomicInteger();
+
+	private volatile String journalMode;
+	private volatile boolean closed;
+
+	// statistics
+	private final AtomicLong openedConnections = new AtomicLong();
+	private final AtomicLong closedConnections = new AtomicLong();
+	private final AtomicLong readerRequests = new AtomicLong();
+	private final AtomicLong writerRequests = new AtomicLong();
+	private final AtomicLong writerLockWaits = new AtomicLong();
+	private final AtomicLong writerLockWaitTime = new AtomicLong();
+
+	/**
+	 * A reader connection and the schema version it has seen.
+	 */
+	private static final class Reader {
+		final Connection con;
+		int schemaVersion;
+
+		Reader(Connection con, int schemaVersion) {
+			this.con = con;
+			this.schemaVersion = schemaVersion;
+		}
+	}
+
+	/**
+	 * Create a connection manager for the data base of given url. No
+	 * connection is opened until requested.
+	 *
+	 * @param url the url of the data base
+	 * @throws IllegalArgumentException if url is null
+	 */
+	public ConnectionManager(String url) {
+		if (url == null)
+			throw new IllegalArgumentException("url can't be null");
+
+		this.url = url;
+	}
+
+	/**
+	 * Returns the connection of the current thread. That is the writer
+	 * connection if the current thread holds the writer lock, otherwise the
+	 * reader connection of the current thread.
+	 *
+	 * @return the connection of the current thread
+	 * @throws ForexException if closed or if a connection couldn't be opened
+	 */
+	public Connection getConnection() {
+		if (writerLock.isHeldByCurrentThread()) {
+			writerRequests.incrementAndGet();
+
+			return writer;
+		}
+
+		readerRequests.incrementAndGet();
+
+		Thread thread = Thread.currentThread();
+		Reader reader;
+		synchronized (readers) {
+			checkNotClosed();
+
+			reader = readers.get(thread);
+			if (reader == null) {
+				closeReadersOfDeadThreads();
+
+				reader = new Reader(open(), schemaVersion.get());
+				readers.put(thread, reader);
+			}
+		}
+
+		// only the current thread uses its reader
+		int version = schemaVersion.get();
+		if (reader.schemaVersion != version) {
+			reloadSchema(reader.con);
+			reader.schemaVersion = version;
+		}
+
+		return reader.con;
+	}
+
+	/**
+	 * Notifies this connection manager that a table has been created, so that
+	 * reader connections reload their schema.
+	 */
+	public void schemaChanged() {
+		schemaVersion.incrementAndGet();
+	}
+
+	/**
+	 * Acquires the writer lock, waiting for any other writing thread to
+	 * release it. Calls can be nested, each call has to be followed by a call
+	 * to unlockWriter().
+	 *
+	 * @throws ForexException if closed or if the writer connection couldn't be
+	 *             opened
+	 */
+	public void lockWriter() {
+		if (!writerLock.tryLock()) {
+			writerLockWaits.incrementAndGet();
+
+			long start = System.nanoTime();
+			writerLock.lock();
+			writerLockWaitTime.addAndGet(System.nanoTime() - start);
+		}
+
+		try {
+			checkNotClosed();
+
+			if (writer == null)
+				writer = open();
+
+		} catch (RuntimeException e) {
+			writerLock.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the writer lock.
+	 *
+	 * @throws IllegalMonitorStateException if the current thread doesn't hold
+	 *             the writer lock
+	 */
+	public void unlockWriter() {
+		writerLock.unlock();
+	}
+
+	/**
+	 * Returns true if the current thread holds the writer lock, otherwise
+	 * false.
+	 * 
+	 * @return true if the current thread holds the writer lock, otherwise
+	 *         false
+	 */
+	public boolean holdsWriter() {
+		return writerLock.isHeldByCurrentThread();
+	}
+
+	/**
+	 * Begins a transaction on the writer connection, or joins the transaction
+	 * already begun. Each call has to be followed by a call to
+	 * endTransaction(), also if this method throws.
+	 * 
+	 * @throws IllegalMonitorStateException if the current thread doesn't hold
+	 *             the writer lock
+	 * @throws SQLException if the transaction couldn't be begun
+	 */
+	public void beginTransaction() throws SQLException {
+		if (!writerLock.isHeldByCurrentThread())
+			throw new IllegalMonitorStateException("writer lock not held");
+
+		if (transactionDepth++ == 0)
+			writer.setAutoCommit(false);
+	}
+
+	/**
+	 * Ends a transaction begun by beginTransaction(). The outermost call
+	 * commits the transaction and returns true, other calls return false.
+	 * 
+	 * @return true if the transaction was committed, otherwise false
+	 * @throws IllegalMonitorStateException if the current thread doesn't hold
+	 *             the writer lock or if no transaction is begun
+	 * @throws SQLException if the transaction couldn't be committed, it's
+	 *             rolled back
+	 */
+	public boolean endTransaction() throws SQLException {
+		if (!writerLock.isHeldByCurrentThread() || transactionDepth == 0)
+			throw new IllegalMonitorStateException("no transaction begun");
+
+		if (--transactionDepth > 0)
+			return false;
+
+		try {
+			writer.commit();
+		} catch (SQLException e) {
+			try {
+				writer.rollback();
+			} catch (SQLException ex) {
+				System.err.println("Exception rolling back: " + ex.getMessage());
+			}
+
+			throw e;
+		} finally {
+			writer.setAutoCommit(true);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Ends a transaction begun by beginTransaction() by rolling it back
+	 * instead of committing it. Only the outermost transaction can be rolled
+	 * back, after the joined ones have ended.
+	 * 
+	 * @throws IllegalMonitorStateException if the current thread doesn't hold
+	 *             the writer lock, if no transaction is begun or if joined
+	 *             transactions haven't ended
+	 * @throws SQLException if the transaction couldn't be rolled back
+	 */
+	public void rollbackTransaction() throws SQLException {
+		if (!writerLock.isHeldByCurrentThread() || transactionDepth == 0)
+			throw new IllegalMonitorStateException("no transaction begun");
+		if (transactionDepth > 1)
+			throw new IllegalMonitorStateException("joined transactions not ended");
+
+		transactionDepth = 0;
+
+		try {
+			writer.rollback();
+		} finally {
+			writer.setAutoCommit(true);
+		}
+	}
+
+	/**
+	 * Returns true if the current thread holds the writer lock and has begun
+	 * a transaction, otherwise false.
+	 * 
+	 * @return true if the current thread has begun a transaction, otherwise
+	 *         false
+	 */
+	public boolean inTransaction() {
+		return writerLock.isHeldByCurrentThread() && transactionDepth > 0;
+	}
+
+	/**
+	 * Closes all connections. No connections can be requested afterwards.
+	 */
+	public void close() {
+		writerLock.lock();
+		try {
+			synchronized (readers) {
+				closed = true;
+
+				for (Reader reader : readers.values())
+					close(reader.con);
+				readers.clear();
+			}
+
+			if (writer != null) {
+				close(writer);
+				writer = null;
+			}
+		} finally {
+			writerLock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the journal mode in effect, null if no connection has been
+	 * opened.
+	 *
+	 * @return the journal mode in effect
+	 */
+	public String getJournalMode() {
+		return journalMode;
+	}
+
+	/**
+	 * Returns the number of reader connections currently open.
+	 *
+	 * @return the number of reader connections currently open
+	 */
+	public int getReaderConnectionCount() {
+		synchronized (readers) {
+			return readers.size();
+		}
+	}
+
+	/**
+	 * Returns the number of connections opened since creation.
+	 *
+	 * @return the number of connections opened since creation
+	 */
+	public long getOpenedConnections() {
+		return openedConnections.get();
+	}
+
+	/**
+	 * Returns the number of connections closed since creation.
+	 *
+	 * @return the number of connections closed since creation
+	 */
+	public long getClosedConnections() {
+		return closedConnections.get();
+	}
+
+	/**
+	 * Returns the number of times a reader connection has been requested.
+	 *
+	 * @return the number of times a reader connection has been requested
+	 */
+	public long getReaderRequests() {
+		return readerRequests.get();
+	}
+
+	/**
+	 * Returns the number of times the writer connection has been requested.
+	 *
+	 * @return the number of times the writer connection has been requested
+	 */
+	public long getWriterRequests() {
+		return writerRequests.get();
+	}
+
+	/**
+	 * Returns the number of times a thread had to wait for the writer lock.
+	 *
+	 * @return the number of times a thread had to wait for the writer lock
+	 */
+	public long getWriterLockWaits() {
+		return writerLockWaits.get();
+	}
+
+	/**
+	 * Returns the total time, in milliseconds, threads have waited for the
+	 * writer lock.
+	 *
+	 * @return the total time threads have waited for the writer lock
+	 */
+	public long getWriterLockWaitTime() {
+		return writerLockWaitTime.get() / 1000000;
+	}
+
+	/**
+	 * Returns a string representation of the statistics of this connection
+	 * manager.
+	 *
+	 * @return a string representation of the statistics of this connection
+	 *         manager
+	 */
+	@Override
+	public String toString() {
+		// @formatter:off
+		return String.format("%s:  journal=%s  readers=%d  opened=%d  closed=%d  " +
+				"readerRequests=%d  writerRequests=%d  writerWaits=%d (%d ms)",
+				getClass().getSimpleName(),
+				getJournalMode(),
+				getReaderConnectionCount(),
+				getOpenedConnections(),
+				getClosedConnections(),
+				getReaderRequests(),
+				getWriterRequests(),
+				getWriterLockWaits(),
+				getWriterLockWaitTime());
+		// @formatter:on
+	}
+
+	private void checkNotClosed() {
+		if (closed)
+			throw new ForexException("Connection manager closed");
+	}
+
+	/**
+	 * Closes the reader connections of threads that are no longer alive.
+	 * Caller must hold the lock of readers.
+	 */
+	private void closeReadersOfDeadThreads() {
+		Iterator<Map.Entry<Thread, Reader>> it = readers.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<Thread, Reader> entry = it.next();
+
+			if (!entry.getKey().isAlive()) {
+				close(entry.getValue().con);
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Makes given connection reload its schema. Reading the schema table
+	 * detects that the schema has changed.
+	 */
+	private static void reloadSchema(Connection con) {
+		Statement stmt = null;
+		try {
+			stmt = con.createStatement();
+			stmt.executeQuery("SELECT COUNT(*) FROM sqlite_master").close();
+		} catch (SQLException e) {
+			System.err.println("Error reloading schema: " + e.getMessage());
+		} finally {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					System.err.println("Exception closing statement: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Opens a new connection and configures it.
+	 */
+	private Connection open() {
+		Connection con;
+		try {
+			con = DriverManager.getConnection(url);
+		} catch (SQLException e) {
+			throw new ForexException("Exception connecting to database: "
+					+ e.getMessage());
+		}
+
+		openedConnections.incrementAndGet();
+
+		Statement stmt = null;
+		try {
+			stmt = con.createStatement();
+
+			// sets the busy timeout of the connection
+			stmt.setQueryTimeout(BUSY_TIMEOUT);
+
+			journalMode = pragma(stmt, "journal_mode = WAL");
+			if ("wal".equalsIgnoreCase(journalMode))
+				pragma(stmt, "synchronous = NORMAL");
+
+			pragma(stmt, "cache_size = " + CACHE_SIZE);
+			pragma(stmt, "mmap_size = " + MMAP_SIZE);
+
+		} catch (SQLException e) {
+			System.err.println("Error configuring connection: " + e.getMessage());
+		} finally {
+			if (stmt != null) {
+				try {
+					stmt.close();
+				} catch (SQLException e) {
+					System.err.println("Exception closing statement: " + e.getMessage());
+				}
+			}
+		}
+
+		return con;
+	}
+
+	/**
+	 * Executes given pragma and returns its result, null if it has no result
+	 * or if it isn't supported.
+	 */
+	private static String pragma(Statement stmt, String pragma) {
+		ResultSet rs = null;
+		try {
+			if (stmt.execute("PRAGMA " + pragma)) {
+				rs = stmt.getResultSet();
+
+				if (rs.next())
+					return rs.getString(1);
+			}
+		} catch (SQLException e) {
+			// setting pragmas without results is reported as an error by some
+			// drivers, unknown pragmas are ignored by SQLite
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {
+					System.err.println("Exception closing result set: " + e.getMessage());
+				}
+			}
+		}
+
+		return null;
+	}
+
+	private void close(Connection con) {
+		try {
+			con.close();
+			closedConnections.incrementAndGet();
+		} catch (SQLException e) {
+			System.err.println("Exception closing connection: " + e.getMessage());
+		}
+	}
+}
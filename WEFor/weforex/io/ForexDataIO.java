@@ -1,11 +1,16 @@
 package io;
 
+import java.io.File;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.GregorianCalendar;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import chart.TimeRange;
 
@@ -15,25 +20,47 @@ import com.dukascopy.api.Instrument;
 import com.dukascopy.api.OfferSide;
 import com.dukascopy.api.Period;
 
+import forex.BarBlock;
 import forex.ForexConstants;
 import forex.ForexException;
 import forex.Tick;
-import forex.Bar;
+import forex.TickBlock;
 
 // @formatter:off
 /**
  * Class for data base io of forex data such as ticks and bars. Provides method
  * for loading and storing ticks and bars.
  * 
- * Ticks and bars of specific periods are stored in separate tables. A table
- * containing bars can contain a maximum of MAX_ROWS_PER_BAR_TABLE rows, each
- * row describing one bar. Tables containing ticks contains are organized in
- * such way that ticks on the same TIME_INTERVAL_PER_TICK_TABLE, counting
- * starting at Epoch, will be stored in the same table. Methods are provided to
- * calculate the table index of a specific tick or bar. Table indices increase 
+ * Ticks and bars of specific periods are stored in separate tables, one table
+ * per instrument, period and offer side. Every table is keyed and clustered
+ * by time, so any read is a single range scan over the primary key. Ticks and
+ * bars are still grouped into logical tables, identified by a table index,
+ * when loading whole tables. Ticks on the same TIME_INTERVAL_PER_TICK_TABLE,
+ * counting starting at Epoch, belong to the same tick table, and a bar table
+ * covers MAX_ROWS_PER_BAR_TABLE bars of its period. Methods are provided to
+ * calculate the table index of a specific tick or bar. Table indices increase
  * as the time of elements within the tables increase. See naming conventions
  * for tick and bar tables below.
  * 
+ * Ticks are stored either in the data base or in memory-mapped column files,
+ * selected at startup through the system property TICK_STORAGE_PROPERTY. See
+ * TickStorage. Storage ranges and tick counts are always kept in the data
+ * base.
+ * 
+ * Ticks and bars can also be stored in the data base as compressed blocks,
+ * selected through TICK_STORAGE_PROPERTY and BAR_STORAGE_PROPERTY. A block
+ * table has one row per table index, holding the number of ticks or bars of
+ * the table index and the ticks or bars encoded by BlockCodec. Blocks are
+ * decoded as a whole when read, and merged with the ticks or bars stored when
+ * written. Tables of blocks are named as the tables of rows, with the suffix
+ * _BLOCK, so a data base can hold both.
+ * 
+ * Columns of a block table are: { tableIndex, size, data }
+ * 
+ * Data bases stored with the earlier layout, where every table index had a
+ * table of its own, have to be converted using ForexDataMigration. The layout
+ * in use is recorded in the user_version of the data base.
+ * 
  * One table, the storage range table, keeps track of the time range for which 
  * the data base contains data. It has a single row naming the time stamps of the 
  * beginning and end of the data stored in the data base. The value in the 
@@ -43,9 +70,14 @@ import forex.Bar;
  * 
  * Columns of the storage range table are: { instrument, startOfStorage, endOfStorage }
  * 
- * Columns of a tick count table are: { tableIndex, tableSize, previousTicksCount }
+ * The tick count table of an instrument has one row per tick table, naming
+ * the number of ticks stored on the time interval of the tick table. It's
+ * loaded into a TickCountIndex the first time ticks of the instrument are
+ * counted or stored, and rebuilt from the stored ticks if missing. The
+ * number of ticks stored before any time is found in O(log n) using the
+ * index, and storing ticks updates only the rows of the affected tick tables.
  * 
- * Columns of a tick count table organizer are: { tickCountTableIndex, startTableIndex, endTableIndex }
+ * Columns of a tick count table are: { tableIndex, tableSize }
  * 
  * Columns of a bar table are (in order): { time, open, close, high, low, volume }
  * 
@@ -55,19 +87,38 @@ import forex.Bar;
  * 
  * Storage range table: STORAGE_RANGE_TABLE
  * 
- * Tick count table: [instrument]_TICK_COUNT_TABLE_[table index]
- * Example:			 EURUSD_TICK_COUNT_TABLE_1543
+ * Tick count table: [instrument]_TICK_COUNT
+ * Example:			 EURUSD_TICK_COUNT
+ * 
+ * Tick tables: [instrument]_TICK
+ * Example: 	EURUSD_TICK
+ * 
+ * Tick block tables: [instrument]_TICK_BLOCK
+ * Example: 		  EURUSD_TICK_BLOCK
+ * 
+ * Bar tables: [instrument.name()]_[period.name()]_[offerSide]_BAR
+ * Example: 	EURUSD_TEN_MINS_ASK_BAR
+ * 
+ * Bar block tables: [instrument.name()]_[period.name()]_[offerSide]_BAR_BLOCK
+ * Example: 		 EURUSD_TEN_MINS_ASK_BAR_BLOCK
  * 
- * Tick count table organizer: [instrument]_TICK_COUNT_TABLE_ORGANIZER
- * Example:					   EURUSD_TICK_COUNT_TABLE_ORGANIZER
+ * ForexDataIO can be used by several threads at once. Every thread reads
+ * through a connection of its own, so reads run in parallel. Writes are
+ * serialized by the writer lock of the ConnectionManager and don't hold up
+ * readers longer than the data base itself does. The static methods for
+ * table indices and bar starts are pure and take no locks.
  * 
- * Tick tables: [instrument]_TICK_[table index]
- * Example: 	EURUSD_TICK_1251
+ * Ranges of ticks and bars can be streamed through a TickCursor or BarCursor,
+ * forward or backward, which reads rows a page at a time into primitive
+ * columns instead of loading a list of ticks or bars. See SeriesCursor.
  * 
- * Bar tables: [instrument.name()]_[period.name()]_[offerSide]_BAR_[table index]
- * Example: 	EURUSD_TEN_MINS_ASK_BAR_1451
+ * Each call storing ticks or bars is committed as one transaction, or rolled
+ * back if it fails. Ticks and bars can also be stored asynchronously through
+ * the IngestQueue, which commits whatever is queued in one transaction. A
+ * call failing within a transaction begun by its caller throws a
+ * ForexException, so that the caller rolls back the whole transaction.
  * 
- * finalize() is implemented to make sure connection is closed.
+ * A shutdown hook is registered to make sure connections are closed.
  * 
  * @author Dennis Ekstrom
  */
@@ -126,87 +177,6 @@ public class ForexDataIO {
 	// }
 	//
 	//
-	// private void printTickCountTable(Instrument instrument, long
-	// tickCountTableIndex) {
-	//
-	// ArrayList<Long> tableIndices = new ArrayList<Long>();
-	// ArrayList<Integer> tableSize = new ArrayList<Integer>();
-	// ArrayList<Long> previousTicksCount = new ArrayList<Long>();
-	//
-	// String table = getTickCountTable(instrument, tickCountTableIndex);
-	//
-	// Connection con = getConnection();
-	// Statement stmt = null;
-	// ResultSet rs = null;
-	// try {
-	// String query = "SELECT * FROM " + table;
-	//
-	// stmt = con.createStatement();
-	//
-	// rs = stmt.executeQuery(query);
-	//
-	// while (rs.next()) {
-	// tableIndices.add(rs.getLong(TABLE_INDEX_COLUMN_LABEL));
-	// tableSize.add(rs.getInt(TABLE_SIZE_COLUMN_LABEL));
-	// previousTicksCount.add(rs.getLong(PREVIOUS_TICKS_COUNT_COLUMN_LABEL));
-	// }
-	// } catch (SQLException e) {
-	// System.out.println(e);
-	// } finally {
-	// close(stmt, rs);
-	// }
-	//
-	// if (!tableIndices.isEmpty())
-	// System.out.println("PRINTING: " + table);
-	//
-	// for (int i = 0; i < tableIndices.size(); i++) {
-	// System.out.print("Table: " + tableIndices.get(i));
-	// System.out.print("  Size: " + tableSize.get(i));
-	// System.out.println("  Previous ticks count: " +
-	// previousTicksCount.get(i));
-	// }
-	// }
-	//
-	// private void printTickCountTableOrganizer(Instrument instrument) {
-	// ArrayList<Long> tickCountTableIndices = new ArrayList<Long>();
-	// ArrayList<Long> startTickTableIndices = new ArrayList<Long>();
-	// ArrayList<Long> endTickTableIndices = new ArrayList<Long>();
-	//
-	// String table = getTickCountTableOrganizer(instrument);
-	//
-	// Connection con = getConnection();
-	// Statement stmt = null;
-	// ResultSet rs = null;
-	// try {
-	// String query = "SELECT * FROM " + table;
-	//
-	// stmt = con.createStatement();
-	//
-	// rs = stmt.executeQuery(query);
-	//
-	// while (rs.next()) {
-	// tickCountTableIndices
-	// .add(rs.getLong(TICK_COUNT_TABLE_INDEX_COLUMN_LABEL));
-	// startTickTableIndices
-	// .add(rs.getLong(START_TICK_TABLE_INDEX_COLUMN_LABEL));
-	// endTickTableIndices.add(rs.getLong(END_TICK_TABLE_INDEX_COLUMN_LABEL));
-	// }
-	// } catch (SQLException e) {
-	// System.out.println(e);
-	// } finally {
-	// close(stmt, rs);
-	// }
-	//
-	// if (!tickCountTableIndices.isEmpty())
-	// System.out.println("PRINTING: " + table);
-	//
-	// for (int i = 0; i < tickCountTableIndices.size(); i++) {
-	// System.out.print("Tick count table: " + tickCountTableIndices.get(i));
-	// System.out.print("  Start tick table: " + startTickTableIndices.get(i));
-	// System.out.println("  End tick table: " + endTickTableIndices.get(i));
-	// }
-	// }
-	//
 	// private void printStorageRangeTable(Instrument instrument) {
 	// ArrayList<String> periods = new ArrayList<String>();
 	// ArrayList<Long> start = new ArrayList<Long>();
@@ -295,10 +265,6 @@ public class ForexDataIO {
 		// io.printTable(instrument, time, true, false);
 		//
 		// io.printStorageRangeTable(instrument);
-		//
-		// io.printTickCountTableOrganizer(instrument);
-		//
-		// io.printTickCountTable(instrument, 4315);
 	}
 
 	public void verifyDataBaseStorageVeracity(boolean printInfo) {
@@ -337,7 +303,7 @@ public class ForexDataIO {
 		}
 
 		long startTableIndex = 0, endTableIndex = 0;
-		ArrayList<IBar> barTable;
+		List<IBar> barTable;
 		IBar firstBar, lastBar;
 
 		for (Instrument instrument : storedInstruments) {
@@ -424,9 +390,9 @@ public class ForexDataIO {
 
 								barTime += period.getInterval();
 							}
-
-							totalTableCount++; // add on for each bar table
 						}
+
+						totalTableCount++; // add one for each bar table
 					} else if (printInfo) {
 						System.out.println(period);
 						System.out.println("NO BARS");
@@ -436,48 +402,24 @@ public class ForexDataIO {
 			}
 
 			// verify tick storage
-			// check coherency between tick tables and tick count table
-			ArrayList<Long> tickCountTableIndices = new ArrayList<Long>();
+			// check coherency between tick tables, tick count table and tick
+			// count index
+			TickCountIndex tickCountIndex = getTickCountIndex(instrument);
 
-			// retrieve tick count table indices
+			Long firstTickTableIndex = null, lastTickTableIndex = null;
+			long tickTableIndex, assumedPreviousTicksCount = 0;
+			int tableSize;
 			con = getConnection();
 			try {
 
-				String query = "SELECT * FROM " + getTickCountTableOrganizer(instrument);
-
-				stmt = con.createStatement();
-
-				rs = stmt.executeQuery(query);
-
-				totalTableCount++; // add one for each tick count table
-									// organizer
-
-				while (rs.next()) {
-					tickCountTableIndices.add(rs
-							.getLong(TICK_COUNT_TABLE_INDEX_COLUMN_LABEL));
-				}
-			} catch (SQLException e) {
-				System.err
-						.println("Error checking coherency between tick tables and tick count table: "
-								+ e.getMessage());
-
-				System.exit(0);
-			} finally {
-				close(stmt, rs);
-			}
-
-			// go trough tick count tables and check coherency
-			Long firstTickTableIndex = null, lastTickTableIndex = null;
-			long tickTableIndex, previousTicksCount, assumedPreviousTicksCount = 0;
-			int tableSize, assumedTableSize;
-			try {
+				String table = getTickCountTable(instrument);
 
-				String table, query;
-				for (Long tickCountTableIndex : tickCountTableIndices) {
+				if (tableExists(table)) {
 
-					table = getTickCountTable(instrument, tickCountTableIndex);
+					totalTableCount++; // add one for the tick count table
 
-					query = "SELECT * FROM " + table;
+					String query = "SELECT * FROM " + table + " ORDER BY "
+							+ TABLE_INDEX_COLUMN_LABEL + " ASC";
 
 					stmt = con.createStatement();
 
@@ -487,16 +429,12 @@ public class ForexDataIO {
 
 						tickTableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
 						tableSize = rs.getInt(TABLE_SIZE_COLUMN_LABEL);
-						previousTicksCount = rs
-								.getLong(PREVIOUS_TICKS_COUNT_COLUMN_LABEL);
 
-						assumedTableSize = tableRowCount(
-								getTickTable(instrument, tickTableIndex), con);
-
-						if (tableSize != assumedTableSize
-								|| previousTicksCount != assumedPreviousTicksCount) {
+						if (tableSize != tickTableSize(instrument, tickTableIndex, con)
+								|| tableSize != tickCountIndex.get(tickTableIndex)
+								|| tickCountIndex.countBefore(tickTableIndex) != assumedPreviousTicksCount) {
 							System.out
-									.println("incoherency detected between tick storage and TICK_COUNT_TABLE: "
+									.println("incoherency detected between tick storage and TICK_COUNT table: "
 											+ instrument);
 
 							System.exit(0);
@@ -506,17 +444,21 @@ public class ForexDataIO {
 
 						// update first and last tick table indices for future
 						// comparison
-						if (firstTickTableIndex == null)
-							firstTickTableIndex = tickTableIndex;
-
-						lastTickTableIndex = tickTableIndex;
-
-						totalTableCount++; // add one for each tick table
+						if (tableSize > 0) {
+							if (firstTickTableIndex == null)
+								firstTickTableIndex = tickTableIndex;
 
+							lastTickTableIndex = tickTableIndex;
+						}
 					}
+				}
 
-					totalTableCount++; // add one for each tick count table
+				if (tickCountIndex.total() != assumedPreviousTicksCount) {
+					System.out
+							.println("incoherency detected between tick storage and TICK_COUNT table: "
+									+ instrument);
 
+					System.exit(0);
 				}
 			} catch (SQLException e) {
 				System.err
@@ -529,10 +471,13 @@ public class ForexDataIO {
 			}
 
 			// check coherency between tick tables and tick storage range
-			ArrayList<ITick> tickTable;
+			List<ITick> tickTable;
 			ITick firstTick = null, lastTick = null;
 			if (firstTickTableIndex != null) {
 
+				if (mappedTickStore == null)
+					totalTableCount++; // add one for the tick table
+
 				tickTable = loadTickTable(instrument, firstTickTableIndex);
 				firstTick = tickTable.get(0);
 
@@ -593,36 +538,69 @@ public class ForexDataIO {
 
 	private static final String TABLE_INDEX_COLUMN_LABEL = "tableIndex";
 	private static final String TABLE_SIZE_COLUMN_LABEL = "tableSize";
-	private static final String PREVIOUS_TICKS_COUNT_COLUMN_LABEL = "previousTicksCount";
 
 	private static final String TICK_COUNT_TABLE_STRUCTURE = "("
 			+ TABLE_INDEX_COLUMN_LABEL + " INTEGER PRIMARY KEY ASC, "
-			+ TABLE_SIZE_COLUMN_LABEL + " INTEGER NOT NULL, "
-			+ PREVIOUS_TICKS_COUNT_COLUMN_LABEL + " INTEGER NOT NULL)";
-
-	private static final String TICK_COUNT_TABLE_INDEX_COLUMN_LABEL = "tickCountTableIndex";
-	private static final String START_TICK_TABLE_INDEX_COLUMN_LABEL = "startTickTableIndex";
-	private static final String END_TICK_TABLE_INDEX_COLUMN_LABEL = "endTickTableIndex";
-	private static final String TICK_COUNT_TABLE_ORGANIZER_STRUCTURE = "("
-			+ TICK_COUNT_TABLE_INDEX_COLUMN_LABEL + " INTEGER PRIMARY KEY ASC, "
-			+ START_TICK_TABLE_INDEX_COLUMN_LABEL + " INTEGER NOT NULL, "
-			+ END_TICK_TABLE_INDEX_COLUMN_LABEL + " INTEGER NOT NULL)";
-
-	private static final String BAR_TABLE_STRUCTURE = "("
+			+ TABLE_SIZE_COLUMN_LABEL + " INTEGER NOT NULL)";
+
+	static final String BAR_TABLE_STRUCTURE = "("
 			+ "time INTEGER PRIMARY KEY ASC, " + "open REAL NOT NULL, "
 			+ "close REAL NOT NULL, " + "high REAL NOT NULL, " + "low REAL NOT NULL, "
 			+ "volume REAL NOT NULL)";
 
-	private static final String TICK_TABLE_STRUCTURE = "("
+	static final String TICK_TABLE_STRUCTURE = "("
 			+ "time INTEGER PRIMARY KEY ASC, " + "ask REAL NOT NULL, "
 			+ "bid REAL NOT NULL, " + "askVolume REAL NOT NULL, "
 			+ "bidVolume REAL NOT NULL)";
 
+	static final String BLOCK_TABLE_STRUCTURE = "("
+			+ TABLE_INDEX_COLUMN_LABEL + " INTEGER PRIMARY KEY ASC, "
+			+ "size INTEGER NOT NULL, " + "data BLOB NOT NULL)";
+
+	private static final String BLOCK_QUERY_PREFIX = "SELECT data FROM ";
+	private static final String BLOCK_QUERY_SUFFIX = " WHERE " + TABLE_INDEX_COLUMN_LABEL
+			+ " BETWEEN ? AND ? ORDER BY " + TABLE_INDEX_COLUMN_LABEL + " ASC";
+
 	public static enum InterpolationMethod {
 		OPEN_TICK, CLOSE_TICK, FOUR_TICKS
 	}
 
-	public static final int TABLES_PER_TICK_COUNT_TABLE = 500;
+	/**
+	 * Where ticks are stored. SQLITE stores ticks in the tick tables of the
+	 * data base. MAPPED stores ticks in append-only, memory-mapped column
+	 * files in MAPPED_TICK_DIRECTORY, which are read without decoding rows, see
+	 * MappedTickStore. Ticks can't be stored before the last stored tick when
+	 * using MAPPED. BLOCKS stores ticks in the data base as one compressed
+	 * block per tick table, see BlockCodec.
+	 */
+	public static enum TickStorage {
+		SQLITE, MAPPED, BLOCKS
+	}
+
+	/**
+	 * Where bars are stored. SQLITE stores bars in the bar tables of the data
+	 * base. BLOCKS stores bars in the data base as one compressed block per bar
+	 * table, see BlockCodec.
+	 */
+	public static enum BarStorage {
+		SQLITE, BLOCKS
+	}
+
+	/**
+	 * The system property naming the TickStorage to use, SQLITE if not set.
+	 */
+	public static final String TICK_STORAGE_PROPERTY = "weforex.tickstorage";
+
+	/**
+	 * The system property naming the BarStorage to use, SQLITE if not set.
+	 */
+	public static final String BAR_STORAGE_PROPERTY = "weforex.barstorage";
+
+	/**
+	 * The directory of the column files when ticks are stored using
+	 * TickStorage.MAPPED.
+	 */
+	public static final String MAPPED_TICK_DIRECTORY = "forexdata.ticks";
 
 	/**
 	 * Period, in milliseconds, for tick tables. Set to 600,000.
@@ -648,41 +626,111 @@ public class ForexDataIO {
 	 */
 	public static final int MAX_ROWS_PER_BAR_TABLE = 420;
 
-	// driver
-	private static volatile Driver driver;
-	private static final String driverName = "org.sqlite.JDBC";
+	/**
+	 * The user_version of a data base stored with one table per instrument,
+	 * period and offer side. Data bases of user_version 0 use the earlier
+	 * layout with one table per table index, those of user_version 1 have
+	 * weekly bars aligned by their week of year. Both have to be converted by
+	 * ForexDataMigration before they are used, see verifyLayout().
+	 */
+	static final int SERIES_LAYOUT_VERSION = 2;
+
+	// the user_version of data bases with weekly bars aligned by week of year
+	private static final int WEEK_OF_YEAR_LAYOUT_VERSION = 1;
 
 	// database
-	private static final String url = "jdbc:sqlite:forexdata.db";
+	static final String url = "jdbc:sqlite:forexdata.db";
 
-	// connection
-	private static final int TIMES_TO_USE_CONNECTION = 50;
-	private volatile Connection con;
-	private volatile int connectionUses;
+	// connections
+	private final ConnectionManager connections;
 
 	// the one and only instance
 	private static volatile ForexDataIO instance;
 
 	// storage ranges
-	private volatile HashMap<Instrument, HashMap<Period, Long>> startOfStorage;
-	private volatile HashMap<Instrument, HashMap<Period, Long>> endOfStorage;
+	private final ConcurrentHashMap<Instrument, ConcurrentHashMap<Period, Long>> startOfStorage;
+	private final ConcurrentHashMap<Instrument, ConcurrentHashMap<Period, Long>> endOfStorage;
 	private volatile ArrayList<Instrument> storedInstruments;
 
+	// names of all tables in the data base, kept to avoid catalog lookups
+	private final Set<String> existingTables;
+
+	// tables created in the transaction of the writer, not yet committed
+	private final Set<String> createdTables;
+
+	// instruments stored to in the transaction of the writer, and the
+	// listeners notified once it's committed
+	private final Set<Instrument> changedInstruments;
+	private final Set<StoreListener> storeListeners;
+
+	// storage ranges changed in the transaction of the writer, in the order
+	// changed, restored if it's rolled back
+	private final ArrayList<RangeChange> changedRanges;
+
+	// the column files of ticks, null if ticks are stored in the data base
+	private final MappedTickStore mappedTickStore;
+
+	// true if ticks and bars respectively are stored as blocks
+	private final boolean tickBlocks;
+	private final boolean barBlocks;
+
+	// tick count index of each instrument, loaded when first used
+	private final ConcurrentHashMap<Instrument, TickCountIndex> tickCounts;
+
+	// queue of ticks and bars to store, created when first used
+	private volatile IngestQueue ingestQueue;
+
 	/**
 	 * Create a ForexDataIO instance.
 	 */
 	private ForexDataIO() {
-		// make sure connection is closed on shut down
+		connections = new ConnectionManager(url);
+
+		// make sure connections are closed on shut down
 		Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
 			@Override
 			public void run() {
-				close(con);
+				if (ingestQueue != null) {
+					try {
+						ingestQueue.close();
+					} catch (InterruptedException e) {
+						System.err.println("Interrupted storing queued ticks and bars");
+					}
+				}
+
+				connections.close();
+
+				if (mappedTickStore != null)
+					mappedTickStore.close();
 			}
 		}));
 
-		startOfStorage = new HashMap<Instrument, HashMap<Period, Long>>();
-		endOfStorage = new HashMap<Instrument, HashMap<Period, Long>>();
+		TickStorage tickStorage = TickStorage.valueOf(System.getProperty(
+				TICK_STORAGE_PROPERTY, TickStorage.SQLITE.name()).toUpperCase());
+
+		if (tickStorage == TickStorage.MAPPED)
+			mappedTickStore = new MappedTickStore(new File(MAPPED_TICK_DIRECTORY));
+		else
+			mappedTickStore = null;
+
+		BarStorage barStorage = BarStorage.valueOf(System.getProperty(
+				BAR_STORAGE_PROPERTY, BarStorage.SQLITE.name()).toUpperCase());
+
+		tickBlocks = tickStorage == TickStorage.BLOCKS;
+		barBlocks = barStorage == BarStorage.BLOCKS;
+
+		startOfStorage = new ConcurrentHashMap<Instrument, ConcurrentHashMap<Period, Long>>();
+		endOfStorage = new ConcurrentHashMap<Instrument, ConcurrentHashMap<Period, Long>>();
 		storedInstruments = new ArrayList<Instrument>();
+		existingTables = Collections.synchronizedSet(new HashSet<String>());
+		createdTables = new HashSet<String>();
+		changedInstruments = new HashSet<Instrument>();
+		changedRanges = new ArrayList<RangeChange>();
+		storeListeners = new CopyOnWriteArraySet<StoreListener>();
+		tickCounts = new ConcurrentHashMap<Instrument, TickCountIndex>();
+
+		loadExistingTables();
+		verifyLayout();
 
 		for (Instrument instrument : ForexConstants.INSTRUMENTS) {
 			if (tableExists(getStorageRangeTable(instrument))) {
@@ -751,37 +799,237 @@ public class ForexDataIO {
 	}
 
 	/**
-	 * Returns the connection to use within this class.
+	 * Reads the names of all tables in the data base into existingTables.
+	 */
+	private void loadExistingTables() {
+
+		Connection con = getConnection();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			String query = "SELECT name FROM sqlite_master WHERE type == 'table'";
+
+			stmt = con.createStatement();
+
+			rs = stmt.executeQuery(query);
+
+			while (rs.next()) {
+				existingTables.add(rs.getString(1));
+			}
+		} catch (SQLException e) {
+			System.err.println("Error loading tables of data base: " + e.getMessage());
+		} finally {
+			close(stmt, rs);
+		}
+	}
+
+	/**
+	 * Makes sure the data base is stored with one table per instrument, period
+	 * and offer side, and with weekly bars aligned to the first day of their
+	 * week. A data base without weekly bars is marked as such, since there is
+	 * nothing to realign. The data base is never converted when opened.
+	 * 
+	 * @throws ForexException if the data base is stored with the earlier
+	 *             layout or with an unknown layout, or if its weekly bars are
+	 *             aligned by their week of year
+	 */
+	private void verifyLayout() {
+
+		int version = ForexDataMigration.getUserVersion(getConnection());
+
+		if (version == SERIES_LAYOUT_VERSION)
+			return;
+
+		if (version != 0 && version != WEEK_OF_YEAR_LAYOUT_VERSION)
+			throw new ForexException("Unknown layout of data base: " + version);
+
+		synchronized (existingTables) {
+			for (String table : existingTables) {
+				if (ForexDataMigration.isLegacyTable(table))
+					throw new ForexException(
+							"Data base has to be converted, run io.ForexDataMigration");
+			}
+
+			for (String table : existingTables) {
+				if (ForexDataMigration.isWeeklyBarTable(table))
+					throw new ForexException("Weekly bars of data base have to be "
+							+ "realigned, run io.ForexDataMigration");
+			}
+		}
+
+		connections.lockWriter();
+		try {
+			ForexDataMigration.setUserVersion(getConnection(), SERIES_LAYOUT_VERSION);
+		} finally {
+			connections.unlockWriter();
+		}
+	}
+
+	/**
+	 * Returns the connection to use within this class. That is the writer
+	 * connection while writing, see ConnectionManager.lockWriter(), otherwise
+	 * the reader connection of the current thread.
 	 */
 	private Connection getConnection() {
-		if (con == null || ++connectionUses > TIMES_TO_USE_CONNECTION) {
-			close(con);
-			con = connect();
-			connectionUses = 0;
+		return connections.getConnection();
+	}
+
+	/**
+	 * Returns the connection manager of this ForexDataIO, which provides
+	 * statistics of the connections in use.
+	 * 
+	 * @return the connection manager of this ForexDataIO
+	 */
+	public ConnectionManager getConnectionManager() {
+		return connections;
+	}
+
+	/**
+	 * Begins a transaction on the writer connection, or joins the transaction
+	 * already begun, see ConnectionManager.beginTransaction(). Every write of
+	 * this class is done within a transaction, so that writes made between
+	 * the outermost beginTransaction() and endTransaction() are committed
+	 * together. Caller must hold the writer lock, and must call
+	 * endTransaction() afterwards.
+	 */
+	void beginTransaction() {
+		try {
+			connections.beginTransaction();
+		} catch (SQLException e) {
+			System.err.println("Error beginning transaction: " + e.getMessage());
 		}
+	}
+
+	/**
+	 * Ends a transaction begun by beginTransaction(). Tables created within
+	 * the transaction are made known to readers once it's committed, and the
+	 * store listeners are notified of the instruments stored to.
+	 */
+	void endTransaction() {
+		try {
+			if (connections.endTransaction()) {
+				existingTables.addAll(createdTables);
+
+				if (!createdTables.isEmpty())
+					connections.schemaChanged();
 
-		return con;
+				createdTables.clear();
+				changedRanges.clear();
+
+				for (Instrument instrument : changedInstruments) {
+					for (StoreListener listener : storeListeners)
+						listener.stored(instrument);
+				}
+				changedInstruments.clear();
+			}
+		} catch (SQLException e) {
+			System.err.println("Error committing transaction: " + e.getMessage());
+
+			forgetTransaction();
+		}
 	}
 
 	/**
-	 * Get the connection to the database.
+	 * Ends a transaction begun by beginTransaction() by rolling back what was
+	 * written within it, see ConnectionManager.rollbackTransaction(). Ticks
+	 * appended to the mapped tick store are not rolled back.
 	 */
-	private static Connection connect() {
+	void rollbackTransaction() {
 		try {
-			if (driver != null) {
-				DriverManager.deregisterDriver(driver);
+			connections.rollbackTransaction();
+		} catch (SQLException e) {
+			System.err.println("Error rolling back transaction: " + e.getMessage());
+		}
+
+		forgetTransaction();
+	}
+
+	/**
+	 * Forgets what the transaction of the writer changed, once rolled back.
+	 */
+	private void forgetTransaction() {
+		createdTables.clear();
+		changedInstruments.clear();
+		tickCounts.clear();
+
+		for (int i = changedRanges.size() - 1; i >= 0; i--)
+			changedRanges.get(i).restore();
+		changedRanges.clear();
+	}
+
+	/**
+	 * The storage range of an instrument and period before it was changed,
+	 * see updateStorageRange.
+	 */
+	private final class RangeChange {
+
+		private final Instrument instrument;
+		private final Period period;
+		private final Long start;
+		private final Long end;
+
+		RangeChange(Instrument instrument, Period period) {
+			this.instrument = instrument;
+			this.period = period;
+			this.start = getStartOfStorage(instrument, period);
+			this.end = getEndOfStorage(instrument, period);
+		}
+
+		/**
+		 * Restores the storage range to what it was before changed.
+		 */
+		void restore() {
+			if (start == null)
+				startOfStorage.get(instrument).remove(period);
+			else
+				setStartOfStorage(instrument, period, start);
+
+			if (end == null)
+				endOfStorage.get(instrument).remove(period);
+			else
+				setEndOfStorage(instrument, period, end);
+		}
+	}
+
+	/**
+	 * Adds a listener notified when ticks or bars have been stored, unless
+	 * added already.
+	 * 
+	 * @param listener the listener to add
+	 * @throws IllegalArgumentException if listener is null
+	 */
+	public void addStoreListener(StoreListener listener) {
+		if (listener == null)
+			throw new IllegalArgumentException("listener can't be null");
+
+		storeListeners.add(listener);
+	}
+
+	/**
+	 * Removes a listener added by addStoreListener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	public void removeStoreListener(StoreListener listener) {
+		storeListeners.remove(listener);
+	}
+
+	/**
+	 * Returns the ingest queue of this ForexDataIO, which stores ticks and
+	 * bars asynchronously. The queue is created when first requested, with a
+	 * capacity of IngestQueue.DEFAULT_CAPACITY ticks and bars.
+	 * 
+	 * @return the ingest queue of this ForexDataIO
+	 */
+	public IngestQueue getIngestQueue() {
+		if (ingestQueue == null) {
+			synchronized (this) {
+				if (ingestQueue == null)
+					ingestQueue = new IngestQueue(this, IngestQueue.DEFAULT_CAPACITY);
 			}
-			// Load the JDBC driver class dynamically.
-			driver = (Driver) Class.forName(driverName).newInstance();
-			// DriverManager.registerDriver(driver); // TODO ska denna vara med
-			// ???
-			Thread.sleep(100); // wait for a while
-			return DriverManager.getConnection(url);
-		} catch (Exception e) {
-			System.err.println("Exception connecting to database: " + e);
 		}
 
-		return null;
+		return ingestQueue;
 	}
 
 	private static void close(Object... objects) {
@@ -815,7 +1063,8 @@ public class ForexDataIO {
 	 * Updates the storage range of given instrument and period. Time should be
 	 * the time of the bar or tick for which the storage range is updated for.
 	 */
-	private void updateStorageRange(long time, Instrument instrument, Period period) {
+	private void updateStorageRange(long time, Instrument instrument, Period period)
+			throws SQLException {
 
 		String table = getStorageRangeTable(instrument);
 
@@ -823,18 +1072,17 @@ public class ForexDataIO {
 			createTableIfNotExists(table, STORAGE_RANGE_TABLE_STRUCTURE);
 		}
 
+		RangeChange change = new RangeChange(instrument, period);
 		boolean rangeChanged = false;
 
-		if (getStartOfStorage(instrument, period) == null
-				|| time < getStartOfStorage(instrument, period)) {
+		if (change.start == null || time < change.start) {
 
 			setStartOfStorage(instrument, period, time);
 			rangeChanged = true;
 
 		}
 
-		if (getEndOfStorage(instrument, period) == null
-				|| time > getEndOfStorage(instrument, period)) {
+		if (change.end == null || time > change.end) {
 
 			setEndOfStorage(instrument, period, time);
 			rangeChanged = true;
@@ -843,11 +1091,13 @@ public class ForexDataIO {
 
 		if (rangeChanged) {
 
+			changedRanges.add(change);
+
 			Connection con = getConnection();
 			PreparedStatement prst = null;
 			try {
 
-				con.setAutoCommit(false);
+				beginTransaction();
 
 				String query = "INSERT OR REPLACE INTO " + table + " VALUES(?, ?, ?)";
 
@@ -859,354 +1109,175 @@ public class ForexDataIO {
 				prst.setLong(3, getEndOfStorage(instrument, period));
 
 				prst.executeUpdate();
-				con.commit();
 
-				con.setAutoCommit(true);
-
-			} catch (SQLException e) {
-				System.err.println("Error updating storage range: " + e.getMessage());
 			} finally {
 				close(prst);
+				endTransaction();
 			}
 		}
 	}
 
-	private void updateTickCountTable(Instrument instrument, long updatedTickTableIndex) {
-
-		HashSet<Long> updatedTickCountTables = new HashSet<Long>();
-
-		String table = getTickTable(instrument, updatedTickTableIndex);
-
-		if (!tableExists(table))
-			return;
-
-		long tickCountTableIndex = getTickCountTableIndex(updatedTickTableIndex);
-		String tickCountTable = getTickCountTable(instrument, tickCountTableIndex);
-
-		createTableIfNotExists(getTickCountTableOrganizer(instrument),
-				TICK_COUNT_TABLE_ORGANIZER_STRUCTURE);
+	/**
+	 * Counts the ticks of given tick tables and updates the tick count index
+	 * and tick count table of given instrument. Caller must hold the writer
+	 * lock.
+	 */
+	private void updateTickCounts(Instrument instrument, List<Long> tickTableIndices)
+			throws SQLException {
+		updateTickCounts(instrument, tickTableIndices, getTickCountIndex(instrument));
+	}
 
-		createTableIfNotExists(getTickCountTable(instrument, tickCountTableIndex),
-				TICK_COUNT_TABLE_STRUCTURE);
+	private void updateTickCounts(Instrument instrument, List<Long> tickTableIndices,
+			TickCountIndex index) throws SQLException {
 
-		int tableSize = 0;
-		long previousTicksCount = 0;
-		try {
-			// find table size. Table exists, so method won't return null
-			tableSize = tableRowCount(table);
+		String table = getTickCountTable(instrument);
 
-			// find previous ticks counts
-			previousTicksCount = getPreviousTicksCountOfTable(instrument,
-					updatedTickTableIndex);
-		} catch (SQLException e) {
-			System.err.println("Error getting previous ticks count when updating "
-					+ tickCountTable + ": " + e.getMessage());
+		Connection con = getConnection();
 
-			System.exit(0);
-		}
+		createTableIfNotExists(table, TICK_COUNT_TABLE_STRUCTURE, con);
 
-		// insert into table
-		Connection con = getConnection();
 		PreparedStatement prst = null;
 		try {
 
-			con.setAutoCommit(false);
+			beginTransaction();
 
-			String query = "INSERT OR REPLACE INTO "
-					+ getTickCountTable(instrument, tickCountTableIndex)
-					+ " VALUES(?, ?, ?)";
+			String query = "INSERT OR REPLACE INTO " + table + " VALUES(?, ?)";
 
 			prst = con.prepareStatement(query);
 
-			// set values
-			prst.setLong(1, updatedTickTableIndex);
-			prst.setInt(2, tableSize);
-			prst.setLong(3, previousTicksCount);
+			for (Long tickTableIndex : tickTableIndices) {
+				int tableSize = tickTableSize(instrument, tickTableIndex, con);
 
-			prst.executeUpdate();
+				if (tableSize == index.get(tickTableIndex))
+					continue;
+
+				prst.setLong(1, tickTableIndex);
+				prst.setInt(2, tableSize);
+				prst.addBatch();
 
-			con.setAutoCommit(true);
+				index.set(tickTableIndex, tableSize);
+			}
 
-		} catch (SQLException e) {
-			System.err.println("Error inserting values when updating " + tickCountTable
-					+ ": " + e.getMessage());
+			prst.executeBatch();
 
-			System.exit(0);
 		} finally {
 			close(prst);
+			endTransaction();
 		}
+	}
 
-		// immediate update needed for upcoming use
-		updateTickCountTableOrganizer(instrument, tickCountTableIndex);
+	/**
+	 * Returns the tick count index of given instrument, loading it from the
+	 * tick count table the first time it's requested. If there is no tick
+	 * count table, the index is rebuilt from the stored ticks. Loading and
+	 * rebuilding is done holding the writer lock, so that no ticks are stored
+	 * meanwhile.
+	 */
+	private TickCountIndex getTickCountIndex(Instrument instrument) {
 
-		// update rows affected by the change
+		TickCountIndex index = tickCounts.get(instrument);
+		if (index != null)
+			return index;
 
-		Statement stmt = null;
-		ResultSet rs = null;
+		connections.lockWriter();
 		try {
+			index = tickCounts.get(instrument);
+			if (index != null)
+				return index;
 
-			long tickCountTableIndexOfEndOfStorage = getLastStoredTickCountTableIndex(instrument);
-			long tableIndex;
-			String select, insert;
-
-			con = getConnection(); // renew connection
-
-			con.setAutoCommit(false);
-
-			select = "SELECT * FROM " + tickCountTable + " WHERE "
-					+ TABLE_INDEX_COLUMN_LABEL + " > " + updatedTickTableIndex
-					+ " ORDER BY " + TABLE_INDEX_COLUMN_LABEL + " ASC";
+			index = new TickCountIndex();
 
-			stmt = con.createStatement();
-
-			rs = stmt.executeQuery(select);
+			if (tableExists(getTickCountTable(instrument)))
+				loadTickCountIndex(instrument, index);
+			else if (ticksStored(instrument))
+				rebuildTickCountIndex(instrument, index);
 
-			insert = "INSERT OR REPLACE INTO " + tickCountTable + " VALUES(?, ?, ?)";
-
-			prst = con.prepareStatement(insert);
-			updatedTickCountTables.add(tickCountTableIndex);
-			while (rs.next()) {
-				// OBS: update before tableSize.
-				// tableSize here is that of previous table.
-				previousTicksCount += tableSize;
-
-				tableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
-				tableSize = rs.getInt(TABLE_SIZE_COLUMN_LABEL);
-
-				prst.setLong(1, tableIndex);
-				prst.setInt(2, tableSize);
-				prst.setLong(3, previousTicksCount);
-
-				prst.addBatch();
-			}
-
-			prst.executeBatch();
-			con.commit();
-			con.setAutoCommit(true);
-
-			updatedTickCountTables.add(tickCountTableIndex);
-
-			con = getConnection();
-			con.setAutoCommit(false);
-			while (++tickCountTableIndex <= tickCountTableIndexOfEndOfStorage) {
-
-				tickCountTable = getTickCountTable(instrument, tickCountTableIndex);
-
-				select = "SELECT * FROM " + tickCountTable;
-
-				stmt = con.createStatement();
+			tickCounts.put(instrument, index);
 
-				rs = stmt.executeQuery(select);
-
-				insert = "INSERT OR REPLACE INTO " + tickCountTable + " VALUES(?, ?, ?)";
-
-				prst = con.prepareStatement(insert);
-				while (rs.next()) {
-					// OBS: update before tableSize.
-					// tableSize here is that of previous table.
-					previousTicksCount += tableSize;
-
-					tableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
-					tableSize = rs.getInt(TABLE_SIZE_COLUMN_LABEL);
-
-					prst.setLong(1, tableIndex);
-					prst.setInt(2, tableSize);
-					prst.setLong(3, previousTicksCount);
-
-					prst.addBatch();
-				}
-
-				prst.executeBatch();
-				con.commit();
-
-				updatedTickCountTables.add(tickCountTableIndex);
-			}
-
-			con.setAutoCommit(true);
-
-		} catch (SQLException e) {
-			System.err.println("Error updating rows when updating " + tickCountTable
-					+ ": " + e.getMessage());
-
-			System.exit(0);
+			return index;
 		} finally {
-			close(stmt);
+			connections.unlockWriter();
 		}
-
-		for (Long tableCountTableIndex : updatedTickCountTables)
-			updateTickCountTableOrganizer(instrument, tableCountTableIndex);
 	}
 
-	private void updateTickCountTableOrganizer(Instrument instrument,
-			long updatedTickCountTableIndex) {
-
-		String updatedTable = getTickCountTable(instrument, updatedTickCountTableIndex);
+	/**
+	 * Reads the tick count table of given instrument into given index.
+	 */
+	private void loadTickCountIndex(Instrument instrument, TickCountIndex index) {
 
 		Connection con = getConnection();
 		Statement stmt = null;
-		PreparedStatement prst = null;
 		ResultSet rs = null;
-		Long startTableIndex = null, endTableIndex = null;
 		try {
-
-			con.setAutoCommit(false);
-
-			// get first
-			String query = "SELECT * FROM " + updatedTable + " ORDER BY "
-					+ TABLE_INDEX_COLUMN_LABEL + " ASC LIMIT 1";
+			String query = "SELECT * FROM " + getTickCountTable(instrument);
 
 			stmt = con.createStatement();
 
 			rs = stmt.executeQuery(query);
 
-			if (rs.next())
-				startTableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
-
-			// get last
-			query = "SELECT * FROM " + updatedTable + " ORDER BY "
-					+ TABLE_INDEX_COLUMN_LABEL + " DESC LIMIT 1";
-
-			stmt = con.createStatement();
-
-			rs = stmt.executeQuery(query);
-
-			if (rs.next())
-				endTableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
-
-			if (startTableIndex != null && endTableIndex != null) {
-				query = "INSERT OR REPLACE INTO "
-						+ getTickCountTableOrganizer(instrument) + " VALUES(?, ?, ?)";
-
-				prst = con.prepareStatement(query);
-
-				prst.setLong(1, updatedTickCountTableIndex);
-				prst.setLong(2, startTableIndex);
-				prst.setLong(3, endTableIndex);
-
-				prst.executeUpdate();
+			while (rs.next()) {
+				index.set(rs.getLong(TABLE_INDEX_COLUMN_LABEL),
+						rs.getInt(TABLE_SIZE_COLUMN_LABEL));
 			}
-
-			con.setAutoCommit(true);
-
 		} catch (SQLException e) {
-			System.err.println("Error updating " + getTickCountTableOrganizer(instrument)
+			throw new ForexException("Error loading " + getTickCountTable(instrument)
 					+ ": " + e.getMessage());
-		} finally {
-			close(prst, stmt, rs);
-		}
-	}
-
-	/**
-	 * Returns the tick count table index of the first tick count table of given
-	 * instrument in the database, null if no tick count tables where found.
-	 * 
-	 * @param instrument the instrument of the tick
-	 * @return the tick count table index of the first tick count table of given
-	 *         instrument in the database
-	 */
-	private Long getFirstStoredTickCountTableIndex(Instrument instrument)
-			throws SQLException {
-
-		Connection con = getConnection();
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-			// get first tick count table index
-			String query = "SELECT * FROM " + getTickCountTableOrganizer(instrument)
-					+ " ORDER BY " + TICK_COUNT_TABLE_INDEX_COLUMN_LABEL + " ASC LIMIT 1";
-
-			stmt = con.createStatement();
-
-			rs = stmt.executeQuery(query);
-
-			if (rs.next())
-				return rs.getLong(TICK_COUNT_TABLE_INDEX_COLUMN_LABEL);
-			else
-				return null;
-
 		} finally {
 			close(stmt, rs);
 		}
 	}
 
 	/**
-	 * Returns the tick count table index of the last tick count table of given
-	 * instrument in the database, null if no tick count tables where found.
-	 * 
-	 * @param instrument the instrument of the tick
-	 * @return the tick count table index of the last tick count table of given
-	 *         instrument in the database
+	 * Counts the ticks of every tick table of given instrument into given
+	 * index, and stores the counts in the tick count table. Caller must hold
+	 * the writer lock.
 	 */
-	private Long getLastStoredTickCountTableIndex(Instrument instrument)
-			throws SQLException {
-
-		Connection con = getConnection();
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-			// get first tick count table index
-			String query = "SELECT * FROM " + getTickCountTableOrganizer(instrument)
-					+ " ORDER BY " + TICK_COUNT_TABLE_INDEX_COLUMN_LABEL
-					+ " DESC LIMIT 1";
+	private void rebuildTickCountIndex(Instrument instrument, TickCountIndex index) {
 
-			stmt = con.createStatement();
+		ArrayList<Long> tickTableIndices = new ArrayList<Long>();
 
-			rs = stmt.executeQuery(query);
+		if (mappedTickStore != null) {
+			Long start = getStartOfStorage(instrument, Period.TICK);
+			Long end = getEndOfStorage(instrument, Period.TICK);
 
-			if (rs.next())
-				return rs.getLong(TICK_COUNT_TABLE_INDEX_COLUMN_LABEL);
-			else
-				return null;
+			if (start == null || end == null)
+				return;
 
-		} finally {
-			close(stmt, rs);
-		}
-	}
+			for (long i = getTickTableIndex(start); i <= getTickTableIndex(end); i++) {
+				TimeRange range = getTickTableTimeRange(i);
 
-	private long getPreviousTicksCountOfTable(Instrument instrument, long tickTableIndex)
-			throws SQLException {
-
-		Long tickCountTableIndexOfStartOfStorage = getFirstStoredTickCountTableIndex(instrument);
-
-		if (tickCountTableIndexOfStartOfStorage == null)
-			return 0L;
-
-		Connection con = getConnection();
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
-
-			long tickCountTableIndex = getTickCountTableIndex(tickTableIndex);
-			String tickCountTable;
-			String query;
-			boolean retrivedResultSet = false;
-			do {
-				tickCountTable = getTickCountTable(instrument, tickCountTableIndex);
-
-				if (tableExists(tickCountTable, con)) {
-
-					query = "SELECT * FROM " + tickCountTable + " WHERE "
-							+ TABLE_INDEX_COLUMN_LABEL + " < " + tickTableIndex
-							+ " ORDER BY " + TABLE_INDEX_COLUMN_LABEL + " DESC LIMIT 1";
+				if (mappedTickStore.countTicks(instrument, range.startTime, range.endTime) > 0)
+					tickTableIndices.add(i);
+			}
+		} else {
+			Connection con = getConnection();
+			Statement stmt = null;
+			ResultSet rs = null;
+			try {
+				String query = tickBlocks ? "SELECT " + TABLE_INDEX_COLUMN_LABEL + " FROM "
+						+ getTickBlockTable(instrument) : "SELECT DISTINCT time / "
+						+ TIME_INTERVAL_PER_TICK_TABLE + " FROM " + getTickTable(instrument);
 
-					stmt = con.createStatement();
+				stmt = con.createStatement();
 
-					rs = stmt.executeQuery(query);
+				rs = stmt.executeQuery(query);
 
-					if (rs.next())
-						retrivedResultSet = true;
+				while (rs.next()) {
+					tickTableIndices.add(rs.getLong(1));
 				}
-			} while (!retrivedResultSet
-					&& --tickCountTableIndex >= tickCountTableIndexOfStartOfStorage);
-
-			if (retrivedResultSet) {
-				return rs.getLong(PREVIOUS_TICKS_COUNT_COLUMN_LABEL)
-						+ rs.getInt(TABLE_SIZE_COLUMN_LABEL);
-			} else {
-				return 0L;
+			} catch (SQLException e) {
+				throw new ForexException("Error rebuilding tick count index of "
+						+ instrument + ": " + e.getMessage());
+			} finally {
+				close(stmt, rs);
 			}
-		} finally {
-			close(stmt, rs);
+		}
+
+		try {
+			updateTickCounts(instrument, tickTableIndices, index);
+		} catch (SQLException e) {
+			throw new ForexException("Error updating " + getTickCountTable(instrument)
+					+ ": " + e.getMessage());
 		}
 	}
 
@@ -1216,6 +1287,9 @@ public class ForexDataIO {
 
 	private void createTableIfNotExists(String table, String structure, Connection con) {
 
+		if (tableExists(table))
+			return;
+
 		Statement stmt = null;
 		try {
 
@@ -1225,6 +1299,13 @@ public class ForexDataIO {
 
 			stmt.execute(query);
 
+			if (connections.inTransaction()) {
+				createdTables.add(table);
+			} else {
+				existingTables.add(table);
+				connections.schemaChanged();
+			}
+
 		} catch (SQLException e) {
 			System.err.println("Error creating " + table + ": " + e.getMessage());
 		} finally {
@@ -1234,82 +1315,114 @@ public class ForexDataIO {
 
 	/**
 	 * Returns true if the specified table exists in the database, otherwise
-	 * false.
+	 * false. Tables are looked up among the tables known to exist, not in the
+	 * catalog of the data base. Tables created within a transaction that isn't
+	 * yet committed exist only to the writer.
 	 * 
 	 * @param table the table to check for existence
 	 * @return true if the specified table exists in the database, otherwise
 	 *         false
 	 */
 	private boolean tableExists(String table) {
-		return tableExists(table, getConnection());
+		if (table == null)
+			return false;
+
+		if (existingTables.contains(table))
+			return true;
+
+		return connections.holdsWriter() && createdTables.contains(table);
 	}
 
 	/**
-	 * Returns true if the specified table exists in the database, otherwise
-	 * false.
+	 * Returns the number of ticks stored in the tick table of given instrument
+	 * and table index.
 	 * 
-	 * @param table the table to check for existence
+	 * @param instrument the instrument of the ticks
+	 * @param tickTableIndex the index of the tick table
 	 * @param con the connection to use
-	 * @return true if the specified table exists in the database, otherwise
-	 *         false
+	 * @return the number of ticks stored in the tick table of given instrument
+	 *         and table index
+	 * @throws SQLException if an exception was thrown during the process of
+	 *             counting the ticks
 	 */
-	private boolean tableExists(String table, Connection con) {
-		if (table == null)
-			return false;
+	private int tickTableSize(Instrument instrument, long tickTableIndex, Connection con)
+			throws SQLException {
+		TimeRange range = getTickTableTimeRange(tickTableIndex);
 
-		ResultSet rs = null;
-		try {
-			DatabaseMetaData meta = con.getMetaData();
+		return tickCount(instrument, range.startTime, range.endTime, con);
+	}
 
-			rs = meta.getTables(null, null, table, null);
+	/**
+	 * Returns the number of ticks of given instrument stored of time on the
+	 * interval [from, to].
+	 * 
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @param con the connection to use
+	 * @return the number of ticks of given instrument stored of time on the
+	 *         interval [from, to]
+	 * @throws SQLException if an exception was thrown during the process of
+	 *             counting the ticks
+	 */
+	private int tickCount(Instrument instrument, long from, long to, Connection con)
+			throws SQLException {
+		if (mappedTickStore != null)
+			return mappedTickStore.countTicks(instrument, from, to);
 
-			if (rs.next()) {
-				return true;
-			}
-		} catch (SQLException e) {
-			return false;
-		} finally {
-			close(rs);
-		}
+		if (tickBlocks)
+			return tickBlockCount(instrument, from, to, con);
 
-		return false;
+		return rowCount(getTickTable(instrument), from, to, con);
 	}
 
 	/**
-	 * Returns the number of rows in the given table.
-	 * 
-	 * @param table the table
-	 * @return the number of rows in the given table
-	 * @throws SQLException if an exception was thrown during the process of
-	 *             finding table row count
+	 * Returns true if any ticks of given instrument are stored, otherwise
+	 * false.
 	 */
-	private int tableRowCount(String table) throws SQLException {
-		return tableRowCount(table, getConnection());
+	private boolean ticksStored(Instrument instrument) {
+		if (mappedTickStore != null)
+			return mappedTickStore.contains(instrument);
+
+		if (tickBlocks)
+			return tableExists(getTickBlockTable(instrument));
+
+		return tableExists(getTickTable(instrument));
 	}
 
 	/**
-	 * Returns the number of rows in a table.
+	 * Returns the number of rows in a table of time on the interval [from,
+	 * to].
 	 * 
 	 * @param table the table
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
 	 * @param con the connection to use
-	 * @return the number of rows in a table
+	 * @return the number of rows in a table of time on the interval [from, to]
 	 * @throws SQLException if an exception was thrown during the process of
-	 *             finding table row count, or if table does not exist
+	 *             finding row count
 	 */
-	private int tableRowCount(String table, Connection con) throws SQLException {
-		Statement stmt = null;
+	private int rowCount(String table, long from, long to, Connection con)
+			throws SQLException {
+
+		if (!tableExists(table))
+			return 0;
+
+		PreparedStatement prst = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT COUNT(*) FROM " + table;
+			String sql = "SELECT COUNT(*) FROM " + table + " WHERE time BETWEEN ? AND ?";
 
-			stmt = con.createStatement();
+			prst = con.prepareStatement(sql);
+			prst.setLong(1, from);
+			prst.setLong(2, to);
 
-			rs = stmt.executeQuery(sql);
+			rs = prst.executeQuery();
 
-			return rs.getInt("COUNT(*)");
+			return rs.next() ? rs.getInt(1) : 0;
 
 		} finally {
-			close(stmt, rs);
+			close(prst, rs);
 		}
 	}
 
@@ -1338,7 +1451,7 @@ public class ForexDataIO {
 	 */
 	private void setStartOfStorage(Instrument instrument, Period period, long time) {
 		if (!startOfStorage.containsKey(instrument)) {
-			startOfStorage.put(instrument, new HashMap<Period, Long>());
+			startOfStorage.putIfAbsent(instrument, new ConcurrentHashMap<Period, Long>());
 		}
 
 		startOfStorage.get(instrument).put(period, time);
@@ -1369,7 +1482,7 @@ public class ForexDataIO {
 	 */
 	private void setEndOfStorage(Instrument instrument, Period period, long time) {
 		if (!endOfStorage.containsKey(instrument)) {
-			endOfStorage.put(instrument, new HashMap<Period, Long>());
+			endOfStorage.putIfAbsent(instrument, new ConcurrentHashMap<Period, Long>());
 		}
 
 		endOfStorage.get(instrument).put(period, time);
@@ -1398,138 +1511,96 @@ public class ForexDataIO {
 		}
 
 		long tickTableIndex = getTickTableIndex(time);
-		ArrayList<ITick> tickTable = loadTickTable(instrument, tickTableIndex);
-		long closestFoundTickTableIndex, tableSize, previousTicksCount;
 
-		Long tickCountTableIndex = getTickCountTableThatContains(instrument,
-				tickTableIndex);
+		// ticks of earlier tables, and ticks before time in the table of time
+		long previousTicksCount = getTickCountIndex(instrument).countBefore(tickTableIndex);
 
-		Connection con = getConnection();
-		Statement stmt = null;
-		ResultSet rs = null;
 		try {
-
-			if (tickCountTableIndex == null) {
-				throw new ForexException(
-						"Unable to find tick count table containing tick table index: "
-								+ tickTableIndex
-								+ " when getting previous tick count of time: " + time);
-			}
-
-			String query = "SELECT * FROM "
-					+ getTickCountTable(instrument, tickCountTableIndex) + " WHERE "
-					+ TABLE_INDEX_COLUMN_LABEL + " <= " + tickTableIndex + " ORDER BY "
-					+ TABLE_INDEX_COLUMN_LABEL + " DESC LIMIT 1";
-
-			stmt = con.createStatement();
-
-			rs = stmt.executeQuery(query);
-
-			if (rs.next()) {
-
-				closestFoundTickTableIndex = rs.getLong(TABLE_INDEX_COLUMN_LABEL);
-				tableSize = rs.getLong(TABLE_SIZE_COLUMN_LABEL);
-				previousTicksCount = rs.getLong(PREVIOUS_TICKS_COUNT_COLUMN_LABEL);
-
-				// compare table that was found to table that would contain a
-				// tick of given time
-				if (closestFoundTickTableIndex < tickTableIndex) {
-
-					previousTicksCount += tableSize;
-
-				} else { // table that would contain tick of given time exists
-
-					int i = 0;
-					while (i < tickTable.size() && tickTable.get(i).getTime() < time) {
-						previousTicksCount++;
-						i++;
-					}
-				}
-
-				return previousTicksCount;
-
-			} else {
-				throw new ForexException(
-						"Tick count table does not contain expected data.");
-			}
-
+			previousTicksCount += tickCount(instrument,
+					getTickTableTimeRange(tickTableIndex).startTime, time - 1,
+					getConnection());
 		} catch (SQLException e) {
-			throw new ForexException("Exception when selecting from "
-					+ getTickCountTableOrganizer(instrument)
+			throw new ForexException("Exception counting ticks of "
+					+ getTickTable(instrument)
 					+ " when getting previous tick count of time: " + time);
-		} finally {
-			close(stmt, rs);
 		}
+
+		return previousTicksCount;
 	}
 
 	/**
-	 * Returns the index of the tick count table of given instrument that
-	 * contains the given tickTableIndex, null if no such tick count table was
-	 * found
+	 * Returns an estimate of the number of ticks of given instrument stored of
+	 * time on the interval [from, to], without reading any ticks. The ticks of
+	 * the tick tables on the interval are counted by the tick count index, and
+	 * those of a tick table partly on the interval in proportion to the part
+	 * of its time range on the interval. The count is exact if the ticks are
+	 * stored in column files.
 	 * 
-	 * @param instrument the instrument
-	 * @param tickTableIndex the tick table index
-	 * @return the index of the tick count table that contains the given
-	 *         tickTableIndex
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return an estimate of the number of ticks of time on the interval
+	 *         [from, to]
+	 * @throws IllegalArgumentException if instrument is null
+	 * @throws IllegalArgumentException if from > to
 	 */
-	private Long getTickCountTableThatContains(Instrument instrument, long tickTableIndex) {
-
-		String table = getTickCountTableOrganizer(instrument);
+	public long estimateTickCount(Instrument instrument, long from, long to) {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		else if (from > to)
+			throw new IllegalArgumentException("Illegal interval from(" + from + ") > to("
+					+ to + ")");
 
-		if (!tableExists(table))
-			return null;
-
-		Connection con = getConnection();
-		Statement stmt = null;
-		ResultSet rs = null;
-		try {
+		if (mappedTickStore != null)
+			return mappedTickStore.countTicks(instrument, from, to);
 
-			String query = "SELECT * FROM " + table + " WHERE "
-					+ START_TICK_TABLE_INDEX_COLUMN_LABEL + " <= " + tickTableIndex
-					+ " ORDER BY " + START_TICK_TABLE_INDEX_COLUMN_LABEL
-					+ " DESC LIMIT 1";
+		if (to < 0)
+			return 0L;
 
-			stmt = con.createStatement();
+		from = Math.max(0, from);
 
-			rs = stmt.executeQuery(query);
+		TickCountIndex index = getTickCountIndex(instrument);
 
-			if (rs.next())
-				return rs.getLong(TICK_COUNT_TABLE_INDEX_COLUMN_LABEL);
+		long first = getTickTableIndex(from);
+		long last = getTickTableIndex(to);
 
-		} catch (SQLException e) {
-			System.err.println("Error when getting tick count table that contains "
-					+ tickTableIndex + ": " + e.getMessage());
-		} finally {
-			close(stmt, rs);
+		long count = estimateTickCount(index, first, from, to);
+		if (last > first) {
+			count += index.countBefore(last) - index.countBefore(first + 1);
+			count += estimateTickCount(index, last, from, to);
 		}
 
-		return null;
+		return count;
 	}
 
 	/**
-	 * Returns an instance of ForexDataIO.
-	 * 
-	 * @return an instance of ForexDataIO
+	 * Returns the ticks of the tick table of given index counted by given
+	 * index, in proportion to the part of its time range on the interval
+	 * [from, to].
 	 */
-	public static ForexDataIO getInstance() {
-		if (instance == null)
-			instance = new ForexDataIO();
+	private static long estimateTickCount(TickCountIndex index, long tableIndex,
+			long from, long to) {
+		TimeRange range = getTickTableTimeRange(tableIndex);
 
-		return instance;
+		long overlap = Math.min(to, range.endTime) - Math.max(from, range.startTime) + 1;
+
+		return index.get(tableIndex) * overlap / TIME_INTERVAL_PER_TICK_TABLE;
 	}
 
 	/**
-	 * Returns the tick count table index for the table of specified tick table
-	 * index.
+	 * Returns an instance of ForexDataIO.
 	 * 
-	 * @param tickTableIndex the tick table index of the table
-	 * @return the tick count table index
+	 * @return an instance of ForexDataIO
 	 */
-	public static synchronized long getTickCountTableIndex(long tickTableIndex) {
-		if (tickTableIndex < 0)
-			throw new IllegalArgumentException("tickTableIndex < 0");
+	public static ForexDataIO getInstance() {
+		if (instance == null) {
+			synchronized (ForexDataIO.class) {
+				if (instance == null)
+					instance = new ForexDataIO();
+			}
+		}
 
-		return tickTableIndex / TABLES_PER_TICK_COUNT_TABLE;
+		return instance;
 	}
 
 	/**
@@ -1538,7 +1609,7 @@ public class ForexDataIO {
 	 * @param time the time of the tick
 	 * @return the index of the tick table
 	 */
-	public static synchronized long getTickTableIndex(long time) {
+	public static long getTickTableIndex(long time) {
 		if (time < 0)
 			throw new IllegalArgumentException("time < 0");
 
@@ -1551,7 +1622,7 @@ public class ForexDataIO {
 	 * @param tableIndex the index of the tick table
 	 * @return the time range corresponding to the given table index
 	 */
-	public static synchronized TimeRange getTickTableTimeRange(long tableIndex) {
+	public static TimeRange getTickTableTimeRange(long tableIndex) {
 
 		long startTime = tableIndex * TIME_INTERVAL_PER_TICK_TABLE;
 
@@ -1568,7 +1639,7 @@ public class ForexDataIO {
 	 * @throws IllegalArgumentException if period if not defined in
 	 *             ForexConstant.BAR_PERIODS
 	 */
-	public static synchronized long getBarTableIndex(Period period, long time) {
+	public static long getBarTableIndex(Period period, long time) {
 		if (!ForexConstants.BAR_PERIODS.contains(period))
 			throw new IllegalArgumentException("period not in ForexConstant.BAR_PERIODS");
 
@@ -1581,7 +1652,7 @@ public class ForexDataIO {
 	 * @param tableIndex the index of the bar table
 	 * @return the time range corresponding to the given table index
 	 */
-	public static synchronized TimeRange getBarTableTimeRange(Period period,
+	public static TimeRange getBarTableTimeRange(Period period,
 			long tableIndex) {
 
 		long startTime = tableIndex * period.getInterval() * MAX_ROWS_PER_BAR_TABLE;
@@ -1596,15 +1667,94 @@ public class ForexDataIO {
 	 * @param instrument instrument of the tick
 	 * @param tick tick to store
 	 */
-	public synchronized void storeTick(Instrument instrument, Tick tick) {
+	public void storeTick(Instrument instrument, Tick tick) {
+		connections.lockWriter();
+		boolean joined = connections.inTransaction();
+		boolean succeeded = false;
+		try {
+			beginTransaction();
+
+			writeTick(instrument, tick);
+
+			succeeded = true;
+		} catch (SQLException e) {
+			failedStoring("tick", joined, e);
+		} finally {
+			endStoring(joined, succeeded);
+		}
+	}
+
+	/**
+	 * Writes given tick within the transaction of storeTick.
+	 */
+	private void writeTick(Instrument instrument, Tick tick) throws SQLException {
+		// the column files can only be appended to
+		if (mappedTickStore != null
+				&& tick.getTime() <= mappedTickStore.getLastTime(instrument)) {
+			System.err.println("Tick not stored, ticks can only be appended to "
+					+ instrument);
+			return;
+		}
+
+		changedInstruments.add(instrument);
 
 		updateStorageRange(tick.getTime(), instrument, Period.TICK);
 
+		if (mappedTickStore != null) {
+			ArrayList<ITick> ticks = new ArrayList<ITick>(1);
+			ticks.add(tick);
+			mappedTickStore.storeTicks(instrument, ticks);
+		} else if (tickBlocks) {
+			insertTickBlocks(instrument, Collections.<ITick> singletonList(tick));
+		} else {
+			insertTick(instrument, tick);
+		}
+
+		updateTickCounts(instrument,
+				Collections.singletonList(getTickTableIndex(tick.getTime())));
+	}
+
+	/**
+	 * Handles given exception a call storing given kind of elements failed
+	 * by. A call joining a transaction begun by its caller, such as the
+	 * IngestQueue, throws it as a ForexException, so the caller rolls back
+	 * the whole transaction. Otherwise it's printed, and the transaction of
+	 * the call is rolled back by endStoring.
+	 */
+	private static void failedStoring(String elements, boolean joined, SQLException e) {
+		if (joined)
+			throw new ForexException("Exception storing " + elements + ": "
+					+ e.getMessage());
+
+		System.err.println("Exception storing " + elements + ": " + e);
+	}
+
+	/**
+	 * Ends the transaction of a call storing ticks or bars and releases the
+	 * writer lock. The transaction is committed if the call succeeded, or if
+	 * it joined a transaction begun by its caller, which then decides.
+	 * Otherwise it's rolled back.
+	 */
+	private void endStoring(boolean joined, boolean succeeded) {
+		try {
+			if (succeeded || joined)
+				endTransaction();
+			else
+				rollbackTransaction();
+		} finally {
+			connections.unlockWriter();
+		}
+	}
+
+	/**
+	 * Inserts given tick into the tick table of given instrument.
+	 */
+	private void insertTick(Instrument instrument, Tick tick) throws SQLException {
+
 		Connection con = getConnection();
 		PreparedStatement prst = null;
 		try {
-			long tableIndex = getTickTableIndex(tick.getTime());
-			String table = getTickTable(instrument, tableIndex);
+			String table = getTickTable(instrument);
 
 			createTableIfNotExists(table, TICK_TABLE_STRUCTURE, con);
 
@@ -1621,8 +1771,6 @@ public class ForexDataIO {
 
 			prst.executeUpdate();
 
-		} catch (SQLException e) {
-			System.err.println("Exception storing tick: " + e);
 		} finally {
 			close(prst);
 		}
@@ -1636,62 +1784,290 @@ public class ForexDataIO {
 	 * @param ticks ticks to store, has to be sorted in ascending order with
 	 *            respect to time
 	 */
-	public synchronized void storeTicks(Instrument instrument, ArrayList<ITick> ticks) {
+	public void storeTicks(Instrument instrument, List<ITick> ticks) {
+		connections.lockWriter();
+		boolean joined = connections.inTransaction();
+		boolean succeeded = false;
+		try {
+			beginTransaction();
+
+			writeTicks(instrument, ticks);
+
+			succeeded = true;
+		} catch (SQLException e) {
+			failedStoring("ticks", joined, e);
+		} finally {
+			endStoring(joined, succeeded);
+		}
+	}
+
+	/**
+	 * Writes given ticks within the transaction of storeTicks.
+	 */
+	private void writeTicks(Instrument instrument, List<ITick> ticks) throws SQLException {
+		// the ticks stored, the column files ignoring the ticks up to the
+		// last tick stored before
+		List<ITick> stored = ticks;
+
+		if (mappedTickStore != null) {
+			long lastTime = mappedTickStore.getLastTime(instrument);
+
+			int first = 0;
+			while (first < ticks.size() && ticks.get(first).getTime() <= lastTime)
+				first++;
+			stored = ticks.subList(first, ticks.size());
+
+			int ignored = mappedTickStore.storeTicks(instrument, ticks);
+
+			if (ignored > 0)
+				System.err.println(ignored
+						+ " ticks not stored, ticks can only be appended to " + instrument);
+		} else if (tickBlocks) {
+			insertTickBlocks(instrument, ticks);
+		} else {
+			insertTicks(instrument, ticks);
+		}
 
-		updateStorageRange(ticks.get(0).getTime(), instrument, Period.TICK);
-		updateStorageRange(ticks.get(ticks.size() - 1).getTime(), instrument, Period.TICK);
+		if (stored.isEmpty())
+			return;
+
+		changedInstruments.add(instrument);
+
+		updateStorageRange(stored.get(0).getTime(), instrument, Period.TICK);
+		updateStorageRange(stored.get(stored.size() - 1).getTime(), instrument,
+				Period.TICK);
 
 		ArrayList<Long> updatedTables = new ArrayList<Long>();
 
+		for (ITick tick : stored) {
+			long tableIndex = getTickTableIndex(tick.getTime());
+			if (updatedTables.isEmpty()
+					|| updatedTables.get(updatedTables.size() - 1) != tableIndex)
+				updatedTables.add(tableIndex);
+		}
+
+		updateTickCounts(instrument, updatedTables);
+	}
+
+	/**
+	 * Inserts given ticks into the tick table of given instrument.
+	 */
+	private void insertTicks(Instrument instrument, List<ITick> ticks) throws SQLException {
+
 		Connection con = getConnection();
 		PreparedStatement prst = null;
 		try {
 
-			con.setAutoCommit(false);
+			beginTransaction();
+
+			String table = getTickTable(instrument);
+
+			createTableIfNotExists(table, TICK_TABLE_STRUCTURE, con);
+
+			String query = "INSERT OR IGNORE INTO " + table + " VALUES(?, ?, ?, ?, ?)";
+
+			prst = con.prepareStatement(query);
+
+			for (ITick tick : ticks) {
+				// set values
+				prst.setLong(1, tick.getTime());
+				prst.setDouble(2, tick.getAsk());
+				prst.setDouble(3, tick.getBid());
+				prst.setDouble(4, tick.getAskVolume());
+				prst.setDouble(5, tick.getBidVolume());
+
+				prst.addBatch();
+			}
+
+			prst.executeBatch();
+
+		} finally {
+			close(prst);
+			endTransaction();
+		}
+	}
+
+	/**
+	 * Merges given ticks into the blocks of given instrument. Ticks of a time
+	 * already stored are ignored.
+	 */
+	private void insertTickBlocks(Instrument instrument, List<ITick> ticks)
+			throws SQLException {
+
+		String table = getTickBlockTable(instrument);
+
+		Connection con = getConnection();
+
+		createTableIfNotExists(table, BLOCK_TABLE_STRUCTURE, con);
+
+		PreparedStatement prst = null;
+		try {
+
+			beginTransaction();
+
+			prst = con.prepareStatement("INSERT OR REPLACE INTO " + table
+					+ " VALUES(?, ?, ?)");
 
 			int i = 0;
-			long tableIndex;
-			String table, query;
 			while (i < ticks.size()) {
-				tableIndex = getTickTableIndex(ticks.get(i).getTime());
-				table = getTickTable(instrument, tableIndex);
+				long tableIndex = getTickTableIndex(ticks.get(i).getTime());
 
-				createTableIfNotExists(table, TICK_TABLE_STRUCTURE, con);
+				// ticks of the same block
+				int j = i + 1;
+				while (j < ticks.size()
+						&& getTickTableIndex(ticks.get(j).getTime()) == tableIndex)
+					j++;
 
-				query = "INSERT OR IGNORE INTO " + table + " VALUES(?, ?, ?, ?, ?)";
+				TickBlock storedTicks = new TickBlock(0);
 
-				prst = con.prepareStatement(query);
+				byte[] stored = readBlock(table, tableIndex, con);
+				if (stored != null)
+					BlockCodec.decodeTicks(stored, Long.MIN_VALUE, Long.MAX_VALUE,
+							storedTicks);
+
+				ArrayList<ITick> block = mergeTicks(storedTicks, ticks.subList(i, j));
+
+				prst.setLong(1, tableIndex);
+				prst.setInt(2, block.size());
+				prst.setBytes(3, BlockCodec.encodeTicks(block));
+				prst.addBatch();
 
-				do {
-					// set values
-					prst.setLong(1, ticks.get(i).getTime());
-					prst.setDouble(2, ticks.get(i).getAsk());
-					prst.setDouble(3, ticks.get(i).getBid());
-					prst.setDouble(4, ticks.get(i).getAskVolume());
-					prst.setDouble(5, ticks.get(i).getBidVolume());
+				i = j;
+			}
 
-					prst.addBatch();
+			prst.executeBatch();
 
-				} while (++i < ticks.size()
-						&& tableIndex == getTickTableIndex(ticks.get(i).getTime()));
+		} finally {
+			close(prst);
+			endTransaction();
+		}
+	}
 
-				prst.executeBatch();
-				con.commit();
+	/**
+	 * Merges given bars into the blocks of given instrument, period and offer
+	 * side. Bars of a time already stored are ignored.
+	 */
+	private void insertBarBlocks(Instrument instrument, Period period,
+			OfferSide offerSide, List<IBar> bars) throws SQLException {
 
-				updatedTables.add(tableIndex);
+		String table = getBarBlockTable(instrument, period, offerSide);
+
+		Connection con = getConnection();
+
+		createTableIfNotExists(table, BLOCK_TABLE_STRUCTURE, con);
+
+		PreparedStatement prst = null;
+		try {
+
+			beginTransaction();
+
+			prst = con.prepareStatement("INSERT OR REPLACE INTO " + table
+					+ " VALUES(?, ?, ?)");
+
+			int i = 0;
+			while (i < bars.size()) {
+				long tableIndex = getBarTableIndex(period, bars.get(i).getTime());
+
+				// bars of the same block
+				int j = i + 1;
+				while (j < bars.size()
+						&& getBarTableIndex(period, bars.get(j).getTime()) == tableIndex)
+					j++;
+
+				BarBlock storedBars = new BarBlock(0);
+
+				byte[] stored = readBlock(table, tableIndex, con);
+				if (stored != null)
+					BlockCodec.decodeBars(stored, Long.MIN_VALUE, Long.MAX_VALUE, storedBars);
+
+				ArrayList<IBar> block = mergeBars(storedBars, bars.subList(i, j));
+
+				prst.setLong(1, tableIndex);
+				prst.setInt(2, block.size());
+				prst.setBytes(3, BlockCodec.encodeBars(block));
+				prst.addBatch();
+
+				i = j;
 			}
 
-			con.setAutoCommit(true);
+			prst.executeBatch();
 
-		} catch (SQLException e) {
-			System.err.println("Exception storing ticks: " + e);
 		} finally {
 			close(prst);
+			endTransaction();
+		}
+	}
+
+	/**
+	 * Returns the block of given table index in given block table, null if not
+	 * stored.
+	 */
+	private static byte[] readBlock(String table, long tableIndex, Connection con)
+			throws SQLException {
+
+		PreparedStatement prst = null;
+		ResultSet rs = null;
+		try {
+			prst = con.prepareStatement("SELECT data FROM " + table + " WHERE "
+					+ TABLE_INDEX_COLUMN_LABEL + " = ?");
+			prst.setLong(1, tableIndex);
+
+			rs = prst.executeQuery();
+
+			return rs.next() ? rs.getBytes(1) : null;
+		} finally {
+			close(prst, rs);
 		}
+	}
+
+	/**
+	 * Returns the ticks of both given lists sorted by time, only the first
+	 * tick of each time is kept, stored ticks before ticks.
+	 */
+	static ArrayList<ITick> mergeTicks(List<ITick> stored, List<ITick> ticks) {
+		ArrayList<ITick> merged = new ArrayList<ITick>(stored.size() + ticks.size());
+
+		int i = 0, j = 0;
+		while (i < stored.size() || j < ticks.size()) {
+			ITick next;
+			if (j == ticks.size()
+					|| (i < stored.size() && stored.get(i).getTime() <= ticks.get(j)
+							.getTime()))
+				next = stored.get(i++);
+			else
+				next = ticks.get(j++);
+
+			if (merged.isEmpty()
+					|| merged.get(merged.size() - 1).getTime() != next.getTime())
+				merged.add(next);
+		}
+
+		return merged;
+	}
 
-		for (Long i : updatedTables) {
-			updateTickCountTable(instrument, i);
+	/**
+	 * Returns the bars of both given lists sorted by time, only the first bar
+	 * of each time is kept, stored bars before bars.
+	 */
+	static ArrayList<IBar> mergeBars(List<IBar> stored, List<IBar> bars) {
+		ArrayList<IBar> merged = new ArrayList<IBar>(stored.size() + bars.size());
+
+		int i = 0, j = 0;
+		while (i < stored.size() || j < bars.size()) {
+			IBar next;
+			if (j == bars.size()
+					|| (i < stored.size() && stored.get(i).getTime() <= bars.get(j)
+							.getTime()))
+				next = stored.get(i++);
+			else
+				next = bars.get(j++);
+
+			if (merged.isEmpty()
+					|| merged.get(merged.size() - 1).getTime() != next.getTime())
+				merged.add(next);
 		}
+
+		return merged;
 	}
 
 	/**
@@ -1702,16 +2078,43 @@ public class ForexDataIO {
 	 * @param offerSide offer side of the bar
 	 * @param bar bar to store
 	 */
-	public synchronized void storeBar(Instrument instrument, Period period,
+	public void storeBar(Instrument instrument, Period period,
 			OfferSide offerSide, IBar bar) {
+		connections.lockWriter();
+		boolean joined = connections.inTransaction();
+		boolean succeeded = false;
+		try {
+			beginTransaction();
+
+			writeBar(instrument, period, offerSide, bar);
+
+			succeeded = true;
+		} catch (SQLException e) {
+			failedStoring("bar", joined, e);
+		} finally {
+			endStoring(joined, succeeded);
+		}
+	}
+
+	/**
+	 * Writes given bar within the transaction of storeBar.
+	 */
+	private void writeBar(Instrument instrument, Period period, OfferSide offerSide,
+			IBar bar) throws SQLException {
+		changedInstruments.add(instrument);
 
 		updateStorageRange(bar.getTime(), instrument, period);
 
+		if (barBlocks) {
+			insertBarBlocks(instrument, period, offerSide,
+					Collections.<IBar> singletonList(bar));
+			return;
+		}
+
 		Connection con = getConnection();
 		PreparedStatement prst = null;
 		try {
-			long tableIndex = getBarTableIndex(period, bar.getTime());
-			String table = getBarTable(instrument, period, offerSide, tableIndex);
+			String table = getBarTable(instrument, period, offerSide);
 
 			createTableIfNotExists(table, BAR_TABLE_STRUCTURE, con);
 
@@ -1729,8 +2132,6 @@ public class ForexDataIO {
 
 			prst.executeUpdate();
 
-		} catch (SQLException e) {
-			System.err.println("Exception storing bar: " + e);
 		} finally {
 			close(prst);
 		}
@@ -1746,73 +2147,95 @@ public class ForexDataIO {
 	 * @param bars bars to store, has to be sorted in ascending order with
 	 *            respect to time
 	 */
-	public synchronized void storeBars(Instrument instrument, Period period,
-			OfferSide offerSide, ArrayList<IBar> bars) {
+	public void storeBars(Instrument instrument, Period period,
+			OfferSide offerSide, List<IBar> bars) {
+		connections.lockWriter();
+		boolean joined = connections.inTransaction();
+		boolean succeeded = false;
+		try {
+			beginTransaction();
+
+			writeBars(instrument, period, offerSide, bars);
+
+			succeeded = true;
+		} catch (SQLException e) {
+			failedStoring("bars", joined, e);
+		} finally {
+			endStoring(joined, succeeded);
+		}
+	}
+
+	/**
+	 * Writes given bars within the transaction of storeBars.
+	 */
+	private void writeBars(Instrument instrument, Period period, OfferSide offerSide,
+			List<IBar> bars) throws SQLException {
+		changedInstruments.add(instrument);
 
 		updateStorageRange(bars.get(0).getTime(), instrument, period);
 		updateStorageRange(bars.get(bars.size() - 1).getTime(), instrument, period);
 
+		if (barBlocks) {
+			insertBarBlocks(instrument, period, offerSide, bars);
+			return;
+		}
+
 		Connection con = getConnection();
 		PreparedStatement prst = null;
 		try {
 
-			con.setAutoCommit(false);
-
-			int i = 0;
-			while (i < bars.size()) {
-				long tableIndex = getBarTableIndex(period, bars.get(i).getTime());
-				String table = getBarTable(instrument, period, offerSide, tableIndex);
-
-				createTableIfNotExists(table, BAR_TABLE_STRUCTURE, con);
+			beginTransaction();
 
-				String query = "INSERT OR IGNORE INTO " + table
-						+ " VALUES(?, ?, ?, ?, ?, ?)";
+			String table = getBarTable(instrument, period, offerSide);
 
-				prst = con.prepareStatement(query);
+			createTableIfNotExists(table, BAR_TABLE_STRUCTURE, con);
 
-				do {
-					// set values
-					prst.setLong(1, bars.get(i).getTime());
-					prst.setDouble(2, bars.get(i).getOpen());
-					prst.setDouble(3, bars.get(i).getClose());
-					prst.setDouble(4, bars.get(i).getHigh());
-					prst.setDouble(5, bars.get(i).getLow());
-					prst.setDouble(6, bars.get(i).getVolume());
+			String query = "INSERT OR IGNORE INTO " + table + " VALUES(?, ?, ?, ?, ?, ?)";
 
-					prst.addBatch();
+			prst = con.prepareStatement(query);
 
-				} while (++i < bars.size()
-						&& tableIndex == getBarTableIndex(period, bars.get(i).getTime()));
+			for (IBar bar : bars) {
+				// set values
+				prst.setLong(1, bar.getTime());
+				prst.setDouble(2, bar.getOpen());
+				prst.setDouble(3, bar.getClose());
+				prst.setDouble(4, bar.getHigh());
+				prst.setDouble(5, bar.getLow());
+				prst.setDouble(6, bar.getVolume());
 
-				prst.executeBatch();
-				con.commit();
+				prst.addBatch();
 			}
 
-			con.setAutoCommit(true);
+			prst.executeBatch();
 
-		} catch (SQLException e) {
-			System.err.println("Exception storing bars: " + e);
 		} finally {
 			close(prst);
+			endTransaction();
 		}
 	}
 
 	/**
-	 * Returns an ArrayList of all ticks in the table of specified instrument
-	 * and index, null if no such ticks were found.
+	 * Returns a list of all ticks in the table of specified instrument and
+	 * index, null if no such ticks were found.
 	 * 
 	 * @param instrument the instrument of the ticks
 	 * @param tableIndex the index of the table
-	 * @return an ArrayList of all ticks in the table of specified instrument
-	 *         and index, null if no such table was found
+	 * @return a list of all ticks in the table of specified instrument and
+	 *         index, null if no such table was found
 	 */
-	public synchronized ArrayList<ITick> loadTickTable(Instrument instrument,
-			long tableIndex) {
-		return readTicks(getTickTable(instrument, tableIndex));
+	public List<ITick> loadTickTable(Instrument instrument, long tableIndex) {
+		TimeRange range = getTickTableTimeRange(tableIndex);
+
+		List<ITick> ticks = readTicks(instrument, range.startTime, range.endTime);
+
+		if (ticks == null || ticks.isEmpty())
+			return null;
+
+		return ticks;
 	}
 
 	/**
-	 * Returns an ArrayList of all ticks in the table of specified instrument,
+	 * Returns a list of all ticks in the table of specified instrument,
 	 * interval and index, null if no such ticks were found.
 	 * 
 	 * @param instrument the instrument of the ticks
@@ -1821,10 +2244,10 @@ public class ForexDataIO {
 	 *            effect if interval is less than the smallest period defined by
 	 *            ForexConstants.BAR_PERIODS
 	 * @param tableIndex the index of the table
-	 * @return an ArrayList of all ticks in the table of specified instrument
-	 *         and index, null if no such table was found
+	 * @return a list of all ticks in the table of specified instrument and
+	 *         index, null if no such table was found
 	 */
-	public synchronized ArrayList<ITick> loadTickTable(Instrument instrument,
+	public List<ITick> loadTickTable(Instrument instrument,
 			Period interval, InterpolationMethod interpolationMethod, long tableIndex) {
 		if (instrument == null || interval == null)
 			throw new IllegalArgumentException("arguments can't be null");
@@ -1839,20 +2262,48 @@ public class ForexDataIO {
 	}
 
 	/**
-	 * Returns an ArrayList of all bars in the table of specified instrument,
-	 * period, offer side and index, null if no such bars were found.
+	 * Returns a list of all ticks of specified instrument and of time on the
+	 * interval [from, to], read with a single range scan. An empty list is
+	 * returned if no such ticks were found, null if something went wrong.
+	 * 
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a list of all ticks of specified instrument and of time on the
+	 *         interval [from, to]
+	 * @throws IllegalArgumentException if instrument is null
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public List<ITick> loadTicks(Instrument instrument, long from, long to) {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		else if (from > to)
+			throw new IllegalArgumentException("Illegal interval from(" + from + ") > to("
+					+ to + ")");
+
+		List<ITick> ticks = readTicks(instrument, from, to);
+
+		if (ticks == null && !ticksStored(instrument))
+			return new TickBlock(0);
+
+		return ticks;
+	}
+
+	/**
+	 * Returns a list of all bars in the table of specified instrument, period,
+	 * offer side and index, null if no such bars were found.
 	 * 
 	 * @param instrument the instrument of the bar
 	 * @param period the period of the bar
 	 * @param offerSide the offer side of the bar
 	 * @param tableIndex the index of the table
-	 * @return an ArrayList of all bars in the table of specified instrument,
-	 *         period, offer side and index, null if no such table was found
+	 * @return a list of all bars in the table of specified instrument, period,
+	 *         offer side and index, null if no such table was found
 	 * @throws IllegalArgumentException if any of the arguments is null
 	 * @throws IllegalArgumentException if given period is not defined by
 	 *             ForexConstants.BAR_PERIODS
 	 */
-	public synchronized ArrayList<IBar> loadBarTable(Instrument instrument,
+	public List<IBar> loadBarTable(Instrument instrument,
 			Period period, OfferSide offerSide, long tableIndex) {
 		if (instrument == null || period == null || offerSide == null)
 			throw new IllegalArgumentException("arguments can't be null");
@@ -1860,7 +2311,170 @@ public class ForexDataIO {
 			throw new IllegalArgumentException(
 					"Not a valid period (period has to be defined by ForexConstants.BAR_PERIODS)");
 
-		return readBars(getBarTable(instrument, period, offerSide, tableIndex));
+		TimeRange range = getBarTableTimeRange(period, tableIndex);
+
+		List<IBar> bars = readBars(instrument, period, offerSide, range.startTime,
+				range.endTime);
+
+		if (bars == null || bars.isEmpty())
+			return null;
+
+		return bars;
+	}
+
+	/**
+	 * Returns a list of all bars of specified instrument, period and offer
+	 * side and of time on the interval [from, to], read with a single range
+	 * scan. An empty list is returned if no such bars were found, null if
+	 * something went wrong.
+	 * 
+	 * @param instrument the instrument of the bars
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a list of all bars of specified instrument, period and offer
+	 *         side and of time on the interval [from, to]
+	 * @throws IllegalArgumentException if any of the arguments is null
+	 * @throws IllegalArgumentException if given period is not defined by
+	 *             ForexConstants.BAR_PERIODS
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public List<IBar> loadBars(Instrument instrument, Period period,
+			OfferSide offerSide, long from, long to) {
+		if (instrument == null || period == null || offerSide == null)
+			throw new IllegalArgumentException("arguments can't be null");
+		else if (!ForexConstants.BAR_PERIODS.contains(period))
+			throw new IllegalArgumentException(
+					"Not a valid period (period has to be defined by ForexConstants.BAR_PERIODS)");
+		else if (from > to)
+			throw new IllegalArgumentException("Illegal interval from(" + from + ") > to("
+					+ to + ")");
+
+		String table = barBlocks ? getBarBlockTable(instrument, period, offerSide)
+				: getBarTable(instrument, period, offerSide);
+
+		List<IBar> bars = readBars(instrument, period, offerSide, from, to);
+
+		if (bars == null && !tableExists(table))
+			return new BarBlock(0);
+
+		return bars;
+	}
+
+	/**
+	 * Returns a cursor over the ticks of specified instrument and of time on
+	 * the interval [from, to], moving forward in time. See openTicks(Instrument,
+	 * long, long, boolean).
+	 * 
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a cursor over the ticks of time on the interval [from, to]
+	 * @throws IllegalArgumentException if instrument is null
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public TickCursor openTicks(Instrument instrument, long from, long to) {
+		return openTicks(instrument, from, to, false);
+	}
+
+	/**
+	 * Returns a cursor over the ticks of specified instrument and of time on
+	 * the interval [from, to]. The cursor moves in ascending order with respect
+	 * to time, or descending if backward is true. Ticks are read from storage
+	 * as the cursor moves, see SeriesCursor. The cursor has no rows if no such
+	 * ticks are stored.
+	 * 
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @param backward true if the cursor should start at the last tick and
+	 *            move backward in time
+	 * @return a cursor over the ticks of time on the interval [from, to]
+	 * @throws IllegalArgumentException if instrument is null
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public TickCursor openTicks(Instrument instrument, long from, long to,
+			boolean backward) {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		else if (from > to)
+			throw new IllegalArgumentException("Illegal interval from(" + from + ") > to("
+					+ to + ")");
+
+		SeriesCursor.Source source;
+		if (mappedTickStore != null)
+			source = mappedTickStore.tickSource(instrument);
+		else if (tickBlocks)
+			source = new BlockSource(getTickBlockTable(instrument), Period.TICK,
+					BlockCodec.TICK_DELTAS);
+		else
+			source = new RowSource(getTickTable(instrument), TickCursor.VALUE_COLUMNS);
+
+		return new TickCursor(source, from, to, backward);
+	}
+
+	/**
+	 * Returns a cursor over the bars of specified instrument, period and offer
+	 * side and of time on the interval [from, to], moving forward in time. See
+	 * openBars(Instrument, Period, OfferSide, long, long, boolean).
+	 * 
+	 * @param instrument the instrument of the bars
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a cursor over the bars of time on the interval [from, to]
+	 * @throws IllegalArgumentException if any of the arguments is null
+	 * @throws IllegalArgumentException if given period is not defined by
+	 *             ForexConstants.BAR_PERIODS
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public BarCursor openBars(Instrument instrument, Period period,
+			OfferSide offerSide, long from, long to) {
+		return openBars(instrument, period, offerSide, from, to, false);
+	}
+
+	/**
+	 * Returns a cursor over the bars of specified instrument, period and offer
+	 * side and of time on the interval [from, to]. The cursor moves in
+	 * ascending order with respect to time, or descending if backward is true.
+	 * Bars are read from storage as the cursor moves, see SeriesCursor. The
+	 * cursor has no rows if no such bars are stored.
+	 * 
+	 * @param instrument the instrument of the bars
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @param backward true if the cursor should start at the last bar and move
+	 *            backward in time
+	 * @return a cursor over the bars of time on the interval [from, to]
+	 * @throws IllegalArgumentException if any of the arguments is null
+	 * @throws IllegalArgumentException if given period is not defined by
+	 *             ForexConstants.BAR_PERIODS
+	 * @throws IllegalArgumentException if from > to
+	 */
+	public BarCursor openBars(Instrument instrument, Period period,
+			OfferSide offerSide, long from, long to, boolean backward) {
+		if (instrument == null || period == null || offerSide == null)
+			throw new IllegalArgumentException("arguments can't be null");
+		else if (!ForexConstants.BAR_PERIODS.contains(period))
+			throw new IllegalArgumentException(
+					"Not a valid period (period has to be defined by ForexConstants.BAR_PERIODS)");
+		else if (from > to)
+			throw new IllegalArgumentException("Illegal interval from(" + from + ") > to("
+					+ to + ")");
+
+		SeriesCursor.Source source;
+		if (barBlocks)
+			source = new BlockSource(getBarBlockTable(instrument, period, offerSide),
+					period, BlockCodec.BAR_DELTAS);
+		else
+			source = new RowSource(getBarTable(instrument, period, offerSide),
+					BarCursor.VALUE_COLUMNS);
+
+		return new BarCursor(source, from, to, backward);
 	}
 
 	/**
@@ -1872,20 +2486,23 @@ public class ForexDataIO {
 	 * @return true if given time is the start time of the bar of given period
 	 *         which includes specified time, otherwise false
 	 */
-	public static synchronized boolean isBarStart(Period period, long time) {
+	public static boolean isBarStart(Period period, long time) {
 		return time % period.getInterval() == 0;
 	}
 
 	/**
 	 * Returns the starting time of the bar that includes time specified in time
-	 * parameter.
+	 * parameter. Weekly bars start at the first day of their week, also when
+	 * the week straddles two years. Weeks were earlier aligned by their week
+	 * of year, a data base stored before has to be realigned by running
+	 * ForexDataMigration before it's opened.
 	 * 
 	 * @param time the time to find the bar start for
 	 * @param period the period of the bar
 	 * @return the starting time of the bar that includes time specified in time
 	 *         parameter
 	 */
-	public static synchronized long getBarStart(Period period, long time) {
+	public static long getBarStart(Period period, long time) {
 		if (period == Period.TICK)
 			return time;
 
@@ -1898,12 +2515,11 @@ public class ForexDataIO {
 		int year = cal.get(Calendar.YEAR);
 
 		if (period.equals(Period.WEEKLY)) {
-			int week = cal.get(Calendar.WEEK_OF_YEAR);
-			cal.clear();
-			cal.set(Calendar.YEAR, year);
-			cal.set(Calendar.WEEK_OF_YEAR, week);
+			// days since the first day of the week, as the week of the year
+			// may belong to the year before or after
+			int days = (cal.get(Calendar.DAY_OF_WEEK) - cal.getFirstDayOfWeek() + 7) % 7;
 
-			return cal.getTimeInMillis();
+			return getBarStart(Period.DAILY, time) - days * Period.DAILY.getInterval();
 		}
 
 		if (period.equals(Period.MONTHLY)) {
@@ -1938,7 +2554,7 @@ public class ForexDataIO {
 	 */
 	private ArrayList<ITick> convertTicksToTicks(Instrument instrument, long tableIndex,
 			Period convertTo) {
-		ArrayList<ITick> toConvert = readTicks(getTickTable(instrument, tableIndex));
+		List<ITick> toConvert = loadTickTable(instrument, tableIndex);
 
 		if (toConvert == null || toConvert.isEmpty())
 			return null;
@@ -1975,21 +2591,21 @@ public class ForexDataIO {
 	 *            the converted ticks
 	 * @param interpolationMethod the interpolation method to be used for
 	 *            conversion
-	 * @return an ArrayList with the ticks that resulted from the conversion
+	 * @return a block with the ticks that resulted from the conversion
 	 * @throws ForexException if detecting incoherent storage of ask and bid
 	 *             bars
 	 */
-	private ArrayList<ITick> convertBarsToTicks(Instrument instrument, long tableIndex,
+	private TickBlock convertBarsToTicks(Instrument instrument, long tableIndex,
 			Period convertFrom, InterpolationMethod interpolationMethod) {
-		ArrayList<IBar> askBarsToConvert = readBars(getBarTable(instrument, convertFrom,
-				OfferSide.ASK, tableIndex));
-		ArrayList<IBar> bidBarsToConvert = readBars(getBarTable(instrument, convertFrom,
-				OfferSide.BID, tableIndex));
+		List<IBar> askBarsToConvert = loadBarTable(instrument, convertFrom,
+				OfferSide.ASK, tableIndex);
+		List<IBar> bidBarsToConvert = loadBarTable(instrument, convertFrom,
+				OfferSide.BID, tableIndex);
 
 		if (askBarsToConvert == null || bidBarsToConvert == null)
 			return null;
 
-		ArrayList<ITick> converted = new ArrayList<ITick>();
+		TickBlock converted = new TickBlock(4 * askBarsToConvert.size());
 
 		if (askBarsToConvert.size() != bidBarsToConvert.size())
 			throw new ForexException("ask and bid bars not coherently stored");
@@ -1999,12 +2615,12 @@ public class ForexDataIO {
 		case OPEN_TICK:
 			for (int i = 0; i < askBarsToConvert.size(); i++) {
 				if(askBarsToConvert.get(i).getTime() == bidBarsToConvert.get(i).getTime()) {
-					converted.add(new Tick(
+					converted.add(
 							askBarsToConvert.get(i).getTime(), 
 							askBarsToConvert.get(i).getOpen(), 
 							bidBarsToConvert.get(i).getOpen(), 
 							askBarsToConvert.get(i).getVolume(), 
-							bidBarsToConvert.get(i).getVolume())); 
+							bidBarsToConvert.get(i).getVolume()); 
 				} else {
 					throw new ForexException("ask and bid bars not coherently stored");
 				}
@@ -2013,12 +2629,12 @@ public class ForexDataIO {
 		case CLOSE_TICK:
 			for (int i = 0; i < askBarsToConvert.size(); i++) {
 				if(askBarsToConvert.get(i).getTime() == bidBarsToConvert.get(i).getTime()) {
-					converted.add(new Tick(
+					converted.add(
 							askBarsToConvert.get(i).getTime(), 
 							askBarsToConvert.get(i).getClose(), 
 							bidBarsToConvert.get(i).getClose(), 
 							askBarsToConvert.get(i).getVolume(), 
-							bidBarsToConvert.get(i).getVolume())); 
+							bidBarsToConvert.get(i).getVolume()); 
 				} else {
 					throw new ForexException("ask and bid bars not coherently stored");
 				}
@@ -2032,30 +2648,30 @@ public class ForexDataIO {
 					double askVolume = askBarsToConvert.get(i).getVolume() / 4; 
 					double bidVolume = bidBarsToConvert.get(i).getVolume() / 4; 
 					
-					converted.add(new Tick(
+					converted.add(
 							askBarsToConvert.get(i).getTime(), 
 							askBarsToConvert.get(i).getOpen(), 
 							bidBarsToConvert.get(i).getOpen(), 
 							askVolume, 
-							bidVolume)); 
-					converted.add(new Tick(
+							bidVolume); 
+					converted.add(
 							askBarsToConvert.get(i).getTime() + interval, 
 							askBarsToConvert.get(i).getHigh(), 
 							bidBarsToConvert.get(i).getHigh(), 
 							askVolume, 
-							bidVolume)); 
-					converted.add(new Tick(
+							bidVolume); 
+					converted.add(
 							askBarsToConvert.get(i).getTime() + 2 * interval, 
 							askBarsToConvert.get(i).getLow(), 
 							bidBarsToConvert.get(i).getLow(), 
 							askVolume, 
-							bidVolume)); 
-					converted.add(new Tick(
+							bidVolume); 
+					converted.add(
 							askBarsToConvert.get(i).getTime() + 3 * interval, 
 							askBarsToConvert.get(i).getClose(), 
 							bidBarsToConvert.get(i).getClose(), 
 							askVolume, 
-							bidVolume)); 
+							bidVolume); 
 				} else {
 					throw new ForexException("ask and bid bars not coherently stored");
 				}
@@ -2068,38 +2684,330 @@ public class ForexDataIO {
 	}
 
 	/**
-	 * Returns an ArrayList of all ticks in specified table, null if table was
-	 * not found or if something went wrong. If anything else wen't wrong than
-	 * just the table not being found, an error message is printed.
+	 * Returns the ticks of given instrument of time on the interval [from, to]
+	 * from where ticks are stored, null if no ticks of the instrument are
+	 * stored or if something went wrong.
+	 */
+	private List<ITick> readTicks(Instrument instrument, long from, long to) {
+		if (mappedTickStore != null) {
+			if (!mappedTickStore.contains(instrument))
+				return null;
+
+			return mappedTickStore.loadTicks(instrument, from, to);
+		}
+
+		if (tickBlocks)
+			return readTickBlocks(instrument, from, to);
+
+		return readTicks(getTickTable(instrument), from, to);
+	}
+
+	/**
+	 * Returns the bars of given instrument, period and offer side of time on
+	 * the interval [from, to] from where bars are stored, null if no such bars
+	 * are stored or if something went wrong.
+	 */
+	private BarBlock readBars(Instrument instrument, Period period,
+			OfferSide offerSide, long from, long to) {
+		if (barBlocks)
+			return readBarBlocks(instrument, period, offerSide, from, to);
+
+		return readBars(getBarTable(instrument, period, offerSide), from, to);
+	}
+
+	/**
+	 * Source of a cursor reading the rows of a tick or bar table, at most
+	 * SeriesCursor.PAGE_SIZE rows per page.
+	 */
+	private class RowSource extends SeriesCursor.Source {
+		private final String table;
+		private final int valueColumns;
+
+		RowSource(String table, int valueColumns) {
+			this.table = table;
+			this.valueColumns = valueColumns;
+		}
+
+		@Override
+		void read(long from, long to, boolean backward, Columns page) throws SQLException {
+			if (!tableExists(table))
+				return;
+
+			PreparedStatement prst = null;
+			ResultSet rs = null;
+			try {
+				prst = getConnection().prepareStatement("SELECT * FROM " + table
+						+ " WHERE time BETWEEN ? AND ? ORDER BY time "
+						+ (backward ? "DESC" : "ASC") + " LIMIT "
+						+ SeriesCursor.PAGE_SIZE);
+				prst.setLong(1, from);
+				prst.setLong(2, to);
+
+				rs = prst.executeQuery();
+
+				page.ensureCapacity(SeriesCursor.PAGE_SIZE);
+
+				int n = 0;
+				while (rs.next()) {
+					page.times[n] = rs.getLong(1);
+					for (int c = 0; c < valueColumns; c++)
+						page.values[c][n] = rs.getDouble(c + 2);
+					n++;
+				}
+
+				page.size = n;
+			} finally {
+				close(prst, rs);
+			}
+		}
+	}
+
+	/**
+	 * Source of a cursor reading a block table, one block per page. Blocks
+	 * without rows on the interval read are skipped.
+	 */
+	private class BlockSource extends SeriesCursor.Source {
+		private final String table;
+		private final Period period;
+		private final boolean[] deltas;
+
+		/**
+		 * Create a source of given block table, of ticks if period is
+		 * Period.TICK, otherwise of bars of period.
+		 */
+		BlockSource(String table, Period period, boolean[] deltas) {
+			this.table = table;
+			this.period = period;
+			this.deltas = deltas;
+		}
+
+		@Override
+		void read(long from, long to, boolean backward, Columns page) throws SQLException {
+			if (!tableExists(table))
+				return;
+
+			long first = tableIndex(from);
+			long last = tableIndex(to);
+
+			PreparedStatement prst = null;
+			try {
+				prst = getConnection().prepareStatement("SELECT "
+						+ TABLE_INDEX_COLUMN_LABEL + ", data FROM " + table + " WHERE "
+						+ TABLE_INDEX_COLUMN_LABEL + " BETWEEN ? AND ? ORDER BY "
+						+ TABLE_INDEX_COLUMN_LABEL + (backward ? " DESC" : " ASC")
+						+ " LIMIT 1");
+
+				while (first <= last) {
+					prst.setLong(1, first);
+					prst.setLong(2, last);
+
+					ResultSet rs = prst.executeQuery();
+					try {
+						if (!rs.next())
+							return;
+
+						long tableIndex = rs.getLong(1);
+
+						BlockCodec.decode(rs.getBytes(2), deltas, page);
+
+						if (backward)
+							last = tableIndex - 1;
+						else
+							first = tableIndex + 1;
+					} finally {
+						close(rs);
+					}
+
+					page.retain(from, to);
+
+					if (page.size > 0) {
+						if (backward)
+							page.reverse();
+
+						return;
+					}
+				}
+			} finally {
+				close(prst);
+			}
+		}
+
+		private long tableIndex(long time) {
+			if (period == Period.TICK)
+				return getTickTableIndex(Math.max(0, time));
+
+			return getBarTableIndex(period, time);
+		}
+	}
+
+	/**
+	 * Returns a block of all ticks of given instrument of time on the
+	 * interval [from, to] stored as blocks, null if the instrument has no
+	 * block table or if something went wrong.
+	 */
+	private TickBlock readTickBlocks(Instrument instrument, long from, long to) {
+
+		String table = getTickBlockTable(instrument);
+
+		if (!tableExists(table))
+			return null;
+
+		PreparedStatement prst = null;
+		ResultSet rs = null;
+		try {
+			prst = getConnection().prepareStatement(BLOCK_QUERY_PREFIX + table
+					+ BLOCK_QUERY_SUFFIX);
+			prst.setLong(1, getTickTableIndex(Math.max(0, from)));
+			prst.setLong(2, getTickTableIndex(Math.max(0, to)));
+
+			rs = prst.executeQuery();
+
+			TickBlock ticks = new TickBlock(MAX_ROWS_PER_BAR_TABLE + 1);
+			while (rs.next()) {
+				BlockCodec.decodeTicks(rs.getBytes(1), from, to, ticks);
+			}
+
+			return ticks;
+		} catch (SQLException e) {
+			System.err.println("Exception reading ticks: " + e.getMessage());
+		} finally {
+			close(prst, rs);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a block of all bars of given instrument, period and offer side
+	 * of time on the interval [from, to] stored as blocks, null if there
+	 * is no such block table or if something went wrong.
+	 */
+	private BarBlock readBarBlocks(Instrument instrument, Period period,
+			OfferSide offerSide, long from, long to) {
+
+		String table = getBarBlockTable(instrument, period, offerSide);
+
+		if (!tableExists(table))
+			return null;
+
+		PreparedStatement prst = null;
+		ResultSet rs = null;
+		try {
+			prst = getConnection().prepareStatement(BLOCK_QUERY_PREFIX + table
+					+ BLOCK_QUERY_SUFFIX);
+			prst.setLong(1, getBarTableIndex(period, from));
+			prst.setLong(2, getBarTableIndex(period, to));
+
+			rs = prst.executeQuery();
+
+			BarBlock bars = new BarBlock(MAX_ROWS_PER_BAR_TABLE + 1);
+			while (rs.next()) {
+				BlockCodec.decodeBars(rs.getBytes(1), from, to, bars);
+			}
+
+			return bars;
+		} catch (SQLException e) {
+			System.err.println("Exception reading bars: " + e.getMessage());
+		} finally {
+			close(prst, rs);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns the number of ticks of given instrument stored as blocks of time
+	 * on the interval [from, to]. Only the blocks at the ends of the interval
+	 * are decoded.
+	 */
+	private int tickBlockCount(Instrument instrument, long from, long to, Connection con)
+			throws SQLException {
+
+		String table = getTickBlockTable(instrument);
+
+		if (!tableExists(table) || from > to)
+			return 0;
+
+		long first = getTickTableIndex(Math.max(0, from));
+		long last = getTickTableIndex(Math.max(0, to));
+
+		int count = 0;
+
+		PreparedStatement prst = null;
+		ResultSet rs = null;
+		try {
+			// blocks within the interval
+			if (last - first > 1) {
+				prst = con.prepareStatement("SELECT SUM(size) FROM " + table + " WHERE "
+						+ TABLE_INDEX_COLUMN_LABEL + " > ? AND "
+						+ TABLE_INDEX_COLUMN_LABEL + " < ?");
+				prst.setLong(1, first);
+				prst.setLong(2, last);
+
+				rs = prst.executeQuery();
+
+				if (rs.next())
+					count += rs.getInt(1);
+
+				close(prst, rs);
+			}
+
+			// blocks at the ends of the interval
+			prst = con.prepareStatement("SELECT data FROM " + table + " WHERE "
+					+ TABLE_INDEX_COLUMN_LABEL + " IN (?, ?)");
+			prst.setLong(1, first);
+			prst.setLong(2, last);
+
+			rs = prst.executeQuery();
+
+			while (rs.next()) {
+				count += BlockCodec.count(rs.getBytes(1), from, to);
+			}
+		} finally {
+			close(prst, rs);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns a block of all ticks in specified table of time on the interval
+	 * [from, to], null if table was not found or if something went
+	 * wrong. If anything else wen't wrong than just the table not being found,
+	 * an error message is printed.
 	 * 
 	 * @param table the table for which to return stored ticks
-	 * @return an ArrayList of all ticks in table
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a block of all ticks in table of time on the interval [from, to]
 	 */
-	private ArrayList<ITick> readTicks(String table) {
+	private TickBlock readTicks(String table, long from, long to) {
 
 		if (!tableExists(table))
 			return null;
 
-		Statement stmt = null;
+		PreparedStatement prst = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT * FROM " + table;
+			String sql = "SELECT * FROM " + table
+					+ " WHERE time BETWEEN ? AND ? ORDER BY time ASC";
 
-			stmt = getConnection().createStatement();
+			prst = getConnection().prepareStatement(sql);
+			prst.setLong(1, from);
+			prst.setLong(2, to);
 
-			rs = stmt.executeQuery(sql);
+			rs = prst.executeQuery();
 
-			// setting initial capacity so ArrayList won't invoke
-			// ensureCapacity()
-			ArrayList<ITick> ticks = new ArrayList<ITick>(MAX_ROWS_PER_BAR_TABLE + 1);
+			// setting initial capacity so the block won't have to grow
+			TickBlock ticks = new TickBlock(MAX_ROWS_PER_BAR_TABLE + 1);
 			while (rs.next()) {
 				// @formatter:off
-				ticks.add(new Tick(
+				ticks.add(
 						rs.getLong(1), 
 						rs.getDouble(2), 
 						rs.getDouble(3), 
 						rs.getDouble(4), 
-						rs.getDouble(5)));
+						rs.getDouble(5));
 				// @formatter:on
 			}
 
@@ -2108,46 +3016,51 @@ public class ForexDataIO {
 			e.printStackTrace();
 			System.err.println("Exception reading ticks: " + e.getMessage());
 		} finally {
-			close(stmt, rs);
+			close(prst, rs);
 		}
 
 		return null;
 	}
 
 	/**
-	 * Returns an ArrayList of all bars in specified table, null if table was
-	 * not found or if something went wrong. If anything else wen't wrong than
-	 * just the table not being found, an error message is printed.
+	 * Returns a block of all bars in specified table of time on the interval
+	 * [from, to], null if table was not found or if something went
+	 * wrong. If anything else wen't wrong than just the table not being found,
+	 * an error message is printed.
 	 * 
 	 * @param table the table for which to return stored bars
-	 * @return an ArrayList of all bars in table
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return a block of all bars in table of time on the interval [from, to]
 	 */
-	private ArrayList<IBar> readBars(String table) {
+	private BarBlock readBars(String table, long from, long to) {
 
 		if (!tableExists(table))
 			return null;
 
-		Statement stmt = null;
+		PreparedStatement prst = null;
 		ResultSet rs = null;
 		try {
-			String sql = "SELECT * FROM " + table;
+			String sql = "SELECT * FROM " + table
+					+ " WHERE time BETWEEN ? AND ? ORDER BY time ASC";
 
-			stmt = getConnection().createStatement();
+			prst = getConnection().prepareStatement(sql);
+			prst.setLong(1, from);
+			prst.setLong(2, to);
 
-			rs = stmt.executeQuery(sql);
+			rs = prst.executeQuery();
 
-			// setting initial capacity so ArrayList won't invoke
-			// ensureCapacity()
-			ArrayList<IBar> bars = new ArrayList<IBar>(MAX_ROWS_PER_BAR_TABLE + 1);
+			// setting initial capacity so the block won't have to grow
+			BarBlock bars = new BarBlock(MAX_ROWS_PER_BAR_TABLE + 1);
 			while (rs.next()) {
 				// @formatter:off
-				bars.add(new Bar(
+				bars.add(
 						rs.getLong(1), 
 						rs.getDouble(2), 
 						rs.getDouble(3), 
 						rs.getDouble(4), 
 						rs.getDouble(5),
-						rs.getDouble(6)));
+						rs.getDouble(6));
 				// @formatter:on
 			}
 
@@ -2155,54 +3068,70 @@ public class ForexDataIO {
 		} catch (SQLException e) {
 			System.err.println("Exception reading bars: " + e.getMessage());
 		} finally {
-			close(stmt, rs);
+			close(prst, rs);
 		}
 
 		return null;
 	}
 
 	/**
-	 * Returns the name of the tick table of specified index, instrument.
+	 * Returns the name of the tick table of specified instrument.
 	 * 
 	 * @param instrument the instrument of the tick
-	 * @param tableIndex the table index
-	 * @return the name of the table where a tick of the specified time and
-	 *         instrument would be stored
+	 * @return the name of the table where ticks of the specified instrument are
+	 *         stored
 	 */
-	private static String getTickTable(Instrument instrument, long tableIndex) {
-		StringBuilder sb = new StringBuilder();
-
-		sb.append(instrument.name());
-		sb.append("_TICK_");
-		sb.append(tableIndex);
-
-		return sb.toString();
+	static String getTickTable(Instrument instrument) {
+		return instrument.name() + "_TICK";
 	}
 
 	/**
-	 * Returns the name of the bar table of specified index, time, instrument,
+	 * Returns the name of the bar table of specified instrument, period and
 	 * offer side.
 	 * 
 	 * @param instrument the instrument of the bar
 	 * @param period the period of the bar
 	 * @param offerSide the offer side of the bar
-	 * @param tableIndex the table index
-	 * @return the name of the table of specified index, time, instrument, offer
+	 * @return the name of the table of specified instrument, period and offer
 	 *         side
 	 */
-	private static String getBarTable(Instrument instrument, Period period,
-			OfferSide offerSide, long tableIndex) {
+	static String getBarTable(Instrument instrument, Period period, OfferSide offerSide) {
 		StringBuilder sb = new StringBuilder();
 
 		sb.append(instrument.name()).append("_");
 		sb.append(period.name()).append("_");
 		sb.append(offerSide.name());
-		sb.append("_BAR_");
-		sb.append(tableIndex);
+		sb.append("_BAR");
 
 		return sb.toString();
 	}
 
+	/**
+	 * Returns the name of the tick block table of specified instrument.
+	 * 
+	 * @param instrument the instrument of the tick
+	 * @return the name of the table where tick blocks of the specified
+	 *         instrument are stored
+	 */
+	static String getTickBlockTable(Instrument instrument) {
+		return getTickTable(instrument) + "_BLOCK";
+	}
+
+	/**
+	 * Returns the name of the bar block table of specified instrument, period
+	 * and offer side.
+	 * 
+	 * @param instrument the instrument of the bar
+	 * @param period the period of the bar
+	 * @param offerSide the offer side of the bar
+	 * @return the name of the block table of specified instrument, period and
+	 *         offer side
+	 */
+	static String getBarBlockTable(Instrument instrument, Period period,
+			OfferSide offerSide) {
+		return getBarTable(instrument, period, offerSide) + "_BLOCK";
+	}
+
 	/**
 	 * Returns the name of the storage range table of specified instrument.
 	 * 
@@ -2219,20 +3148,7 @@ public class ForexDataIO {
 	 * @param instrument the instrument of the table
 	 * @return the name of the tick count table of specified instrument
 	 */
-	private static String getTickCountTable(Instrument instrument,
-			long tickCountTableIndex) {
-		return instrument.name() + "_TICK_COUNT_TABLE_" + tickCountTableIndex;
-	}
-
-	/**
-	 * Returns the name of the tick count table organizer table of specified
-	 * instrument.
-	 * 
-	 * @param instrument the instrument of the table
-	 * @return the name of the tick count table organizer of specified
-	 *         instrument
-	 */
-	private static String getTickCountTableOrganizer(Instrument instrument) {
-		return instrument.name() + "_TICK_COUNT_TABLE_ORGANIZER";
+	private static String getTickCountTable(Instrument instrument) {
+		return instrument.name() + "_TICK_COUNT";
 	}
 }
\ No newline at end of file
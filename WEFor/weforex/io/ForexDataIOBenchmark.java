@@ -0,0 +1,195 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+import forex.ForexConstants;
+
+// @formatter:off
+/**
+ * Measures the read throughput of ForexDataIO with an increasing number of
+ * reader threads. Every reader loads random tick and bar tables within the
+ * storage range of the first instrument of ForexConstants.INSTRUMENTS. If
+ * asked for, one writer stores bars at the same time, storing bars that are
+ * already stored so that the data base isn't changed.
+ *
+ * Usage:
+ *
+ * java io.ForexDataIOBenchmark [max readers] [seconds per run] [writer]
+ *
+ * Defaults are 1 + ForexConstants.BAR_PERIODS.size() readers, as many as the
+ * prefetch threads of RealTimeFeed, and 5 seconds per run.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class ForexDataIOBenchmark {
+
+	private final ForexDataIO io;
+	private final Instrument instrument;
+	private final ArrayList<Period> periods;
+
+	public static void main(String[] args) throws InterruptedException {
+
+		int maxReaders = args.length > 0 ? Integer.parseInt(args[0])
+				: 1 + ForexConstants.BAR_PERIODS.size();
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		boolean writer = args.length > 2 && args[2].equals("writer");
+
+		ForexDataIOBenchmark benchmark = new ForexDataIOBenchmark(
+				ForexConstants.INSTRUMENTS.get(0));
+
+		if (benchmark.periods.isEmpty()) {
+			System.out.println("Data base contains no data.");
+			return;
+		}
+
+		for (int readers = 1; readers < maxReaders; readers *= 2)
+			benchmark.run(readers, seconds, writer);
+
+		benchmark.run(maxReaders, seconds, writer);
+
+		System.out.println(benchmark.io.getConnectionManager());
+	}
+
+	private ForexDataIOBenchmark(Instrument instrument) {
+		this.io = ForexDataIO.getInstance();
+		this.instrument = instrument;
+		this.periods = new ArrayList<Period>();
+
+		if (io.getStartOfStorage(instrument, Period.TICK) != null)
+			periods.add(Period.TICK);
+
+		for (Period period : ForexConstants.BAR_PERIODS) {
+			if (io.getStartOfStorage(instrument, period) != null)
+				periods.add(period);
+		}
+	}
+
+	/**
+	 * Runs given number of readers for given number of seconds and prints the
+	 * achieved throughput.
+	 */
+	private void run(int readers, int seconds, boolean withWriter)
+			throws InterruptedException {
+
+		final long deadline = System.currentTimeMillis() + seconds * 1000L;
+		final AtomicLong tables = new AtomicLong();
+		final AtomicLong rows = new AtomicLong();
+		final AtomicLong writes = new AtomicLong();
+		final CountDownLatch done = new CountDownLatch(readers);
+
+		for (int i = 0; i < readers; i++) {
+			final Random random = new Random(i);
+
+			new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (System.currentTimeMillis() < deadline) {
+						int size = loadRandomTable(random);
+
+						tables.incrementAndGet();
+						rows.addAndGet(size);
+					}
+
+					done.countDown();
+				}
+			}, "Reader " + i).start();
+		}
+
+		Thread writer = null;
+		if (withWriter) {
+			writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					Random random = new Random();
+
+					while (System.currentTimeMillis() < deadline) {
+						if (storeRandomTable(random))
+							writes.incrementAndGet();
+					}
+				}
+			}, "Writer");
+			writer.start();
+		}
+
+		done.await();
+
+		if (writer != null)
+			writer.join();
+
+		System.out.printf("%3d readers:  %10.1f tables/s  %12.1f rows/s", readers,
+				tables.get() / (double) seconds, rows.get() / (double) seconds);
+
+		if (withWriter)
+			System.out.printf("  %8.1f writes/s", writes.get() / (double) seconds);
+
+		System.out.println();
+	}
+
+	/**
+	 * Loads a random tick or bar table and returns its size.
+	 */
+	private int loadRandomTable(Random random) {
+		Period period = periods.get(random.nextInt(periods.size()));
+
+		long start = io.getStartOfStorage(instrument, period);
+		long end = io.getEndOfStorage(instrument, period);
+
+		if (period == Period.TICK) {
+			long tableIndex = randomIndex(random, ForexDataIO.getTickTableIndex(start),
+					ForexDataIO.getTickTableIndex(end));
+
+			List<ITick> ticks = io.loadTickTable(instrument, tableIndex);
+
+			return ticks == null ? 0 : ticks.size();
+		}
+
+		long tableIndex = randomIndex(random, ForexDataIO.getBarTableIndex(period, start),
+				ForexDataIO.getBarTableIndex(period, end));
+
+		OfferSide offerSide = random.nextBoolean() ? OfferSide.ASK : OfferSide.BID;
+
+		List<IBar> bars = io.loadBarTable(instrument, period, offerSide, tableIndex);
+
+		return bars == null ? 0 : bars.size();
+	}
+
+	/**
+	 * Stores the bars of a random stored bar table once more. Returns true if
+	 * any bars were stored.
+	 */
+	private boolean storeRandomTable(Random random) {
+		Period period = periods.get(random.nextInt(periods.size()));
+
+		if (period == Period.TICK)
+			return false;
+
+		long tableIndex = randomIndex(random,
+				ForexDataIO.getBarTableIndex(period, io.getStartOfStorage(instrument, period)),
+				ForexDataIO.getBarTableIndex(period, io.getEndOfStorage(instrument, period)));
+
+		List<IBar> bars = io.loadBarTable(instrument, period, OfferSide.ASK,
+				tableIndex);
+
+		if (bars == null)
+			return false;
+
+		io.storeBars(instrument, period, OfferSide.ASK, bars);
+
+		return true;
+	}
+
+	private static long randomIndex(Random random, long first, long last) {
+		return first + (long) (random.nextDouble() * (last - first + 1));
+	}
+}
@@ -0,0 +1,722 @@
+package io;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Period;
+
+import forex.Bar;
+import forex.BarBlock;
+import forex.Tick;
+import forex.TickBlock;
+
+// @formatter:off
+/**
+ * Offline conversion of a data base stored with one table per table index
+ * into a data base stored with one table per instrument, period and offer
+ * side, as used by ForexDataIO.
+ *
+ * Tick tables [instrument]_TICK_[table index] are merged into [instrument]_TICK
+ * and bar tables [instrument]_[period]_[offerSide]_BAR_[table index] are merged
+ * into [instrument]_[period]_[offerSide]_BAR. Storage range tables are kept as
+ * they are, since they don't depend on the layout.
+ *
+ * Tick count tables [instrument]_TICK_COUNT_TABLE_[tick count table index] and
+ * their organizers [instrument]_TICK_COUNT_TABLE_ORGANIZER are dropped, also
+ * from data bases that are already converted. ForexDataIO rebuilds the tick
+ * counts of an instrument from its ticks when they are first needed.
+ *
+ * Weekly bars stored before weeks were aligned to their first day, see
+ * ForexDataIO.getBarStart, are rebuilt from the daily bars of the same
+ * instrument and offer side, see realignWeeks(). Weeks that can't be rebuilt
+ * are kept if already aligned, otherwise dropped. This is also the only way
+ * to realign a data base of the current layout stored before, ForexDataIO
+ * refuses to open it until converted.
+ *
+ * Given the option --blocks, tick and bar tables of rows are afterwards
+ * converted into tables of compressed blocks, as used by ForexDataIO with
+ * TickStorage.BLOCKS and BarStorage.BLOCKS.
+ *
+ * The conversion must not be run while ForexDataIO is in use. Usage:
+ *
+ * java io.ForexDataMigration [--blocks] [data base file]
+ *
+ * If no file is given, the data base used by ForexDataIO is converted.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class ForexDataMigration {
+
+	// number of merged tables per transaction
+	private static final int TABLES_PER_COMMIT = 100;
+
+	private static final Pattern LEGACY_TICK_TABLE = Pattern
+			.compile("([A-Z0-9]+_TICK)_\\d+");
+	private static final Pattern LEGACY_BAR_TABLE = Pattern
+			.compile("([A-Z0-9]+_[A-Z0-9_]+_(ASK|BID)_BAR)_\\d+");
+	private static final Pattern LEGACY_TICK_COUNT_TABLE = Pattern
+			.compile("[A-Z0-9]+_TICK_COUNT_TABLE_(\\d+|ORGANIZER)");
+
+	private static final Pattern TICK_TABLE = Pattern.compile("([A-Z0-9]+)_TICK");
+	private static final Pattern BAR_TABLE = Pattern
+			.compile("([A-Z0-9]+)_([A-Z0-9_]+)_(ASK|BID)_BAR");
+	private static final Pattern WEEKLY_BAR_TABLE = Pattern
+			.compile("(([A-Z0-9]+)_WEEKLY_(ASK|BID)_BAR)(_BLOCK)?");
+
+	public static void main(String[] args) {
+
+		boolean blocks = args.length > 0 && args[0].equals("--blocks");
+		int file = blocks ? 1 : 0;
+
+		String url = args.length > file ? "jdbc:sqlite:" + args[file] : ForexDataIO.url;
+
+		Connection con = null;
+		try {
+			Class.forName("org.sqlite.JDBC");
+			con = DriverManager.getConnection(url);
+		} catch (Exception e) {
+			System.err.println("Exception connecting to database: " + e);
+
+			System.exit(0);
+		}
+
+		try {
+			migrate(con);
+
+			if (blocks)
+				compress(con);
+		} catch (SQLException e) {
+			System.err.println("Error converting data base: " + e.getMessage());
+		} finally {
+			try {
+				con.close();
+			} catch (SQLException e) {
+				System.err.println("Exception closing connection: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Converts the data base of given connection. Nothing is done if the data
+	 * base is already converted.
+	 *
+	 * @param con the connection to the data base to convert
+	 * @throws SQLException if the conversion failed, tables converted before
+	 *             the last commit stay converted
+	 */
+	public static void migrate(Connection con) throws SQLException {
+
+		ArrayList<String> tables = new ArrayList<String>();
+		ArrayList<String> tickCountTables = new ArrayList<String>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt
+					.executeQuery("SELECT name FROM sqlite_master WHERE type == 'table'");
+
+			while (rs.next()) {
+				if (isLegacyTable(rs.getString(1)))
+					tables.add(rs.getString(1));
+				else if (LEGACY_TICK_COUNT_TABLE.matcher(rs.getString(1)).matches())
+					tickCountTables.add(rs.getString(1));
+			}
+
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		if (getUserVersion(con) == ForexDataIO.SERIES_LAYOUT_VERSION
+				&& tickCountTables.isEmpty()) {
+			System.out.println("Data base already converted.");
+			return;
+		}
+
+		System.out.println("Converting " + tables.size() + " tables, dropping "
+				+ tickCountTables.size() + " tick count tables.");
+
+		con.setAutoCommit(false);
+
+		stmt = con.createStatement();
+		try {
+			int merged = 0;
+			for (String table : tables) {
+
+				String seriesTable = getSeriesTable(table);
+				String structure = seriesTable.endsWith("_TICK") ? ForexDataIO.TICK_TABLE_STRUCTURE
+						: ForexDataIO.BAR_TABLE_STRUCTURE;
+
+				stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + seriesTable + structure);
+				stmt.executeUpdate("INSERT OR IGNORE INTO " + seriesTable + " SELECT * FROM "
+						+ table);
+				stmt.executeUpdate("DROP TABLE " + table);
+
+				if (++merged % TABLES_PER_COMMIT == 0) {
+					con.commit();
+					System.out.println("Converted " + merged + " of " + tables.size()
+							+ " tables.");
+				}
+			}
+
+			for (String table : tickCountTables)
+				stmt.executeUpdate("DROP TABLE " + table);
+
+			con.commit();
+		} finally {
+			stmt.close();
+			con.setAutoCommit(true);
+		}
+
+		System.out.println("Realigning weekly bars.");
+
+		realignWeeks(con);
+
+		setUserVersion(con, ForexDataIO.SERIES_LAYOUT_VERSION);
+
+		// reclaim the pages of the dropped tables
+		stmt = con.createStatement();
+		try {
+			stmt.executeUpdate("VACUUM");
+		} finally {
+			stmt.close();
+		}
+
+		System.out.println("DATA BASE CONVERSION COMPLETE!");
+	}
+
+	/**
+	 * Rebuilds the weekly bars of the data base of given connection from its
+	 * daily bars, so that every week stored is aligned to its first day, see
+	 * ForexDataIO.getBarStart. Weeks were earlier aligned by their week of
+	 * year, which put the days before the new year of a week straddling two
+	 * years at the first week of the year before.
+	 *
+	 * Every week of which daily bars are stored is replaced by the bar
+	 * aggregated from them, in tables of rows as well as of blocks. Weeks
+	 * without daily bars are kept if they start at the first day of their
+	 * week, otherwise they are dropped, so no table is left with weeks of both
+	 * alignments. The storage range of weekly bars is widened to the weeks
+	 * rebuilt.
+	 *
+	 * @param con the connection to the data base to realign
+	 * @throws SQLException if the realignment failed, nothing is changed
+	 */
+	private static void realignWeeks(Connection con) throws SQLException {
+
+		HashSet<String> tables = new HashSet<String>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt
+					.executeQuery("SELECT name FROM sqlite_master WHERE type == 'table'");
+
+			while (rs.next())
+				tables.add(rs.getString(1));
+
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		boolean autoCommit = con.getAutoCommit();
+		con.setAutoCommit(false);
+		try {
+			HashSet<String> realigned = new HashSet<String>();
+			int rebuilt = 0, dropped = 0;
+
+			for (String table : tables) {
+				Matcher m = WEEKLY_BAR_TABLE.matcher(table);
+				if (!m.matches() || !realigned.add(m.group(1)))
+					continue;
+
+				String rowTable = m.group(1);
+				String blockTable = rowTable + "_BLOCK";
+				String dailyTable = m.group(2) + "_" + Period.DAILY.name() + "_"
+						+ m.group(3) + "_BAR";
+
+				ArrayList<IBar> days = new ArrayList<IBar>();
+				if (tables.contains(dailyTable))
+					days = readRows(con, dailyTable);
+				if (tables.contains(dailyTable + "_BLOCK"))
+					days = ForexDataIO.mergeBars(days, readBlocks(con, dailyTable + "_BLOCK"));
+
+				ArrayList<IBar> weeks = aggregateWeeks(days);
+
+				if (tables.contains(rowTable)) {
+					List<IBar> stored = readRows(con, rowTable);
+					ArrayList<IBar> kept = aligned(stored);
+
+					writeRows(con, rowTable, ForexDataIO.mergeBars(weeks, kept));
+					dropped += stored.size() - kept.size();
+				}
+				if (tables.contains(blockTable)) {
+					List<IBar> stored = readBlocks(con, blockTable);
+					ArrayList<IBar> kept = aligned(stored);
+
+					writeBlocks(con, blockTable, ForexDataIO.mergeBars(weeks, kept));
+					dropped += stored.size() - kept.size();
+				}
+
+				rebuilt += weeks.size();
+
+				widenRange(con, tables, m.group(2) + "_STORAGE_RANGE_TABLE", weeks);
+			}
+
+			con.commit();
+
+			System.out.println("Rebuilt " + rebuilt + " weekly bars from daily bars, dropped "
+					+ dropped + " misaligned weekly bars.");
+		} catch (SQLException e) {
+			con.rollback();
+			throw e;
+		} finally {
+			con.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Returns the weekly bars of given bars that start at the first day of
+	 * their week.
+	 */
+	private static ArrayList<IBar> aligned(List<IBar> weeks) {
+		ArrayList<IBar> aligned = new ArrayList<IBar>(weeks.size());
+
+		for (IBar week : weeks) {
+			if (ForexDataIO.getBarStart(Period.WEEKLY, week.getTime()) == week.getTime())
+				aligned.add(week);
+		}
+
+		return aligned;
+	}
+
+	/**
+	 * Returns the weekly bars aggregated from given daily bars, sorted in
+	 * ascending order with respect to time.
+	 */
+	private static ArrayList<IBar> aggregateWeeks(ArrayList<IBar> days) {
+		ArrayList<IBar> weeks = new ArrayList<IBar>();
+
+		Bar week = null;
+		for (IBar day : days) {
+			long time = ForexDataIO.getBarStart(Period.WEEKLY, day.getTime());
+
+			if (week == null || week.getTime() != time) {
+				if (week != null)
+					weeks.add(week);
+
+				week = new Bar(time, day.getOpen(), day.getClose(), day.getHigh(), day
+						.getLow(), day.getVolume());
+			} else {
+				week = new Bar(time, week.getOpen(), day.getClose(), Math.max(week
+						.getHigh(), day.getHigh()), Math.min(week.getLow(), day.getLow()),
+						week.getVolume() + day.getVolume());
+			}
+		}
+
+		if (week != null)
+			weeks.add(week);
+
+		return weeks;
+	}
+
+	/**
+	 * Returns the bars of given table of blocks.
+	 */
+	private static BarBlock readBlocks(Connection con, String blockTable)
+			throws SQLException {
+		BarBlock bars = new BarBlock(0);
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT data FROM " + blockTable
+					+ " ORDER BY tableIndex ASC");
+
+			while (rs.next())
+				BlockCodec.decodeBars(rs.getBytes(1), Long.MIN_VALUE, Long.MAX_VALUE, bars);
+
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return bars;
+	}
+
+	/**
+	 * Returns the bars of given table of rows.
+	 */
+	private static ArrayList<IBar> readRows(Connection con, String table)
+			throws SQLException {
+		ArrayList<IBar> bars = new ArrayList<IBar>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery("SELECT * FROM " + table
+					+ " ORDER BY time ASC");
+
+			while (rs.next())
+				bars.add(new Bar(rs.getLong(1), rs.getDouble(2), rs.getDouble(3), rs
+						.getDouble(4), rs.getDouble(5), rs.getDouble(6)));
+
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		return bars;
+	}
+
+	/**
+	 * Replaces the rows of given bar table by given bars.
+	 */
+	private static void writeRows(Connection con, String table, ArrayList<IBar> bars)
+			throws SQLException {
+		Statement stmt = con.createStatement();
+		PreparedStatement insert = null;
+		try {
+			stmt.executeUpdate("DELETE FROM " + table);
+
+			insert = con.prepareStatement("INSERT INTO " + table
+					+ " VALUES(?, ?, ?, ?, ?, ?)");
+
+			for (IBar bar : bars) {
+				insert.setLong(1, bar.getTime());
+				insert.setDouble(2, bar.getOpen());
+				insert.setDouble(3, bar.getClose());
+				insert.setDouble(4, bar.getHigh());
+				insert.setDouble(5, bar.getLow());
+				insert.setDouble(6, bar.getVolume());
+				insert.addBatch();
+			}
+
+			insert.executeBatch();
+		} finally {
+			close(insert);
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Replaces the blocks of given weekly block table by blocks of given bars.
+	 */
+	private static void writeBlocks(Connection con, String blockTable,
+			ArrayList<IBar> bars) throws SQLException {
+		Statement stmt = con.createStatement();
+		PreparedStatement insert = null;
+		try {
+			stmt.executeUpdate("DELETE FROM " + blockTable);
+
+			insert = con.prepareStatement("INSERT INTO " + blockTable + " VALUES(?, ?, ?)");
+
+			int from = 0;
+			while (from < bars.size()) {
+				long tableIndex = ForexDataIO.getBarTableIndex(Period.WEEKLY, bars.get(from)
+						.getTime());
+
+				int to = from + 1;
+				while (to < bars.size()
+						&& ForexDataIO.getBarTableIndex(Period.WEEKLY, bars.get(to).getTime()) == tableIndex)
+					to++;
+
+				insert.setLong(1, tableIndex);
+				insert.setInt(2, to - from);
+				insert.setBytes(3, BlockCodec.encodeBars(bars.subList(from, to)));
+				insert.executeUpdate();
+
+				from = to;
+			}
+		} finally {
+			close(insert);
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Widens the storage range of weekly bars in given storage range table to
+	 * include given weeks.
+	 */
+	private static void widenRange(Connection con, HashSet<String> tables,
+			String rangeTable, ArrayList<IBar> weeks) throws SQLException {
+		if (!tables.contains(rangeTable))
+			return;
+
+		PreparedStatement update = con.prepareStatement("UPDATE " + rangeTable
+				+ " SET startOfStorage = MIN(startOfStorage, ?),"
+				+ " endOfStorage = MAX(endOfStorage, ?) WHERE period == '"
+				+ Period.WEEKLY.name() + "'");
+		try {
+			update.setLong(1, weeks.get(0).getTime());
+			update.setLong(2, weeks.get(weeks.size() - 1).getTime());
+			update.executeUpdate();
+		} finally {
+			update.close();
+		}
+	}
+
+	/**
+	 * Converts the tick and bar tables of rows of the data base of given
+	 * connection into tables of compressed blocks. Rows of a time already
+	 * stored as a block are ignored. The data base has to be converted by
+	 * migrate() first.
+	 *
+	 * @param con the connection to the data base to convert
+	 * @throws SQLException if the conversion failed, tables converted before
+	 *             the failing table stay converted
+	 */
+	public static void compress(Connection con) throws SQLException {
+
+		ArrayList<String> tables = new ArrayList<String>();
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt
+					.executeQuery("SELECT name FROM sqlite_master WHERE type == 'table'");
+
+			while (rs.next()) {
+				String table = rs.getString(1);
+
+				if (TICK_TABLE.matcher(table).matches()
+						|| BAR_TABLE.matcher(table).matches())
+					tables.add(table);
+			}
+
+			rs.close();
+		} finally {
+			stmt.close();
+		}
+
+		System.out.println("Compressing " + tables.size() + " tables.");
+
+		for (String table : tables) {
+			con.setAutoCommit(false);
+			try {
+				compressTable(con, table);
+				con.commit();
+			} finally {
+				con.setAutoCommit(true);
+			}
+
+			System.out.println("Compressed " + table + ".");
+		}
+
+		// reclaim the pages of the dropped tables
+		stmt = con.createStatement();
+		try {
+			stmt.executeUpdate("VACUUM");
+		} finally {
+			stmt.close();
+		}
+
+		System.out.println("DATA BASE COMPRESSION COMPLETE!");
+	}
+
+	/**
+	 * Moves the rows of given tick or bar table into its block table, one
+	 * table index at a time, and drops it.
+	 */
+	private static void compressTable(Connection con, String table) throws SQLException {
+
+		Matcher bar = BAR_TABLE.matcher(table);
+		Period period = bar.matches() ? Period.valueOf(bar.group(2)) : null;
+
+		String blockTable = table + "_BLOCK";
+
+		Statement stmt = con.createStatement();
+		PreparedStatement select = null, insert = null;
+		try {
+			stmt.executeUpdate("CREATE TABLE IF NOT EXISTS " + blockTable
+					+ ForexDataIO.BLOCK_TABLE_STRUCTURE);
+
+			select = con.prepareStatement("SELECT data FROM " + blockTable
+					+ " WHERE tableIndex = ?");
+			insert = con.prepareStatement("INSERT OR REPLACE INTO " + blockTable
+					+ " VALUES(?, ?, ?)");
+
+			ResultSet rs = stmt.executeQuery("SELECT * FROM " + table
+					+ " ORDER BY time ASC");
+
+			ArrayList<ITick> ticks = new ArrayList<ITick>();
+			ArrayList<IBar> bars = new ArrayList<IBar>();
+			long tableIndex = -1;
+
+			boolean more = rs.next();
+			while (more) {
+				long time = rs.getLong(1);
+				long index = period == null ? ForexDataIO.getTickTableIndex(time)
+						: ForexDataIO.getBarTableIndex(period, time);
+
+				if (index != tableIndex && tableIndex >= 0) {
+					insertBlock(select, insert, tableIndex, ticks, bars, period);
+					ticks.clear();
+					bars.clear();
+				}
+				tableIndex = index;
+
+				if (period == null)
+					ticks.add(new Tick(time, rs.getDouble(2), rs.getDouble(3), rs
+							.getDouble(4), rs.getDouble(5)));
+				else
+					bars.add(new Bar(time, rs.getDouble(2), rs.getDouble(3), rs
+							.getDouble(4), rs.getDouble(5), rs.getDouble(6)));
+
+				more = rs.next();
+			}
+
+			rs.close();
+
+			if (tableIndex >= 0)
+				insertBlock(select, insert, tableIndex, ticks, bars, period);
+
+			stmt.executeUpdate("DROP TABLE " + table);
+		} finally {
+			close(select);
+			close(insert);
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Inserts the ticks, or bars if period isn't null, of one table index as a
+	 * block. Rows of a block already stored are kept.
+	 */
+	private static void insertBlock(PreparedStatement select, PreparedStatement insert,
+			long tableIndex, ArrayList<ITick> ticks, ArrayList<IBar> bars, Period period)
+			throws SQLException {
+
+		select.setLong(1, tableIndex);
+		ResultSet rs = select.executeQuery();
+		byte[] stored = rs.next() ? rs.getBytes(1) : null;
+		rs.close();
+
+		byte[] block;
+		int size;
+		if (period == null) {
+			TickBlock storedTicks = new TickBlock(0);
+			if (stored != null)
+				BlockCodec.decodeTicks(stored, Long.MIN_VALUE, Long.MAX_VALUE, storedTicks);
+
+			ArrayList<ITick> merged = ForexDataIO.mergeTicks(storedTicks, ticks);
+			block = BlockCodec.encodeTicks(merged);
+			size = merged.size();
+		} else {
+			BarBlock storedBars = new BarBlock(0);
+			if (stored != null)
+				BlockCodec.decodeBars(stored, Long.MIN_VALUE, Long.MAX_VALUE, storedBars);
+
+			ArrayList<IBar> merged = ForexDataIO.mergeBars(storedBars, bars);
+			block = BlockCodec.encodeBars(merged);
+			size = merged.size();
+		}
+
+		insert.setLong(1, tableIndex);
+		insert.setInt(2, size);
+		insert.setBytes(3, block);
+		insert.executeUpdate();
+	}
+
+	/**
+	 * Returns true if given table is a tick or bar table of the layout with one
+	 * table per table index, otherwise false.
+	 *
+	 * @param table the name of the table
+	 * @return true if given table is a tick or bar table of the layout with one
+	 *         table per table index, otherwise false
+	 */
+	static boolean isLegacyTable(String table) {
+		return LEGACY_TICK_TABLE.matcher(table).matches()
+				|| LEGACY_BAR_TABLE.matcher(table).matches();
+	}
+
+	/**
+	 * Returns true if given table is a table of weekly bars, of rows or of
+	 * blocks, otherwise false.
+	 *
+	 * @param table the name of the table
+	 * @return true if given table is a table of weekly bars, otherwise false
+	 */
+	static boolean isWeeklyBarTable(String table) {
+		return WEEKLY_BAR_TABLE.matcher(table).matches();
+	}
+
+	/**
+	 * Returns the name of the table that the rows of given tick or bar table
+	 * are merged into.
+	 *
+	 * @param legacyTable the name of a tick or bar table of the layout with one
+	 *            table per table index
+	 * @return the name of the table that the rows of given table are merged
+	 *         into
+	 * @throws IllegalArgumentException if given table is not a tick or bar
+	 *             table of the layout with one table per table index
+	 */
+	static String getSeriesTable(String legacyTable) {
+		Matcher m = LEGACY_TICK_TABLE.matcher(legacyTable);
+		if (m.matches())
+			return m.group(1);
+
+		m = LEGACY_BAR_TABLE.matcher(legacyTable);
+		if (m.matches())
+			return m.group(1);
+
+		throw new IllegalArgumentException("Not a tick or bar table: " + legacyTable);
+	}
+
+	/**
+	 * Returns the user_version of the data base of given connection, 0 if it
+	 * could not be read.
+	 */
+	static int getUserVersion(Connection con) {
+		Statement stmt = null;
+		try {
+			stmt = con.createStatement();
+
+			ResultSet rs = stmt.executeQuery("PRAGMA user_version");
+
+			int version = rs.next() ? rs.getInt(1) : 0;
+
+			rs.close();
+
+			return version;
+		} catch (SQLException e) {
+			System.err.println("Error reading user_version: " + e.getMessage());
+		} finally {
+			close(stmt);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Sets the user_version of the data base of given connection.
+	 */
+	static void setUserVersion(Connection con, int version) {
+		Statement stmt = null;
+		try {
+			stmt = con.createStatement();
+
+			stmt.executeUpdate("PRAGMA user_version = " + version);
+		} catch (SQLException e) {
+			System.err.println("Error setting user_version: " + e.getMessage());
+		} finally {
+			close(stmt);
+		}
+	}
+
+	private static void close(Statement stmt) {
+		if (stmt == null)
+			return;
+
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			System.err.println("Exception closing statement: " + e.getMessage());
+		}
+	}
+}
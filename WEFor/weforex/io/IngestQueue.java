@@ -0,0 +1,589 @@
+package io;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.dukascopy.api.IBar;
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+import com.dukascopy.api.OfferSide;
+import com.dukascopy.api.Period;
+
+// @formatter:off
+/**
+ * Asynchronous write-behind queue for storing ticks and bars through
+ * ForexDataIO. Producers enqueue ticks and bars and return as soon as they
+ * are queued. A single writer thread takes everything queued at once, merges
+ * the ticks and bars of each instrument, period and offer side, and stores
+ * them in one transaction of the data base. The more is queued while a
+ * transaction is committed, the more is committed by the next one.
+ *
+ * The queue is bounded by the number of queued ticks and bars. Producers
+ * block while the queue is full, so a writer that can't keep up slows the
+ * producers down instead of exhausting memory.
+ *
+ * flush() waits until everything enqueued before has been committed, which
+ * makes it durable on disk, as SQLite syncs on commit and the mapped tick
+ * store forces its columns on every append.
+ *
+ * Ticks and bars that are stored after being enqueued aren't seen by readers
+ * of ForexDataIO until they are committed. If storing the ticks and bars
+ * taken at once fails, the transaction is rolled back, so none of them are
+ * stored, except ticks already appended to the mapped tick store, whose
+ * column files aren't transactional.
+ *
+ * The queue keeps the enqueued lists, so producers must replace rather than
+ * clear them.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public class IngestQueue {
+
+	/**
+	 * The default maximum number of queued ticks and bars.
+	 */
+	public static final int DEFAULT_CAPACITY = 200000;
+
+	/**
+	 * The maximum number of enqueued batches stored by one transaction.
+	 */
+	public static final int MAX_BATCHES_PER_COMMIT = 1000;
+
+	private static final Comparator<ITick> TICK_TIME_ORDER = new Comparator<ITick>() {
+		@Override
+		public int compare(ITick t1, ITick t2) {
+			return t1.getTime() < t2.getTime() ? -1 : (t1.getTime() == t2.getTime() ? 0
+					: 1);
+		}
+	};
+
+	private static final Comparator<IBar> BAR_TIME_ORDER = new Comparator<IBar>() {
+		@Override
+		public int compare(IBar b1, IBar b2) {
+			return b1.getTime() < b2.getTime() ? -1 : (b1.getTime() == b2.getTime() ? 0
+					: 1);
+		}
+	};
+
+	// marks the end of the queue when closed
+	private static final Batch STOP = new Batch(null);
+
+	private final ForexDataIO io;
+	private final int capacity;
+
+	private final LinkedBlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+
+	// one permit per tick or bar that may be queued
+	private final Semaphore space;
+
+	private final Thread writer;
+	private volatile boolean closed;
+
+	// statistics
+	private final AtomicLong enqueued = new AtomicLong();
+	private final AtomicLong stored = new AtomicLong();
+	private final AtomicLong commits = new AtomicLong();
+	private final AtomicLong commitTime = new AtomicLong();
+	private final AtomicLong maxCommitTime = new AtomicLong();
+	private final AtomicLong lastCommitTime = new AtomicLong();
+	private final AtomicLong producerWaits = new AtomicLong();
+	private final AtomicLong maxDepth = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+
+	/**
+	 * Ticks or bars of one series, or a flush barrier or STOP if elements is
+	 * null.
+	 */
+	private static final class Batch {
+		final Instrument instrument;
+		final Period period;
+		final OfferSide offerSide;
+		final List<?> elements;
+		final int permits;
+		final CountDownLatch done;
+
+		Batch(Instrument instrument, Period period, OfferSide offerSide,
+				List<?> elements, int permits) {
+			this.instrument = instrument;
+			this.period = period;
+			this.offerSide = offerSide;
+			this.elements = elements;
+			this.permits = permits;
+			this.done = null;
+		}
+
+		Batch(CountDownLatch done) {
+			this.instrument = null;
+			this.period = null;
+			this.offerSide = null;
+			this.elements = null;
+			this.permits = 0;
+			this.done = done;
+		}
+
+		/**
+		 * Returns the key of the series of this batch.
+		 */
+		String series() {
+			if (period == Period.TICK)
+				return ForexDataIO.getTickTable(instrument);
+
+			return ForexDataIO.getBarTable(instrument, period, offerSide);
+		}
+	}
+
+	/**
+	 * Create an ingest queue storing through given ForexDataIO, holding at
+	 * most given number of ticks and bars. The writer thread is started.
+	 *
+	 * @param io the ForexDataIO to store through
+	 * @param capacity the maximum number of queued ticks and bars
+	 * @throws IllegalArgumentException if io is null or if capacity < 1
+	 */
+	public IngestQueue(ForexDataIO io, int capacity) {
+		if (io == null)
+			throw new IllegalArgumentException("io can't be null");
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity < 1");
+
+		this.io = io;
+		this.capacity = capacity;
+		this.space = new Semaphore(capacity);
+
+		writer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "IngestQueue writer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Enqueues given ticks to be stored. Blocks while the queue is full. The
+	 * list is stored as it is, it must not be modified afterwards.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @param ticks the ticks to store, sorted in ascending order with respect
+	 *            to time
+	 * @throws IllegalArgumentException if instrument or ticks is null
+	 * @throws IllegalStateException if closed
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 *             to have space
+	 */
+	public void enqueueTicks(Instrument instrument, List<ITick> ticks)
+			throws InterruptedException {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+
+		enqueue(instrument, Period.TICK, null, ticks);
+	}
+
+	/**
+	 * Enqueues given bars to be stored. Blocks while the queue is full. The
+	 * list is stored as it is, it must not be modified afterwards.
+	 *
+	 * @param instrument the instrument of the bars
+	 * @param period the period of the bars
+	 * @param offerSide the offer side of the bars
+	 * @param bars the bars to store, sorted in ascending order with respect to
+	 *            time
+	 * @throws IllegalArgumentException if any argument is null
+	 * @throws IllegalStateException if closed
+	 * @throws InterruptedException if interrupted while waiting for the queue
+	 *             to have space
+	 */
+	public void enqueueBars(Instrument instrument, Period period, OfferSide offerSide,
+			List<IBar> bars) throws InterruptedException {
+		if (instrument == null)
+			throw new IllegalArgumentException("instrument can't be null");
+		if (period == null)
+			throw new IllegalArgumentException("period can't be null");
+		if (offerSide == null)
+			throw new IllegalArgumentException("offerSide can't be null");
+
+		enqueue(instrument, period, offerSide, bars);
+	}
+
+	private void enqueue(Instrument instrument, Period period, OfferSide offerSide,
+			List<?> elements) throws InterruptedException {
+		if (elements == null)
+			throw new IllegalArgumentException("elements can't be null");
+		if (closed)
+			throw new IllegalStateException("IngestQueue closed");
+
+		if (elements.isEmpty())
+			return;
+
+		// a batch larger than the queue takes all of it
+		int permits = Math.min(elements.size(), capacity);
+
+		if (!space.tryAcquire(permits)) {
+			producerWaits.incrementAndGet();
+			space.acquire(permits);
+		}
+
+		if (!add(new Batch(instrument, period, offerSide, elements, permits))) {
+			space.release(permits);
+			throw new IllegalStateException("IngestQueue closed");
+		}
+
+		enqueued.addAndGet(elements.size());
+
+		long depth = getDepth();
+		long max = maxDepth.get();
+		while (depth > max && !maxDepth.compareAndSet(max, depth))
+			max = maxDepth.get();
+	}
+
+	/**
+	 * Waits until all ticks and bars enqueued before are committed. Once
+	 * closed, waits until the writer thread has stored everything and
+	 * stopped, see close().
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void flush() throws InterruptedException {
+		if (!writer.isAlive())
+			return;
+
+		CountDownLatch done = new CountDownLatch(1);
+
+		if (!add(new Batch(done))) {
+			writer.join();
+			return;
+		}
+
+		// the writer may have died, leaving the barrier queued
+		while (!done.await(1, TimeUnit.SECONDS)) {
+			if (!writer.isAlive())
+				return;
+		}
+	}
+
+	/**
+	 * Waits, at most given time, until all ticks and bars enqueued before are
+	 * committed. Once closed, waits until the writer thread has stored
+	 * everything and stopped, see close().
+	 *
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of timeout
+	 * @return true if everything was committed, false if the time elapsed
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!writer.isAlive())
+			return true;
+
+		CountDownLatch done = new CountDownLatch(1);
+
+		if (!add(new Batch(done))) {
+			writer.join(Math.max(1, unit.toMillis(timeout)));
+			return !writer.isAlive();
+		}
+
+		return done.await(timeout, unit) || !writer.isAlive();
+	}
+
+	/**
+	 * Stores everything enqueued and stops the writer thread. Nothing can be
+	 * enqueued afterwards.
+	 *
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void close() throws InterruptedException {
+		synchronized (queue) {
+			if (closed)
+				return;
+
+			closed = true;
+
+			queue.add(STOP);
+		}
+
+		writer.join();
+	}
+
+	/**
+	 * Queues given batch, unless closed, in which case false is returned.
+	 * Batches are never queued after STOP.
+	 */
+	private boolean add(Batch batch) {
+		synchronized (queue) {
+			if (closed)
+				return false;
+
+			queue.add(batch);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Takes everything queued and stores it in one transaction, until closed.
+	 */
+	private void write() {
+		ArrayList<Batch> batches = new ArrayList<Batch>();
+
+		boolean stop = false;
+		while (!stop) {
+			try {
+				batches.add(queue.take());
+			} catch (InterruptedException e) {
+				continue;
+			}
+
+			queue.drainTo(batches, MAX_BATCHES_PER_COMMIT - 1);
+
+			try {
+				store(batches);
+			} catch (RuntimeException e) {
+				failures.incrementAndGet();
+
+				System.err.println("Error storing queued ticks and bars: " + e);
+				e.printStackTrace();
+			}
+
+			for (Batch batch : batches) {
+				if (batch == STOP) {
+					stop = true;
+				} else if (batch.done != null) {
+					batch.done.countDown();
+				} else {
+					space.release(batch.permits);
+					stored.addAndGet(batch.elements.size());
+				}
+			}
+
+			batches.clear();
+		}
+	}
+
+	/**
+	 * Stores the ticks and bars of given batches, one call to ForexDataIO per
+	 * series, all in one transaction.
+	 */
+	@SuppressWarnings("unchecked")
+	private void store(List<Batch> batches) {
+
+		// merge the batches of each series, keeping the order of series
+		LinkedHashMap<String, List<Batch>> series = new LinkedHashMap<String, List<Batch>>();
+		for (Batch batch : batches) {
+			if (batch.elements == null)
+				continue;
+
+			List<Batch> list = series.get(batch.series());
+			if (list == null) {
+				list = new ArrayList<Batch>();
+				series.put(batch.series(), list);
+			}
+
+			list.add(batch);
+		}
+
+		if (series.isEmpty())
+			return;
+
+		long start = System.nanoTime();
+
+		ConnectionManager connections = io.getConnectionManager();
+		connections.lockWriter();
+		boolean succeeded = false;
+		try {
+			io.beginTransaction();
+
+			for (Map.Entry<String, List<Batch>> entry : series.entrySet()) {
+				Batch first = entry.getValue().get(0);
+
+				if (first.period == Period.TICK) {
+					ArrayList<ITick> ticks = new ArrayList<ITick>();
+					for (Batch batch : entry.getValue())
+						ticks.addAll((List<ITick>) batch.elements);
+
+					if (entry.getValue().size() > 1)
+						Collections.sort(ticks, TICK_TIME_ORDER);
+
+					io.storeTicks(first.instrument, ticks);
+				} else {
+					ArrayList<IBar> bars = new ArrayList<IBar>();
+					for (Batch batch : entry.getValue())
+						bars.addAll((List<IBar>) batch.elements);
+
+					if (entry.getValue().size() > 1)
+						Collections.sort(bars, BAR_TIME_ORDER);
+
+					io.storeBars(first.instrument, first.period, first.offerSide, bars);
+				}
+			}
+
+			succeeded = true;
+		} finally {
+			// commit all series or none of them
+			if (succeeded)
+				io.endTransaction();
+			else
+				io.rollbackTransaction();
+			connections.unlockWriter();
+
+			long time = System.nanoTime() - start;
+
+			commits.incrementAndGet();
+			commitTime.addAndGet(time);
+			lastCommitTime.set(time);
+
+			long max = maxCommitTime.get();
+			while (time > max && !maxCommitTime.compareAndSet(max, time))
+				max = maxCommitTime.get();
+		}
+	}
+
+	/**
+	 * Returns the ForexDataIO stored through.
+	 */
+	ForexDataIO getForexDataIO() {
+		return io;
+	}
+
+	/**
+	 * Returns the number of ticks and bars enqueued but not yet committed.
+	 *
+	 * @return the number of ticks and bars enqueued but not yet committed
+	 */
+	public long getDepth() {
+		return enqueued.get() - stored.get();
+	}
+
+	/**
+	 * Returns the largest number of ticks and bars that have been enqueued but
+	 * not committed at once.
+	 *
+	 * @return the largest depth of this queue
+	 */
+	public long getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * Returns the maximum number of queued ticks and bars.
+	 *
+	 * @return the maximum number of queued ticks and bars
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Returns the number of ticks and bars enqueued since creation.
+	 *
+	 * @return the number of ticks and bars enqueued since creation
+	 */
+	public long getEnqueued() {
+		return enqueued.get();
+	}
+
+	/**
+	 * Returns the number of ticks and bars committed since creation.
+	 *
+	 * @return the number of ticks and bars committed since creation
+	 */
+	public long getStored() {
+		return stored.get();
+	}
+
+	/**
+	 * Returns the number of transactions committed since creation.
+	 *
+	 * @return the number of transactions committed since creation
+	 */
+	public long getCommits() {
+		return commits.get();
+	}
+
+	/**
+	 * Returns the average time, in milliseconds, of storing and committing a
+	 * transaction.
+	 *
+	 * @return the average commit latency in milliseconds
+	 */
+	public double getAverageCommitLatency() {
+		long n = commits.get();
+
+		return n == 0 ? 0 : commitTime.get() / 1e6 / n;
+	}
+
+	/**
+	 * Returns the time, in milliseconds, of storing and committing the last
+	 * transaction.
+	 *
+	 * @return the last commit latency in milliseconds
+	 */
+	public double getLastCommitLatency() {
+		return lastCommitTime.get() / 1e6;
+	}
+
+	/**
+	 * Returns the longest time, in milliseconds, of storing and committing a
+	 * transaction.
+	 *
+	 * @return the largest commit latency in milliseconds
+	 */
+	public double getMaxCommitLatency() {
+		return maxCommitTime.get() / 1e6;
+	}
+
+	/**
+	 * Returns the number of times a producer had to wait for the queue to
+	 * have space.
+	 *
+	 * @return the number of times a producer had to wait for space
+	 */
+	public long getProducerWaits() {
+		return producerWaits.get();
+	}
+
+	/**
+	 * Returns the number of transactions that failed with an exception.
+	 *
+	 * @return the number of failed transactions
+	 */
+	public long getFailures() {
+		return failures.get();
+	}
+
+	/**
+	 * Returns a string representation of the statistics of this queue.
+	 *
+	 * @return a string representation of the statistics of this queue
+	 */
+	@Override
+	public String toString() {
+		// @formatter:off
+		return String.format("%s:  depth=%d/%d  maxDepth=%d  enqueued=%d  stored=%d  " +
+				"commits=%d  commitLatency=%.1f ms (last %.1f ms, max %.1f ms)  " +
+				"producerWaits=%d  failures=%d",
+				getClass().getSimpleName(),
+				getDepth(),
+				getCapacity(),
+				getMaxDepth(),
+				getEnqueued(),
+				getStored(),
+				getCommits(),
+				getAverageCommitLatency(),
+				getLastCommitLatency(),
+				getMaxCommitLatency(),
+				getProducerWaits(),
+				getFailures());
+		// @formatter:on
+	}
+}
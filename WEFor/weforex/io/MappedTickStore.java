@@ -0,0 +1,561 @@
+package io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.dukascopy.api.ITick;
+import com.dukascopy.api.Instrument;
+
+import forex.ForexException;
+import forex.ForexTools;
+
+// @formatter:off
+/**
+ * File based storage of ticks, used by ForexDataIO when ticks are not stored
+ * in the data base. See ForexDataIO.TickStorage.
+ *
+ * The ticks of an instrument are stored as five append-only columns of fixed
+ * width: { time, ask, bid, askVolume, bidVolume }. Each column is a file of
+ * 8-byte values, memory-mapped using FileChannel.map. The number of stored
+ * ticks is kept in a separate meta file, since column files are grown in
+ * chunks of ROWS_PER_CHUNK rows.
+ *
+ * As ticks are appended in ascending order with respect to time, the time
+ * column is sorted and serves as the time-to-offset index: the offset of any
+ * time is found by a binary search over the mapped time column. Loaded ticks
+ * are slices of the mapped columns, no values are copied until they are read.
+ *
+ * Readers don't lock once the files of an instrument are open, only the
+ * first read of an instrument with stored ticks opens them holding the lock
+ * of the store. Appending threads are serialized, and the appended ticks are
+ * published to readers, together with the new number of ticks, as a snapshot
+ * once they are written. Rows below the published number of ticks are never
+ * written again.
+ *
+ * Naming conventions for files in the storage directory:
+ *
+ * Column files: [instrument]_TICK.[column]
+ * Example: 	 EURUSD_TICK.ask
+ *
+ * Meta file: 	 [instrument]_TICK.meta
+ * Example: 	 EURUSD_TICK.meta
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+class MappedTickStore {
+
+	// column indices
+	private static final int TIME = 0;
+	private static final int ASK = 1;
+	private static final int BID = 2;
+	private static final int ASK_VOLUME = 3;
+	private static final int BID_VOLUME = 4;
+
+	private static final String[] COLUMNS = { "time", "ask", "bid", "askVolume",
+			"bidVolume" };
+
+	// width of a value in bytes
+	private static final int WIDTH = 8;
+
+	/**
+	 * The number of rows column files are grown by when full.
+	 */
+	public static final int ROWS_PER_CHUNK = 1 << 18;
+
+	// a mapped buffer can't be larger than Integer.MAX_VALUE bytes
+	private static final int MAX_ROWS = Integer.MAX_VALUE / WIDTH;
+
+	private final File directory;
+	private final ConcurrentHashMap<Instrument, Series> series;
+
+	/**
+	 * The mapped columns of the ticks of one instrument. All fields but
+	 * snapshot are only used by appending threads.
+	 */
+	private static final class Series {
+		final RandomAccessFile[] files = new RandomAccessFile[COLUMNS.length];
+		final MappedByteBuffer[] columns = new MappedByteBuffer[COLUMNS.length];
+		RandomAccessFile metaFile;
+		MappedByteBuffer meta;
+		int size;
+		int capacity;
+
+		// what readers see
+		volatile Snapshot snapshot;
+	}
+
+	/**
+	 * The columns and number of ticks of a series as seen by readers.
+	 */
+	private static final class Snapshot {
+		final MappedByteBuffer[] columns;
+		final int size;
+
+		Snapshot(MappedByteBuffer[] columns, int size) {
+			this.columns = columns.clone();
+			this.size = size;
+		}
+	}
+
+	/**
+	 * Create a store keeping its files in given directory. The directory is
+	 * created if it doesn't exist.
+	 *
+	 * @param directory the directory of the column files
+	 * @throws ForexException if directory could not be created
+	 */
+	MappedTickStore(File directory) {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new ForexException("Unable to create " + directory);
+
+		this.directory = directory;
+		this.series = new ConcurrentHashMap<Instrument, Series>();
+	}
+
+	/**
+	 * Returns true if ticks of given instrument are stored, otherwise false.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @return true if ticks of given instrument are stored, otherwise false
+	 */
+	boolean contains(Instrument instrument) {
+		Series s = getSeries(instrument, false);
+
+		return s != null && s.snapshot.size > 0;
+	}
+
+	/**
+	 * Returns the number of stored ticks of given instrument and of time on the
+	 * interval [from, to].
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return the number of stored ticks of time on the interval [from, to]
+	 */
+	int countTicks(Instrument instrument, long from, long to) {
+		Series s = getSeries(instrument, false);
+
+		if (s == null || from > to)
+			return 0;
+
+		Snapshot snapshot = s.snapshot;
+
+		return offsetAfter(snapshot, to) - offsetOf(snapshot, from);
+	}
+
+	/**
+	 * Returns the time of the last stored tick of given instrument,
+	 * Long.MIN_VALUE if no ticks are stored.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @return the time of the last stored tick
+	 */
+	long getLastTime(Instrument instrument) {
+		Series s = getSeries(instrument, false);
+
+		if (s == null)
+			return Long.MIN_VALUE;
+
+		Snapshot snapshot = s.snapshot;
+
+		return snapshot.size > 0 ? snapshot.columns[TIME].getLong((snapshot.size - 1)
+				* WIDTH) : Long.MIN_VALUE;
+	}
+
+	/**
+	 * Returns the stored ticks of given instrument and of time on the interval
+	 * [from, to]. The returned list is an unmodifiable view of the mapped
+	 * columns. An empty list is returned if no such ticks were found.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @param from the beginning of the interval (inclusive)
+	 * @param to the end of the interval (inclusive)
+	 * @return the stored ticks of time on the interval [from, to]
+	 */
+	List<ITick> loadTicks(Instrument instrument, long from, long to) {
+		Series s = getSeries(instrument, false);
+
+		if (s == null || from > to)
+			return new TickSlice(null, 0, 0);
+
+		Snapshot snapshot = s.snapshot;
+
+		int fromOffset = offsetOf(snapshot, from);
+		int toOffset = offsetAfter(snapshot, to);
+
+		return new TickSlice(snapshot.columns, fromOffset, toOffset - fromOffset);
+	}
+
+	/**
+	 * Returns a source of the stored ticks of given instrument for a
+	 * TickCursor. Every page is read from the latest snapshot, copying the
+	 * values of the mapped columns into the page.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @return a source of the stored ticks of given instrument
+	 */
+	SeriesCursor.Source tickSource(final Instrument instrument) {
+		return new SeriesCursor.Source() {
+			@Override
+			void read(long from, long to, boolean backward, Columns page) {
+				Series s = getSeries(instrument, false);
+
+				if (s == null) {
+					page.size = 0;
+					return;
+				}
+
+				Snapshot snapshot = s.snapshot;
+
+				int fromOffset = offsetOf(snapshot, from);
+				int toOffset = offsetAfter(snapshot, to);
+
+				int n = Math.min(toOffset - fromOffset, SeriesCursor.PAGE_SIZE);
+
+				page.ensureCapacity(n);
+
+				MappedByteBuffer[] columns = snapshot.columns;
+				for (int i = 0; i < n; i++) {
+					int position = (backward ? toOffset - 1 - i : fromOffset + i) * WIDTH;
+
+					page.times[i] = columns[TIME].getLong(position);
+					page.values[TickCursor.ASK][i] = columns[ASK].getDouble(position);
+					page.values[TickCursor.BID][i] = columns[BID].getDouble(position);
+					page.values[TickCursor.ASK_VOLUME][i] = columns[ASK_VOLUME]
+							.getDouble(position);
+					page.values[TickCursor.BID_VOLUME][i] = columns[BID_VOLUME]
+							.getDouble(position);
+				}
+
+				page.size = n;
+			}
+		};
+	}
+
+	/**
+	 * Appends given ticks, which have to be sorted in ascending order with
+	 * respect to time. Ticks of time lower than or equal to the time of the
+	 * last stored tick are ignored, as the columns are append-only.
+	 *
+	 * @param instrument the instrument of the ticks
+	 * @param ticks the ticks to store
+	 * @return the number of ticks that were ignored
+	 * @throws ForexException if the column files could not be written
+	 */
+	synchronized int storeTicks(Instrument instrument, List<ITick> ticks) {
+		Series s = getSeries(instrument, true);
+
+		long lastTime = getLastTime(instrument);
+
+		int ignored = 0;
+		for (ITick tick : ticks) {
+			if (tick.getTime() <= lastTime) {
+				ignored++;
+				continue;
+			}
+
+			if (s.size == s.capacity)
+				grow(s);
+
+			int position = s.size * WIDTH;
+			s.columns[TIME].putLong(position, tick.getTime());
+			s.columns[ASK].putDouble(position, tick.getAsk());
+			s.columns[BID].putDouble(position, tick.getBid());
+			s.columns[ASK_VOLUME].putDouble(position, tick.getAskVolume());
+			s.columns[BID_VOLUME].putDouble(position, tick.getBidVolume());
+
+			s.size++;
+			lastTime = tick.getTime();
+		}
+
+		// columns have to reach disk before the size that makes them visible
+		for (MappedByteBuffer column : s.columns)
+			column.force();
+
+		s.meta.putLong(0, s.size);
+		s.meta.force();
+
+		s.snapshot = new Snapshot(s.columns, s.size);
+
+		return ignored;
+	}
+
+	/**
+	 * Closes all column files.
+	 */
+	synchronized void close() {
+		for (Series s : series.values()) {
+			for (MappedByteBuffer column : s.columns)
+				column.force();
+			s.meta.force();
+
+			close(s.metaFile);
+			for (RandomAccessFile file : s.files)
+				close(file);
+		}
+
+		series.clear();
+	}
+
+	/**
+	 * Returns the offset of the first tick of time higher than or equal to
+	 * given time, the size of the series if no such tick exists.
+	 */
+	private static int offsetOf(Snapshot s, long time) {
+		int low = 0, high = s.size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (s.columns[TIME].getLong(mid * WIDTH) < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the offset of the first tick of time higher than given time, the
+	 * size of the series if no such tick exists.
+	 */
+	private static int offsetAfter(Snapshot s, long time) {
+		int low = 0, high = s.size;
+
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+
+			if (s.columns[TIME].getLong(mid * WIDTH) <= time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+
+		return low;
+	}
+
+	/**
+	 * Returns the series of given instrument, opening its files if needed.
+	 * Returns null if no files exist and create is false, without locking.
+	 */
+	private Series getSeries(Instrument instrument, boolean create) {
+		Series s = series.get(instrument);
+
+		if (s != null)
+			return s;
+
+		if (!create && !getMetaFile(instrument).exists())
+			return null;
+
+		synchronized (this) {
+			return openSeries(instrument, create);
+		}
+	}
+
+	/**
+	 * Opens the files of the series of given instrument, unless already open.
+	 * Caller must hold the lock of this store.
+	 */
+	private Series openSeries(Instrument instrument, boolean create) {
+		Series s = series.get(instrument);
+
+		if (s != null)
+			return s;
+
+		String prefix = ForexDataIO.getTickTable(instrument);
+		File metaFile = getMetaFile(instrument);
+
+		if (!create && !metaFile.exists())
+			return null;
+
+		s = new Series();
+		try {
+			s.metaFile = new RandomAccessFile(metaFile, "rw");
+			s.meta = s.metaFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					WIDTH);
+			s.size = (int) s.meta.getLong(0);
+
+			for (int i = 0; i < COLUMNS.length; i++) {
+				s.files[i] = new RandomAccessFile(new File(directory, prefix + "."
+						+ COLUMNS[i]), "rw");
+			}
+
+			map(s, Math.max(s.size, ROWS_PER_CHUNK));
+
+			s.snapshot = new Snapshot(s.columns, s.size);
+
+		} catch (IOException e) {
+			throw new ForexException("Exception opening tick columns of "
+					+ instrument.name() + ": " + e.getMessage());
+		}
+
+		series.put(instrument, s);
+
+		return s;
+	}
+
+	private File getMetaFile(Instrument instrument) {
+		return new File(directory, ForexDataIO.getTickTable(instrument) + ".meta");
+	}
+
+	/**
+	 * Grows the columns of given series by ROWS_PER_CHUNK rows.
+	 */
+	private static void grow(Series s) {
+		if (s.capacity == MAX_ROWS)
+			throw new ForexException("Tick columns full, last tick stored: "
+					+ ForexTools.getTimeRepresentation(s.columns[TIME]
+							.getLong((s.size - 1) * WIDTH)));
+
+		try {
+			map(s, (int) Math.min((long) s.capacity + ROWS_PER_CHUNK, MAX_ROWS));
+		} catch (IOException e) {
+			throw new ForexException("Exception growing tick columns: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Maps the columns of given series with room for given number of rows.
+	 * Buffers of earlier mappings stay valid, so slices already handed out are
+	 * not affected.
+	 */
+	private static void map(Series s, int capacity) throws IOException {
+		for (int i = 0; i < COLUMNS.length; i++) {
+			s.columns[i] = s.files[i].getChannel().map(FileChannel.MapMode.READ_WRITE,
+					0, (long) capacity * WIDTH);
+		}
+
+		s.capacity = capacity;
+	}
+
+	private static void close(RandomAccessFile file) {
+		if (file == null)
+			return;
+
+		try {
+			file.close();
+		} catch (IOException e) {
+			System.err.println("Exception closing tick column: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * An unmodifiable list of the ticks in a range of rows of mapped columns.
+	 */
+	private static final class TickSlice extends AbstractList<ITick> implements
+			RandomAccess {
+
+		private final MappedByteBuffer[] columns;
+		private final int offset;
+		private final int size;
+
+		TickSlice(MappedByteBuffer[] columns, int offset, int size) {
+			this.columns = columns;
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public ITick get(int index) {
+			if (index < 0 || index >= size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+
+			return new MappedTick(columns, (offset + index) * WIDTH);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * A tick read from a row of mapped columns.
+	 */
+	private static final class MappedTick implements ITick {
+
+		private final MappedByteBuffer[] columns;
+		private final int position;
+
+		MappedTick(MappedByteBuffer[] columns, int position) {
+			this.columns = columns;
+			this.position = position;
+		}
+
+		@Override
+		public long getTime() {
+			return columns[TIME].getLong(position);
+		}
+
+		@Override
+		public double getAsk() {
+			return columns[ASK].getDouble(position);
+		}
+
+		@Override
+		public double getBid() {
+			return columns[BID].getDouble(position);
+		}
+
+		@Override
+		public double getAskVolume() {
+			return columns[ASK_VOLUME].getDouble(position);
+		}
+
+		@Override
+		public double getBidVolume() {
+			return columns[BID_VOLUME].getDouble(position);
+		}
+
+		@Override
+		public double[] getAsks() {
+			return new double[] { getAsk() };
+		}
+
+		@Override
+		public double[] getBids() {
+			return new double[] { getBid() };
+		}
+
+		@Override
+		public double[] getAskVolumes() {
+			return new double[] { getAskVolume() };
+		}
+
+		@Override
+		public double[] getBidVolumes() {
+			return new double[] { getBidVolume() };
+		}
+
+		@Override
+		public double getTotalAskVolume() {
+			return getAskVolume();
+		}
+
+		@Override
+		public double getTotalBidVolume() {
+			return getBidVolume();
+		}
+
+		@Override
+		public String toString() {
+			// @formatter:off
+			return String.format("%s:  %s  ask=%3$f  bid=%4$f",
+					"Tick",
+					ForexTools.getTimeRepresentation(getTime()),
+					getAsk(),
+					getBid());
+			// @formatter:on
+		}
+	}
+}
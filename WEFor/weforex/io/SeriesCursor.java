@@ -0,0 +1,173 @@
+package io;
+
+import java.sql.SQLException;
+
+// @formatter:off
+/**
+ * A cursor over the ticks or bars of one series stored by ForexDataIO, of
+ * time on an interval [from, to]. The cursor moves forward, in ascending
+ * order with respect to time, or backward, in descending order, one row at a
+ * time. Values of the current row are read through primitive accessors, so
+ * no object is created per row.
+ *
+ * Rows are read from storage one page at a time, a page being at most
+ * PAGE_SIZE rows or one block when ticks or bars are stored as blocks. A page
+ * is read into columns that are reused for the next page, and no data base
+ * statement is left open between pages, so a cursor doesn't hold up writers
+ * and doesn't have to be closed. A cursor that isn't read to the end is
+ * simply dropped. Rows stored after the cursor was opened may or may not be
+ * seen.
+ *
+ * Typical use:
+ *
+ * TickCursor cursor = io.openTicks(instrument, from, to);
+ * while (cursor.next()) {
+ *     long time = cursor.time();
+ *     double ask = cursor.ask();
+ *     ...
+ * }
+ *
+ * A cursor is not thread safe and should be used by one thread at a time.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public abstract class SeriesCursor {
+
+	/**
+	 * The largest number of rows read at once, unless ticks or bars are read
+	 * one block at a time.
+	 */
+	static final int PAGE_SIZE = 1024;
+
+	/**
+	 * Where a cursor reads its pages from.
+	 */
+	static abstract class Source {
+
+		/**
+		 * Reads the next page of rows of time on the interval [from, to] into
+		 * given columns, replacing the rows held. The rows nearest from are
+		 * read, in ascending order, or the rows nearest to, in descending
+		 * order, if backward is true. No rows are read if there are no rows on
+		 * the interval.
+		 *
+		 * @param from the beginning of the interval (inclusive)
+		 * @param to the end of the interval (inclusive)
+		 * @param backward true if the rows nearest to should be read
+		 * @param page the columns to read the rows into
+		 * @throws SQLException if reading from the data base failed
+		 */
+		abstract void read(long from, long to, boolean backward, Columns page)
+				throws SQLException;
+	}
+
+	/**
+	 * A source without rows.
+	 */
+	static final Source EMPTY = new Source() {
+		@Override
+		void read(long from, long to, boolean backward, Columns page) {
+			page.size = 0;
+		}
+	};
+
+	private final Source source;
+	private final boolean backward;
+
+	// the interval of the rows not yet read
+	private long from, to;
+
+	// the current page
+	private final Columns page;
+
+	// the current row of the page
+	private int position;
+
+	// true if there are no more pages
+	private boolean exhausted;
+
+	SeriesCursor(Source source, int valueColumns, long from, long to, boolean backward) {
+		this.source = source;
+		this.backward = backward;
+		this.from = from;
+		this.to = to;
+
+		page = new Columns(valueColumns, 0);
+		position = -1;
+		exhausted = from > to;
+	}
+
+	/**
+	 * Moves the cursor to the next row. The cursor is positioned before the
+	 * first row when opened, so next() has to be called before reading the
+	 * first row.
+	 *
+	 * @return true if the cursor was moved to a row, false if there are no
+	 *         more rows
+	 */
+	public boolean next() {
+		if (++position < page.size)
+			return true;
+
+		if (exhausted)
+			return false;
+
+		// continue after the last row read
+		if (page.size > 0) {
+			long last = page.times[page.size - 1];
+
+			if (backward)
+				to = last - 1;
+			else
+				from = last + 1;
+		}
+
+		page.size = 0;
+		position = 0;
+
+		if (from <= to) {
+			try {
+				source.read(from, to, backward, page);
+			} catch (SQLException e) {
+				System.err.println("Exception reading cursor: " + e.getMessage());
+				page.size = 0;
+			}
+		}
+
+		if (page.size == 0) {
+			exhausted = true;
+			return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns true if this cursor moves in descending order with respect to
+	 * time.
+	 *
+	 * @return true if this cursor moves in descending order with respect to
+	 *         time
+	 */
+	public boolean isBackward() {
+		return backward;
+	}
+
+	/**
+	 * Returns the time of the current row. Must only be called after next()
+	 * returned true.
+	 *
+	 * @return the time of the current row
+	 */
+	public long time() {
+		return page.times[position];
+	}
+
+	/**
+	 * Returns the value of given column of the current row.
+	 */
+	final double value(int column) {
+		return page.values[column][position];
+	}
+}
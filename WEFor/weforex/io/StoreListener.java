@@ -0,0 +1,24 @@
+package io;
+
+import com.dukascopy.api.Instrument;
+
+// @formatter:off
+/**
+ * A listener notified by ForexDataIO when ticks or bars of an instrument have
+ * been stored, once the transaction storing them is committed, e.g. to drop
+ * data of the instrument loaded before. See ForexDataIO.addStoreListener.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+public interface StoreListener {
+
+	/**
+	 * Invoked when ticks or bars of given instrument have been stored. Invoked
+	 * by the thread storing them, holding the writer lock, so it should return
+	 * quickly.
+	 *
+	 * @param instrument the instrument of the ticks or bars stored
+	 */
+	void stored(Instrument instrument);
+}
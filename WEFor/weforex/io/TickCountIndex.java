@@ -0,0 +1,172 @@
+package io;
+
+// @formatter:off
+/**
+ * Prefix-count index over the tick tables of one instrument, used by
+ * ForexDataIO to count the ticks stored before a specific time.
+ *
+ * The number of ticks of every tick table is kept in a Fenwick tree (binary
+ * indexed tree) over a contiguous range of tick table indices. Setting the
+ * size of a tick table and counting the ticks of all tick tables before a
+ * tick table index both take O(log n), n being the number of tick table
+ * indices covered by the index.
+ *
+ * The covered range grows as tick tables outside of it are set, towards
+ * later as well as towards earlier tick table indices. The covered range is
+ * at least doubled each time it grows, so the cost of growing is amortized
+ * over the sizes set.
+ *
+ * All methods are synchronized, none of them takes more than O(log n) unless
+ * the covered range has to grow.
+ *
+ * @author Dennis Ekstrom
+ */
+// @formatter:on
+class TickCountIndex {
+
+	// the number of tick table indices covered when the first size is set
+	private static final int INITIAL_CAPACITY = 1 << 10;
+
+	// the first covered tick table index
+	private long base;
+
+	// one-based Fenwick tree of tick table sizes, null if nothing is covered
+	private long[] tree;
+
+	// the number of ticks of all tick tables
+	private long total;
+
+	/**
+	 * Returns the number of ticks of the tick table of given index.
+	 *
+	 * @param tickTableIndex the index of the tick table
+	 * @return the number of ticks of the tick table of given index
+	 */
+	synchronized int get(long tickTableIndex) {
+		if (!covers(tickTableIndex))
+			return 0;
+
+		int i = (int) (tickTableIndex - base) + 1;
+
+		return (int) (prefix(i) - prefix(i - 1));
+	}
+
+	/**
+	 * Sets the number of ticks of the tick table of given index.
+	 *
+	 * @param tickTableIndex the index of the tick table
+	 * @param size the number of ticks of the tick table
+	 * @throws IllegalArgumentException if size < 0
+	 */
+	synchronized void set(long tickTableIndex, int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("size < 0");
+
+		long delta = size - get(tickTableIndex);
+
+		if (delta == 0)
+			return;
+
+		ensureCovers(tickTableIndex);
+
+		int n = tree.length - 1;
+		for (int i = (int) (tickTableIndex - base) + 1; i <= n; i += i & -i)
+			tree[i] += delta;
+
+		total += delta;
+	}
+
+	/**
+	 * Returns the number of ticks of all tick tables of index lower than given
+	 * index.
+	 *
+	 * @param tickTableIndex the index of the tick table
+	 * @return the number of ticks of all tick tables of index lower than given
+	 *         index
+	 */
+	synchronized long countBefore(long tickTableIndex) {
+		if (tree == null || tickTableIndex <= base)
+			return 0L;
+
+		// compared without subtracting, which may overflow
+		if (tickTableIndex >= base + tree.length - 1)
+			return total;
+
+		return prefix((int) (tickTableIndex - base));
+	}
+
+	/**
+	 * Returns the number of ticks of all tick tables.
+	 *
+	 * @return the number of ticks of all tick tables
+	 */
+	synchronized long total() {
+		return total;
+	}
+
+	/**
+	 * Returns the sum of the first i sizes of the tree.
+	 */
+	private long prefix(int i) {
+		long sum = 0;
+		for (; i > 0; i -= i & -i)
+			sum += tree[i];
+
+		return sum;
+	}
+
+	private boolean covers(long tickTableIndex) {
+		return tree != null && tickTableIndex >= base
+				&& tickTableIndex < base + tree.length - 1;
+	}
+
+	/**
+	 * Grows the covered range, if needed, to cover given tick table index.
+	 */
+	private void ensureCovers(long tickTableIndex) {
+		if (covers(tickTableIndex))
+			return;
+
+		if (tree == null) {
+			base = tickTableIndex;
+			tree = new long[INITIAL_CAPACITY + 1];
+			return;
+		}
+
+		int n = tree.length - 1;
+		long end = base + n;
+
+		// grow towards the new index by at least the current capacity, but
+		// not below index 0 unless the new index is
+		long newBase = base, newEnd = end;
+		if (tickTableIndex < base)
+			newBase = Math.min(tickTableIndex, Math.max(base - n, 0));
+		else
+			newEnd = Math.max(tickTableIndex + 1, end + n);
+
+		if (newEnd - newBase > Integer.MAX_VALUE - 1)
+			throw new IllegalStateException("Tick count index can't grow to cover "
+					+ tickTableIndex);
+
+		// turn the tree into plain sizes, which is building it backwards
+		for (int i = n; i > 0; i--) {
+			int j = i + (i & -i);
+			if (j <= n)
+				tree[j] -= tree[i];
+		}
+
+		long[] newTree = new long[(int) (newEnd - newBase) + 1];
+		System.arraycopy(tree, 1, newTree, (int) (base - newBase) + 1, n);
+
+		// build the new tree in linear time
+		int newN = newTree.length - 1;
+		for (int i = 1; i <= newN; i++) {
+			int j = i + (i & -i);
+			if (j <= newN)
+				newTree[j] += newTree[i];
+		}
+
+		base = newBase;
+		tree = newTree;
+	}
+}
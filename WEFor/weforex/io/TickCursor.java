@@ -0,0 +1,70 @@
+package io;
+
+import com.dukascopy.api.ITick;
+
+import forex.Tick;
+
+/**
+ * A cursor over stored ticks of one instrument, see SeriesCursor. Opened by
+ * ForexDataIO.openTicks.
+ *
+ * @author Dennis Ekstrom
+ */
+public final class TickCursor extends SeriesCursor {
+
+	// value columns, in the order of the columns of a tick table
+	static final int ASK = 0;
+	static final int BID = 1;
+	static final int ASK_VOLUME = 2;
+	static final int BID_VOLUME = 3;
+	static final int VALUE_COLUMNS = 4;
+
+	TickCursor(Source source, long from, long to, boolean backward) {
+		super(source, VALUE_COLUMNS, from, to, backward);
+	}
+
+	/**
+	 * Returns the ask of the current tick.
+	 *
+	 * @return the ask of the current tick
+	 */
+	public double ask() {
+		return value(ASK);
+	}
+
+	/**
+	 * Returns the bid of the current tick.
+	 *
+	 * @return the bid of the current tick
+	 */
+	public double bid() {
+		return value(BID);
+	}
+
+	/**
+	 * Returns the ask volume of the current tick.
+	 *
+	 * @return the ask volume of the current tick
+	 */
+	public double askVolume() {
+		return value(ASK_VOLUME);
+	}
+
+	/**
+	 * Returns the bid volume of the current tick.
+	 *
+	 * @return the bid volume of the current tick
+	 */
+	public double bidVolume() {
+		return value(BID_VOLUME);
+	}
+
+	/**
+	 * Returns a new tick holding the values of the current tick.
+	 *
+	 * @return a new tick holding the values of the current tick
+	 */
+	public ITick tick() {
+		return new Tick(time(), ask(), bid(), askVolume(), bidVolume());
+	}
+}